@@ -13,7 +13,7 @@ LOCAL_JNI_SHARED_LIBRARIES := libjni_latinime
 
 LOCAL_STATIC_JAVA_LIBRARIES := android-common
 
-#LOCAL_AAPT_FLAGS := -0 .dict
+LOCAL_AAPT_FLAGS := -0 .dict
 
 LOCAL_SDK_VERSION := current
 
@@ -1,8 +1,10 @@
 package com.s16.android;
 
+import java.io.IOException;
+
 import com.s16.app.ClipboardHelper;
 import com.s16.drawing.HomeUpDrawable;
-import com.s16.inputmethod.skeyboard.MMFontConvert;
+import com.s16.inputmethod.skeyboard.MMFontStreamConverter;
 import com.s16.inputmethod.skeyboard.R;
 
 import android.app.AlertDialog;
@@ -10,6 +12,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.text.Editable;
@@ -31,13 +34,7 @@ public class ConverterActivity extends FragmentActivity {
         public void onTextChanged(CharSequence s, int start, int before,
                 int count) {
         	if (mEditTextConverterZawgyi != null) {
-        		mEditTextConverterZawgyi.removeTextChangedListener(mTextZawgyiTextWatcher);
-        		if (!TextUtils.isEmpty(s)) {
-        			mEditTextConverterZawgyi.setText(MMFontConvert.uniToZawgyi(s));
-        		} else {
-        			mEditTextConverterZawgyi.setText("");
-    			}
-        		mEditTextConverterZawgyi.addTextChangedListener(mTextZawgyiTextWatcher);
+        		startConversion(s, true);
         	}
         }
 
@@ -58,13 +55,7 @@ public class ConverterActivity extends FragmentActivity {
         public void onTextChanged(CharSequence s, int start, int before,
                 int count) {
         	if (mEditTextConverterUnicode != null){
-        		mEditTextConverterUnicode.removeTextChangedListener(mTextUnicodeTextWatcher);
-        		if (!TextUtils.isEmpty(s)) {
-        			mEditTextConverterUnicode.setText(MMFontConvert.zawgyiToUni(s));
-        		} else {
-        			mEditTextConverterUnicode.setText("");
-        		}
-        		mEditTextConverterUnicode.addTextChangedListener(mTextUnicodeTextWatcher);
+        		startConversion(s, false);
         	}
         }
 
@@ -113,6 +104,48 @@ public class ConverterActivity extends FragmentActivity {
     
     private EditText mEditTextConverterUnicode;
     private EditText mEditTextConverterZawgyi;
+    private ConvertTask mConvertTask;
+    
+    /**
+     * Converts the text of one edit box on a background thread and shows the result in the
+     * other one, unless newer input has cancelled it in the meantime.
+     */
+    private class ConvertTask extends AsyncTask<Void, Void, CharSequence> {
+    	private final String mText;
+    	private final boolean mToZawgyi;
+    	private final MMFontStreamConverter mConverter;
+    	
+    	ConvertTask(CharSequence text, boolean toZawgyi) {
+    		mText = text.toString();
+    		mToZawgyi = toZawgyi;
+    		mConverter = new MMFontStreamConverter(toZawgyi);
+    	}
+    	
+    	void cancelConversion() {
+    		mConverter.cancel();
+    		cancel(false);
+    	}
+    	
+		@Override
+		protected CharSequence doInBackground(Void... params) {
+			final StringBuilder output = new StringBuilder(mText.length());
+			try {
+				if (!mConverter.convert(mText, output)) return null;
+			} catch (IOException e) {
+				return null;
+			}
+			return output;
+		}
+		
+		@Override
+		protected void onPostExecute(CharSequence result) {
+			if (isCancelled() || result == null) return;
+			setConvertedText(result, mToZawgyi);
+			if (mConvertTask == this) {
+				mConvertTask = null;
+			}
+		}
+    }
     
     protected Context getContext() {
     	return this;
@@ -156,6 +189,41 @@ public class ConverterActivity extends FragmentActivity {
 		buttonCopy.setOnLongClickListener(mActionItemLongClick);
 	}
 
+	@Override
+	protected void onDestroy() {
+		cancelConversion();
+		super.onDestroy();
+	}
+	
+	private void cancelConversion() {
+		if (mConvertTask != null) {
+			mConvertTask.cancelConversion();
+			mConvertTask = null;
+		}
+	}
+	
+	private void startConversion(CharSequence text, boolean toZawgyi) {
+		cancelConversion();
+		if (TextUtils.isEmpty(text)) {
+			setConvertedText("", toZawgyi);
+			return;
+		}
+		mConvertTask = new ConvertTask(text, toZawgyi);
+		mConvertTask.execute();
+	}
+	
+	private void setConvertedText(CharSequence text, boolean toZawgyi) {
+		if (toZawgyi) {
+			mEditTextConverterZawgyi.removeTextChangedListener(mTextZawgyiTextWatcher);
+			mEditTextConverterZawgyi.setText(text);
+			mEditTextConverterZawgyi.addTextChangedListener(mTextZawgyiTextWatcher);
+		} else {
+			mEditTextConverterUnicode.removeTextChangedListener(mTextUnicodeTextWatcher);
+			mEditTextConverterUnicode.setText(text);
+			mEditTextConverterUnicode.addTextChangedListener(mTextUnicodeTextWatcher);
+		}
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		return false;
@@ -1,6 +1,7 @@
 package com.s16.inputmethod.emoji;
 
 import com.s16.inputmethod.emoji.EmojiCategory;
+import com.s16.inputmethod.skeyboard.GestureStroke;
 import com.s16.inputmethod.skeyboard.KeyboardBaseView;
 import com.s16.inputmethod.skeyboard.KeyboardSwitcher;
 import com.s16.inputmethod.skeyboard.KeyboardTheme;
@@ -55,6 +56,9 @@ public class EmojiInput {
 			
 			@Override
 			public void onCancel() { }
+			
+			@Override
+			public void onGesture(GestureStroke stroke, boolean done) { }
 		};
 		
 	private View.OnClickListener mEmojiClick = new View.OnClickListener() {
@@ -114,7 +114,7 @@ public class AutoDictionary extends ExpandableDictionary {
     }
 
     @Override
-    public void loadDictionaryAsync() {
+    protected void loadWords(CompactTrie.Builder builder) {
         // Load the words that correspond to the current input locale
         Cursor cursor = query(COLUMN_LOCALE + "=?", new String[] { mLocale });
         try {
@@ -124,10 +124,9 @@ public class AutoDictionary extends ExpandableDictionary {
                 while (!cursor.isAfterLast()) {
                     String word = cursor.getString(wordIndex);
                     int frequency = cursor.getInt(frequencyIndex);
-                    // Safeguard against adding really long words. Stack may overflow due
-                    // to recursive lookup
+                    // Safeguard against adding really long words
                     if (word.length() < getMaxWordLength()) {
-                        super.addWord(word, frequency);
+                        builder.addWord(word, frequency);
                     }
                     cursor.moveToNext();
                 }
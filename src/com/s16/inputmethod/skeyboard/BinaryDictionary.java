@@ -16,14 +16,18 @@
 
 package com.s16.inputmethod.skeyboard;
 
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.util.Log;
 
 /**
@@ -44,6 +48,9 @@ public class BinaryDictionary extends Dictionary {
     private static final int MAX_WORDS = 18;
     private static final int MAX_BIGRAMS = 60;
 
+    // The native dictionary counts next letters in an array. Covers the Myanmar block
+    private static final int NATIVE_NEXT_LETTERS_SIZE = 0x10A0;
+
     private static final int TYPED_LETTER_MULTIPLIER = 2;
     private static final boolean ENABLE_MISSED_CHARACTERS = true;
 
@@ -51,22 +58,41 @@ public class BinaryDictionary extends Dictionary {
     private int mNativeDict;
     private int mDictLength;
     private int[] mInputCodes = new int[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
+    private int[] mInputWeights = new int[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
     private char[] mOutputChars = new char[MAX_WORD_LENGTH * MAX_WORDS];
     private char[] mOutputChars_bigrams = new char[MAX_WORD_LENGTH * MAX_BIGRAMS];
     private int[] mFrequencies = new int[MAX_WORDS];
     private int[] mFrequencies_bigrams = new int[MAX_BIGRAMS];
+    private int[] mNextLettersNative;
     // Keep a reference to the native dict direct buffer in Java to avoid
-    // unexpected deallocation of the direct buffer.
+    // unexpected deallocation of the direct buffer. Read-only if the dictionary is mapped.
     private ByteBuffer mNativeDictDirectBuffer;
+    // Java trie walker, used in place of the native dictionary when jni_skeyboard isn't there
+    private BinaryDictionaryEngine mJavaDict;
+    // Walks the same buffer for gestures and weighted lookups, which the native dictionary
+    // can't do
+    private BinaryDictionaryEngine mJavaWalker;
+
+    private static boolean sNativeLoaded;
+    private static boolean sUseJavaEngine;
 
     static {
         try {
             System.loadLibrary("jni_skeyboard");
+            sNativeLoaded = true;
         } catch (UnsatisfiedLinkError ule) {
-            Log.e(TAG, "Could not load native library jni_skeyboard");
+            Log.w(TAG, "Could not load native library jni_skeyboard, using Java dictionary");
         }
     }
 
+    /**
+     * Selects the Java dictionary engine for dictionaries opened after this call, even if the
+     * native library is available. The Java engine is always used when it isn't.
+     */
+    public static void setUseJavaEngine(boolean useJavaEngine) {
+        sUseJavaEngine = useJavaEngine;
+    }
+
     /**
      * Create a dictionary from a raw resource file
      * @param context application context for reading resources
@@ -106,8 +132,7 @@ public class BinaryDictionary extends Dictionary {
                 mNativeDictDirectBuffer.put(byteBuffer);
             }
             mDictLength = byteBuffer.capacity();
-            mNativeDict = openNative(mNativeDictDirectBuffer,
-                    TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+            openDictionary();
         }
         mDicTypeId = dicTypeId;
     }
@@ -123,6 +148,56 @@ public class BinaryDictionary extends Dictionary {
             int[] inputCodes, int inputCodesLength, char[] outputChars, int[] frequencies,
             int maxWordLength, int maxBigrams, int maxAlternatives);
 
+    private void openDictionary() {
+        if (sNativeLoaded && !sUseJavaEngine) {
+            mNativeDict = openNative(mNativeDictDirectBuffer,
+                    TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+        } else {
+            mJavaDict = new BinaryDictionaryEngine(mNativeDictDirectBuffer,
+                    TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+        }
+    }
+
+    private boolean isOpen() {
+        return mNativeDict != 0 || mJavaDict != null;
+    }
+
+    /**
+     * Returns the Java engine, which walks the same buffer as the native dictionary.
+     */
+    private BinaryDictionaryEngine getJavaWalker() {
+        if (mJavaWalker == null) {
+            mJavaWalker = mJavaDict != null ? mJavaDict
+                    : new BinaryDictionaryEngine(mNativeDictDirectBuffer,
+                            TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+        }
+        return mJavaWalker;
+    }
+
+    private int getSuggestions(int[] inputCodes, int codesSize, boolean weighted,
+            char[] outputChars, int[] frequencies, int skipPos,
+            NextLetterFrequencies nextLettersFrequencies) {
+        // The native interface of the prebuilt libraries takes no weights and only ever
+        // doubles the weight of the pressed key, so weighted lookups go to the Java engine
+        if (mJavaDict != null || weighted) {
+            return getJavaWalker().getSuggestions(inputCodes, mInputWeights, codesSize,
+                    outputChars, frequencies, MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES,
+                    skipPos, nextLettersFrequencies);
+        }
+        if (nextLettersFrequencies == null) {
+            return getSuggestionsNative(mNativeDict, inputCodes, codesSize, outputChars,
+                    frequencies, MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skipPos, null, 0);
+        }
+        if (mNextLettersNative == null) {
+            mNextLettersNative = new int[NATIVE_NEXT_LETTERS_SIZE];
+        }
+        final int count = getSuggestionsNative(mNativeDict, inputCodes, codesSize, outputChars,
+                frequencies, MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skipPos,
+                mNextLettersNative, NATIVE_NEXT_LETTERS_SIZE);
+        nextLettersFrequencies.addAndClear(mNextLettersNative);
+        return count;
+    }
+
     private final void loadDictionary(InputStream[] is) {
         try {
             // merging separated dictionary into one if dictionary is separated
@@ -141,8 +216,7 @@ public class BinaryDictionary extends Dictionary {
             if (got != total) {
                 Log.e(TAG, "Read " + got + " bytes, expected " + total);
             } else {
-                mNativeDict = openNative(mNativeDictDirectBuffer,
-                        TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+                openDictionary();
                 mDictLength = total;
             }
             if (mDictLength > 10000) Log.i(TAG, "Loaded dictionary, len=" + mDictLength);
@@ -163,7 +237,51 @@ public class BinaryDictionary extends Dictionary {
         }
     }
     
+    /**
+     * Maps an uncompressed raw resource read-only, instead of copying it into native memory.
+     * The pages are shared with the APK file and loaded by the kernel as they are read.
+     * @return false if the resource is compressed in the APK or couldn't be mapped
+     */
+    private boolean mapDictionary(Context context, int resId) {
+        AssetFileDescriptor afd = null;
+        FileInputStream in = null;
+        try {
+            afd = context.getResources().openRawResourceFd(resId);
+            if (afd == null) return false;
+            in = afd.createInputStream();
+            final FileChannel channel = in.getChannel();
+            final long length = afd.getLength();
+            mNativeDictDirectBuffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    afd.getStartOffset(), length).order(ByteOrder.nativeOrder());
+            // The mapping stays valid after the file is closed
+            openDictionary();
+            mDictLength = (int) length;
+            if (mDictLength > 10000) Log.i(TAG, "Mapped dictionary, len=" + mDictLength);
+            return true;
+        } catch (Resources.NotFoundException e) {
+            // Compressed resources can't be opened as a file descriptor
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map dictionary, copying it instead", e);
+            mNativeDictDirectBuffer = null;
+            return false;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                } else if (afd != null) {
+                    afd.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close dictionary file");
+            }
+        }
+    }
+
     private final void loadDictionary(Context context, int[] resId) {
+        // The dictionary engines need one contiguous buffer, so only a dictionary in a
+        // single part can be mapped
+        if (resId.length == 1 && mapDictionary(context, resId[0])) return;
     	//Log.i(TAG, "loadDictionary, resId=" + (resId == null ? "null" : (resId.length > 0 ? String.format("0x%X", resId[0]) : "0")));
         InputStream[] is = null;
         try {
@@ -184,8 +302,7 @@ public class BinaryDictionary extends Dictionary {
             if (got != total) {
                 Log.e(TAG, "Read " + got + " bytes, expected " + total);
             } else {
-                mNativeDict = openNative(mNativeDictDirectBuffer,
-                        TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+                openDictionary();
                 mDictLength = total;
             }
         } catch (IOException e) {
@@ -206,8 +323,9 @@ public class BinaryDictionary extends Dictionary {
 
     @Override
     public void getBigrams(final WordComposer codes, final CharSequence previousWord,
-            final WordCallback callback, int[] nextLettersFrequencies) {
-    	
+            final WordCallback callback, NextLetterFrequencies nextLettersFrequencies) {
+        if (!isOpen()) return;
+
         char[] chars = previousWord.toString().toCharArray();
         Arrays.fill(mOutputChars_bigrams, (char) 0);
         Arrays.fill(mFrequencies_bigrams, 0);
@@ -218,9 +336,16 @@ public class BinaryDictionary extends Dictionary {
         System.arraycopy(alternatives, 0, mInputCodes, 0,
                 Math.min(alternatives.length, MAX_ALTERNATIVES));
 
-        int count = getBigramsNative(mNativeDict, chars, chars.length, mInputCodes, codesSize,
-                mOutputChars_bigrams, mFrequencies_bigrams, MAX_WORD_LENGTH, MAX_BIGRAMS,
-                MAX_ALTERNATIVES);
+        int count;
+        if (mJavaDict != null) {
+            count = mJavaDict.getBigrams(chars, chars.length, mInputCodes, codesSize,
+                    mOutputChars_bigrams, mFrequencies_bigrams, MAX_WORD_LENGTH, MAX_BIGRAMS,
+                    MAX_ALTERNATIVES);
+        } else {
+            count = getBigramsNative(mNativeDict, chars, chars.length, mInputCodes, codesSize,
+                    mOutputChars_bigrams, mFrequencies_bigrams, MAX_WORD_LENGTH, MAX_BIGRAMS,
+                    MAX_ALTERNATIVES);
+        }
 
         for (int j = 0; j < count; j++) {
             if (mFrequencies_bigrams[j] < 1) break;
@@ -238,25 +363,26 @@ public class BinaryDictionary extends Dictionary {
 
     @Override
     public void getWords(final WordComposer codes, final WordCallback callback,
-            int[] nextLettersFrequencies) {
+            NextLetterFrequencies nextLettersFrequencies) {
         final int codesSize = codes.size();
         // Won't deal with really long words.
-        if (codesSize > MAX_WORD_LENGTH - 1) return;
+        if (codesSize > MAX_WORD_LENGTH - 1 || !isOpen()) return;
         
         Arrays.fill(mInputCodes, -1);
+        boolean weighted = false;
         for (int i = 0; i < codesSize; i++) {
             int[] alternatives = codes.getCodesAt(i);
-            System.arraycopy(alternatives, 0, mInputCodes, i * MAX_ALTERNATIVES,
-                    Math.min(alternatives.length, MAX_ALTERNATIVES));
+            final int[] weights = codes.getWeightsAt(i);
+            final int count = Math.min(alternatives.length, MAX_ALTERNATIVES);
+            System.arraycopy(alternatives, 0, mInputCodes, i * MAX_ALTERNATIVES, count);
+            System.arraycopy(weights, 0, mInputWeights, i * MAX_ALTERNATIVES, count);
+            weighted |= !hasDefaultWeights(weights, count);
         }
         Arrays.fill(mOutputChars, (char) 0);
         Arrays.fill(mFrequencies, 0);
 
-        int count = getSuggestionsNative(mNativeDict, mInputCodes, codesSize,
-                mOutputChars, mFrequencies,
-                MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1,
-                nextLettersFrequencies,
-                nextLettersFrequencies != null ? nextLettersFrequencies.length : 0);
+        int count = getSuggestions(mInputCodes, codesSize, weighted, mOutputChars,
+                mFrequencies, -1, nextLettersFrequencies);
         
         // If there aren't sufficient suggestions, search for words by allowing wild cards at
         // the different character positions. This feature is not ready for prime-time as we need
@@ -264,10 +390,8 @@ public class BinaryDictionary extends Dictionary {
         // completions.
         if (ENABLE_MISSED_CHARACTERS && count < 5) {
             for (int skip = 0; skip < codesSize; skip++) {
-                int tempCount = getSuggestionsNative(mNativeDict, mInputCodes, codesSize,
-                        mOutputChars, mFrequencies,
-                        MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skip,
-                        null, 0);
+                int tempCount = getSuggestions(mInputCodes, codesSize, weighted, mOutputChars,
+                        mFrequencies, skip, null);
                 count = Math.max(count, tempCount);
                 if (tempCount > 0) break;
             }
@@ -287,10 +411,35 @@ public class BinaryDictionary extends Dictionary {
         }
     }
 
+    /**
+     * Returns whether the weights are the ones the native dictionary applies, double for the
+     * pressed key and single for the others.
+     */
+    private static boolean hasDefaultWeights(int[] weights, int count) {
+        for (int i = 0; i < count; i++) {
+            if (weights[i] != (i == 0 ? WordComposer.MAX_WEIGHT : WordComposer.WEIGHT_UNIT)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void getGestureWords(final GestureDecoder decoder) {
+        if (!isOpen()) return;
+        final BinaryDictionaryEngine trie = getJavaWalker();
+        decoder.search(trie, trie.getRoot());
+    }
+
     @Override
     public boolean isValidWord(CharSequence word) {
-        if (word == null) return false;
+        if (word == null || !isOpen()) return false;
         char[] chars = word.toString().toCharArray();
+        // Read once, it may be closed meanwhile
+        final BinaryDictionaryEngine javaDict = mJavaDict;
+        if (javaDict != null) {
+            return javaDict.isValidWord(chars, chars.length);
+        }
         return isValidWordNative(mNativeDict, chars, chars.length);
     }
 
@@ -304,6 +453,8 @@ public class BinaryDictionary extends Dictionary {
             closeNative(mNativeDict);
             mNativeDict = 0;
         }
+        mJavaDict = null;
+        mJavaWalker = null;
     }
 
     @Override
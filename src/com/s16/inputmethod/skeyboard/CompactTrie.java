@@ -0,0 +1,693 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The word trie behind {@link ExpandableDictionary}, kept in parallel primitive arrays instead
+ * of one object per character so that large contacts or bigram dictionaries don't flood the heap
+ * with small objects.
+ *
+ * A node is an index into the node arrays; node ids never change, so parents and bigrams can
+ * refer to them directly. The children of a node are a range of {@link #mChildren}, sorted by
+ * character (with the characters repeated in {@link #mChildCodes}) and searched with a binary
+ * search. After {@link #compact()} the ranges are packed back to back. A node that gains a child
+ * after that has its range moved to the end of the array, the overflow area, where it can keep
+ * growing; the ranges left behind are merged away by the next compaction, which runs when the
+ * array would otherwise have to grow.
+ *
+ * Every node also keeps the highest frequency, the number and the greatest length of the words
+ * below it, which lets a search skip whole subtrees.
+ *
+ * A whole dictionary is loaded faster through a {@link Builder}, which creates the nodes first
+ * and then lays out every child range once, sorted and packed.
+ *
+ * A {@link #copy()} shares the arrays with the original and clones a group of them before
+ * first writing to it, so that changing the copy leaves the original as it was. That way a trie
+ * that is being read can stay unchanged while the changes are made to a copy, which then
+ * replaces it. Changing a word's frequency only clones the frequencies.
+ *
+ * The arrays are package-private so that the dictionary can walk them without accessor calls.
+ * An instance is not thread-safe, but one that no longer changes can be read from any thread.
+ */
+final class CompactTrie implements GestureDecoder.Trie {
+
+    static final int ROOT = 0;
+    static final int NOT_FOUND = -1;
+
+    /** Frequency of a node that doesn't end a word. */
+    static final int NOT_TERMINAL = -1;
+
+    private static final int INITIAL_NODES = 64;
+    private static final int MIN_GARBAGE_TO_COMPACT = 256;
+
+    // Groups of arrays that may still be shared with another trie
+    // mFrequencies and mMaxFrequencies
+    private static final int SHARED_FREQUENCIES = 0x1;
+    // The other per-node arrays, but mBigramHead, and the child ranges
+    private static final int SHARED_NODES = 0x2;
+    private static final int SHARED_BIGRAM_FREQUENCIES = 0x4;
+    // mBigramHead, mBigramWord and mBigramNext
+    private static final int SHARED_BIGRAMS = 0x8;
+    private static final int SHARED_ALL = SHARED_FREQUENCIES | SHARED_NODES
+            | SHARED_BIGRAM_FREQUENCIES | SHARED_BIGRAMS;
+
+    // Per node
+    char[] mCodes;
+    int[] mFrequencies;
+    // Highest frequency of any word at or below the node, or NOT_TERMINAL if there is none
+    int[] mMaxFrequencies;
+    // Number of words at or below the node
+    int[] mWordCounts;
+    // How much longer than the node's prefix the longest word at or below the node is
+    int[] mHeights;
+    int[] mParents;
+    int[] mChildStart;
+    int[] mChildCount;
+    private int[] mChildCapacity;
+    private int[] mBigramHead;
+    int mNodeCount;
+
+    // Child ranges
+    int[] mChildren;
+    char[] mChildCodes;
+    private int mChildrenEnd;
+    private int mGarbage;
+
+    // Bigram lists, linked in insertion order
+    int[] mBigramWord;
+    int[] mBigramFrequency;
+    int[] mBigramNext;
+    private int mBigramCount;
+
+    private int mShared;
+
+    // Lookups reading the trie, counted by TriePublisher
+    final AtomicInteger mReaders = new AtomicInteger();
+
+    /**
+     * Collects the words and bigrams of a dictionary and builds a new trie from them at once.
+     * Words can be added in any order and more than once; the result is the same as adding them
+     * one by one to an empty trie with {@link CompactTrie#addWord}, and the bigrams after them
+     * with {@link CompactTrie#searchWord} and {@link CompactTrie#addOrSetBigram}.
+     */
+    static final class Builder {
+        private String[] mWords = new String[INITIAL_NODES];
+        private int[] mWordFrequencies = new int[INITIAL_NODES];
+        private int mWordCount;
+        // The two words of each bigram, one after the other
+        private String[] mBigramWords = new String[INITIAL_NODES];
+        private int[] mBigramFrequencies = new int[INITIAL_NODES / 2];
+        private int mBigramCount;
+
+        void addWord(String word, int frequency) {
+            if (mWordCount == mWords.length) {
+                final int size = mWordCount + (mWordCount >> 1);
+                mWords = Arrays.copyOf(mWords, size);
+                mWordFrequencies = Arrays.copyOf(mWordFrequencies, size);
+            }
+            mWords[mWordCount] = word;
+            mWordFrequencies[mWordCount] = frequency;
+            mWordCount++;
+        }
+
+        /**
+         * Sets the frequency of the bigram, replacing any set before. Words that aren't added
+         * otherwise get a zero frequency.
+         */
+        void setBigram(String word1, String word2, int frequency) {
+            addWord(word1, 0);
+            addWord(word2, 0);
+            if (mBigramCount == mBigramFrequencies.length) {
+                final int size = mBigramCount + (mBigramCount >> 1);
+                mBigramWords = Arrays.copyOf(mBigramWords, size * 2);
+                mBigramFrequencies = Arrays.copyOf(mBigramFrequencies, size);
+            }
+            mBigramWords[mBigramCount * 2] = word1;
+            mBigramWords[mBigramCount * 2 + 1] = word2;
+            mBigramFrequencies[mBigramCount] = frequency;
+            mBigramCount++;
+        }
+
+        CompactTrie build() {
+            final CompactTrie trie = new CompactTrie();
+            trie.build(mWords, mWordFrequencies, mWordCount);
+            for (int b = 0; b < mBigramCount; b++) {
+                final int firstWord = trie.findWord(mBigramWords[b * 2]);
+                final int secondWord = trie.findWord(mBigramWords[b * 2 + 1]);
+                if (firstWord != NOT_FOUND && secondWord != NOT_FOUND) {
+                    trie.addOrSetBigram(firstWord, secondWord, mBigramFrequencies[b], false);
+                }
+            }
+            return trie;
+        }
+    }
+
+    CompactTrie() {
+        clear();
+    }
+
+    /**
+     * Returns a trie with the same words and bigrams, which can be changed without changing
+     * this one.
+     */
+    CompactTrie copy() {
+        final CompactTrie trie = new CompactTrie(this);
+        // Neither trie may write to the arrays in place anymore
+        mShared = SHARED_ALL;
+        return trie;
+    }
+
+    private CompactTrie(CompactTrie trie) {
+        mCodes = trie.mCodes;
+        mFrequencies = trie.mFrequencies;
+        mMaxFrequencies = trie.mMaxFrequencies;
+        mWordCounts = trie.mWordCounts;
+        mHeights = trie.mHeights;
+        mParents = trie.mParents;
+        mChildStart = trie.mChildStart;
+        mChildCount = trie.mChildCount;
+        mChildCapacity = trie.mChildCapacity;
+        mBigramHead = trie.mBigramHead;
+        mNodeCount = trie.mNodeCount;
+        mChildren = trie.mChildren;
+        mChildCodes = trie.mChildCodes;
+        mChildrenEnd = trie.mChildrenEnd;
+        mGarbage = trie.mGarbage;
+        mBigramWord = trie.mBigramWord;
+        mBigramFrequency = trie.mBigramFrequency;
+        mBigramNext = trie.mBigramNext;
+        mBigramCount = trie.mBigramCount;
+        mShared = SHARED_ALL;
+    }
+
+    void clear() {
+        mCodes = new char[INITIAL_NODES];
+        mFrequencies = new int[INITIAL_NODES];
+        mMaxFrequencies = new int[INITIAL_NODES];
+        mWordCounts = new int[INITIAL_NODES];
+        mHeights = new int[INITIAL_NODES];
+        mParents = new int[INITIAL_NODES];
+        mChildStart = new int[INITIAL_NODES];
+        mChildCount = new int[INITIAL_NODES];
+        mChildCapacity = new int[INITIAL_NODES];
+        mBigramHead = new int[INITIAL_NODES];
+        mNodeCount = 0;
+        mChildren = new int[INITIAL_NODES];
+        mChildCodes = new char[INITIAL_NODES];
+        mChildrenEnd = 0;
+        mGarbage = 0;
+        mBigramWord = new int[0];
+        mBigramFrequency = new int[0];
+        mBigramNext = new int[0];
+        mBigramCount = 0;
+        mShared = 0;
+        newNode((char) 0, NOT_FOUND);
+    }
+
+    boolean isTerminal(int node) {
+        return mFrequencies[node] != NOT_TERMINAL;
+    }
+
+    /**
+     * Returns the child of the node for the character, or NOT_FOUND.
+     */
+    int findChild(int node, char c) {
+        final int index = searchChildren(node, c);
+        return index < 0 ? NOT_FOUND : mChildren[index];
+    }
+
+    public int getChildren(int node, char[] codes, int[] frequencies, int[] children) {
+        final int start = mChildStart[node];
+        final int count = Math.min(mChildCount[node], codes.length);
+        for (int i = 0; i < count; i++) {
+            final int child = mChildren[start + i];
+            codes[i] = mChildCodes[start + i];
+            frequencies[i] = mFrequencies[child];
+            children[i] = mChildCount[child] > 0 ? child : GestureDecoder.NO_NODE;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the terminal node of the word if the word exists, or NOT_FOUND.
+     */
+    int findWord(CharSequence word) {
+        final int length = word.length();
+        int node = ROOT;
+        for (int i = 0; i < length && node != NOT_FOUND; i++) {
+            node = findChild(node, word.charAt(i));
+        }
+        if (node == ROOT || node == NOT_FOUND || !isTerminal(node)) return NOT_FOUND;
+        return node;
+    }
+
+    /**
+     * Adds the word, keeping the higher of the old and new frequency capped at 255.
+     * @return the terminal node of the word
+     */
+    int addWord(CharSequence word, int frequency) {
+        final int node = addPath(word);
+        if (node == ROOT) return NOT_FOUND;
+        if (mFrequencies[node] == NOT_TERMINAL) setTerminal(node);
+        int freq = Math.max(frequency, mFrequencies[node]);
+        if (freq > 255) freq = 255;
+        if (mFrequencies[node] != freq) {
+            own(SHARED_FREQUENCIES);
+            mFrequencies[node] = freq;
+        }
+        raiseMaxFrequency(node, freq);
+        return node;
+    }
+
+    /**
+     * Searches for the word and adds it with a zero frequency if it does not exist.
+     * @return the terminal node of the word
+     */
+    int searchWord(CharSequence word) {
+        final int node = addPath(word);
+        if (node == ROOT) return NOT_FOUND;
+        if (mFrequencies[node] == NOT_TERMINAL) {
+            setTerminal(node);
+            raiseMaxFrequency(node, 0);
+        }
+        return node;
+    }
+
+    /**
+     * Sets or adds to the frequency of the bigram from the first word to the second one.
+     * @return the final frequency
+     */
+    int addOrSetBigram(int firstWord, int secondWord, int frequency, boolean addFrequency) {
+        int last = NOT_FOUND;
+        for (int b = mBigramHead[firstWord]; b != NOT_FOUND; b = mBigramNext[b]) {
+            if (mBigramWord[b] == secondWord) {
+                own(SHARED_BIGRAM_FREQUENCIES);
+                if (addFrequency) {
+                    mBigramFrequency[b] += frequency;
+                } else {
+                    mBigramFrequency[b] = frequency;
+                }
+                return mBigramFrequency[b];
+            }
+            last = b;
+        }
+        own(SHARED_BIGRAMS | SHARED_BIGRAM_FREQUENCIES);
+        if (mBigramCount == mBigramWord.length) {
+            final int size = Math.max(16, mBigramCount + (mBigramCount >> 1));
+            mBigramWord = Arrays.copyOf(mBigramWord, size);
+            mBigramFrequency = Arrays.copyOf(mBigramFrequency, size);
+            mBigramNext = Arrays.copyOf(mBigramNext, size);
+        }
+        final int b = mBigramCount++;
+        mBigramWord[b] = secondWord;
+        mBigramFrequency[b] = frequency;
+        mBigramNext[b] = NOT_FOUND;
+        if (last == NOT_FOUND) {
+            mBigramHead[firstWord] = b;
+        } else {
+            mBigramNext[last] = b;
+        }
+        return frequency;
+    }
+
+    /**
+     * Removes the bigram from the first word to the second one, if there is one. Its entry is
+     * only unlinked from the list.
+     */
+    void removeBigram(int firstWord, int secondWord) {
+        int previous = NOT_FOUND;
+        for (int b = mBigramHead[firstWord]; b != NOT_FOUND; previous = b, b = mBigramNext[b]) {
+            if (mBigramWord[b] == secondWord) {
+                own(SHARED_BIGRAMS);
+                if (previous == NOT_FOUND) {
+                    mBigramHead[firstWord] = mBigramNext[b];
+                } else {
+                    mBigramNext[previous] = mBigramNext[b];
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Turns the word that ends at the node back into a prefix and drops its bigrams. The nodes
+     * are kept for when the word is added again; those below no word are skipped by searches
+     * through their word count and frequency. Bigrams from other words to this one have to be
+     * removed first.
+     */
+    void removeWord(int node) {
+        if (!isTerminal(node)) return;
+        own(SHARED_FREQUENCIES | SHARED_NODES | SHARED_BIGRAMS);
+        mFrequencies[node] = NOT_TERMINAL;
+        mBigramHead[node] = NOT_FOUND;
+        for (int n = node; n != NOT_FOUND; n = mParents[n]) {
+            mWordCounts[n]--;
+            int maxFrequency = mFrequencies[n];
+            int height = 0;
+            final int end = mChildStart[n] + mChildCount[n];
+            for (int i = mChildStart[n]; i < end; i++) {
+                final int child = mChildren[i];
+                if (mWordCounts[child] == 0) continue;
+                if (maxFrequency < mMaxFrequencies[child]) maxFrequency = mMaxFrequencies[child];
+                if (height < mHeights[child] + 1) height = mHeights[child] + 1;
+            }
+            mMaxFrequencies[n] = maxFrequency;
+            mHeights[n] = height;
+        }
+    }
+
+    /**
+     * Returns the first entry of the node's bigram list, or NOT_FOUND. The list continues
+     * through {@link #mBigramNext}.
+     */
+    int getBigrams(int node) {
+        return mBigramHead[node];
+    }
+
+    /**
+     * Returns the length of the word that ends at the node.
+     */
+    int getWordLength(int node) {
+        int length = 0;
+        for (int n = node; n != ROOT; n = mParents[n]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the word of the given length that ends at the node to the start of the buffer.
+     */
+    void getWord(int node, char[] buffer, int length) {
+        for (int n = node, i = length - 1; n != ROOT; n = mParents[n], i--) {
+            buffer[i] = mCodes[n];
+        }
+    }
+
+    /**
+     * Packs the child ranges back to back, drops the ranges left in the overflow area and trims
+     * all arrays to their used size.
+     */
+    void compact() {
+        own(SHARED_NODES);
+        int size = 0;
+        for (int n = 0; n < mNodeCount; n++) {
+            size += mChildCount[n];
+        }
+        final int[] children = new int[size];
+        final char[] childCodes = new char[size];
+        int end = 0;
+        for (int n = 0; n < mNodeCount; n++) {
+            final int count = mChildCount[n];
+            System.arraycopy(mChildren, mChildStart[n], children, end, count);
+            System.arraycopy(mChildCodes, mChildStart[n], childCodes, end, count);
+            mChildStart[n] = end;
+            mChildCapacity[n] = count;
+            end += count;
+        }
+        mChildren = children;
+        mChildCodes = childCodes;
+        mChildrenEnd = end;
+        mGarbage = 0;
+        resizeNodes(mNodeCount);
+        mBigramWord = Arrays.copyOf(mBigramWord, mBigramCount);
+        mBigramFrequency = Arrays.copyOf(mBigramFrequency, mBigramCount);
+        mBigramNext = Arrays.copyOf(mBigramNext, mBigramCount);
+    }
+
+    /**
+     * Fills this empty trie with the words. Children are found through a hash table while the
+     * nodes are created, so nothing is moved until the ranges are laid out at the end.
+     */
+    private void build(String[] words, int[] frequencies, int count) {
+        // Finds the child of a node by character while the child ranges aren't laid out yet,
+        // with open addressing over the node ids
+        int[] table = new int[INITIAL_NODES * 2];
+        Arrays.fill(table, NOT_FOUND);
+        for (int k = 0; k < count; k++) {
+            final String word = words[k];
+            final int length = word.length();
+            if (length == 0) continue;
+            int node = ROOT;
+            for (int i = 0; i < length; i++) {
+                final char c = word.charAt(i);
+                final int mask = table.length - 1;
+                int slot = hash(node, c) & mask;
+                int child;
+                while ((child = table[slot]) != NOT_FOUND
+                        && (mParents[child] != node || mCodes[child] != c)) {
+                    slot = (slot + 1) & mask;
+                }
+                if (child == NOT_FOUND) {
+                    child = newNode(c, node);
+                    mChildCount[node]++;
+                    table[slot] = child;
+                    if (mNodeCount * 2 > table.length) table = rehash(table.length * 2);
+                }
+                node = child;
+            }
+            final int frequency = Math.min(Math.max(frequencies[k], 0), 255);
+            if (mFrequencies[node] < frequency) mFrequencies[node] = frequency;
+        }
+        resizeNodes(mNodeCount);
+
+        // Lay out the child ranges back to back, each sorted by character
+        int end = 0;
+        for (int n = 0; n < mNodeCount; n++) {
+            mChildStart[n] = end;
+            mChildCapacity[n] = mChildCount[n];
+            end += mChildCount[n];
+            mChildCount[n] = 0;
+        }
+        mChildren = new int[end];
+        mChildCodes = new char[end];
+        mChildrenEnd = end;
+        mGarbage = 0;
+        for (int n = ROOT + 1; n < mNodeCount; n++) {
+            final int parent = mParents[n];
+            final int start = mChildStart[parent];
+            final char c = mCodes[n];
+            // Insertion sort, most nodes have few children
+            int index = start + mChildCount[parent]++;
+            while (index > start && mChildCodes[index - 1] > c) {
+                mChildren[index] = mChildren[index - 1];
+                mChildCodes[index] = mChildCodes[index - 1];
+                index--;
+            }
+            mChildren[index] = n;
+            mChildCodes[index] = c;
+        }
+
+        // Children come after their parent, so going backwards visits them first
+        for (int n = mNodeCount - 1; n >= ROOT; n--) {
+            if (mFrequencies[n] != NOT_TERMINAL) {
+                mWordCounts[n]++;
+                if (mMaxFrequencies[n] < mFrequencies[n]) mMaxFrequencies[n] = mFrequencies[n];
+            }
+            final int parent = mParents[n];
+            if (parent == NOT_FOUND) continue;
+            mWordCounts[parent] += mWordCounts[n];
+            if (mHeights[parent] < mHeights[n] + 1) mHeights[parent] = mHeights[n] + 1;
+            if (mMaxFrequencies[parent] < mMaxFrequencies[n]) {
+                mMaxFrequencies[parent] = mMaxFrequencies[n];
+            }
+        }
+    }
+
+    private static int hash(int node, char c) {
+        final int h = node * 31 + c;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns a table of the given size holding all nodes but the root, for build().
+     */
+    private int[] rehash(int size) {
+        final int[] table = new int[size];
+        Arrays.fill(table, NOT_FOUND);
+        final int mask = size - 1;
+        for (int n = ROOT + 1; n < mNodeCount; n++) {
+            int slot = hash(mParents[n], mCodes[n]) & mask;
+            while (table[slot] != NOT_FOUND) slot = (slot + 1) & mask;
+            table[slot] = n;
+        }
+        return table;
+    }
+
+    private void setTerminal(int node) {
+        own(SHARED_FREQUENCIES | SHARED_NODES);
+        mFrequencies[node] = 0;
+        for (int n = node, height = 0; n != NOT_FOUND; n = mParents[n], height++) {
+            mWordCounts[n]++;
+            if (mHeights[n] < height) mHeights[n] = height;
+        }
+    }
+
+    private void raiseMaxFrequency(int node, int frequency) {
+        if (mMaxFrequencies[node] < frequency) own(SHARED_FREQUENCIES);
+        for (int n = node; n != NOT_FOUND && mMaxFrequencies[n] < frequency; n = mParents[n]) {
+            mMaxFrequencies[n] = frequency;
+        }
+    }
+
+    private int addPath(CharSequence word) {
+        final int length = word.length();
+        int node = ROOT;
+        for (int i = 0; i < length; i++) {
+            final char c = word.charAt(i);
+            final int index = searchChildren(node, c);
+            node = index >= 0 ? mChildren[index] : insertChild(node, c, -(index + 1));
+        }
+        return node;
+    }
+
+    /**
+     * Binary search over the children of the node.
+     * @return the index into mChildren, or -(insertion point + 1) if there is no such child
+     */
+    private int searchChildren(int node, char c) {
+        final char[] codes = mChildCodes;
+        int low = mChildStart[node];
+        int high = low + mChildCount[node] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midCode = codes[mid];
+            if (midCode < c) {
+                low = mid + 1;
+            } else if (midCode > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int insertChild(int parent, char c, int insertAt) {
+        final int child = newNode(c, parent);
+        final int count = mChildCount[parent];
+        if (count == mChildCapacity[parent]) {
+            final int offset = insertAt - mChildStart[parent];
+            moveChildren(parent, count == 0 ? 1 : count * 2);
+            insertAt = mChildStart[parent] + offset;
+        }
+        final int end = mChildStart[parent] + count;
+        System.arraycopy(mChildren, insertAt, mChildren, insertAt + 1, end - insertAt);
+        System.arraycopy(mChildCodes, insertAt, mChildCodes, insertAt + 1, end - insertAt);
+        mChildren[insertAt] = child;
+        mChildCodes[insertAt] = c;
+        mChildCount[parent] = count + 1;
+        return child;
+    }
+
+    /**
+     * Moves the children of the node to the overflow area with the given capacity.
+     */
+    private void moveChildren(int node, int capacity) {
+        final int count = mChildCount[node];
+        if (mChildrenEnd + capacity > mChildren.length) {
+            if (mGarbage > MIN_GARBAGE_TO_COMPACT && mGarbage > mChildrenEnd / 2) {
+                compact();
+            }
+            if (mChildrenEnd + capacity > mChildren.length) {
+                final int size = Math.max(mChildrenEnd + capacity,
+                        mChildren.length + (mChildren.length >> 1));
+                mChildren = Arrays.copyOf(mChildren, size);
+                mChildCodes = Arrays.copyOf(mChildCodes, size);
+            }
+        }
+        final int start = mChildStart[node];
+        if (start + mChildCapacity[node] == mChildrenEnd && count > 0) {
+            // Already the last range, just extend it
+            mChildrenEnd = start + capacity;
+        } else {
+            System.arraycopy(mChildren, start, mChildren, mChildrenEnd, count);
+            System.arraycopy(mChildCodes, start, mChildCodes, mChildrenEnd, count);
+            mGarbage += mChildCapacity[node];
+            mChildStart[node] = mChildrenEnd;
+            mChildrenEnd += capacity;
+        }
+        mChildCapacity[node] = capacity;
+    }
+
+    private int newNode(char c, int parent) {
+        own(SHARED_ALL);
+        if (mNodeCount == mCodes.length) {
+            resizeNodes(Math.max(INITIAL_NODES, mNodeCount + (mNodeCount >> 1)));
+        }
+        final int node = mNodeCount++;
+        mCodes[node] = c;
+        mFrequencies[node] = NOT_TERMINAL;
+        mMaxFrequencies[node] = NOT_TERMINAL;
+        mWordCounts[node] = 0;
+        mHeights[node] = 0;
+        mParents[node] = parent;
+        mChildStart[node] = 0;
+        mChildCount[node] = 0;
+        mChildCapacity[node] = 0;
+        mBigramHead[node] = NOT_FOUND;
+        return node;
+    }
+
+    /**
+     * Clones the arrays of the groups that are still shared, before writing to them.
+     */
+    private void own(int groups) {
+        final int shared = mShared & groups;
+        if (shared == 0) return;
+        if ((shared & SHARED_FREQUENCIES) != 0) {
+            mFrequencies = mFrequencies.clone();
+            mMaxFrequencies = mMaxFrequencies.clone();
+        }
+        if ((shared & SHARED_NODES) != 0) {
+            mCodes = mCodes.clone();
+            mWordCounts = mWordCounts.clone();
+            mHeights = mHeights.clone();
+            mParents = mParents.clone();
+            mChildStart = mChildStart.clone();
+            mChildCount = mChildCount.clone();
+            mChildCapacity = mChildCapacity.clone();
+            mChildren = mChildren.clone();
+            mChildCodes = mChildCodes.clone();
+        }
+        if ((shared & SHARED_BIGRAM_FREQUENCIES) != 0) {
+            mBigramFrequency = mBigramFrequency.clone();
+        }
+        if ((shared & SHARED_BIGRAMS) != 0) {
+            mBigramHead = mBigramHead.clone();
+            mBigramWord = mBigramWord.clone();
+            mBigramNext = mBigramNext.clone();
+        }
+        mShared &= ~shared;
+    }
+
+    private void resizeNodes(int size) {
+        mCodes = Arrays.copyOf(mCodes, size);
+        mFrequencies = Arrays.copyOf(mFrequencies, size);
+        mMaxFrequencies = Arrays.copyOf(mMaxFrequencies, size);
+        mWordCounts = Arrays.copyOf(mWordCounts, size);
+        mHeights = Arrays.copyOf(mHeights, size);
+        mParents = Arrays.copyOf(mParents, size);
+        mChildStart = Arrays.copyOf(mChildStart, size);
+        mChildCount = Arrays.copyOf(mChildCount, size);
+        mChildCapacity = Arrays.copyOf(mChildCapacity, size);
+        mBigramHead = Arrays.copyOf(mBigramHead, size);
+    }
+}
@@ -16,15 +16,31 @@
 
 package com.s16.inputmethod.skeyboard;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.Build;
 import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 import android.text.TextUtils;
 import android.util.Log;
 
+/**
+ * The words of the contact names, and the pairs of consecutive words as bigrams.
+ *
+ * After the first load, only the names of the contacts that changed are applied to the words.
+ * The loaded name of each contact is kept, along with how many names each word and each pair
+ * comes from, so that a word goes away only with the last name using it. Changed contacts are
+ * found through their last update time and the deleted contacts table where the platform has
+ * them, and by comparing all names with the loaded ones otherwise.
+ */
 public class ContactsDictionary extends ExpandableDictionary {
 
     private static final String[] PROJECTION = {
@@ -40,12 +56,26 @@ public class ContactsDictionary extends ExpandableDictionary {
     private static final int FREQUENCY_FOR_CONTACTS = 128;
     private static final int FREQUENCY_FOR_CONTACTS_BIGRAM = 90;
 
+    private static final int INDEX_ID = 0;
     private static final int INDEX_NAME = 1;
 
+    // Separates the words of a bigram in mBigramCounts, never part of a word
+    private static final char BIGRAM_SEPARATOR = ' ';
+
     private ContentObserver mObserver;
 
     private long mLastLoadedContacts;
 
+    // Only used by the loading task, which runs one at a time. The loaded names by contact id,
+    // or null if the contacts have to be loaded again
+    private HashMap<Long, String> mNames;
+    // How many loaded names each word, and each bigram, comes from
+    private HashMap<String, Integer> mWordCounts;
+    private HashMap<String, Integer> mBigramCounts;
+    // Wall clock time the last load started at, to query what changed since
+    private long mLastSync;
+    private final ArrayList<String> mNameWords = new ArrayList<String>();
+
     public ContactsDictionary(Context context, int dicTypeId) {
         super(context, dicTypeId);
         // Perform a managed query. The Activity will handle closing and requerying the cursor
@@ -73,80 +103,252 @@ public class ContactsDictionary extends ExpandableDictionary {
 
     @Override
     public void startDictionaryLoadingTaskLocked() {
+        // Without change tracking, every load reads all contacts
         long now = SystemClock.uptimeMillis();
-        if (mLastLoadedContacts == 0
+        if (hasChangeTracking() || mLastLoadedContacts == 0
                 || now - mLastLoadedContacts > 30 * 60 * 1000 /* 30 minutes */) {
             super.startDictionaryLoadingTaskLocked();
         }
     }
 
     @Override
-    public void loadDictionaryAsync() {
+    protected void loadWords(CompactTrie.Builder builder) {
+        final long sync = System.currentTimeMillis();
+        final HashMap<Long, String> names = new HashMap<Long, String>();
+        mNames = null;
         try {
             Cursor cursor = getContext().getContentResolver()
                     .query(Contacts.CONTENT_URI, PROJECTION, null, null, null);
-            if (cursor != null) {
-                addWords(cursor);
+            if (cursor != null && !readNames(cursor, names)) return;
+        } catch(IllegalStateException e) {
+            Log.e(TAG, "Contacts DB is having problems");
+            return;
+        } finally {
+            mLastLoadedContacts = SystemClock.uptimeMillis();
+        }
+
+        mWordCounts = new HashMap<String, Integer>();
+        mBigramCounts = new HashMap<String, Integer>();
+        final ArrayList<String> words = new ArrayList<String>();
+        final ArrayList<String> bigrams = new ArrayList<String>();
+        for (String name : names.values()) {
+            countWords(name, 1, words, bigrams);
+        }
+        for (int i = 0; i < words.size(); i++) {
+            builder.addWord(words.get(i), FREQUENCY_FOR_CONTACTS);
+        }
+        for (int i = 0; i < bigrams.size(); i++) {
+            final String bigram = bigrams.get(i);
+            final int separator = bigram.indexOf(BIGRAM_SEPARATOR);
+            builder.setBigram(bigram.substring(0, separator), bigram.substring(separator + 1),
+                    FREQUENCY_FOR_CONTACTS_BIGRAM);
+        }
+        mNames = names;
+        mLastSync = sync;
+    }
+
+    @Override
+    protected boolean updateWords() {
+        if (mNames == null) return false;
+        final long sync = System.currentTimeMillis();
+        // The new name of each changed contact, null if it was deleted
+        final HashMap<Long, String> changes = new HashMap<Long, String>();
+        try {
+            if (hasChangeTracking()) {
+                if (!readChanges(changes)) return false;
+            } else {
+                final HashMap<Long, String> names = new HashMap<Long, String>();
+                Cursor cursor = getContext().getContentResolver()
+                        .query(Contacts.CONTENT_URI, PROJECTION, null, null, null);
+                if (cursor == null || !readNames(cursor, names)) return false;
+                for (Map.Entry<Long, String> entry : names.entrySet()) {
+                    if (!TextUtils.equals(entry.getValue(), mNames.get(entry.getKey()))) {
+                        changes.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                for (Long id : mNames.keySet()) {
+                    if (!names.containsKey(id)) changes.put(id, null);
+                }
+                mLastLoadedContacts = SystemClock.uptimeMillis();
             }
         } catch(IllegalStateException e) {
             Log.e(TAG, "Contacts DB is having problems");
+            return false;
         }
-        mLastLoadedContacts = SystemClock.uptimeMillis();
+        applyChanges(changes);
+        mLastSync = sync;
+        return true;
     }
 
-    private void addWords(Cursor cursor) {
-        clearDictionary();
+    private static boolean hasChangeTracking() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
 
-        final int maxWordLength = getMaxWordLength();
+    /**
+     * Reads the contacts updated or deleted since the last load into the map.
+     * @return false if they couldn't be read, or deleted contacts may have been forgotten
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private boolean readChanges(HashMap<Long, String> changes) {
+        if (System.currentTimeMillis() - mLastSync > DeletedContacts.DAYS_KEPT_MILLISECONDS) {
+            return false;
+        }
+        final ContentResolver resolver = getContext().getContentResolver();
+        // Anything changed in the same millisecond as the last load is read again
+        final String[] selectionArgs = { Long.toString(mLastSync) };
+        Cursor cursor = resolver.query(Contacts.CONTENT_URI, PROJECTION,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?", selectionArgs, null);
+        if (cursor == null || !readNames(cursor, changes)) return false;
+
+        cursor = resolver.query(DeletedContacts.CONTENT_URI,
+                new String[] { DeletedContacts.CONTACT_ID },
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + " >= ?", selectionArgs, null);
+        if (cursor == null) return false;
+        try {
+            while (cursor.moveToNext()) {
+                changes.put(cursor.getLong(INDEX_ID), null);
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the name of each contact into the map, by id, and closes the cursor.
+     * @return false if the contacts couldn't be read
+     */
+    private static boolean readNames(Cursor cursor, HashMap<Long, String> names) {
         try {
             if (cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
-                    String name = cursor.getString(INDEX_NAME);
-
-                    if (name != null) {
-                        int len = name.length();
-                        String prevWord = null;
-
-                        // TODO: Better tokenization for non-Latin writing systems
-                        for (int i = 0; i < len; i++) {
-                            if (Character.isLetter(name.charAt(i))) {
-                                int j;
-                                for (j = i + 1; j < len; j++) {
-                                    char c = name.charAt(j);
-
-                                    if (!(c == '-' || c == '\'' ||
-                                          Character.isLetter(c))) {
-                                        break;
-                                    }
-                                }
-
-                                String word = name.substring(i, j);
-                                i = j - 1;
-
-                                // Safeguard against adding really long words. Stack
-                                // may overflow due to recursion
-                                // Also don't add single letter words, possibly confuses
-                                // capitalization of i.
-                                final int wordLen = word.length();
-                                if (wordLen < maxWordLength && wordLen > 1) {
-                                    super.addWord(word, FREQUENCY_FOR_CONTACTS);
-                                    if (!TextUtils.isEmpty(prevWord)) {
-                                        // TODO Do not add email address
-                                        // Not so critical
-                                        super.setBigram(prevWord, word,
-                                                FREQUENCY_FOR_CONTACTS_BIGRAM);
-                                    }
-                                    prevWord = word;
-                                }
-                            }
-                        }
-                    }
+                    names.put(cursor.getLong(INDEX_ID), cursor.getString(INDEX_NAME));
                     cursor.moveToNext();
                 }
             }
-            cursor.close();
+            return true;
         } catch(IllegalStateException e) {
             Log.e(TAG, "Contacts DB is having problems");
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replaces the loaded names of the contacts with the new ones, adding the words and bigrams
+     * that no other name had and removing those that no other name has.
+     */
+    private void applyChanges(HashMap<Long, String> changes) {
+        final ArrayList<String> oldNames = new ArrayList<String>();
+        final ArrayList<String> newNames = new ArrayList<String>();
+        for (Map.Entry<Long, String> entry : changes.entrySet()) {
+            final String name = entry.getValue();
+            final String oldName = name != null
+                    ? mNames.put(entry.getKey(), name) : mNames.remove(entry.getKey());
+            if (TextUtils.equals(name, oldName)) continue;
+            if (oldName != null) oldNames.add(oldName);
+            if (name != null) newNames.add(name);
+        }
+        if (oldNames.isEmpty() && newNames.isEmpty()) return;
+
+        // Counted up first, so that a word kept by a renamed contact never drops to zero
+        final ArrayList<String> addedWords = new ArrayList<String>();
+        final ArrayList<String> addedBigrams = new ArrayList<String>();
+        for (int i = 0; i < newNames.size(); i++) {
+            countWords(newNames.get(i), 1, addedWords, addedBigrams);
+        }
+        final ArrayList<String> removedWords = new ArrayList<String>();
+        final ArrayList<String> removedBigrams = new ArrayList<String>();
+        for (int i = 0; i < oldNames.size(); i++) {
+            countWords(oldNames.get(i), -1, removedWords, removedBigrams);
+        }
+
+        for (int i = 0; i < removedBigrams.size(); i++) {
+            final String bigram = removedBigrams.get(i);
+            final int separator = bigram.indexOf(BIGRAM_SEPARATOR);
+            removeBigram(bigram.substring(0, separator), bigram.substring(separator + 1));
+        }
+        for (int i = 0; i < removedWords.size(); i++) {
+            removeWord(removedWords.get(i));
+        }
+        for (int i = 0; i < addedWords.size(); i++) {
+            addWord(addedWords.get(i), FREQUENCY_FOR_CONTACTS);
+        }
+        for (int i = 0; i < addedBigrams.size(); i++) {
+            final String bigram = addedBigrams.get(i);
+            final int separator = bigram.indexOf(BIGRAM_SEPARATOR);
+            setBigram(bigram.substring(0, separator), bigram.substring(separator + 1),
+                    FREQUENCY_FOR_CONTACTS_BIGRAM);
+        }
+    }
+
+    /**
+     * Adds delta to the counts of the words of the name and of the bigrams between them.
+     * Those whose count goes up from zero or down to zero are added to the lists.
+     */
+    private void countWords(String name, int delta, ArrayList<String> words,
+            ArrayList<String> bigrams) {
+        if (name == null) return;
+        final ArrayList<String> nameWords = mNameWords;
+        splitName(name, nameWords);
+        String prevWord = null;
+        for (int i = 0; i < nameWords.size(); i++) {
+            final String word = nameWords.get(i);
+            if (count(mWordCounts, word, delta)) words.add(word);
+            if (prevWord != null) {
+                // TODO Do not add email address
+                // Not so critical
+                final String bigram = prevWord + BIGRAM_SEPARATOR + word;
+                if (count(mBigramCounts, bigram, delta)) bigrams.add(bigram);
+            }
+            prevWord = word;
+        }
+    }
+
+    /**
+     * @return whether the count went up from zero or down to zero
+     */
+    private static boolean count(HashMap<String, Integer> counts, String key, int delta) {
+        final Integer count = counts.get(key);
+        final int newCount = (count != null ? count : 0) + delta;
+        if (newCount > 0) {
+            counts.put(key, newCount);
+        } else {
+            counts.remove(key);
+        }
+        return count == null || newCount <= 0;
+    }
+
+    private void splitName(String name, ArrayList<String> words) {
+        final int maxWordLength = getMaxWordLength();
+        words.clear();
+        int len = name.length();
+
+        // TODO: Better tokenization for non-Latin writing systems
+        for (int i = 0; i < len; i++) {
+            if (Character.isLetter(name.charAt(i))) {
+                int j;
+                for (j = i + 1; j < len; j++) {
+                    char c = name.charAt(j);
+
+                    if (!(c == '-' || c == '\'' ||
+                          Character.isLetter(c))) {
+                        break;
+                    }
+                }
+
+                String word = name.substring(i, j);
+                i = j - 1;
+
+                // Safeguard against adding really long words.
+                // Also don't add single letter words, possibly confuses
+                // capitalization of i.
+                final int wordLen = word.length();
+                if (wordLen < maxWordLength && wordLen > 1) {
+                    words.add(word);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The most recently committed words, with the keys typed for them and the suggestions they
+ * had, so that touching one of them again offers the same corrections.
+ *
+ * Entries are kept in a ring of {@link #CAPACITY} slots, the oldest being overwritten, and
+ * found through a map from the committed word to its slot. The keys of an entry are kept in
+ * primitive arrays that are reused when the slot is overwritten. Only used on the main thread.
+ */
+final class CorrectionHistory {
+
+    static final int CAPACITY = 64;
+    static final int NOT_FOUND = -1;
+
+    private final String[] mChosenWords = new String[CAPACITY];
+    private final String[] mTypedWords = new String[CAPACITY];
+    // The codes of all keystrokes and their weights, back to back, and where the codes of each
+    // one end
+    private final int[][] mCodes = new int[CAPACITY][];
+    private final int[][] mWeights = new int[CAPACITY][];
+    private final int[][] mCodeEnds = new int[CAPACITY][];
+    private final boolean[] mFirstCharCapitalized = new boolean[CAPACITY];
+    private final boolean[] mAutoCapitalized = new boolean[CAPACITY];
+    private final ArrayList<List<CharSequence>> mSuggestions =
+            new ArrayList<List<CharSequence>>(CAPACITY);
+    private final HashMap<String, Integer> mIndex = new HashMap<String, Integer>();
+    // The slot the next entry goes to
+    private int mNext;
+
+    CorrectionHistory() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mSuggestions.add(null);
+        }
+    }
+
+    /**
+     * Remembers the keys typed for a committed word, replacing the oldest entry when full.
+     * @param suggestions the suggestions shown for the keys, or null to look them up when
+     *        they are needed
+     */
+    void add(CharSequence chosenWord, WordComposer word, List<CharSequence> suggestions) {
+        final int slot = mNext;
+        mNext = (mNext + 1) % CAPACITY;
+        final String old = mChosenWords[slot];
+        if (old != null) {
+            final Integer oldSlot = mIndex.get(old);
+            if (oldSlot != null && oldSlot == slot) mIndex.remove(old);
+        }
+
+        final int size = word.size();
+        int codeCount = 0;
+        for (int i = 0; i < size; i++) {
+            codeCount += word.getCodesAt(i).length;
+        }
+        int[] codes = mCodes[slot];
+        int[] weights = mWeights[slot];
+        if (codes == null || codes.length < codeCount) {
+            codes = mCodes[slot] = new int[codeCount];
+            weights = mWeights[slot] = new int[codeCount];
+        }
+        int[] codeEnds = mCodeEnds[slot];
+        if (codeEnds == null || codeEnds.length < size) {
+            codeEnds = mCodeEnds[slot] = new int[size];
+        }
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            final int[] keyCodes = word.getCodesAt(i);
+            System.arraycopy(keyCodes, 0, codes, end, keyCodes.length);
+            System.arraycopy(word.getWeightsAt(i), 0, weights, end, keyCodes.length);
+            end += keyCodes.length;
+            codeEnds[i] = end;
+        }
+
+        final String chosen = chosenWord.toString();
+        mChosenWords[slot] = chosen;
+        mTypedWords[slot] = word.getTypedWord().toString();
+        mFirstCharCapitalized[slot] = word.isFirstCharCapitalized();
+        mAutoCapitalized[slot] = word.isAutoCapitalized();
+        mSuggestions.set(slot, suggestions);
+        // The latest entry for a word wins
+        mIndex.put(chosen, slot);
+    }
+
+    /**
+     * Returns the slot of the latest entry for the committed word, or NOT_FOUND.
+     */
+    int find(CharSequence chosenWord) {
+        final Integer slot = mIndex.get(chosenWord.toString());
+        return slot != null ? slot : NOT_FOUND;
+    }
+
+    /**
+     * Returns the keys typed for the entry, as a new composer.
+     */
+    WordComposer getWord(int slot) {
+        final WordComposer word = new WordComposer();
+        final String typedWord = mTypedWords[slot];
+        final int[] codes = mCodes[slot];
+        final int[] weights = mWeights[slot];
+        final int[] codeEnds = mCodeEnds[slot];
+        int start = 0;
+        for (int i = 0; i < typedWord.length(); i++) {
+            final int[] keyCodes = new int[codeEnds[i] - start];
+            final int[] keyWeights = new int[keyCodes.length];
+            System.arraycopy(codes, start, keyCodes, 0, keyCodes.length);
+            System.arraycopy(weights, start, keyWeights, 0, keyWeights.length);
+            start = codeEnds[i];
+            word.add(typedWord.charAt(i), keyCodes, keyWeights,
+                    WordComposer.NOT_A_COORDINATE, WordComposer.NOT_A_COORDINATE);
+        }
+        word.setFirstCharCapitalized(mFirstCharCapitalized[slot]);
+        word.setAutoCapitalized(mAutoCapitalized[slot]);
+        return word;
+    }
+
+    /**
+     * Returns the suggestions of the entry, or null if they haven't been looked up.
+     */
+    List<CharSequence> getSuggestions(int slot) {
+        return mSuggestions.get(slot);
+    }
+
+    void setSuggestions(int slot, List<CharSequence> suggestions) {
+        mSuggestions.set(slot, suggestions);
+    }
+
+    void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mChosenWords[i] = null;
+            mTypedWords[i] = null;
+            mSuggestions.set(i, null);
+        }
+        mIndex.clear();
+        mNext = 0;
+    }
+}
@@ -54,6 +54,15 @@ abstract public class Dictionary {
          */
         boolean addWord(char[] word, int wordOffset, int wordLength, int frequency, int dicTypeId,
                 DataType dataType);
+
+        /**
+         * Returns the frequency that a word has to exceed to be kept by
+         * {@link #addWord(char[], int, int, int, int, DataType)} right now. A word that is the
+         * same as the typed word may be kept regardless.
+         * @param dataType the type of the words to be added
+         * @return the threshold, or 0 if every word with a positive frequency is kept
+         */
+        int getFrequencyThreshold(DataType dataType);
     }
 
     /**
@@ -61,27 +70,36 @@ abstract public class Dictionary {
      * words are added through the callback object.
      * @param composer the key sequence to match
      * @param callback the callback object to send matched words to as possible candidates
-     * @param nextLettersFrequencies array of frequencies of next letters that could follow the
-     *        word so far. For instance, "bracke" can be followed by "t", so array['t'] will have
-     *        a non-zero value on returning from this method. 
+     * @param nextLettersFrequencies frequencies of next letters that could follow the
+     *        word so far. For instance, "bracke" can be followed by "t", so 't' will have
+     *        a non-zero frequency on returning from this method. 
      *        Pass in null if you don't want the dictionary to look up next letters.
      * @see WordCallback#addWord(char[], int, int)
      */
     abstract public void getWords(final WordComposer composer, final WordCallback callback,
-            int[] nextLettersFrequencies);
+            NextLetterFrequencies nextLettersFrequencies);
 
     /**
      * Searches for pairs in the bigram dictionary that matches the previous word and all the
      * possible words following are added through the callback object.
      * @param composer the key sequence to match
      * @param callback the callback object to send possible word following previous word
-     * @param nextLettersFrequencies array of frequencies of next letters that could follow the
-     *        word so far. For instance, "bracke" can be followed by "t", so array['t'] will have
-     *        a non-zero value on returning from this method.
+     * @param nextLettersFrequencies frequencies of next letters that could follow the
+     *        word so far. For instance, "bracke" can be followed by "t", so 't' will have
+     *        a non-zero frequency on returning from this method.
      *        Pass in null if you don't want the dictionary to look up next letters.
      */
     public void getBigrams(final WordComposer composer, final CharSequence previousWord,
-            final WordCallback callback, int[] nextLettersFrequencies) {
+            final WordCallback callback, NextLetterFrequencies nextLettersFrequencies) {
+        // empty base implementation
+    }
+
+    /**
+     * Adds the words of the dictionary that match the stroke set on the decoder to the words
+     * it found. Dictionaries that can't be walked letter by letter add nothing.
+     * @param decoder the decoder the stroke was set on
+     */
+    public void getGestureWords(final GestureDecoder decoder) {
         // empty base implementation
     }
 
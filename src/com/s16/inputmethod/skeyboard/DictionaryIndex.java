@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+/**
+ * The dictionary parts listed in res/xml/dictionary.xml, with the size and word count recorded
+ * for each of them, so that finding out which locales have a dictionary doesn't open any.
+ *
+ * The list is read once per process. Parts without a locale are only used when no locale is
+ * given.
+ */
+final class DictionaryIndex {
+
+    private static final String TAG = "DictionaryIndex";
+
+    private static final class Part {
+        final String mLocale;
+        final int mResId;
+        // Of the raw resource
+        final int mSize;
+        final int mWordCount;
+
+        Part(String locale, int resId, int size, int wordCount) {
+            mLocale = locale;
+            mResId = resId;
+            mSize = size;
+            mWordCount = wordCount;
+        }
+
+        boolean matches(Locale locale) {
+            if (locale == null) return true;
+            return mLocale != null && mLocale.equalsIgnoreCase(locale.toString());
+        }
+    }
+
+    private static DictionaryIndex sInstance;
+
+    private final ArrayList<Part> mParts = new ArrayList<Part>();
+
+    static synchronized DictionaryIndex getInstance(Resources res) {
+        if (sInstance == null) {
+            sInstance = new DictionaryIndex(res);
+        }
+        return sInstance;
+    }
+
+    private DictionaryIndex(Resources res) {
+        final String packageName = LatinIME.class.getPackage().getName();
+        final XmlResourceParser xrp = res.getXml(R.xml.dictionary);
+        try {
+            int current = xrp.getEventType();
+            while (current != XmlResourceParser.END_DOCUMENT) {
+                if (current == XmlResourceParser.START_TAG && "part".equals(xrp.getName())) {
+                    final String name = xrp.getAttributeValue(null, "name");
+                    mParts.add(new Part(xrp.getAttributeValue(null, "locale"),
+                            res.getIdentifier(name, "raw", packageName),
+                            xrp.getAttributeIntValue(null, "size", 0),
+                            xrp.getAttributeIntValue(null, "words", 0)));
+                }
+                xrp.next();
+                current = xrp.getEventType();
+            }
+        } catch (XmlPullParserException e) {
+            Log.e(TAG, "Dictionary XML parsing failure");
+        } catch (IOException e) {
+            Log.e(TAG, "Dictionary XML IOException");
+        } finally {
+            xrp.close();
+        }
+    }
+
+    /**
+     * Returns the resource ids of the parts of the dictionary for the locale, in the order they
+     * are listed.
+     */
+    int[] getResourceIds(Locale locale) {
+        int count = 0;
+        for (int i = 0; i < mParts.size(); i++) {
+            if (mParts.get(i).matches(locale)) count++;
+        }
+        final int[] resIds = new int[count];
+        count = 0;
+        for (int i = 0; i < mParts.size(); i++) {
+            final Part part = mParts.get(i);
+            if (part.matches(locale)) resIds[count++] = part.mResId;
+        }
+        return resIds;
+    }
+
+    /**
+     * Returns the total size of the parts with the resource ids, in bytes.
+     */
+    int getSize(int[] resIds) {
+        int size = 0;
+        for (int i = 0; i < mParts.size(); i++) {
+            final Part part = mParts.get(i);
+            for (int j = 0; j < resIds.length; j++) {
+                if (part.mResId == resIds[j]) {
+                    size += part.mSize;
+                    break;
+                }
+            }
+        }
+        return size;
+    }
+
+    int getWordCount(Locale locale) {
+        int wordCount = 0;
+        for (int i = 0; i < mParts.size(); i++) {
+            final Part part = mParts.get(i);
+            if (part.matches(locale)) wordCount += part.mWordCount;
+        }
+        return wordCount;
+    }
+}
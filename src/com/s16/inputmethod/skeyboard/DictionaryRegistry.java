@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Keeps the dictionaries of recently used input locales open, so that switching back to a
+ * language doesn't load them again.
+ *
+ * Entries are reference counted. Entries nobody holds stay open until more than
+ * {@link #MAX_ENTRIES} locales are cached, least recently used first, or until memory runs
+ * low. Only used on the main thread.
+ */
+final class DictionaryRegistry {
+
+    /**
+     * The dictionaries of one input locale. The contacts dictionary doesn't depend on the
+     * locale and isn't part of it.
+     */
+    static final class Entry {
+        final String mLocale;
+        final Suggest mSuggest;
+        final UserDictionary mUserDictionary;
+        final AutoDictionary mAutoDictionary;
+        final UserBigramDictionary mUserBigramDictionary;
+        private int mRefCount;
+
+        Entry(String locale, Suggest suggest, UserDictionary userDictionary,
+                AutoDictionary autoDictionary, UserBigramDictionary userBigramDictionary) {
+            mLocale = locale;
+            mSuggest = suggest;
+            mUserDictionary = userDictionary;
+            mAutoDictionary = autoDictionary;
+            mUserBigramDictionary = userBigramDictionary;
+        }
+
+        private void close() {
+            mSuggest.close();
+            mUserDictionary.close();
+            mAutoDictionary.close();
+            mUserBigramDictionary.close();
+        }
+    }
+
+    // The current locale and the ones a bilingual user switches to
+    static final int MAX_ENTRIES = 3;
+
+    // In access order, least recently used first
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES + 1, 0.75f, true);
+
+    /**
+     * Returns the open dictionaries of the locale, or null if they have to be created and
+     * {@link #add added}. Each entry returned must be {@link #release released}.
+     */
+    Entry acquire(String locale) {
+        final Entry entry = mEntries.get(locale);
+        if (entry != null) {
+            entry.mRefCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the dictionaries of a locale that isn't cached yet. The caller holds the entry, as if
+     * it was {@link #acquire acquired}.
+     */
+    void add(Entry entry) {
+        final Entry old = mEntries.put(entry.mLocale, entry);
+        if (old != null) {
+            throw new IllegalStateException("Dictionaries for " + entry.mLocale
+                    + " are already open");
+        }
+        entry.mRefCount = 1;
+        trimToSize(MAX_ENTRIES);
+    }
+
+    /**
+     * Gives up an entry. It stays open for a while, but must not be used anymore by the caller.
+     */
+    void release(Entry entry) {
+        if (entry.mRefCount <= 0) {
+            throw new IllegalStateException("Dictionaries for " + entry.mLocale
+                    + " released too often");
+        }
+        entry.mRefCount--;
+        if (entry.mRefCount == 0) {
+            // Don't lose words typed before the switch, if the process is killed in background
+            entry.mAutoDictionary.flushPendingWrites();
+            entry.mUserBigramDictionary.flushPendingWrites();
+        }
+        trimToSize(MAX_ENTRIES);
+    }
+
+    /**
+     * Closes unused entries when the system asks to free memory.
+     * @param level one of the ComponentCallbacks2.TRIM_MEMORY_* levels
+     */
+    void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // The process is on the list to be killed
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Only says that the keyboard was hidden, not that memory is low, and the user may
+            // switch back to any of the locales when it's shown again
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            // Keep the current locale, which is held, and the one used before it
+            trimToSize(2);
+        }
+    }
+
+    /**
+     * Closes all entries, held or not.
+     */
+    void closeAll() {
+        for (Entry entry : mEntries.values()) {
+            entry.close();
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * Closes least recently used entries that nobody holds until at most maxSize are left.
+     */
+    private void trimToSize(int maxSize) {
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (mEntries.size() > maxSize && it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.mRefCount == 0) {
+                it.remove();
+                entry.close();
+            }
+        }
+    }
+}
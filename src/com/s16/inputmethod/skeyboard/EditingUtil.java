@@ -23,7 +23,6 @@ import android.view.inputmethod.InputConnection;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.regex.Pattern;
 
 /**
  * Utility methods to deal with editing text through an InputConnection.
@@ -171,25 +170,36 @@ public class EditingUtil {
         return whitespace.contains(String.valueOf((char) code));
     }
 
-    private static final Pattern spaceRegex = Pattern.compile("\\s+");
-
+    /**
+     * Returns the word before the last one before the cursor, which is usually the one being
+     * typed, or null if there is none or it ends a sentence.
+     */
     public static CharSequence getPreviousWord(InputConnection connection,
             String sentenceSeperators) {
-        //TODO: Should fix this. This could be slow!
         CharSequence prev = connection.getTextBeforeCursor(LOOKBACK_CHARACTER_NUM, 0);
         if (prev == null) {
             return null;
         }
-        String[] w = spaceRegex.split(prev);
-        if (w.length >= 2 && w[w.length-2].length() > 0) {
-            char lastChar = w[w.length-2].charAt(w[w.length-2].length() -1);
-            if (sentenceSeperators.contains(String.valueOf(lastChar))) {
-                return null;
-            }
-            return w[w.length-2];
-        } else {
+        // Scan back over the last word and the whitespace around it
+        int end = prev.length();
+        while (end > 0 && isSpace(prev.charAt(end - 1))) end--;
+        while (end > 0 && !isSpace(prev.charAt(end - 1))) end--;
+        while (end > 0 && isSpace(prev.charAt(end - 1))) end--;
+        int start = end;
+        while (start > 0 && !isSpace(prev.charAt(start - 1))) start--;
+        if (start == end) {
+            return null;
+        }
+        char lastChar = prev.charAt(end - 1);
+        if (sentenceSeperators.indexOf(lastChar) >= 0) {
             return null;
         }
+        return prev.subSequence(start, end).toString();
+    }
+
+    // The characters that \s matches in a regular expression
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     public static class SelectedWord {
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.CorrectionInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * An input connection that keeps a copy of the text around the cursor, so that looking at the
+ * text doesn't need a round trip to the editor for every keystroke.
+ *
+ * The copy is fetched from the editor the first time it's needed and then changed along with
+ * the text we commit, compose and delete ourselves. Every edit we make moves the cursor to a
+ * position we expect the editor to report in {@link #onUpdateSelection}. A report we don't
+ * expect means somebody else changed the text or moved the cursor, and the copy is thrown
+ * away. Edits we can't follow, such as key events, do the same. Only changes after the cursor
+ * that don't move it go unnoticed, as the editor doesn't report them.
+ *
+ * Only the text is cached, styles are not. Only used on the main thread.
+ */
+final class EditorTextMirror extends InputConnectionWrapper {
+
+    // Characters fetched at least on a miss, so that the next few lookups hit
+    private static final int MIN_FETCH_LENGTH = 64;
+    // More than the longest lookup, EditingUtil looks at 1000 characters on each side
+    private static final int MAX_LENGTH = 2048;
+    // Cursor positions our edits may still be reported at
+    private static final int MAX_PENDING = 16;
+
+    // Text that ends at the cursor, including the composing text
+    private final StringBuilder mBefore = new StringBuilder();
+    private boolean mBeforeValid;
+    // Whether mBefore goes back to the start of the text
+    private boolean mBeforeComplete;
+
+    // Text that starts at the cursor
+    private final StringBuilder mAfter = new StringBuilder();
+    private boolean mAfterValid;
+    private boolean mAfterComplete;
+
+    // Of the composing text, which ends at the cursor, or -1 if that isn't known
+    private int mComposingLength;
+
+    // Oldest first. The last one is where the cursor is after our edits. None if we don't know
+    // where the cursor is, and then nothing is cached.
+    private final int[] mExpectedCursors = new int[MAX_PENDING];
+    private int mExpectedCount;
+
+    EditorTextMirror() {
+        super(null, true);
+    }
+
+    /**
+     * Changes the connection to the editor, forgetting everything about the previous one.
+     */
+    @Override
+    public void setTarget(InputConnection target) {
+        super.setTarget(target);
+        reset(-1);
+    }
+
+    /**
+     * Forgets the text and the composing state, when another editor or another session starts.
+     * @param cursor the position of the cursor if it's known and nothing is selected, or -1
+     */
+    void reset(int cursor) {
+        mComposingLength = 0;
+        restart(cursor);
+    }
+
+    /**
+     * Checks the selection the editor reports against the one our edits should lead to.
+     */
+    void onUpdateSelection(int newSelStart, int newSelEnd, int candidatesStart,
+            int candidatesEnd) {
+        if (newSelStart != newSelEnd) {
+            forget();
+            return;
+        }
+        for (int i = 0; i < mExpectedCount; i++) {
+            if (mExpectedCursors[i] == newSelStart) {
+                // Reports of the edits before this one may have been skipped
+                System.arraycopy(mExpectedCursors, i, mExpectedCursors, 0, mExpectedCount - i);
+                mExpectedCount -= i;
+                return;
+            }
+        }
+        // Somebody else changed the text, and maybe the composing text too
+        final int composingLength = candidatesStart < 0 ? 0
+                : candidatesEnd == newSelStart ? candidatesEnd - candidatesStart : -1;
+        if (composingLength != mComposingLength) mComposingLength = -1;
+        restart(newSelStart);
+    }
+
+    @Override
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+        // Longer lookups than the mirror keeps go to the editor, without changing the mirror
+        if (flags != 0 || mExpectedCount == 0 || n > MAX_LENGTH) {
+            return super.getTextBeforeCursor(n, flags);
+        }
+        if (!mBeforeValid || (n > mBefore.length() && !mBeforeComplete)) {
+            final int length = Math.min(Math.max(n, MIN_FETCH_LENGTH), MAX_LENGTH);
+            final CharSequence text = super.getTextBeforeCursor(length, 0);
+            if (text == null) return null;
+            mBefore.setLength(0);
+            mBefore.append(text);
+            mBeforeValid = true;
+            mBeforeComplete = text.length() < length;
+        }
+        final int end = mBefore.length();
+        return mBefore.substring(Math.max(0, end - n), end);
+    }
+
+    @Override
+    public CharSequence getTextAfterCursor(int n, int flags) {
+        // Longer lookups than the mirror keeps go to the editor, without changing the mirror
+        if (flags != 0 || mExpectedCount == 0 || n > MAX_LENGTH) {
+            return super.getTextAfterCursor(n, flags);
+        }
+        if (!mAfterValid || (n > mAfter.length() && !mAfterComplete)) {
+            final int length = Math.min(Math.max(n, MIN_FETCH_LENGTH), MAX_LENGTH);
+            final CharSequence text = super.getTextAfterCursor(length, 0);
+            if (text == null) return null;
+            mAfter.setLength(0);
+            mAfter.append(text);
+            mAfterValid = true;
+            mAfterComplete = text.length() < length;
+        }
+        return mAfter.substring(0, Math.min(n, mAfter.length()));
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        final boolean result = super.commitText(text, newCursorPosition);
+        if (newCursorPosition == 1) {
+            replaceComposing(text);
+        } else {
+            restart(-1);
+        }
+        mComposingLength = 0;
+        return result;
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        final boolean result = super.setComposingText(text, newCursorPosition);
+        if (newCursorPosition == 1) {
+            replaceComposing(text);
+            mComposingLength = text.length();
+        } else {
+            forget();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean finishComposingText() {
+        mComposingLength = 0;
+        return super.finishComposingText();
+    }
+
+    @Override
+    public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+        final boolean result = super.deleteSurroundingText(beforeLength, afterLength);
+        if (mComposingLength != 0) {
+            // Editors differ in whether they delete around the composing text or the cursor
+            restart(-1);
+            return result;
+        }
+        if (beforeLength > 0) {
+            final int cursor = getCursor();
+            int deleted = beforeLength;
+            if (mBeforeValid && (beforeLength <= mBefore.length() || mBeforeComplete)) {
+                deleted = Math.min(beforeLength, mBefore.length());
+                mBefore.setLength(mBefore.length() - deleted);
+            } else {
+                mBeforeValid = false;
+                if (cursor >= 0) deleted = Math.min(beforeLength, cursor);
+            }
+            if (cursor >= 0) setCursor(cursor - deleted);
+        }
+        if (afterLength > 0) {
+            if (mAfterValid && (afterLength <= mAfter.length() || mAfterComplete)) {
+                mAfter.delete(0, Math.min(afterLength, mAfter.length()));
+            } else {
+                mAfterValid = false;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean sendKeyEvent(KeyEvent event) {
+        forget();
+        return super.sendKeyEvent(event);
+    }
+
+    @Override
+    public boolean setSelection(int start, int end) {
+        // The cursor may leave the composing text
+        mComposingLength = -1;
+        restart(start == end ? start : -1);
+        return super.setSelection(start, end);
+    }
+
+    @Override
+    public boolean setComposingRegion(int start, int end) {
+        forget();
+        return super.setComposingRegion(start, end);
+    }
+
+    @Override
+    public boolean commitCompletion(CompletionInfo text) {
+        forget();
+        return super.commitCompletion(text);
+    }
+
+    @Override
+    public boolean commitCorrection(CorrectionInfo correctionInfo) {
+        forget();
+        return super.commitCorrection(correctionInfo);
+    }
+
+    @Override
+    public boolean performContextMenuAction(int id) {
+        forget();
+        return super.performContextMenuAction(id);
+    }
+
+    /**
+     * Replaces the composing text, or inserts at the cursor if there is none, the way
+     * commitText() and setComposingText() do.
+     */
+    private void replaceComposing(CharSequence text) {
+        if (mComposingLength < 0) {
+            restart(-1);
+            return;
+        }
+        final int cursor = getCursor();
+        if (mBeforeValid) {
+            if (mComposingLength <= mBefore.length()) {
+                mBefore.setLength(mBefore.length() - mComposingLength);
+                mBefore.append(text);
+                if (mBefore.length() > MAX_LENGTH) {
+                    mBefore.delete(0, mBefore.length() - MAX_LENGTH);
+                    mBeforeComplete = false;
+                }
+            } else {
+                mBeforeValid = false;
+            }
+        }
+        if (cursor >= 0) setCursor(cursor - mComposingLength + text.length());
+    }
+
+    private void invalidate() {
+        mBeforeValid = false;
+        mAfterValid = false;
+    }
+
+    private int getCursor() {
+        return mExpectedCount == 0 ? -1 : mExpectedCursors[mExpectedCount - 1];
+    }
+
+    /**
+     * Forgets everything after an edit whose outcome we can't tell.
+     */
+    private void forget() {
+        mComposingLength = -1;
+        restart(-1);
+    }
+
+    /**
+     * Forgets the text and the positions of our edits.
+     * @param cursor where the cursor is now, or -1 if that isn't known
+     */
+    private void restart(int cursor) {
+        invalidate();
+        mExpectedCount = 0;
+        if (cursor >= 0) setCursor(cursor);
+    }
+
+    /**
+     * Adds the position an edit moves the cursor to.
+     */
+    private void setCursor(int cursor) {
+        if (mExpectedCount > 0 && mExpectedCursors[mExpectedCount - 1] == cursor) return;
+        if (mExpectedCount == MAX_PENDING) {
+            System.arraycopy(mExpectedCursors, 1, mExpectedCursors, 0, MAX_PENDING - 1);
+            mExpectedCount--;
+        }
+        mExpectedCursors[mExpectedCount++] = cursor;
+    }
+}
@@ -16,7 +16,7 @@
 
 package com.s16.inputmethod.skeyboard;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import android.content.Context;
 import android.os.AsyncTask;
@@ -24,81 +24,62 @@ import android.os.AsyncTask;
 /**
  * Base class for an in-memory dictionary that can grow dynamically and can
  * be searched for suggestions and valid words.
+ *
+ * Lookups don't lock: each one reads the current trie once and walks it, and a published trie
+ * never changes. Changes are made to a private trie, which the {@link TriePublisher} publishes
+ * when the next lookup starts. Lookups still share the search state, so only one may run at a
+ * time.
  */
 public class ExpandableDictionary extends Dictionary {
     /**
-     * There is difference between what java and native code can handle.
-     * It uses 32 because Java stack overflows when greater value is used.
+     * Same as the main dictionary. Words are looked up without recursion, so this isn't bound
+     * by the Java stack.
      */
-    protected static final int MAX_WORD_LENGTH = 32;
+    protected static final int MAX_WORD_LENGTH = BinaryDictionary.MAX_WORD_LENGTH;
 
     private Context mContext;
     private char[] mWordBuilder = new char[MAX_WORD_LENGTH];
     private int mDicTypeId;
     private int mMaxDepth;
     private int mInputLength;
-    private int[] mNextLettersFrequencies;
-    private StringBuilder sb = new StringBuilder(MAX_WORD_LENGTH);
+    private NextLetterFrequencies mNextLettersFrequencies;
+    private char[] mBigramWord = new char[MAX_WORD_LENGTH];
 
     private static final char QUOTE = '\'';
 
-    private boolean mRequiresReload;
-
-    private boolean mUpdatingDictionary;
-
-    // Use this lock before touching mUpdatingDictionary & mRequiresDownload
-    private Object mUpdatingLock = new Object();
-
-    static class Node {
-        char code;
-        int frequency;
-        boolean terminal;
-        Node parent;
-        NodeArray children;
-        LinkedList<NextWord> ngrams; // Supports ngram
-    }
-
-    static class NodeArray {
-        Node[] data;
-        int length = 0;
-        private static final int INCREMENT = 2;
+    // The input so far matched the first alternatives, without skipping a character
+    private static final int FLAG_PRIMARY = 0x1;
+    // A node has been taken as a missing character
+    private static final int FLAG_SKIPPED = 0x2;
 
-        NodeArray() {
-            data = new Node[INCREMENT];
-        }
+    // Stack of nodes still to visit by searchWords()
+    private int[] mStackNodes = new int[64];
+    private int[] mStackDepths = new int[64];
+    private int[] mStackInputs = new int[64];
+    // The weight of the match so far, in units of WordComposer.WEIGHT_UNIT
+    private int[] mStackSnrs = new int[64];
+    private int[] mStackFlags = new int[64];
+    private int mStackSize;
 
-        void add(Node n) {
-            if (length + 1 > data.length) {
-                Node[] tempData = new Node[length + INCREMENT];
-                if (length > 0) {
-                    System.arraycopy(data, 0, tempData, 0, length);
-                }
-                data = tempData;
-            }
-            data[length++] = n;
-        }
-    }
+    private volatile boolean mRequiresReload;
 
-    static class NextWord {
-        Node word;
-        NextWord nextWord;
-        int frequency;
-
-        NextWord(Node word, int frequency) {
-            this.word = word;
-            this.frequency = frequency;
-        }
-    }
+    private volatile boolean mUpdatingDictionary;
 
+    // Use this lock before changing mUpdatingDictionary or mRequiresReload
+    private Object mUpdatingLock = new Object();
 
-    private NodeArray mRoots;
+    // Publishes the words to lookups and records the changes made while they are loaded
+    private final TriePublisher mPublisher = new TriePublisher();
+    // The trie searchWords() walks, the same for the whole search
+    private CompactTrie mSearchTrie;
 
     private int[][] mCodes;
+    private int[][] mWeights;
 
     ExpandableDictionary(Context context, int dicTypeId) {
         mContext = context;
-        clearDictionary();
         mCodes = new int[MAX_WORD_LENGTH][];
+        mWeights = new int[MAX_WORD_LENGTH][];
         mDicTypeId = dicTypeId;
     }
 
@@ -112,6 +93,7 @@ public class ExpandableDictionary extends Dictionary {
         if (!mUpdatingDictionary) {
             mUpdatingDictionary = true;
             mRequiresReload = false;
+            mPublisher.startLoading();
             new LoadDictionaryTask().execute();
         }
     }
@@ -126,8 +108,27 @@ public class ExpandableDictionary extends Dictionary {
         return mRequiresReload;
     }
 
-    /** Override to load your dictionary here, on a background thread. */
+    /**
+     * Loads the dictionary and replaces the words and bigrams with the loaded ones at once.
+     * Lookups keep using the previous ones until then.
+     */
     public void loadDictionaryAsync() {
+        final CompactTrie.Builder builder = new CompactTrie.Builder();
+        loadWords(builder);
+        mPublisher.finishLoading(builder.build());
+    }
+
+    /** Override to add the words of your dictionary here, on a background thread. */
+    protected void loadWords(CompactTrie.Builder builder) {
+    }
+
+    /**
+     * Override to bring the loaded words up to date, on a background thread, when only some of
+     * them changed since they were loaded. The changes made by then are published together.
+     * @return false if the words have to be loaded again instead
+     */
+    protected boolean updateWords() {
+        return false;
     }
 
     Context getContext() {
@@ -139,74 +140,63 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     public void addWord(String word, int frequency) {
-        addWordRec(mRoots, word, 0, frequency, null);
+        mPublisher.addWord(word, frequency);
     }
 
-    private void addWordRec(NodeArray children, final String word, final int depth,
-            final int frequency, Node parentNode) {
-        final int wordLength = word.length();
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.length;
-        Node childNode = null;
-        boolean found = false;
-        for (int i = 0; i < childrenLength; i++) {
-            childNode = children.data[i];
-            if (childNode.code == c) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            childNode = new Node();
-            childNode.code = c;
-            childNode.parent = parentNode;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1) {
-            // Terminate this word
-            childNode.terminal = true;
-            childNode.frequency = Math.max(frequency, childNode.frequency);
-            if (childNode.frequency > 255) childNode.frequency = 255;
-            return;
-        }
-        if (childNode.children == null) {
-            childNode.children = new NodeArray();
-        }
-        addWordRec(childNode.children, word, depth + 1, frequency, childNode);
+    /**
+     * Removes the word, along with its bigrams. Bigrams from other words to this one have to be
+     * removed first.
+     */
+    protected void removeWord(String word) {
+        mPublisher.removeWord(word);
     }
 
     @Override
     public void getWords(final WordComposer codes, final WordCallback callback,
-            int[] nextLettersFrequencies) {
-        synchronized (mUpdatingLock) {
-            // If we need to update, start off a background task
-            if (mRequiresReload) startDictionaryLoadingTaskLocked();
-            // Currently updating contacts, don't return any results.
-            if (mUpdatingDictionary) return;
-        }
+            NextLetterFrequencies nextLettersFrequencies) {
+        // If we need to update, start off a background task. The current words are used
+        // until it is done.
+        reloadDictionaryIfRequired();
 
         mInputLength = codes.size();
         mNextLettersFrequencies = nextLettersFrequencies;
-        if (mCodes.length < mInputLength) mCodes = new int[mInputLength][];
+        if (mCodes.length < mInputLength) {
+            mCodes = new int[mInputLength][];
+            mWeights = new int[mInputLength][];
+        }
         // Cache the codes so that we don't have to lookup an array list
         for (int i = 0; i < mInputLength; i++) {
             mCodes[i] = codes.getCodesAt(i);
+            mWeights[i] = codes.getWeightsAt(i);
         }
         mMaxDepth = mInputLength * 3;
-        getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, -1, callback);
-        for (int i = 0; i < mInputLength; i++) {
-            getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, i, callback);
+        if (mWordBuilder.length <= mMaxDepth) mWordBuilder = new char[mMaxDepth + 1];
+        mSearchTrie = mPublisher.acquire();
+        try {
+            searchWords(codes, mWordBuilder, callback);
+        } finally {
+            mPublisher.release(mSearchTrie);
+            mSearchTrie = null;
         }
     }
 
     @Override
-    public synchronized boolean isValidWord(CharSequence word) {
-        synchronized (mUpdatingLock) {
-            // If we need to update, start off a background task
-            if (mRequiresReload) startDictionaryLoadingTaskLocked();
-            if (mUpdatingDictionary) return false;
+    public void getGestureWords(final GestureDecoder decoder) {
+        // If we need to update, start off a background task. The current words are used
+        // until it is done.
+        reloadDictionaryIfRequired();
+        final CompactTrie trie = mPublisher.acquire();
+        try {
+            decoder.search(trie, CompactTrie.ROOT);
+        } finally {
+            mPublisher.release(trie);
         }
+    }
+
+    @Override
+    public boolean isValidWord(CharSequence word) {
+        // If we need to update, start off a background task
+        reloadDictionaryIfRequired();
         final int freq = getWordFrequency(word);
         return freq > -1;
     }
@@ -215,122 +205,189 @@ public class ExpandableDictionary extends Dictionary {
      * Returns the word's frequency or -1 if not found
      */
     public int getWordFrequency(CharSequence word) {
-        Node node = searchNode(mRoots, word, 0, word.length());
-        return (node == null) ? -1 : node.frequency;
+        final CompactTrie trie = mPublisher.acquire();
+        try {
+            final int node = trie.findWord(word);
+            return (node == CompactTrie.NOT_FOUND) ? -1 : trie.mFrequencies[node];
+        } finally {
+            mPublisher.release(trie);
+        }
     }
 
     /**
-     * Recursively traverse the tree for words that match the input. Input consists of
-     * a list of arrays. Each item in the list is one input character position. An input
-     * character is actually an array of multiple possible candidates. This function is not
-     * optimized for speed, assuming that the user dictionary will only be a few hundred words in
-     * size.
-     * @param roots node whose children have to be search for matches
+     * Traverses the tree for words that match the input. Input consists of a list of arrays.
+     * Each item in the list is one input character position. An input character is actually an
+     * array of multiple possible candidates.
+     *
+     * The traversal uses an explicit stack of nodes still to visit, each with the state of the
+     * match so far: the input position, which can be off from the depth in case we skip over
+     * some punctuations such as apostrophe (typing "wouldve" could match "would've"), the
+     * current weight of the word, and whether one of the nodes was taken as a missing character.
+     * A missing character is only tried where the input so far matched its first alternatives,
+     * so the regular search and the search for each skipped position share a single pass.
+     * Matching an alternative multiplies the weight by the alternative's weight in the composer,
+     * which is from one for an unlikely key to two for the pressed key.
+     *
+     * Subtrees whose best word can't reach the callback's frequency threshold are dropped. When
+     * next letter frequencies are wanted, words in a dropped completion subtree are still
+     * counted, all at once, and the rest of the regular search is not dropped.
      * @param codes the input character codes
      * @param word the word being composed as a possible match
-     * @param depth the depth of traversal - the length of the word being composed thus far
-     * @param completion whether the traversal is now in completion mode - meaning that we've
-     * exhausted the input and we're looking for all possible suffixes.
-     * @param snr current weight of the word being formed
-     * @param inputIndex position in the input characters. This can be off from the depth in 
-     * case we skip over some punctuations such as apostrophe in the traversal. That is, if you type
-     * "wouldve", it could be matching "would've", so the depth will be one more than the
-     * inputIndex
      * @param callback the callback class for adding a word
      */
-    protected void getWordsRec(NodeArray roots, final WordComposer codes, final char[] word, 
-            final int depth, boolean completion, int snr, int inputIndex, int skipPos,
-            WordCallback callback) {
-        final int count = roots.length;
+    private void searchWords(final WordComposer codes, final char[] word,
+            final WordCallback callback) {
+        final CompactTrie trie = mSearchTrie;
         final int codeSize = mInputLength;
-        // Optimization: Prune out words that are too long compared to how much was typed.
-        if (depth > mMaxDepth) {
-            return;
-        }
-        int[] currentChars = null;
-        if (codeSize <= inputIndex) {
-            completion = true;
-        } else {
-            currentChars = mCodes[inputIndex];
-        }
-
-        for (int i = 0; i < count; i++) {
-            final Node node = roots.data[i];
-            final char c = node.code;
-            final char lowerC = toLowerCase(c);
-            final boolean terminal = node.terminal;
-            final NodeArray children = node.children;
-            final int freq = node.frequency;
-            if (completion) {
+        final NextLetterFrequencies nextLetters = mNextLettersFrequencies;
+        int threshold = callback.getFrequencyThreshold(DataType.UNIGRAM);
+        mStackSize = 0;
+        pushChildren(CompactTrie.ROOT, 0, 0, WordComposer.WEIGHT_UNIT, FLAG_PRIMARY);
+
+        while (mStackSize > 0) {
+            final int top = --mStackSize;
+            final int node = mStackNodes[top];
+            final int depth = mStackDepths[top];
+            final int inputIndex = mStackInputs[top];
+            final int snr = mStackSnrs[top];
+            final int flags = mStackFlags[top];
+            final boolean skipped = (flags & FLAG_SKIPPED) != 0;
+            final char c = trie.mCodes[node];
+            final int freq = trie.mFrequencies[node];
+            final boolean terminal = freq != CompactTrie.NOT_TERMINAL;
+
+            if (codeSize <= inputIndex) {
+                final boolean countLetters = nextLetters != null && !skipped;
+                if (weigh(trie.mMaxFrequencies[node], snr) <= threshold
+                        && (!countLetters || depth + trie.mHeights[node] <= mMaxDepth)) {
+                    // Add to frequency of next letters for predictive correction
+                    if (countLetters) {
+                        final char letter = depth == inputIndex ? c : word[inputIndex];
+                        nextLetters.add(letter, trie.mWordCounts[node]);
+                    }
+                    continue;
+                }
                 word[depth] = c;
                 if (terminal) {
-                    if (!callback.addWord(word, 0, depth + 1, freq * snr, mDicTypeId,
-                                DataType.UNIGRAM)) {
+                    if (!callback.addWord(word, 0, depth + 1, (int) weigh(freq, snr),
+                                mDicTypeId, DataType.UNIGRAM)) {
                         return;
                     }
+                    threshold = callback.getFrequencyThreshold(DataType.UNIGRAM);
                     // Add to frequency of next letters for predictive correction
-                    if (mNextLettersFrequencies != null && depth >= inputIndex && skipPos < 0
-                            && mNextLettersFrequencies.length > word[inputIndex]) {
-                        mNextLettersFrequencies[word[inputIndex]]++;
+                    if (countLetters) {
+                        nextLetters.add(word[inputIndex], 1);
                     }
                 }
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, completion, snr, inputIndex,
-                            skipPos, callback);
-                }
-            } else if ((c == QUOTE && currentChars[0] != QUOTE) || depth == skipPos) {
+                pushChildren(node, depth + 1, inputIndex, snr, flags);
+                continue;
+            }
+
+            final int[] currentChars = mCodes[inputIndex];
+            final int[] weights = mWeights[inputIndex];
+            if (c == QUOTE && currentChars[0] != QUOTE) {
                 // Skip the ' and continue deeper
                 word[depth] = c;
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, completion, snr, inputIndex, 
-                            skipPos, callback);
+                pushChildren(node, depth + 1, inputIndex, snr, flags);
+                continue;
+            }
+
+            final boolean primary = (flags & FLAG_PRIMARY) != 0;
+            if ((skipped || nextLetters == null) && !primary
+                    && getMaxFrequency(node, snr, codeSize - inputIndex, skipped) <= threshold) {
+                continue;
+            }
+            word[depth] = c;
+            // Don't use alternatives if we're looking for missing characters
+            final int alternativesSize = skipped ? 1 : currentChars.length;
+            final char lowerC = toLowerCase(c);
+            int lastMatch = -1;
+            for (int j = 0; j < alternativesSize; j++) {
+                final int currentChar = currentChars[j];
+                if (currentChar == -1) {
+                    break;
                 }
-            } else {
-                // Don't use alternatives if we're looking for missing characters
-                final int alternativesSize = skipPos >= 0? 1 : currentChars.length;
-                for (int j = 0; j < alternativesSize; j++) {
-                    final int addedAttenuation = (j > 0 ? 1 : 2);
-                    final int currentChar = currentChars[j];
-                    if (currentChar == -1) {
-                        break;
-                    }
-                    if (currentChar == lowerC || currentChar == c) {
-                        word[depth] = c;
-
-                        if (codeSize == inputIndex + 1) {
-                            if (terminal) {
-                                if (INCLUDE_TYPED_WORD_IF_VALID 
-                                        || !same(word, depth + 1, codes.getTypedWord())) {
-                                    int finalFreq = freq * snr * addedAttenuation;
-                                    if (skipPos < 0) finalFreq *= FULL_WORD_FREQ_MULTIPLIER;
-                                    callback.addWord(word, 0, depth + 1, finalFreq, mDicTypeId,
-                                            DataType.UNIGRAM);
-                                }
-                            }
-                            if (children != null) {
-                                getWordsRec(children, codes, word, depth + 1,
-                                        true, snr * addedAttenuation, inputIndex + 1,
-                                        skipPos, callback);
-                            }
-                        } else if (children != null) {
-                            getWordsRec(children, codes, word, depth + 1, 
-                                    false, snr * addedAttenuation, inputIndex + 1,
-                                    skipPos, callback);
-                        }
+                if (currentChar == lowerC || currentChar == c) {
+                    lastMatch = j;
+                    if (terminal && codeSize == inputIndex + 1
+                            && (INCLUDE_TYPED_WORD_IF_VALID
+                                    || !same(word, depth + 1, codes.getTypedWord()))) {
+                        long finalFreq = weigh(freq, snr * weights[j] / WordComposer.WEIGHT_UNIT);
+                        if (!skipped) finalFreq *= FULL_WORD_FREQ_MULTIPLIER;
+                        callback.addWord(word, 0, depth + 1, (int) finalFreq, mDicTypeId,
+                                DataType.UNIGRAM);
+                        threshold = callback.getFrequencyThreshold(DataType.UNIGRAM);
                     }
                 }
             }
+            // Pushed in reverse, so that the alternatives are visited in order before the
+            // missing character
+            if (primary && !skipped && depth < codeSize) {
+                pushChildren(node, depth + 1, inputIndex, snr, FLAG_SKIPPED);
+            }
+            for (int j = lastMatch; j >= 0; j--) {
+                final int currentChar = currentChars[j];
+                if (currentChar == lowerC || currentChar == c) {
+                    pushChildren(node, depth + 1, inputIndex + 1,
+                            snr * weights[j] / WordComposer.WEIGHT_UNIT,
+                            j > 0 ? flags & ~FLAG_PRIMARY : flags);
+                }
+            }
         }
     }
 
-    protected int setBigram(String word1, String word2, int frequency) {
-        return addOrSetBigram(word1, word2, frequency, false);
+    /**
+     * Returns the highest frequency that a word below the node could be added with.
+     */
+    private long getMaxFrequency(int node, int snr, int remainingInput, boolean skipped) {
+        // Each remaining input character at most doubles the weight
+        if (remainingInput > 24) return Long.MAX_VALUE;
+        final long maxFreq = (mSearchTrie.mMaxFrequencies[node] * (long) snr << remainingInput)
+                / WordComposer.WEIGHT_UNIT;
+        return skipped ? maxFreq : maxFreq * FULL_WORD_FREQ_MULTIPLIER;
+    }
+
+    private static long weigh(int freq, int snr) {
+        return freq * (long) snr / WordComposer.WEIGHT_UNIT;
+    }
+
+    private void pushChildren(int parent, int depth, int inputIndex, int snr, int flags) {
+        // Optimization: Prune out words that are too long compared to how much was typed.
+        if (depth > mMaxDepth) return;
+        final CompactTrie trie = mSearchTrie;
+        final int start = trie.mChildStart[parent];
+        final int count = trie.mChildCount[parent];
+        if (mStackSize + count > mStackNodes.length) {
+            final int size = Math.max(mStackSize + count, mStackNodes.length * 2);
+            mStackNodes = Arrays.copyOf(mStackNodes, size);
+            mStackDepths = Arrays.copyOf(mStackDepths, size);
+            mStackInputs = Arrays.copyOf(mStackInputs, size);
+            mStackSnrs = Arrays.copyOf(mStackSnrs, size);
+            mStackFlags = Arrays.copyOf(mStackFlags, size);
+        }
+        // Last child first, so that the children are visited in order
+        for (int i = start + count - 1; i >= start; i--) {
+            final int top = mStackSize++;
+            mStackNodes[top] = trie.mChildren[i];
+            mStackDepths[top] = depth;
+            mStackInputs[top] = inputIndex;
+            mStackSnrs[top] = snr;
+            mStackFlags[top] = flags;
+        }
     }
 
     protected int addBigram(String word1, String word2, int frequency) {
         return addOrSetBigram(word1, word2, frequency, true);
     }
 
+    protected int setBigram(String word1, String word2, int frequency) {
+        return addOrSetBigram(word1, word2, frequency, false);
+    }
+
+    protected void removeBigram(String word1, String word2) {
+        mPublisher.removeBigram(word1, word2);
+    }
+
     /**
      * Adds bigrams to the in-memory trie structure that is being used to retrieve any word
      * @param frequency frequency for this bigrams
@@ -338,87 +395,34 @@ public class ExpandableDictionary extends Dictionary {
      * @return returns the final frequency
      */
     private int addOrSetBigram(String word1, String word2, int frequency, boolean addFrequency) {
-        Node firstWord = searchWord(mRoots, word1, 0, null);
-        Node secondWord = searchWord(mRoots, word2, 0, null);
-        LinkedList<NextWord> bigram = firstWord.ngrams;
-        if (bigram == null || bigram.size() == 0) {
-            firstWord.ngrams = new LinkedList<NextWord>();
-            bigram = firstWord.ngrams;
-        } else {
-            for (NextWord nw : bigram) {
-                if (nw.word == secondWord) {
-                    if (addFrequency) {
-                        nw.frequency += frequency;
-                    } else {
-                        nw.frequency = frequency;
-                    }
-                    return nw.frequency;
-                }
-            }
-        }
-        NextWord nw = new NextWord(secondWord, frequency);
-        firstWord.ngrams.add(nw);
-        return frequency;
-    }
-
-    /**
-     * Searches for the word and add the word if it does not exist.
-     * @return Returns the terminal node of the word we are searching for.
-     */
-    private Node searchWord(NodeArray children, String word, int depth, Node parentNode) {
-        final int wordLength = word.length();
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.length;
-        Node childNode = null;
-        boolean found = false;
-        for (int i = 0; i < childrenLength; i++) {
-            childNode = children.data[i];
-            if (childNode.code == c) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            childNode = new Node();
-            childNode.code = c;
-            childNode.parent = parentNode;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1) {
-            // Terminate this word
-            childNode.terminal = true;
-            return childNode;
-        }
-        if (childNode.children == null) {
-            childNode.children = new NodeArray();
-        }
-        return searchWord(childNode.children, word, depth + 1, childNode);
+        return mPublisher.addOrSetBigram(word1, word2, frequency, addFrequency);
     }
 
     // @VisibleForTesting
     boolean reloadDictionaryIfRequired() {
-        synchronized (mUpdatingLock) {
-            // If we need to update, start off a background task
-            if (mRequiresReload) startDictionaryLoadingTaskLocked();
-            // Currently updating contacts, don't return any results.
-            return mUpdatingDictionary;
-        }
+        // Only locks when a reload is needed, so that lookups don't wait for changes
+        if (mRequiresReload) loadDictionary();
+        return mUpdatingDictionary;
     }
 
     private void runReverseLookUp(final CharSequence previousWord, final WordCallback callback) {
-        Node prevWord = searchNode(mRoots, previousWord, 0, previousWord.length());
-        if (prevWord != null && prevWord.ngrams != null) {
-            reverseLookUp(prevWord.ngrams, callback);
+        final CompactTrie trie = mPublisher.acquire();
+        try {
+            final int prevWord = trie.findWord(previousWord);
+            if (prevWord != CompactTrie.NOT_FOUND) {
+                reverseLookUp(trie, trie.getBigrams(prevWord), callback);
+            }
+        } finally {
+            mPublisher.release(trie);
         }
     }
 
     @Override
     public void getBigrams(final WordComposer codes, final CharSequence previousWord,
-            final WordCallback callback, int[] nextLettersFrequencies) {
-        if (!reloadDictionaryIfRequired()) {
-            runReverseLookUp(previousWord, callback);
-        }
+            final WordCallback callback, NextLetterFrequencies nextLettersFrequencies) {
+        // The current bigrams are used while they are reloaded
+        reloadDictionaryIfRequired();
+        runReverseLookUp(previousWord, callback);
     }
 
     /**
@@ -437,65 +441,31 @@ public class ExpandableDictionary extends Dictionary {
     /**
      * reverseLookUp retrieves the full word given a list of terminal nodes and adds those words
      * through callback.
-     * @param terminalNodes list of terminal nodes we want to add
+     * @param bigram first entry of the list of terminal nodes we want to add
      */
-    private void reverseLookUp(LinkedList<NextWord> terminalNodes,
-            final WordCallback callback) {
-        Node node;
-        int freq;
-        for (NextWord nextWord : terminalNodes) {
-            node = nextWord.word;
-            freq = nextWord.frequency;
+    private void reverseLookUp(CompactTrie trie, int bigram, final WordCallback callback) {
+        for (int b = bigram; b != CompactTrie.NOT_FOUND; b = trie.mBigramNext[b]) {
+            final int freq = trie.mBigramFrequency[b];
             // TODO Not the best way to limit suggestion threshold
             if (freq >= UserBigramDictionary.SUGGEST_THRESHOLD) {
-                sb.setLength(0);
-                do {
-                    sb.insert(0, node.code);
-                    node = node.parent;
-                } while(node != null);
-
-                // TODO better way to feed char array?
-                callback.addWord(sb.toString().toCharArray(), 0, sb.length(), freq, mDicTypeId,
-                        DataType.BIGRAM);
+                final int node = trie.mBigramWord[b];
+                final int length = trie.getWordLength(node);
+                if (mBigramWord.length < length) mBigramWord = new char[length];
+                trie.getWord(node, mBigramWord, length);
+                callback.addWord(mBigramWord, 0, length, freq, mDicTypeId, DataType.BIGRAM);
             }
         }
     }
 
-    /**
-     * Search for the terminal node of the word
-     * @return Returns the terminal node of the word if the word exists
-     */
-    private Node searchNode(final NodeArray children, final CharSequence word, final int offset,
-            final int length) {
-        // TODO Consider combining with addWordRec
-        final int count = children.length;
-        char currentChar = word.charAt(offset);
-        for (int j = 0; j < count; j++) {
-            final Node node = children.data[j];
-            if (node.code == currentChar) {
-                if (offset == length - 1) {
-                    if (node.terminal) {
-                        return node;
-                    }
-                } else {
-                    if (node.children != null) {
-                        Node returnNode = searchNode(node.children, word, offset + 1, length);
-                        if (returnNode != null) return returnNode;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    protected void clearDictionary() {
-        mRoots = new NodeArray();
-    }
-
     private class LoadDictionaryTask extends AsyncTask<Void, Void, Void> {
         @Override
         protected Void doInBackground(Void... v) {
-            loadDictionaryAsync();
+            mPublisher.startBatch();
+            final boolean updated = updateWords();
+            mPublisher.finishBatch();
+            if (!updated) loadDictionaryAsync();
+            // The changes are only recorded for a full load, which has made them again
+            mPublisher.finishLoading(null);
             synchronized (mUpdatingLock) {
                 mUpdatingDictionary = false;
             }
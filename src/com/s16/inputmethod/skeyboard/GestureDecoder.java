@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.s16.inputmethod.skeyboard.Keyboard.Key;
+
+/**
+ * Finds the words that a stroke over the keys could have traced.
+ *
+ * The stroke is resampled to points a fraction of a key apart, in units of the key size. A
+ * word matches the stroke when its first letter is at the first point, every following letter
+ * is at a later point, and the points between two letters run along the line between their
+ * keys. Its cost adds up how far the letters are from their points and how far the points in
+ * between are from the line, and a word's score weighs the cost against its frequency.
+ *
+ * The dictionaries are searched one letter at a time from the start of their trie, along the
+ * stroke. Of the prefixes whose last letter is at the same point, only the ones with the lowest
+ * cost are followed further, so the search takes about the same time for any dictionary size.
+ *
+ * An instance keeps the words found in all dictionaries searched since the stroke was set, and
+ * is only used on one thread at a time.
+ */
+final class GestureDecoder {
+
+    /**
+     * A dictionary trie the decoder can walk.
+     */
+    interface Trie {
+        /**
+         * Reads the children of a node: their characters, their frequencies or -1 if they
+         * don't end a word, and the nodes their own children are read from, or
+         * {@link GestureDecoder#NO_NODE} if they have none.
+         * @return the number of children, as many as fit in the arrays
+         */
+        int getChildren(int node, char[] codes, int[] frequencies, int[] children);
+    }
+
+    static final int NO_NODE = -1;
+
+    /**
+     * The centres of the letter keys of a keyboard. Can be shared between threads.
+     */
+    static final class Keys {
+        // Lower case, in ascending order
+        final char[] mCodes;
+        final int[] mXs;
+        final int[] mYs;
+        final int mKeyWidth;
+        final int mKeyHeight;
+
+        Keys(Keyboard keyboard) {
+            final List<Key> keys = keyboard.getKeys();
+            final char[] codes = new char[keys.size()];
+            final int[] xs = new int[keys.size()];
+            final int[] ys = new int[keys.size()];
+            int count = 0;
+            long width = 0;
+            long height = 0;
+            for (Key key : keys) {
+                if (key.codes == null || key.codes.length == 0) continue;
+                final int code = key.codes[0];
+                if (code <= 0 || code > Character.MAX_VALUE || !Character.isLetter(code)) {
+                    continue;
+                }
+                final char c = ExpandableDictionary.toLowerCase((char) code);
+                // Insertion sort, keeping the first key of a letter
+                int i = count;
+                while (i > 0 && codes[i - 1] > c) i--;
+                if (i > 0 && codes[i - 1] == c) continue;
+                System.arraycopy(codes, i, codes, i + 1, count - i);
+                System.arraycopy(xs, i, xs, i + 1, count - i);
+                System.arraycopy(ys, i, ys, i + 1, count - i);
+                codes[i] = c;
+                xs[i] = key.x + key.width / 2;
+                ys[i] = key.y + key.height / 2;
+                count++;
+                width += key.width;
+                height += key.height;
+            }
+            mCodes = new char[count];
+            mXs = new int[count];
+            mYs = new int[count];
+            System.arraycopy(codes, 0, mCodes, 0, count);
+            System.arraycopy(xs, 0, mXs, 0, count);
+            System.arraycopy(ys, 0, mYs, 0, count);
+            mKeyWidth = count > 0 ? (int) Math.max(1, width / count) : 1;
+            mKeyHeight = count > 0 ? (int) Math.max(1, height / count) : 1;
+        }
+
+        int indexOf(char c) {
+            final int index = Arrays.binarySearch(mCodes, ExpandableDictionary.toLowerCase(c));
+            return index >= 0 ? index : -1;
+        }
+    }
+
+    static final int MAX_WORDS = 12;
+
+    private static final int MAX_POINTS = 128;
+    private static final int POINTS_PER_KEY = 3;
+    private static final int MAX_WORD_LENGTH = 32;
+    // Prefixes followed further per point
+    private static final int BEAM_SIZE = 32;
+    private static final int NO_PARENT = -1;
+    private static final int MAX_CHILDREN = 256;
+
+    // Costs are squared distances in key sizes. A letter is weighed as a normal distribution
+    // half a key wide around its point, the points in between as a tenth of that each.
+    private static final float LETTER_WEIGHT = 2.0f;
+    private static final float PATH_WEIGHT = 0.2f;
+    // A letter further from all its possible points than this isn't on the stroke
+    private static final float MAX_LETTER_DISTANCE_SQUARE = 1.0f;
+    // A stroke this far from a key has gone past it
+    private static final float PASSED_KEY_DISTANCE_SQUARE = 4.0f;
+    // For characters that aren't on the keyboard but may be in words, such as the apostrophe
+    private static final float SKIPPED_CHAR_COST = 0.5f;
+    private static final float FREQUENCY_WEIGHT = 1.0f;
+
+    private Keys mKeys;
+    // The resampled stroke, in key sizes
+    private final float[] mXs = new float[MAX_POINTS];
+    private final float[] mYs = new float[MAX_POINTS];
+    private int mPointCount;
+    // The key centres, in key sizes
+    private float[] mKeyXs = new float[0];
+    private float[] mKeyYs = new float[0];
+    // Per point and key, the squared distance between them
+    private float[] mDistances = new float[0];
+
+    // The prefixes being followed, BEAM_SIZE for each point their last letter is at, in
+    // ascending cost. Only the prefixes that come after the one being continued move.
+    private final int[] mNodes = new int[MAX_POINTS * BEAM_SIZE];
+    private final int[] mLastKeys = new int[mNodes.length];
+    private final int[] mDepths = new int[mNodes.length];
+    private final float[] mCosts = new float[mNodes.length];
+    private final int[] mParents = new int[mNodes.length];
+    private final char[] mChars = new char[mNodes.length];
+    private final int[] mBeamSizes = new int[MAX_POINTS];
+
+    private final char[] mChildCodes = new char[MAX_CHILDREN];
+    private final int[] mChildFrequencies = new int[MAX_CHILDREN];
+    private final int[] mChildNodes = new int[MAX_CHILDREN];
+    private final char[] mWord = new char[MAX_WORD_LENGTH];
+
+    // The best words found so far, best first
+    private final String[] mWords = new String[MAX_WORDS];
+    private final float[] mScores = new float[MAX_WORDS];
+    private int mWordCount;
+
+    /**
+     * Starts over with a new stroke, forgetting the words found for the previous one.
+     */
+    void setStroke(GestureStroke stroke, Keys keys) {
+        mKeys = keys;
+        mWordCount = 0;
+        mPointCount = 0;
+        final int keyCount = keys.mCodes.length;
+        if (stroke.size() == 0 || keyCount == 0) return;
+
+        final float keyWidth = keys.mKeyWidth;
+        final float keyHeight = keys.mKeyHeight;
+        if (mKeyXs.length < keyCount) {
+            mKeyXs = new float[keyCount];
+            mKeyYs = new float[keyCount];
+        }
+        for (int k = 0; k < keyCount; k++) {
+            mKeyXs[k] = keys.mXs[k] / keyWidth;
+            mKeyYs[k] = keys.mYs[k] / keyHeight;
+        }
+        resample(stroke, keyWidth, keyHeight);
+
+        if (mDistances.length < mPointCount * keyCount) {
+            mDistances = new float[MAX_POINTS * keyCount];
+        }
+        for (int j = 0; j < mPointCount; j++) {
+            for (int k = 0; k < keyCount; k++) {
+                final float dx = mXs[j] - mKeyXs[k];
+                final float dy = mYs[j] - mKeyYs[k];
+                mDistances[j * keyCount + k] = dx * dx + dy * dy;
+            }
+        }
+    }
+
+    /**
+     * Places points evenly along the stroke, as many per key as fit in MAX_POINTS.
+     */
+    private void resample(GestureStroke stroke, float keyWidth, float keyHeight) {
+        final float length = stroke.getLength() / Math.min(keyWidth, keyHeight);
+        final float step = Math.max(1f / POINTS_PER_KEY, length / (MAX_POINTS - 1));
+        float lastX = stroke.getX(0) / keyWidth;
+        float lastY = stroke.getY(0) / keyHeight;
+        mXs[0] = lastX;
+        mYs[0] = lastY;
+        int count = 1;
+        // How far along the stroke the next point is from the last stroke point
+        float next = step;
+        for (int i = 1; i < stroke.size(); i++) {
+            final float x = stroke.getX(i) / keyWidth;
+            final float y = stroke.getY(i) / keyHeight;
+            final float dx = x - lastX;
+            final float dy = y - lastY;
+            final float segment = (float) Math.sqrt(dx * dx + dy * dy);
+            while (next <= segment && count < MAX_POINTS - 1) {
+                mXs[count] = lastX + dx * next / segment;
+                mYs[count] = lastY + dy * next / segment;
+                count++;
+                next += step;
+            }
+            next -= segment;
+            lastX = x;
+            lastY = y;
+        }
+        // The stroke ends where the finger was lifted
+        if (count == 1 || mXs[count - 1] != lastX || mYs[count - 1] != lastY) {
+            mXs[count] = lastX;
+            mYs[count] = lastY;
+            count++;
+        }
+        mPointCount = count;
+    }
+
+    /**
+     * Adds the words of a trie that match the stroke to the words found.
+     */
+    void search(Trie trie, int root) {
+        final int pointCount = mPointCount;
+        if (pointCount < 2) return;
+        final int keyCount = mKeys.mCodes.length;
+        final float[] distances = mDistances;
+        Arrays.fill(mBeamSizes, 0, pointCount, 0);
+
+        // The first letters are where the stroke starts
+        int childCount = trie.getChildren(root, mChildCodes, mChildFrequencies, mChildNodes);
+        for (int i = 0; i < childCount; i++) {
+            final int key = mKeys.indexOf(mChildCodes[i]);
+            if (key < 0 || distances[key] > MAX_LETTER_DISTANCE_SQUARE) continue;
+            if (mChildNodes[i] != NO_NODE) {
+                addPrefix(0, mChildNodes[i], key, 1, distances[key] * LETTER_WEIGHT, NO_PARENT,
+                        mChildCodes[i]);
+            }
+        }
+
+        for (int point = 0; point < pointCount; point++) {
+            final int beamStart = point * BEAM_SIZE;
+            // Prefixes added to this point while it's searched cost more than the one they
+            // continue, so they come after it
+            for (int t = beamStart; t < beamStart + mBeamSizes[point]; t++) {
+                final int depth = mDepths[t];
+                if (depth >= MAX_WORD_LENGTH) continue;
+                final int lastKey = mLastKeys[t];
+                childCount = trie.getChildren(mNodes[t], mChildCodes, mChildFrequencies,
+                        mChildNodes);
+                for (int i = 0; i < childCount; i++) {
+                    final char c = mChildCodes[i];
+                    final int key = mKeys.indexOf(c);
+                    int bestPoint = point;
+                    float best;
+                    if (key < 0) {
+                        if (Character.isLetterOrDigit(c)) continue;
+                        // Not on the keyboard, so not traced either
+                        best = SKIPPED_CHAR_COST;
+                    } else if (key == lastKey) {
+                        // A double letter, where the finger stays
+                        best = 0;
+                    } else {
+                        best = Float.MAX_VALUE;
+                        float path = 0;
+                        for (int j = point + 1; j < pointCount && path < best; j++) {
+                            final float distance = distances[j * keyCount + key];
+                            if (distance > PASSED_KEY_DISTANCE_SQUARE) {
+                                // Only the first pass over the key, in case the stroke comes
+                                // back to it for a later letter
+                                if (best != Float.MAX_VALUE) break;
+                            } else if (distance <= MAX_LETTER_DISTANCE_SQUARE
+                                    && path + distance * LETTER_WEIGHT < best) {
+                                best = path + distance * LETTER_WEIGHT;
+                                bestPoint = j;
+                            }
+                            path += PATH_WEIGHT * getSegmentDistance(j, lastKey, key);
+                        }
+                        if (best == Float.MAX_VALUE) continue;
+                    }
+                    final float cost = mCosts[t] + best;
+                    final int newKey = key < 0 ? lastKey : key;
+                    if (mChildFrequencies[i] >= 0) {
+                        addWord(t, c, cost + getTrailingCost(bestPoint, newKey),
+                                mChildFrequencies[i]);
+                    }
+                    if (mChildNodes[i] != NO_NODE) {
+                        addPrefix(bestPoint, mChildNodes[i], newKey, depth + 1, cost, t, c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the squared distance of a point from the line between the centres of two keys.
+     */
+    private float getSegmentDistance(int point, int fromKey, int toKey) {
+        final float ax = mKeyXs[fromKey];
+        final float ay = mKeyYs[fromKey];
+        final float bx = mKeyXs[toKey] - ax;
+        final float by = mKeyYs[toKey] - ay;
+        final float px = mXs[point] - ax;
+        final float py = mYs[point] - ay;
+        final float length = bx * bx + by * by;
+        float t = length > 0 ? (px * bx + py * by) / length : 0;
+        if (t < 0) t = 0;
+        else if (t > 1) t = 1;
+        final float dx = px - t * bx;
+        final float dy = py - t * by;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the cost of the points after the last letter, which should stay on its key.
+     */
+    private float getTrailingCost(int point, int key) {
+        final int keyCount = mKeys.mCodes.length;
+        float cost = 0;
+        for (int j = point + 1; j < mPointCount; j++) {
+            cost += mDistances[j * keyCount + key];
+        }
+        return cost * LETTER_WEIGHT;
+    }
+
+    /**
+     * Keeps a prefix if it's one of the BEAM_SIZE cheapest whose last letter is at the point.
+     */
+    private void addPrefix(int point, int node, int lastKey, int depth, float cost, int parent,
+            char c) {
+        final int beamStart = point * BEAM_SIZE;
+        final int size = mBeamSizes[point];
+        int i;
+        if (size < BEAM_SIZE) {
+            i = beamStart + size;
+            mBeamSizes[point] = size + 1;
+        } else {
+            i = beamStart + BEAM_SIZE - 1;
+            if (mCosts[i] <= cost) return;
+        }
+        while (i > beamStart && mCosts[i - 1] > cost) {
+            mNodes[i] = mNodes[i - 1];
+            mLastKeys[i] = mLastKeys[i - 1];
+            mDepths[i] = mDepths[i - 1];
+            mCosts[i] = mCosts[i - 1];
+            mParents[i] = mParents[i - 1];
+            mChars[i] = mChars[i - 1];
+            i--;
+        }
+        mNodes[i] = node;
+        mLastKeys[i] = lastKey;
+        mDepths[i] = depth;
+        mCosts[i] = cost;
+        mParents[i] = parent;
+        mChars[i] = c;
+    }
+
+    private void addWord(int parent, char c, float cost, int frequency) {
+        final float score = cost - FREQUENCY_WEIGHT * (float) Math.log(1 + frequency);
+        if (mWordCount == MAX_WORDS && mScores[MAX_WORDS - 1] <= score) return;
+        // The prefix the word continues, back to the first letter
+        final int length = mDepths[parent];
+        mWord[length] = c;
+        int end = length;
+        for (int t = parent; t != NO_PARENT; t = mParents[t]) mWord[--end] = mChars[t];
+        final String word = new String(mWord, 0, length + 1);
+
+        int i;
+        for (i = 0; i < mWordCount; i++) {
+            if (mWords[i].equals(word)) break;
+        }
+        if (i < mWordCount) {
+            // Found in another dictionary, or traced another way
+            if (mScores[i] <= score) return;
+        } else if (mWordCount < MAX_WORDS) {
+            i = mWordCount++;
+        } else {
+            i = MAX_WORDS - 1;
+        }
+        while (i > 0 && mScores[i - 1] > score) {
+            mWords[i] = mWords[i - 1];
+            mScores[i] = mScores[i - 1];
+            i--;
+        }
+        mWords[i] = word;
+        mScores[i] = score;
+    }
+
+    /**
+     * Returns the words found for the stroke, best first.
+     */
+    List<CharSequence> getWords() {
+        final ArrayList<CharSequence> words = new ArrayList<CharSequence>(mWordCount);
+        for (int i = 0; i < mWordCount; i++) {
+            words.add(mWords[i]);
+        }
+        return words;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+/**
+ * The points a finger traced over the keyboard, in keyboard coordinates, kept in arrays that
+ * are reused from one stroke to the next.
+ */
+public final class GestureStroke {
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private int[] mXs = new int[INITIAL_CAPACITY];
+    private int[] mYs = new int[INITIAL_CAPACITY];
+    private int mSize;
+    // Distance from the first point along the stroke
+    private float mLength;
+
+    void reset() {
+        mSize = 0;
+        mLength = 0;
+    }
+
+    /**
+     * Adds a point at the end of the stroke, unless the finger didn't move.
+     */
+    void add(int x, int y) {
+        if (mSize > 0) {
+            final int dx = x - mXs[mSize - 1];
+            final int dy = y - mYs[mSize - 1];
+            if (dx == 0 && dy == 0) return;
+            mLength += (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        if (mSize == mXs.length) {
+            mXs = grow(mXs, mSize * 2);
+            mYs = grow(mYs, mSize * 2);
+        }
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mSize++;
+    }
+
+    /**
+     * Makes this stroke a copy of another one.
+     */
+    void set(GestureStroke stroke) {
+        if (mXs.length < stroke.mSize) {
+            mXs = new int[stroke.mXs.length];
+            mYs = new int[stroke.mYs.length];
+        }
+        System.arraycopy(stroke.mXs, 0, mXs, 0, stroke.mSize);
+        System.arraycopy(stroke.mYs, 0, mYs, 0, stroke.mSize);
+        mSize = stroke.mSize;
+        mLength = stroke.mLength;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getX(int index) {
+        return mXs[index];
+    }
+
+    int getY(int index) {
+        return mYs[index];
+    }
+
+    float getLength() {
+        return mLength;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        final int[] grown = new int[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.List;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * Decodes gesture strokes on a background thread while they are being traced.
+ *
+ * Every request gets a copy of the stroke so far. Requests that are still queued when a newer
+ * one is made are dropped, so the worker only decodes the latest stroke and the words shown
+ * keep up with the finger however long a decode takes. Results are delivered on the thread
+ * that created the worker, unless a newer one has been delivered already or the worker was
+ * cancelled. Decoding holds the lock of the {@link Suggest}, like {@link SuggestionWorker}.
+ */
+final class GestureWorker {
+
+    interface Listener {
+        /**
+         * Called with the words for the stroke so far.
+         * @param done whether the stroke was finished
+         */
+        void onGestureWordsReady(List<CharSequence> words, boolean done);
+    }
+
+    private static final class Request {
+        final Suggest mSuggest;
+        final GestureDecoder.Keys mKeys;
+        final GestureStroke mStroke = new GestureStroke();
+        final boolean mDone;
+        final int mSequence;
+        List<CharSequence> mWords;
+
+        Request(Suggest suggest, GestureDecoder.Keys keys, GestureStroke stroke, boolean done,
+                int sequence) {
+            mSuggest = suggest;
+            mKeys = keys;
+            mStroke.set(stroke);
+            mDone = done;
+            mSequence = sequence;
+        }
+    }
+
+    private static final int MSG_DECODE = 0;
+    private static final int MSG_DELIVER = 1;
+
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+    // Worker thread only
+    private final GestureDecoder mDecoder = new GestureDecoder();
+
+    // Written on the main thread only
+    private volatile int mSequence;
+    // Requests before this one were cancelled
+    private volatile int mFirstValidSequence;
+    private int mDeliveredSequence;
+
+    GestureWorker(Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("GestureWorker");
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_DECODE) {
+                    final Request request = (Request) msg.obj;
+                    if (!decode(request)) return;
+                    mMainHandler.obtainMessage(MSG_DELIVER, request).sendToTarget();
+                }
+            }
+        };
+        mMainHandler = new Handler() {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_DELIVER) {
+                    final Request request = (Request) msg.obj;
+                    if (request.mSequence < mFirstValidSequence
+                            || request.mSequence <= mDeliveredSequence) {
+                        return;
+                    }
+                    mDeliveredSequence = request.mSequence;
+                    mListener.onGestureWordsReady(request.mWords, request.mDone);
+                }
+            }
+        };
+    }
+
+    /**
+     * Decodes a copy of the stroke on the worker thread, in place of any request still queued.
+     * @param done whether the stroke was finished, in which case the listener always gets its
+     *        words unless the worker is cancelled
+     */
+    void post(Suggest suggest, GestureDecoder.Keys keys, GestureStroke stroke, boolean done) {
+        final int sequence = ++mSequence;
+        mWorkerHandler.removeMessages(MSG_DECODE);
+        mWorkerHandler.obtainMessage(MSG_DECODE,
+                new Request(suggest, keys, stroke, done, sequence)).sendToTarget();
+    }
+
+    /**
+     * Drops all requests and waits until the suggest isn't used by the worker anymore, so
+     * that it and its dictionaries can be closed.
+     */
+    void cancel(Suggest suggest) {
+        mFirstValidSequence = ++mSequence;
+        mWorkerHandler.removeMessages(MSG_DECODE);
+        mMainHandler.removeMessages(MSG_DELIVER);
+        if (suggest != null) {
+            synchronized (suggest) {
+                // Only waiting for a decode in progress
+            }
+        }
+    }
+
+    void quit() {
+        cancel(null);
+        mWorkerHandler.removeCallbacksAndMessages(null);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+
+    /**
+     * Returns false if the request was cancelled.
+     */
+    private boolean decode(Request request) {
+        if (request.mSequence < mFirstValidSequence) return false;
+        mDecoder.setStroke(request.mStroke, request.mKeys);
+        final Suggest suggest = request.mSuggest;
+        synchronized (suggest) {
+            // Cancelled while waiting for the lock
+            if (request.mSequence < mFirstValidSequence) return false;
+            request.mWords = suggest.getGestureWords(mDecoder);
+        }
+        return true;
+    }
+}
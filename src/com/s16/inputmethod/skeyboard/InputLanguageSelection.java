@@ -27,8 +27,6 @@ import com.s16.inputmethod.skeyboard.R;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.PreferenceActivity;
@@ -46,6 +44,8 @@ public class InputLanguageSelection extends PreferenceActivity {
     private static final String[] BLACKLIST_LANGUAGES = {
         "ko", "ja", "zh", "el"
     };
+
+    private static final int MIN_DICTIONARY_WORDS = 4000;
     
     // Languages for which auto-caps should be disabled
     public static final Set<String> NOCAPS_LANGUAGES = new HashSet<String>();
@@ -126,25 +126,10 @@ public class InputLanguageSelection extends PreferenceActivity {
     }
 
     private boolean hasDictionary(Locale locale) {
-        Resources res = getResources();
-        Configuration conf = res.getConfiguration();
-        Locale saveLocale = conf.locale;
-        boolean haveDictionary = false;
-        conf.locale = locale;
-        res.updateConfiguration(conf, res.getDisplayMetrics());
-
-        int[] dictionaries = LatinIME.getDictionary(res);
-        BinaryDictionary bd = new BinaryDictionary(this, dictionaries, Suggest.DIC_MAIN);
-
         // Is the dictionary larger than a placeholder? Arbitrarily chose a lower limit of
-        // 4000-5000 words, whereas the LARGE_DICTIONARY is about 20000+ words.
-        if (bd.getSize() > Suggest.LARGE_DICTIONARY_THRESHOLD / 4) {
-            haveDictionary = true;
-        }
-        bd.close();
-        conf.locale = saveLocale;
-        res.updateConfiguration(conf, res.getDisplayMetrics());
-        return haveDictionary;
+        // 4000 words, whereas the LARGE_DICTIONARY is about 20000+ words.
+        return DictionaryIndex.getInstance(getResources()).getWordCount(locale)
+                > MIN_DICTIONARY_WORDS;
     }
 
     private String get5Code(Locale locale) {
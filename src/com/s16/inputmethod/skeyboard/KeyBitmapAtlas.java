@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Region.Op;
+
+/**
+ * Keeps the keys of a keyboard view drawn in the states they have been shown in, so that
+ * pressing or releasing a key copies its picture instead of drawing its background, label and
+ * shadow again.
+ *
+ * All pictures share one bitmap the size of the keyboard, filled row by row. A key gets a
+ * picture for a state the first time it's drawn in that state. When the bitmap is full it's
+ * emptied and filled again by the keys used after that, so the keys in use stay cached. Every
+ * picture carries the version of the key content it was drawn from, a positive number, and
+ * isn't used anymore once the key changes.
+ */
+final class KeyBitmapAtlas {
+
+    // Enough for all the drawable states of Keyboard.Key
+    private static final int MAX_STATES = 8;
+    private static final int NO_CELL = -1;
+
+    private Bitmap mBitmap;
+    private final Canvas mCanvas = new Canvas();
+    // The drawable states seen so far, told apart by identity
+    private final int[][] mStates = new int[MAX_STATES][];
+    private int mStateCount;
+
+    // Per key and state: the top left corner of its picture, as x << 16 | y
+    private int[] mCells = new int[0];
+    private int[] mCellVersions = new int[0];
+    private int mKeyCount;
+
+    // Where the next picture goes
+    private int mRowX;
+    private int mRowY;
+    private int mRowHeight;
+
+    // The picture being drawn
+    private int mDrawingCell = NO_CELL;
+
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    /**
+     * Drops all pictures and makes room for the keys of a keyboard of the given size.
+     */
+    void reset(int keyCount, int width, int height) {
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            release();
+            if (width <= 0 || height <= 0) return;
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(mBitmap);
+        }
+        final int cellCount = keyCount * MAX_STATES;
+        if (mCells.length < cellCount) {
+            mCells = new int[cellCount];
+            mCellVersions = new int[cellCount];
+        }
+        mKeyCount = keyCount;
+        clear();
+    }
+
+    /**
+     * Frees the bitmap. Nothing is cached until the next {@link #reset}.
+     */
+    void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mKeyCount = 0;
+        mDrawingCell = NO_CELL;
+    }
+
+    /**
+     * Copies the picture of a key to the canvas, if there is one for its state and version.
+     * @return false if the key has to be drawn
+     */
+    boolean draw(Canvas canvas, int keyIndex, int[] drawableState, int version, int x, int y,
+            int width, int height) {
+        final int cell = getCell(keyIndex, drawableState);
+        if (cell == NO_CELL || mCells[cell] == NO_CELL || mCellVersions[cell] != version) {
+            return false;
+        }
+        final int left = mCells[cell] >>> 16;
+        final int top = mCells[cell] & 0xFFFF;
+        mSrc.set(left, top, left + width, top + height);
+        mDst.set(x, y, x + width, y + height);
+        canvas.drawBitmap(mBitmap, mSrc, mDst, null);
+        return true;
+    }
+
+    /**
+     * Makes room for the picture of a key. The key has to be drawn at 0, 0 into the canvas
+     * returned, and then {@link #endKey} called.
+     * @return null if the key can't be cached
+     */
+    Canvas beginKey(int keyIndex, int[] drawableState, int width, int height) {
+        final int cell = getCell(keyIndex, drawableState);
+        if (cell == NO_CELL || width <= 0 || height <= 0) return null;
+        if (!allocate(width, height)) {
+            // Start over with the keys used from now on
+            clear();
+            if (!allocate(width, height)) return null;
+        }
+        mCells[cell] = (mRowX - width) << 16 | mRowY;
+        // Not valid until it's drawn
+        mCellVersions[cell] = 0;
+        mDrawingCell = cell;
+
+        final Canvas canvas = mCanvas;
+        canvas.save();
+        canvas.clipRect(mRowX - width, mRowY, mRowX, mRowY + height, Op.REPLACE);
+        canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+        canvas.translate(mRowX - width, mRowY);
+        return canvas;
+    }
+
+    /**
+     * Finishes the picture started by {@link #beginKey}.
+     * @param version the version of the key content it shows
+     */
+    void endKey(int version) {
+        mCanvas.restore();
+        if (mDrawingCell != NO_CELL) {
+            mCellVersions[mDrawingCell] = version;
+            mDrawingCell = NO_CELL;
+        }
+    }
+
+    private int getCell(int keyIndex, int[] drawableState) {
+        if (mBitmap == null || keyIndex < 0 || keyIndex >= mKeyCount) return NO_CELL;
+        for (int i = 0; i < mStateCount; i++) {
+            if (mStates[i] == drawableState) return keyIndex * MAX_STATES + i;
+        }
+        if (mStateCount == MAX_STATES) return NO_CELL;
+        mStates[mStateCount] = drawableState;
+        return keyIndex * MAX_STATES + mStateCount++;
+    }
+
+    /**
+     * Moves the next free position past a picture of the given size.
+     */
+    private boolean allocate(int width, int height) {
+        final int atlasWidth = mBitmap.getWidth();
+        final int atlasHeight = mBitmap.getHeight();
+        if (width > atlasWidth) return false;
+        if (mRowX + width > atlasWidth) {
+            mRowY += mRowHeight;
+            mRowX = 0;
+            mRowHeight = 0;
+        }
+        if (mRowY + height > atlasHeight) return false;
+        mRowX += width;
+        mRowHeight = Math.max(mRowHeight, height);
+        return true;
+    }
+
+    private void clear() {
+        Arrays.fill(mCells, 0, mKeyCount * MAX_STATES, NO_CELL);
+        mRowX = 0;
+        mRowY = 0;
+        mRowHeight = 0;
+        mDrawingCell = NO_CELL;
+    }
+}
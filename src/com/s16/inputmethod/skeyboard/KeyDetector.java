@@ -35,6 +35,8 @@ abstract class KeyDetector {
 
     protected int mProximityThresholdSquare;
 
+    protected TouchModel mTouchModel;
+
     public Key[] setKeyboard(Keyboard keyboard, float correctionX, float correctionY) {
         if (keyboard == null)
             throw new NullPointerException();
@@ -44,9 +46,21 @@ abstract class KeyDetector {
         List<Key> keys = mKeyboard.getKeys();
         Key[] array = keys.toArray(new Key[keys.size()]);
         mKeys = array;
+        if (mTouchModel != null) mTouchModel.setKeyboard(keyboard, mCorrectionX, mCorrectionY);
         return array;
     }
 
+    /**
+     * Sets the model of the user's touches, which orders the nearby keys by how likely they
+     * were meant, or null to order them by distance.
+     */
+    public void setTouchModel(TouchModel model) {
+        mTouchModel = model;
+        if (model != null && mKeyboard != null) {
+            model.setKeyboard(mKeyboard, mCorrectionX, mCorrectionY);
+        }
+    }
+
     protected int getTouchX(int x) {
         return x + mCorrectionX;
     }
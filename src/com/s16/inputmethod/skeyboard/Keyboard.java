@@ -153,12 +153,19 @@ public class Keyboard {
 
     // Variables for pre-computing nearest keys.
     
-    private static final int GRID_WIDTH = 10;
-    private static final int GRID_HEIGHT = 5;
-    private static final int GRID_SIZE = GRID_WIDTH * GRID_HEIGHT;
+    // Cells per key in each direction, so that most of a key is covered by cells inside it
+    private static final int CELLS_PER_KEY = 4;
+    private static final int MAX_GRID_WIDTH = 64;
+    private static final int MAX_GRID_HEIGHT = 32;
+    private static final int[] NO_KEYS = new int[0];
+    private int mGridWidth;
+    private int mGridHeight;
     private int mCellWidth;
     private int mCellHeight;
+    // Per cell, the keys near it, nearest to the center of the cell first
     private int[][] mGridNeighbors;
+    // Per cell, the key all of the cell is inside of and no other key reaches into, or -1
+    private int[] mGridKeys;
     private int mProximityThreshold;
     /** Number of key widths from current touch point to search for nearest keys. */
     private static float SEARCH_DISTANCE = 1.8f;
@@ -799,6 +806,7 @@ public class Keyboard {
 	            }
 	        }
 	        mTotalWidth = newWidth;
+	        mGridNeighbors = null;
     	}
     }
     
@@ -904,49 +912,147 @@ public class Keyboard {
     }
     
     private void computeNearestNeighbors() {
+        final int keyCount = mKeys.size();
+        int minKeyWidth = Integer.MAX_VALUE;
+        int minKeyHeight = Integer.MAX_VALUE;
+        for (int i = 0; i < keyCount; i++) {
+            final Key key = mKeys.get(i);
+            if (key.width > 0) minKeyWidth = Math.min(minKeyWidth, key.width);
+            if (key.height > 0) minKeyHeight = Math.min(minKeyHeight, key.height);
+        }
+        final int width = Math.max(1, getMinWidth());
+        final int height = Math.max(1, getHeight());
         // Round-up so we don't have any pixels outside the grid
-        mCellWidth = (getMinWidth() + GRID_WIDTH - 1) / GRID_WIDTH;
-        mCellHeight = (getHeight() + GRID_HEIGHT - 1) / GRID_HEIGHT;
-        mGridNeighbors = new int[GRID_SIZE][];
-        int[] indices = new int[mKeys.size()];
-        final int gridWidth = GRID_WIDTH * mCellWidth;
-        final int gridHeight = GRID_HEIGHT * mCellHeight;
-        for (int x = 0; x < gridWidth; x += mCellWidth) {
-            for (int y = 0; y < gridHeight; y += mCellHeight) {
+        mCellWidth = Math.max(Math.max(1, minKeyWidth == Integer.MAX_VALUE ? width
+                : minKeyWidth / CELLS_PER_KEY), (width + MAX_GRID_WIDTH - 1) / MAX_GRID_WIDTH);
+        mCellHeight = Math.max(Math.max(1, minKeyHeight == Integer.MAX_VALUE ? height
+                : minKeyHeight / CELLS_PER_KEY), (height + MAX_GRID_HEIGHT - 1) / MAX_GRID_HEIGHT);
+        mGridWidth = (width + mCellWidth - 1) / mCellWidth;
+        mGridHeight = (height + mCellHeight - 1) / mCellHeight;
+        mGridNeighbors = new int[mGridWidth * mGridHeight][];
+        mGridKeys = new int[mGridWidth * mGridHeight];
+
+        final int[] indices = new int[keyCount];
+        final int[] distances = new int[keyCount];
+        final int[] slops = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            slops[i] = getHitSlop(mKeys.get(i));
+        }
+        for (int row = 0; row < mGridHeight; row++) {
+            final int top = row * mCellHeight;
+            final int bottom = top + mCellHeight - 1;
+            for (int column = 0; column < mGridWidth; column++) {
+                final int left = column * mCellWidth;
+                final int right = left + mCellWidth - 1;
+                final int centerX = (left + right) / 2;
+                final int centerY = (top + bottom) / 2;
                 int count = 0;
-                for (int i = 0; i < mKeys.size(); i++) {
+                for (int i = 0; i < keyCount; i++) {
                     final Key key = mKeys.get(i);
-                    if (key.squaredDistanceFrom(x, y) < mProximityThreshold ||
-                            key.squaredDistanceFrom(x + mCellWidth - 1, y) < mProximityThreshold ||
-                            key.squaredDistanceFrom(x + mCellWidth - 1, y + mCellHeight - 1) 
-                                < mProximityThreshold ||
-                            key.squaredDistanceFrom(x, y + mCellHeight - 1) < mProximityThreshold) {
-                        indices[count++] = i;
+                    // A key near any point of the cell, or one that a point of it may be inside
+                    final int dx = distanceToRange(key.x + key.width / 2, left, right);
+                    final int dy = distanceToRange(key.y + key.height / 2, top, bottom);
+                    if (dx * dx + dy * dy >= mProximityThreshold
+                            && !canBeInside(key, slops[i], left, top, right, bottom)) {
+                        continue;
+                    }
+                    // Insertion sort by the distance from the center of the cell
+                    final int distance = key.squaredDistanceFrom(centerX, centerY);
+                    int j = count++;
+                    while (j > 0 && distances[j - 1] > distance) {
+                        indices[j] = indices[j - 1];
+                        distances[j] = distances[j - 1];
+                        j--;
                     }
+                    indices[j] = i;
+                    distances[j] = distance;
                 }
-                int [] cell = new int[count];
+                final int[] cell = new int[count];
                 System.arraycopy(indices, 0, cell, 0, count);
-                mGridNeighbors[(y / mCellHeight) * GRID_WIDTH + (x / mCellWidth)] = cell;
+                final int cellIndex = row * mGridWidth + column;
+                mGridNeighbors[cellIndex] = cell;
+                mGridKeys[cellIndex] = findCellKey(cell, slops, left, top, right, bottom);
+            }
+        }
+    }
+
+    /**
+     * Returns the key that every point of the cell is inside of, if no other key can claim
+     * any of them, or -1.
+     */
+    private int findCellKey(int[] cell, int[] slops, int left, int top, int right,
+            int bottom) {
+        int cellKey = -1;
+        for (int i = 0; i < cell.length; i++) {
+            final Key key = mKeys.get(cell[i]);
+            if (slops[cell[i]] == 0 && left >= key.x && right < key.x + key.width
+                    && top >= key.y && bottom < key.y + key.height) {
+                cellKey = cell[i];
+                break;
+            }
+        }
+        if (cellKey < 0) return -1;
+        for (int i = 0; i < cell.length; i++) {
+            if (cell[i] != cellKey
+                    && canBeInside(mKeys.get(cell[i]), slops[cell[i]], left, top, right, bottom)) {
+                return -1;
             }
         }
+        return cellKey;
+    }
+
+    /**
+     * Whether {@link Key#isInside} may be true for a point in the rectangle. Keys at an edge of
+     * the keyboard reach to infinity on that side.
+     */
+    private static boolean canBeInside(Key key, int slop, int left, int top, int right,
+            int bottom) {
+        final int flags = key.edgeFlags;
+        return ((flags & EDGE_LEFT) != 0 || right >= key.x - slop)
+                && ((flags & EDGE_RIGHT) != 0 || left < key.x + key.width + slop)
+                && ((flags & EDGE_TOP) != 0 || bottom >= key.y - slop)
+                && ((flags & EDGE_BOTTOM) != 0 || top < key.y + key.height + slop);
+    }
+
+    private static int distanceToRange(int value, int min, int max) {
+        return value < min ? min - value : value > max ? value - max : 0;
+    }
+
+    /**
+     * Returns how far the area a key reacts to, as tested by {@link Key#isInside}, may reach
+     * beyond its bounds. Keys that reach beyond them are always tested.
+     */
+    protected int getHitSlop(Key key) {
+        return 0;
     }
     
     /**
      * Returns the indices of the keys that are closest to the given point.
      * @param x the x-coordinate of the point
      * @param y the y-coordinate of the point
-     * @return the array of integer indices for the nearest keys to the given point. If the given
-     * point is out of range, then an array of size zero is returned.
+     * @return the array of integer indices for the nearest keys to the given point, nearest to
+     * the center of its grid cell first. If the given point is out of range, then an array of
+     * size zero is returned.
      */
     public int[] getNearestKeys(int x, int y) {
         if (mGridNeighbors == null) computeNearestNeighbors();
         if (x >= 0 && x < getMinWidth() && y >= 0 && y < getHeight()) {
-            int index = (y / mCellHeight) * GRID_WIDTH + (x / mCellWidth);
-            if (index < GRID_SIZE) {
-                return mGridNeighbors[index];
-            }
+            return mGridNeighbors[(y / mCellHeight) * mGridWidth + (x / mCellWidth)];
+        }
+        return NO_KEYS;
+    }
+
+    /**
+     * Returns the key the given point is inside of, if that can be told without testing the
+     * keys around it: the point is well inside a key, and no other key reaches there.
+     * @return the index of the key, or -1 if the nearest keys have to be tested
+     */
+    public int getKeyWellInside(int x, int y) {
+        if (mGridNeighbors == null) computeNearestNeighbors();
+        if (x >= 0 && x < getMinWidth() && y >= 0 && y < getHeight()) {
+            return mGridKeys[(y / mCellHeight) * mGridWidth + (x / mCellWidth)];
         }
-        return new int[0];
+        return -1;
     }
 
     protected Row createRowFromXml(Resources res, XmlResourceParser parser) {
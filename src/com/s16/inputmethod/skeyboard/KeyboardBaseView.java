@@ -35,6 +35,7 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.Printer;
 import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.Gravity;
@@ -157,6 +158,15 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
          * Called when the user quickly moves the finger from down to up.
          */
         void swipeUp();
+
+        /**
+         * Called while the user traces a word over the letter keys, with the stroke so far, and
+         * once more when the finger is lifted. A cancelled stroke is finished empty. The stroke
+         * is reused, so it has to be copied to be kept.
+         * @param stroke the points traced, in keyboard coordinates
+         * @param done whether the finger was lifted
+         */
+        void onGesture(GestureStroke stroke, boolean done);
     }
     
     private static class MiniKeyboardHolder {
@@ -257,6 +267,16 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     private final ArrayList<PointerTracker> mPointerTrackers = new ArrayList<PointerTracker>();
     private boolean mIgnoreMove = false; // SMM
 
+    // Tracing words over the letter keys
+    private static final float GESTURE_START_KEY_WIDTHS = 0.7f;
+    private boolean mGestureInputEnabled;
+    private final GestureStroke mGestureStroke = new GestureStroke();
+    // The pointer that went down on a letter key, or NOT_A_GESTURE
+    private int mGesturePointerId = NOT_A_GESTURE;
+    private float mGestureStartLength;
+    private boolean mInGesture;
+    private static final int NOT_A_GESTURE = -1;
+
     // TODO: Let the PointerTracker class manage this pointer queue
     private final PointerQueue mPointerQueue = new PointerQueue();
 
@@ -280,12 +300,14 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     private Bitmap mBuffer;
     /** Notes if the keyboard just changed, so that we could possibly reallocate the mBuffer. */
     private boolean mKeyboardChanged;
-    private Key mInvalidatedKey;
+    /** The keys to draw again if nothing else has to */
+    private final ArrayList<Key> mInvalidatedKeys = new ArrayList<Key>();
+    /** Pictures of the keys in the states they have been drawn in */
+    private final KeyBitmapAtlas mKeyAtlas = new KeyBitmapAtlas();
     /** The canvas for the above mutable keyboard bitmap */
     private Canvas mCanvas;
     private final Paint mPaint;
     private final Rect mPadding;
-    private final Rect mClipRegion = new Rect(0, 0, 0, 0);
     // This map caches key label text height in pixel as value and key label text size as map key.
     @SuppressLint("UseSparseArrays")
 	private final HashMap<Integer, Float> mTextHeightCache = new HashMap<Integer, Float>();
@@ -293,6 +315,50 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     private final float KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR = 0.55f;
     private final String KEY_LABEL_HEIGHT_REFERENCE_CHAR = "H";
 
+    /**
+     * How the labels of a key are drawn. The draw loop only looks these up, so that it
+     * doesn't have to build strings or measure text for every key in every frame.
+     */
+    private static final class KeyLabel {
+        // What the values were worked out from
+        int mGeneration = -1;
+        Key mKey;
+        Drawable mIcon;
+        CharSequence mLabel;
+        CharSequence mShiftLabel;
+        CharSequence mTrailLabel;
+        CharSequence mHintLabel;
+        boolean mAdjustCase;
+        boolean mShifted;
+        int mWidth;
+        int mHeight;
+
+        // Changes whenever the values do, positive
+        int mVersion;
+        // Null if the key has no label
+        String mGlyph;
+        Typeface mTypeface;
+        int mTextSize;
+        int mLabelX;
+        float mBaseline;
+        String mTrail;
+        int mTrailX;
+        float mTrailBaseline;
+        String mHint;
+    }
+
+    // Indexed like mKeys
+    private KeyLabel[] mKeyLabels;
+    private int mKeyLabelGeneration;
+    // Last version given to a KeyLabel
+    private int mKeyLabelVersion;
+
+    // Frame times
+    private final DurationStats mFrameTimes = new DurationStats();
+    private final DurationStats mKeyLatencies = new DurationStats();
+    // When the first key that isn't drawn yet was invalidated, 0 if none
+    private long mKeyChangeTime;
+
     private final UIHandler mHandler = new UIHandler();
 
     class UIHandler extends Handler {
@@ -682,6 +748,7 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         if (mKeyboard != null) {
         	updateKeyHeight(mKeyboard.getKeyHeight());
         }
+        invalidateKeyLabels();
         
         invalidateAllKeys();
     }
@@ -743,6 +810,7 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         requestLayout();
         // Hint to reallocate the buffer if the size changed
         mKeyboardChanged = true;
+        mKeyLabels = null;
         invalidateAllKeys();
         computeProximityThreshold(keyboard);
         mMiniKeyboardCache.clear();
@@ -835,6 +903,7 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     
     public void setTextSizeScale(final float textSizeScale) {
     	mKeyTextSizeScale = textSizeScale;
+    	invalidateKeyLabels();
     }
     
     public void updateKeyHeight(int keyHeight) {
@@ -850,6 +919,7 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     	if (mTrailTextRatio >= 0.0f) {
     		mTrailTextSize = (int)(keyHeight * mTrailTextRatio);
     	}
+    	invalidateKeyLabels();
     }
     // } SMM 
     
@@ -873,6 +943,23 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         mKeyDetector.setProximityCorrectionEnabled(enabled);
     }
 
+    /**
+     * Sets the model of where the user touches the keys, which orders the key codes nearby a
+     * touch by how likely they were meant.
+     */
+    public void setTouchModel(TouchModel model) {
+        mKeyDetector.setTouchModel(model);
+    }
+
+    /**
+     * Enables tracing words over the letter keys. A stroke that starts on a letter key and
+     * leaves it is given to {@link OnKeyboardActionListener#onGesture} instead of pressing keys.
+     */
+    public void setGestureInputEnabled(boolean enabled) {
+        mGestureInputEnabled = enabled;
+        if (!enabled) cancelGesture();
+    }
+
     /**
      * Returns true if proximity correction is enabled.
      */
@@ -932,10 +1019,51 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     @Override
     public void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        final long start = System.nanoTime();
         if (mDrawPending || mBuffer == null || mKeyboardChanged) {
             onBufferDraw();
+        } else if (!mInvalidatedKeys.isEmpty()) {
+            onKeysDraw();
         }
         canvas.drawBitmap(mBuffer, 0, 0, null);
+
+        final long end = System.nanoTime();
+        mFrameTimes.add(end - start);
+        if (mKeyChangeTime != 0) {
+            mKeyLatencies.add(end - mKeyChangeTime);
+            mKeyChangeTime = 0;
+        }
+    }
+
+    /**
+     * Prints how long drawing has taken, and how long it took for keys that were pressed or
+     * released to be drawn, since the view was created.
+     */
+    public void dumpFrameTimes(Printer p) {
+        p.println("  Draw time: " + mFrameTimes);
+        p.println("  Key change to draw: " + mKeyLatencies);
+    }
+
+    /**
+     * Count, average and maximum of durations.
+     */
+    private static final class DurationStats {
+        private int mCount;
+        private long mTotal;
+        private long mMax;
+
+        void add(long nanos) {
+            mCount++;
+            mTotal += nanos;
+            if (nanos > mMax) mMax = nanos;
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0) return "no frames";
+            return mCount + " frames, average " + (mTotal / mCount / 1000) + " us, max "
+                    + (mMax / 1000) + " us";
+        }
     }
 
     private void onBufferDraw() {
@@ -948,6 +1076,8 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
                 mBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
                 mCanvas = new Canvas(mBuffer);
             }
+            mKeyAtlas.reset(mKeys != null ? mKeys.length : 0, mBuffer.getWidth(),
+                    mBuffer.getHeight());
             invalidateAllKeys();
             mKeyboardChanged = false;
         }
@@ -957,208 +1087,23 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         if (mKeyboard == null) return;
 
         final Paint paint = mPaint;
-        final Drawable keyBackground = mKeyBackground;
-        final Drawable keySpacebarBackground = mKeySpacebarBackground;
-        final Rect clipRegion = mClipRegion;
-        final Rect padding = mPadding;
         final int kbdPaddingLeft = getPaddingLeft();
         final int kbdPaddingTop = getPaddingTop();
         final Key[] keys = mKeys;
-        final Key invalidKey = mInvalidatedKey;
-        final int keyMarginX = mKeyHorizontalMargin;
-        final int keyMarginY = mKeyVerticalMargin;
 
-        // paint.setColor(mKeyTextColor); // SMM
-        boolean drawSingleKey = false;
-        if (invalidKey != null && canvas.getClipBounds(clipRegion)) {
-            // TODO we should use Rect.inset and Rect.contains here.
-            // Is clipRegion completely contained within the invalidated key?
-            if (invalidKey.x + kbdPaddingLeft - 1 <= clipRegion.left &&
-                    invalidKey.y + kbdPaddingTop - 1 <= clipRegion.top &&
-                    invalidKey.x + invalidKey.width + kbdPaddingLeft + 1 >= clipRegion.right &&
-                    invalidKey.y + invalidKey.height + kbdPaddingTop + 1 >= clipRegion.bottom) {
-                drawSingleKey = true;
-            }
-        }
         canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+        // Switch the characters to uppercase if shift is pressed
+        final boolean adjustCase = mayBeAdjustCase();
+        final boolean shifted = mKeyboard.isShifted();
         final int keyCount = keys.length;
         for (int i = 0; i < keyCount; i++) {
             final Key key = keys[i];
-            if (drawSingleKey && invalidKey != key) {
-                continue;
-            }
             if (key.spacer) {
             	continue;
             }
-            // Draw key background
-            final int bgX = key.x + kbdPaddingLeft;
-            final int bgY = key.y + kbdPaddingTop;
-            int[] drawableState = key.getCurrentDrawableState();
-            if (key.isSpaceKey() && keySpacebarBackground != null) {
-            	keySpacebarBackground.setState(drawableState);
-            } else {
-            	keyBackground.setState(drawableState);
-            }
-            
-            final Rect bounds = keyBackground.getBounds();
-            if (key.width != bounds.right || key.height != bounds.bottom) {
-                //keyBackground.setBounds(0, 0, key.width, key.height);
-            	if (key.isSpaceKey() && keySpacebarBackground != null) {
-            		keySpacebarBackground.setBounds(keyMarginX, keyMarginX, key.width - keyMarginX, key.height - keyMarginY); // SMM
-            	} else {
-            		keyBackground.setBounds(keyMarginX, keyMarginX, key.width - keyMarginX, key.height - keyMarginY); // SMM
-            	}
-            }
-            canvas.translate(bgX, bgY);
-            if (key.isSpaceKey() && keySpacebarBackground != null) {
-            	keySpacebarBackground.draw(canvas);
-            } else {
-            	keyBackground.draw(canvas);
-            }
-
-            // Switch the character to uppercase if shift is pressed
-            //String label = key.label == null? null : adjustCase(key.label).toString();
-            final boolean adjustCase = mayBeAdjustCase(); 
-            String label = key.getLabel(adjustCase) == null ? null : key.getLabel(adjustCase).toString(); // SMM
-            int keyTextColor = mKeyTextColor;
-            if(key.actionKey) {
-            	keyTextColor = mKeyActionColor;
-            } else if (key.modifier) {
-            	keyTextColor = mKeyModifierColor;
-            }
-
-            boolean shouldDrawIcon = true;
-            if (label != null) {
-                // For characters, use large font. For labels like "Done", use small font.
-                final int labelSize;
-                
-                final int textWeight = mKeyboard.getKeyTextWeight();
-                if(key.iconKey) {
-                	//final int minSize = Math.min(key.height, key.width);
-                	//final int iconicTextSize = (int)getContext().getResources().getFraction(R.fraction.key_iconic_text_size, minSize, minSize);
-                	final int iconicTextSize = (int)(Math.min(key.height, key.width) * key.iconSizeAdjust);
-                	labelSize = Math.max(iconicTextSize, mKeyTextSize);
-                } else if (label.length() > 1 && key.codes.length < 2 && !key.fullTextSize && !DeadAccentSequence.isDeadAccent(label)) {
-                    labelSize = (int)(mKeyLabelTextSize * mKeyTextSizeScale);
-                } else {
-	                if(textWeight < 2) {
-	                	labelSize = mKeyTextSize - (mKeyTextSize / 4); 
-	                } else if (textWeight > 2) {
-	                	labelSize = mKeyTextSize + (mKeyTextSize / 4);
-	                } else {
-	                	labelSize = (int)(mKeyTextSize * mKeyTextSizeScale);
-	                }
-                }
-                
-                final int centerX = (key.width + padding.left - padding.right) / 2;
-                final int centerY = (key.height + padding.top - padding.bottom) / 2;
-                
-                // Draw trail label
-                String trail = key.trailLabel == null ? null : key.trailLabel.toString();
-                if(trail != null) {
-                	final int trailTextSize = mTrailTextSize;
-                	paint.setColor(mTrailTextColor);
-                	paint.setTextSize(trailTextSize);
-                	paint.setTypeface(Typeface.DEFAULT);
-                	paint.setTextAlign(Align.LEFT);
-                	paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
-                	
-                	final float trailLabelHeight = getLabelHeight(paint, trailTextSize);
-                	final int trailX = padding.left + key.width / 3;
-                    final float trailBaseline = centerY + trailLabelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
-                    canvas.drawText(trail, trailX, trailBaseline, paint);
-                    paint.setShadowLayer(0, 0, 0, 0);
-                }
-                
-                paint.setTypeface(getKeyTextTypeface(label, key.iconic)); // SMM
-                paint.setTextSize(labelSize);
-                
-                // SMM {
-                paint.setColor(keyTextColor);
-                paint.setTextAlign(Align.CENTER);
-                // }
-                
-                int labelX = centerX;
-                if(trail != null) {
-                	labelX = padding.left + key.width / 6;
-                }
-                
-                final String fixLabel = ZawGyiCorrection.ZawGyiDrawFix(label).toString(); 
-                final float labelHeight = getLabelHeight(paint, labelSize);
-                if(key.iconKey) {
-                    final float baseline = centerY + labelHeight * 0.52f;
-                    paint.setShadowLayer(0, 0, 0, 0);
-                	canvas.drawText(fixLabel, labelX, baseline, paint);
-                } else {
-                	final float baseline = centerY + labelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
-                    // Draw a drop shadow for the text
-                	paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
-                	canvas.drawText(fixLabel, labelX, baseline, paint);
-                    paint.setShadowLayer(0, 0, 0, 0);
-                }
-                
-                // Draw hint label (if present) behind the main key
-                String hint = key.hintLabel == null ? null : key.hintLabel.toString();
-                if (hint != null && !key.isShifted()) {
-                	final int hintTextSize = mKeyHintTextSize;
-                	paint.setColor(mKeyHintColor);
-                	paint.setTextSize(hintTextSize);
-                	paint.setTypeface(Typeface.DEFAULT_BOLD);
-                	paint.setTextAlign(Align.CENTER);
-
-                    final float x = key.width - mNumHintRightPadding;
-                    final float hintBaseline = mNumHintTopPadding;
-                    canvas.drawText(hint, x, hintBaseline, paint);
-                    paint.setShadowLayer(0, 0, 0, 0);
-                }
-
-                // Usually don't draw icon if label is not null, but we draw icon for the number
-                // hint and popup hint.
-                shouldDrawIcon = shouldDrawLabelAndIcon(key) || SoftKeyboard.hasPopupHint(key);
-            }
-            
-            // Draw popup hint "..." at the bottom right corner of the key.
-            if (key.icon == null && SoftKeyboard.hasPopupHint(key)) {
-            	final int hintTextSize = mKeyHintTextSize;
-            	paint.setColor(mLanguagebarTextColor);
-            	paint.setTextSize(hintTextSize);
-            	paint.setTypeface(Typeface.DEFAULT);
-            	paint.setTextAlign(Align.CENTER);
-
-                final float x = key.width - mHintPopupRightPadding;
-                final float hintBaseline = key.height - mHintPopupBottomPadding;
-                
-                canvas.drawText(KeyboardTheme.getIconicLabel(KeyboardTheme.ICON_HINT_POPUP), x, hintBaseline, paint);
-                paint.setShadowLayer(0, 0, 0, 0);
-            }
-            
-            // Draw key icon.
-            if (key.icon != null && shouldDrawIcon) {
-                // Special handing for the upper-right number hint icons
-                final int drawableWidth;
-                final int drawableHeight;
-                final int drawableX;
-                final int drawableY;
-                if (shouldDrawIconFully(key)) {
-                    drawableWidth = key.width;
-                    drawableHeight = key.height;
-                    drawableX = 0;
-                    drawableY = NUMBER_HINT_VERTICAL_ADJUSTMENT_PIXEL;
-                } else {
-                    drawableWidth = key.icon.getIntrinsicWidth();
-                    drawableHeight = key.icon.getIntrinsicHeight();
-                    drawableX = (key.width + padding.left - padding.right - drawableWidth) / 2;
-                    drawableY = (key.height + padding.top - padding.bottom - drawableHeight) / 2;
-                }
-                canvas.translate(drawableX, drawableY);
-                key.icon.setBounds(0, 0, drawableWidth, drawableHeight);
-                key.icon.setColorFilter(keyTextColor, PorterDuff.Mode.SRC_ATOP);
-                key.icon.draw(canvas);
-                canvas.translate(-drawableX, -drawableY);
-            }
-            canvas.translate(-bgX, -bgY);
+            drawKeyCached(canvas, i, key, adjustCase, shifted, key.x + kbdPaddingLeft,
+                    key.y + kbdPaddingTop);
         }
-        mInvalidatedKey = null;
         // Overlay a dark rectangle to dim the keyboard
         if (mMiniKeyboard != null) {
             paint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
@@ -1186,8 +1131,303 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
 
         mDrawPending = false;
         mDirtyRect.setEmpty();
+        mInvalidatedKeys.clear();
+    }
+
+    /**
+     * Draws only the keys invalidated since the last draw into the keyboard bitmap.
+     */
+    private void onKeysDraw() {
+        if (mKeyboard == null) return;
+        final Canvas canvas = mCanvas;
+        final Paint paint = mPaint;
+        final Key[] keys = mKeys;
+        final int kbdPaddingLeft = getPaddingLeft();
+        final int kbdPaddingTop = getPaddingTop();
+        final boolean adjustCase = mayBeAdjustCase();
+        final boolean shifted = mKeyboard.isShifted();
+        final ArrayList<Key> invalidatedKeys = mInvalidatedKeys;
+        final int count = invalidatedKeys.size();
+        for (int i = 0; i < count; i++) {
+            final Key key = invalidatedKeys.get(i);
+            int index = keys.length - 1;
+            while (index >= 0 && keys[index] != key) index--;
+            if (index < 0) {
+                continue;
+            }
+            final int x = key.x + kbdPaddingLeft;
+            final int y = key.y + kbdPaddingTop;
+            canvas.clipRect(x, y, x + key.width, y + key.height, Op.REPLACE);
+            canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+            if (!key.spacer) {
+                drawKeyCached(canvas, index, key, adjustCase, shifted, x, y);
+            }
+            // Overlay a dark rectangle to dim the keyboard
+            if (mMiniKeyboard != null) {
+                paint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
+                canvas.drawRect(x, y, x + key.width, y + key.height, paint);
+            }
+        }
+        invalidatedKeys.clear();
+        mDirtyRect.setEmpty();
+    }
+
+    /**
+     * Draws a key with its top left corner at x, y, copying its picture from the atlas if it
+     * has been drawn the same way before.
+     */
+    private void drawKeyCached(Canvas canvas, int index, Key key, boolean adjustCase,
+            boolean shifted, int x, int y) {
+        final KeyLabel keyLabel = getKeyLabel(index, key, adjustCase, shifted);
+        final int[] drawableState = key.getCurrentDrawableState();
+        final KeyBitmapAtlas atlas = mKeyAtlas;
+        if (atlas.draw(canvas, index, drawableState, keyLabel.mVersion, x, y, key.width,
+                key.height)) {
+            return;
+        }
+        final Canvas keyCanvas = atlas.beginKey(index, drawableState, key.width, key.height);
+        if (keyCanvas != null) {
+            drawKey(keyCanvas, key, keyLabel, drawableState, shifted);
+            atlas.endKey(keyLabel.mVersion);
+            atlas.draw(canvas, index, drawableState, keyLabel.mVersion, x, y, key.width,
+                    key.height);
+        } else {
+            canvas.translate(x, y);
+            drawKey(canvas, key, keyLabel, drawableState, shifted);
+            canvas.translate(-x, -y);
+        }
+    }
+
+    /**
+     * Draws a key with its top left corner at 0, 0.
+     */
+    private void drawKey(Canvas canvas, Key key, KeyLabel keyLabel, int[] drawableState,
+            boolean shifted) {
+        final Paint paint = mPaint;
+        final Drawable keyBackground = mKeyBackground;
+        final Drawable keySpacebarBackground = mKeySpacebarBackground;
+        final Rect padding = mPadding;
+        final int keyMarginX = mKeyHorizontalMargin;
+        final int keyMarginY = mKeyVerticalMargin;
+
+        // Draw key background
+        if (key.isSpaceKey() && keySpacebarBackground != null) {
+        	keySpacebarBackground.setState(drawableState);
+        } else {
+        	keyBackground.setState(drawableState);
+        }
+        
+        final Rect bounds = keyBackground.getBounds();
+        if (key.width != bounds.right || key.height != bounds.bottom) {
+            //keyBackground.setBounds(0, 0, key.width, key.height);
+        	if (key.isSpaceKey() && keySpacebarBackground != null) {
+        		keySpacebarBackground.setBounds(keyMarginX, keyMarginX, key.width - keyMarginX, key.height - keyMarginY); // SMM
+        	} else {
+        		keyBackground.setBounds(keyMarginX, keyMarginX, key.width - keyMarginX, key.height - keyMarginY); // SMM
+        	}
+        }
+        if (key.isSpaceKey() && keySpacebarBackground != null) {
+        	keySpacebarBackground.draw(canvas);
+        } else {
+        	keyBackground.draw(canvas);
+        }
+
+        int keyTextColor = mKeyTextColor;
+        if(key.actionKey) {
+        	keyTextColor = mKeyActionColor;
+        } else if (key.modifier) {
+        	keyTextColor = mKeyModifierColor;
+        }
+
+        boolean shouldDrawIcon = true;
+        if (keyLabel.mGlyph != null) {
+            // Draw trail label
+            if (keyLabel.mTrail != null) {
+            	paint.setColor(mTrailTextColor);
+            	paint.setTextSize(mTrailTextSize);
+            	paint.setTypeface(Typeface.DEFAULT);
+            	paint.setTextAlign(Align.LEFT);
+            	paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+                canvas.drawText(keyLabel.mTrail, keyLabel.mTrailX, keyLabel.mTrailBaseline, paint);
+                paint.setShadowLayer(0, 0, 0, 0);
+            }
+
+            paint.setTypeface(keyLabel.mTypeface); // SMM
+            paint.setTextSize(keyLabel.mTextSize);
+            // SMM {
+            paint.setColor(keyTextColor);
+            paint.setTextAlign(Align.CENTER);
+            // }
+            if(key.iconKey) {
+                paint.setShadowLayer(0, 0, 0, 0);
+            	canvas.drawText(keyLabel.mGlyph, keyLabel.mLabelX, keyLabel.mBaseline, paint);
+            } else {
+                // Draw a drop shadow for the text
+            	paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+            	canvas.drawText(keyLabel.mGlyph, keyLabel.mLabelX, keyLabel.mBaseline, paint);
+                paint.setShadowLayer(0, 0, 0, 0);
+            }
+
+            // Draw hint label (if present) behind the main key
+            if (keyLabel.mHint != null && !shifted) {
+            	paint.setColor(mKeyHintColor);
+            	paint.setTextSize(mKeyHintTextSize);
+            	paint.setTypeface(Typeface.DEFAULT_BOLD);
+            	paint.setTextAlign(Align.CENTER);
+
+                final float x = key.width - mNumHintRightPadding;
+                final float hintBaseline = mNumHintTopPadding;
+                canvas.drawText(keyLabel.mHint, x, hintBaseline, paint);
+                paint.setShadowLayer(0, 0, 0, 0);
+            }
+
+            // Usually don't draw icon if label is not null, but we draw icon for the number
+            // hint and popup hint.
+            shouldDrawIcon = shouldDrawLabelAndIcon(key) || SoftKeyboard.hasPopupHint(key);
+        }
+        
+        // Draw popup hint "..." at the bottom right corner of the key.
+        if (key.icon == null && SoftKeyboard.hasPopupHint(key)) {
+        	final int hintTextSize = mKeyHintTextSize;
+        	paint.setColor(mLanguagebarTextColor);
+        	paint.setTextSize(hintTextSize);
+        	paint.setTypeface(Typeface.DEFAULT);
+        	paint.setTextAlign(Align.CENTER);
+
+            final float x = key.width - mHintPopupRightPadding;
+            final float hintBaseline = key.height - mHintPopupBottomPadding;
+            
+            canvas.drawText(KeyboardTheme.getIconicLabel(KeyboardTheme.ICON_HINT_POPUP), x, hintBaseline, paint);
+            paint.setShadowLayer(0, 0, 0, 0);
+        }
+        
+        // Draw key icon.
+        if (key.icon != null && shouldDrawIcon) {
+            // Special handing for the upper-right number hint icons
+            final int drawableWidth;
+            final int drawableHeight;
+            final int drawableX;
+            final int drawableY;
+            if (shouldDrawIconFully(key)) {
+                drawableWidth = key.width;
+                drawableHeight = key.height;
+                drawableX = 0;
+                drawableY = NUMBER_HINT_VERTICAL_ADJUSTMENT_PIXEL;
+            } else {
+                drawableWidth = key.icon.getIntrinsicWidth();
+                drawableHeight = key.icon.getIntrinsicHeight();
+                drawableX = (key.width + padding.left - padding.right - drawableWidth) / 2;
+                drawableY = (key.height + padding.top - padding.bottom - drawableHeight) / 2;
+            }
+            canvas.translate(drawableX, drawableY);
+            key.icon.setBounds(0, 0, drawableWidth, drawableHeight);
+            key.icon.setColorFilter(keyTextColor, PorterDuff.Mode.SRC_ATOP);
+            key.icon.draw(canvas);
+            canvas.translate(-drawableX, -drawableY);
+        }
     }
     
+    /**
+     * Returns how to draw the labels of the key at the index, working it out again only if
+     * the key, its icon, the shift state or the style changed since the last time.
+     */
+    private KeyLabel getKeyLabel(int index, Key key, boolean adjustCase, boolean shifted) {
+        if (mKeyLabels == null || mKeyLabels.length != mKeys.length) {
+            mKeyLabels = new KeyLabel[mKeys.length];
+        }
+        KeyLabel keyLabel = mKeyLabels[index];
+        if (keyLabel == null) {
+            keyLabel = new KeyLabel();
+            mKeyLabels[index] = keyLabel;
+        } else if (keyLabel.mGeneration == mKeyLabelGeneration && keyLabel.mKey == key
+                && keyLabel.mLabel == key.label && keyLabel.mShiftLabel == key.shiftLabel
+                && keyLabel.mTrailLabel == key.trailLabel && keyLabel.mHintLabel == key.hintLabel
+                && keyLabel.mAdjustCase == adjustCase && keyLabel.mShifted == shifted
+                && keyLabel.mWidth == key.width && keyLabel.mHeight == key.height
+                && keyLabel.mIcon == key.icon) {
+            return keyLabel;
+        }
+        keyLabel.mGeneration = mKeyLabelGeneration;
+        if (++mKeyLabelVersion <= 0) mKeyLabelVersion = 1;
+        keyLabel.mVersion = mKeyLabelVersion;
+        keyLabel.mKey = key;
+        keyLabel.mIcon = key.icon;
+        keyLabel.mLabel = key.label;
+        keyLabel.mShiftLabel = key.shiftLabel;
+        keyLabel.mTrailLabel = key.trailLabel;
+        keyLabel.mHintLabel = key.hintLabel;
+        keyLabel.mAdjustCase = adjustCase;
+        keyLabel.mShifted = shifted;
+        keyLabel.mWidth = key.width;
+        keyLabel.mHeight = key.height;
+
+        final CharSequence adjustedLabel = key.getLabel(adjustCase); // SMM
+        final String label = adjustedLabel == null ? null : adjustedLabel.toString();
+        keyLabel.mGlyph = null;
+        keyLabel.mTrail = null;
+        keyLabel.mHint = null;
+        if (label == null) {
+            return keyLabel;
+        }
+
+        final Paint paint = mPaint;
+        final Rect padding = mPadding;
+        // For characters, use large font. For labels like "Done", use small font.
+        final int labelSize;
+        final int textWeight = mKeyboard.getKeyTextWeight();
+        if(key.iconKey) {
+        	final int iconicTextSize = (int)(Math.min(key.height, key.width) * key.iconSizeAdjust);
+        	labelSize = Math.max(iconicTextSize, mKeyTextSize);
+        } else if (label.length() > 1 && key.codes.length < 2 && !key.fullTextSize && !DeadAccentSequence.isDeadAccent(label)) {
+            labelSize = (int)(mKeyLabelTextSize * mKeyTextSizeScale);
+        } else {
+            if(textWeight < 2) {
+            	labelSize = mKeyTextSize - (mKeyTextSize / 4);
+            } else if (textWeight > 2) {
+            	labelSize = mKeyTextSize + (mKeyTextSize / 4);
+            } else {
+            	labelSize = (int)(mKeyTextSize * mKeyTextSizeScale);
+            }
+        }
+
+        final int centerX = (key.width + padding.left - padding.right) / 2;
+        final int centerY = (key.height + padding.top - padding.bottom) / 2;
+
+        if (key.trailLabel != null) {
+            keyLabel.mTrail = key.trailLabel.toString();
+            paint.setTextSize(mTrailTextSize);
+            paint.setTypeface(Typeface.DEFAULT);
+            final float trailLabelHeight = getLabelHeight(paint, mTrailTextSize);
+            keyLabel.mTrailX = padding.left + key.width / 3;
+            keyLabel.mTrailBaseline = centerY + trailLabelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
+        }
+
+        keyLabel.mTypeface = getKeyTextTypeface(label, key.iconic); // SMM
+        keyLabel.mTextSize = labelSize;
+        paint.setTypeface(keyLabel.mTypeface);
+        paint.setTextSize(labelSize);
+        keyLabel.mLabelX = key.trailLabel != null ? padding.left + key.width / 6 : centerX;
+        keyLabel.mGlyph = ZawGyiCorrection.ZawGyiDrawFix(label).toString();
+        final float labelHeight = getLabelHeight(paint, labelSize);
+        if(key.iconKey) {
+            keyLabel.mBaseline = centerY + labelHeight * 0.52f;
+        } else {
+            keyLabel.mBaseline = centerY + labelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
+        }
+
+        if (key.hintLabel != null) {
+            keyLabel.mHint = key.hintLabel.toString();
+        }
+        return keyLabel;
+    }
+
+    /**
+     * Forgets how to draw the labels of all keys, when the style or the text sizes change.
+     */
+    private void invalidateKeyLabels() {
+        mKeyLabelGeneration++;
+    }
+
     private float getLabelHeight(Paint paint, int labelSize) {
     	final Float cachedValue = mTextHeightCache.get(labelSize);
         if (cachedValue != null)
@@ -1343,11 +1583,14 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
     public void invalidateKey(Key key) {
         if (key == null)
             return;
-        mInvalidatedKey = key;
-        // TODO we should clean up this and record key's region to use in onBufferDraw.
+        if (!mInvalidatedKeys.contains(key)) {
+            mInvalidatedKeys.add(key);
+        }
+        if (mKeyChangeTime == 0) {
+            mKeyChangeTime = System.nanoTime();
+        }
         mDirtyRect.union(key.x + getPaddingLeft(), key.y + getPaddingTop(),
                 key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
-        onBufferDraw();
         invalidate(key.x + getPaddingLeft(), key.y + getPaddingTop(),
                 key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
     }
@@ -1405,6 +1648,8 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
             }
             public void swipeDown() {
             }
+            public void onGesture(GestureStroke stroke, boolean done) {
+            }
             public void onPress(int primaryCode) {
                 mKeyboardActionListener.onPress(primaryCode);
             }
@@ -1669,6 +1914,11 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         // Track the last few movements to look for spurious swipes.
         mSwipeTracker.addMovement(me);
 
+        // Words traced over the keys take the events from the key presses and the swipes
+        if (mMiniKeyboard == null && onGestureTouchEvent(me)) {
+            return true;
+        }
+
         // We must disable gesture detector while mini-keyboard is on the screen.
         if (mMiniKeyboard == null && mGestureDetector.onTouchEvent(me)) {
             dismissKeyPreview();
@@ -1772,6 +2022,106 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         return true;
     }
 
+    /**
+     * Follows a single pointer that goes down on a letter key, and once it has moved far enough
+     * to be tracing a word, cancels its key press and reports the stroke to the listener.
+     * @return true if the event belongs to a traced word
+     */
+    private boolean onGestureTouchEvent(MotionEvent me) {
+        if (!mGestureInputEnabled || !mHasDistinctMultitouch || mKeys == null) return false;
+        final int action = me.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            cancelGesture();
+            final int x = (int) me.getX();
+            final int y = (int) me.getY();
+            final int keyIndex = mKeyDetector.getKeyIndexAndNearbyCodes(x, y, null);
+            if (keyIndex < 0 || keyIndex >= mKeys.length) return false;
+            final int[] codes = mKeys[keyIndex].codes;
+            if (codes == null || codes.length == 0 || codes[0] <= 0
+                    || !Character.isLetter(codes[0])) {
+                return false;
+            }
+            mGesturePointerId = me.getPointerId(0);
+            mGestureStartLength = mKeys[keyIndex].width * GESTURE_START_KEY_WIDTHS;
+            mGestureStroke.add(mKeyDetector.getTouchX(x), mKeyDetector.getTouchY(y));
+            return false;
+        }
+        if (mGesturePointerId == NOT_A_GESTURE) return false;
+
+        switch (action) {
+        case MotionEvent.ACTION_POINTER_DOWN:
+            if (mInGesture) return true;
+            // Typing with more fingers
+            cancelGesture();
+            return false;
+        case MotionEvent.ACTION_MOVE:
+            addGesturePoints(me);
+            if (!mInGesture) {
+                if (me.getPointerCount() > 1
+                        || mGestureStroke.getLength() < mGestureStartLength) {
+                    return false;
+                }
+                startGesture(me.getEventTime());
+            }
+            mKeyboardActionListener.onGesture(mGestureStroke, false);
+            return true;
+        case MotionEvent.ACTION_UP:
+        case MotionEvent.ACTION_POINTER_UP:
+            if (me.getPointerId(me.getActionIndex()) != mGesturePointerId) return mInGesture;
+            if (!mInGesture) {
+                cancelGesture();
+                return false;
+            }
+            addGesturePoints(me);
+            mKeyboardActionListener.onGesture(mGestureStroke, true);
+            mGestureStroke.reset();
+            mGesturePointerId = NOT_A_GESTURE;
+            mInGesture = false;
+            return true;
+        case MotionEvent.ACTION_CANCEL:
+            final boolean inGesture = mInGesture;
+            cancelGesture();
+            return inGesture;
+        }
+        return mInGesture;
+    }
+
+    private void addGesturePoints(MotionEvent me) {
+        final int index = me.findPointerIndex(mGesturePointerId);
+        if (index < 0) return;
+        final int historySize = me.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            mGestureStroke.add(mKeyDetector.getTouchX((int) me.getHistoricalX(index, h)),
+                    mKeyDetector.getTouchY((int) me.getHistoricalY(index, h)));
+        }
+        mGestureStroke.add(mKeyDetector.getTouchX((int) me.getX(index)),
+                mKeyDetector.getTouchY((int) me.getY(index)));
+    }
+
+    private void startGesture(long eventTime) {
+        mInGesture = true;
+        dismissKeyPreview();
+        mHandler.cancelKeyTimers();
+        final PointerTracker tracker = getPointerTracker(mGesturePointerId);
+        tracker.onCancelEvent(tracker.getLastX(), tracker.getLastY(), eventTime);
+        // The key it went down on isn't typed when it goes up
+        tracker.setAlreadyProcessed();
+        mPointerQueue.remove(tracker);
+    }
+
+    /**
+     * Stops following the pointer, finishing the stroke empty if a word was being traced.
+     */
+    private void cancelGesture() {
+        final boolean inGesture = mInGesture;
+        mGestureStroke.reset();
+        mGesturePointerId = NOT_A_GESTURE;
+        mInGesture = false;
+        if (inGesture && mKeyboardActionListener != null) {
+            mKeyboardActionListener.onGesture(mGestureStroke, true);
+        }
+    }
+
     private void onDownEvent(PointerTracker tracker, int x, int y, long eventTime) {
         if (tracker.isOnModifierKey(x, y)) {
             // Before processing a down event of modifier key, all pointers already being tracked
@@ -1828,6 +2178,7 @@ public class KeyboardBaseView extends View implements PointerTracker.UIProxy {
         dismissPopupKeyboard();
         mBuffer = null;
         mCanvas = null;
+        mKeyAtlas.release();
         mMiniKeyboardCache.clear();
     }
 
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Builds keyboards on a background thread before they are needed, so that switching to them
+ * doesn't parse their layout on the main thread.
+ *
+ * Keyboards are built from a context of their own, whose resources nothing else uses. Built
+ * keyboards are kept on the main thread until they are {@link #take taken} or {@link #cancel
+ * cancelled}, and have to be finished there, e.g. bound to the language switcher, before use.
+ */
+final class KeyboardPrebuilder {
+
+    private static final String TAG = "KeyboardPrebuilder";
+
+    private static final class Request {
+        final Object mId;
+        final Context mContext;
+        final int mXml;
+        final int mMode;
+        final int mStyleResId;
+        final int mGeneration;
+        SoftKeyboard mKeyboard;
+
+        Request(Object id, Context context, int xml, int mode, int styleResId, int generation) {
+            mId = id;
+            mContext = context;
+            mXml = xml;
+            mMode = mode;
+            mStyleResId = styleResId;
+            mGeneration = generation;
+        }
+    }
+
+    private static final int MSG_BUILD = 0;
+    private static final int MSG_DELIVER = 1;
+
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+
+    // Written on the main thread only
+    private volatile int mGeneration;
+    // Main thread only
+    private final HashMap<Object, SoftKeyboard> mReady = new HashMap<Object, SoftKeyboard>();
+    private final HashSet<Object> mPending = new HashSet<Object>();
+
+    KeyboardPrebuilder() {
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_BUILD) {
+                    final Request request = (Request) msg.obj;
+                    if (request.mGeneration != mGeneration) return;
+                    try {
+                        request.mKeyboard = new SoftKeyboard(request.mContext, request.mXml,
+                                request.mMode, request.mStyleResId);
+                    } catch (RuntimeException e) {
+                        // Built on the main thread when it's needed
+                        Log.w(TAG, "Couldn't build keyboard " + request.mXml, e);
+                    }
+                    mMainHandler.obtainMessage(MSG_DELIVER, request).sendToTarget();
+                }
+            }
+        };
+        mMainHandler = new Handler() {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_DELIVER) {
+                    final Request request = (Request) msg.obj;
+                    if (request.mGeneration != mGeneration) return;
+                    mPending.remove(request.mId);
+                    if (request.mKeyboard != null) {
+                        mReady.put(request.mId, request.mKeyboard);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether the keyboard is built or being built.
+     */
+    boolean contains(Object id) {
+        return mReady.containsKey(id) || mPending.contains(id);
+    }
+
+    /**
+     * Builds a keyboard in the background, the way the SoftKeyboard constructor does.
+     * @param context a context whose resources are only used by keyboards built from it
+     */
+    void post(Object id, Context context, int xml, int mode, int styleResId) {
+        if (contains(id)) return;
+        mPending.add(id);
+        mWorkerHandler.obtainMessage(MSG_BUILD,
+                new Request(id, context, xml, mode, styleResId, mGeneration)).sendToTarget();
+    }
+
+    /**
+     * Returns the built keyboard and forgets it, or null if it isn't ready. A keyboard still
+     * being built is built again by the caller, rather than waiting for it.
+     */
+    SoftKeyboard take(Object id) {
+        return mReady.remove(id);
+    }
+
+    /**
+     * Drops the built keyboards that aren't one of the given ones.
+     */
+    void retain(Collection<?> ids) {
+        final Iterator<Object> it = mReady.keySet().iterator();
+        while (it.hasNext()) {
+            if (!ids.contains(it.next())) it.remove();
+        }
+    }
+
+    /**
+     * Drops all keyboards, built or not, when the layouts they were built for change.
+     */
+    void cancel() {
+        mGeneration++;
+        mWorkerHandler.removeMessages(MSG_BUILD);
+        mMainHandler.removeMessages(MSG_DELIVER);
+        mReady.clear();
+        mPending.clear();
+    }
+
+    void quit() {
+        cancel();
+        mThread.quit();
+    }
+}
@@ -17,16 +17,19 @@
 package com.s16.inputmethod.skeyboard;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.view.ContextThemeWrapper;
 import android.view.InflateException;
 import android.view.LayoutInflater;
 
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
@@ -126,6 +129,9 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
 
     private KeyboardId mCurrentId;
     private final HashMap<KeyboardId, SoftReference<SoftKeyboard>> mKeyboards;
+    private final KeyboardPrebuilder mPrebuilder = new KeyboardPrebuilder();
+    // Themed contexts whose resources are configured for an input locale
+    private final HashMap<Locale, Context> mLocaleContexts = new HashMap<Locale, Context>();
 
     private int mMode = MODE_NONE; /** One of the MODE_XXX values */
     private int mImeOptions;
@@ -189,21 +195,64 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
     private KeyboardId makeSymbolsId(int xml) {
         return new KeyboardId(xml, mHasSettingsKey || getHasLanguageKey() ?
                 KEYBOARDMODE_SYMBOLS_WITH_SETTINGS_KEY : KEYBOARDMODE_SYMBOLS,
-                false);
+                false, mInputLocale);
     }
 
     public void makeKeyboards(boolean forceCreate) {
         mSymbolsId = makeSymbolsId(getKeyboardSymbolRowsResId());
         mSymbolsShiftedId = makeSymbolsId(getKeyboardSymbolShiftRowsResId());
 
-        if (forceCreate) mKeyboards.clear();
+        if (forceCreate) clearKeyboards();
         // Configuration change is coming after the keyboard gets recreated. So don't rely on that.
         // If keyboards have already been made, check if we have a screen width change and 
         // create the keyboard layouts again at the correct orientation
         int displayWidth = mInputMethodService.getMaxWidth();
         if (displayWidth == mLastDisplayWidth) return;
         mLastDisplayWidth = displayWidth;
-        if (!forceCreate) mKeyboards.clear();
+        if (!forceCreate) clearKeyboards();
+    }
+
+    private void clearKeyboards() {
+        mKeyboards.clear();
+        mPrebuilder.cancel();
+        // They would keep the configuration they were made with
+        mLocaleContexts.clear();
+    }
+
+    /**
+     * Builds the keyboards the user is likely to switch to next in the background: the symbols
+     * keyboards and the current one in the other input languages. Called once the input view
+     * is shown, so that it doesn't delay it.
+     */
+    public void prebuildKeyboards() {
+        if (mInputView == null || mCurrentId == null || mThemedContext == null) return;
+        final ArrayList<KeyboardId> ids = new ArrayList<KeyboardId>();
+        ids.add(mSymbolsId);
+        ids.add(mSymbolsShiftedId);
+        if (mLanguageSwitcher != null && mLanguageSwitcher.getLanguageSwitchEnabled()) {
+            // Switching the language always goes back to the letters
+            final KeyboardId alphabetId = getKeyboardId(mMode, mImeOptions, false);
+            if (alphabetId != null) {
+                ids.add(alphabetId.withLocale(mLanguageSwitcher.getNextInputLocale()));
+                ids.add(alphabetId.withLocale(mLanguageSwitcher.getPrevInputLocale()));
+            }
+        }
+        mPrebuilder.retain(ids);
+        // Loaded lazily by the keyboards, so load it here rather than on two threads
+        KeyboardTheme.getZawgyiTypeFace(mInputMethodService);
+        for (KeyboardId id : ids) {
+            if (getCachedKeyboard(id) != null || mPrebuilder.contains(id)) continue;
+            final Context context = getLocaleContext(id.mLocale);
+            if (context == null) return;
+            mPrebuilder.post(id, context, id.mXml, id.mKeyboardMode, mThemeResId);
+        }
+    }
+
+    /**
+     * Stops building keyboards in the background, for good.
+     */
+    public void close() {
+        mPrebuilder.quit();
     }
 
     /**
@@ -211,25 +260,31 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
      * which also serve as a unique identifier for each keyboard type.
      */
     private static class KeyboardId {
-        // TODO: should have locale and portrait/landscape orientation?
+        // TODO: should have portrait/landscape orientation?
         public final int mXml;
         public final int mKeyboardMode; /** A KEYBOARDMODE_XXX value */
         public final boolean mEnableShiftLock;
+        public final Locale mLocale;
 
         private final int mHashCode;
 
-        public KeyboardId(int xml, int mode, boolean enableShiftLock) {
+        public KeyboardId(int xml, int mode, boolean enableShiftLock, Locale locale) {
             this.mXml = xml;
             this.mKeyboardMode = mode;
             this.mEnableShiftLock = enableShiftLock;
+            this.mLocale = locale;
 
             this.mHashCode = Arrays.hashCode(new Object[] {
-               xml, mode, enableShiftLock
+               xml, mode, enableShiftLock, locale
             });
         }
 
-        public KeyboardId(int xml) {
-            this(xml, 0, false);
+        public KeyboardId(int xml, Locale locale) {
+            this(xml, 0, false, locale);
+        }
+
+        public KeyboardId withLocale(Locale locale) {
+            return new KeyboardId(mXml, mKeyboardMode, mEnableShiftLock, locale);
         }
 
         @Override
@@ -240,7 +295,9 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         private boolean equals(KeyboardId other) {
             return other.mXml == this.mXml
                 && other.mKeyboardMode == this.mKeyboardMode
-                && other.mEnableShiftLock == this.mEnableShiftLock;
+                && other.mEnableShiftLock == this.mEnableShiftLock
+                && (other.mLocale == null ? this.mLocale == null
+                        : other.mLocale.equals(this.mLocale));
         }
 
         @Override
@@ -286,19 +343,17 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         updateLanguageKeyState(PreferenceManager.getDefaultSharedPreferences(mInputMethodService));
     }
 
-    private SoftKeyboard getKeyboard(KeyboardId id) {
+    private SoftKeyboard getCachedKeyboard(KeyboardId id) {
         SoftReference<SoftKeyboard> ref = mKeyboards.get(id);
-        SoftKeyboard keyboard = (ref == null) ? null : ref.get();
+        return (ref == null) ? null : ref.get();
+    }
+
+    private SoftKeyboard getKeyboard(KeyboardId id) {
+        SoftKeyboard keyboard = getCachedKeyboard(id);
         if (keyboard == null) {
-            Resources orig = mInputMethodService.getResources();
-            Configuration conf = orig.getConfiguration();
-            Locale saveLocale = conf.locale;
-            conf.locale = mInputLocale;
-            orig.updateConfiguration(conf, null);
-            if (mThemedContext != null) {
-            	keyboard = new SoftKeyboard(mThemedContext, id.mXml, id.mKeyboardMode, mThemeResId);
-            } else {
-            	keyboard = new SoftKeyboard(mInputMethodService, id.mXml, id.mKeyboardMode);
+            keyboard = mPrebuilder.take(id);
+            if (keyboard == null) {
+                keyboard = buildKeyboard(id);
             }
             keyboard.setLanguageSwitcher(mLanguageSwitcher, mIsAutoCompletionActive, 
             		mInputView.getLanguagebarTextColor(), mInputView.getLanguagebarShadowColor(),
@@ -308,25 +363,66 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
                 keyboard.enableShiftLock();
             }
             mKeyboards.put(id, new SoftReference<SoftKeyboard>(keyboard));
+        }
+        return keyboard;
+    }
 
-            conf.locale = saveLocale;
-            orig.updateConfiguration(conf, null);
+    private SoftKeyboard buildKeyboard(KeyboardId id) {
+        final Context context = getLocaleContext(id.mLocale);
+        if (context != null) {
+            return new SoftKeyboard(context, id.mXml, id.mKeyboardMode, mThemeResId);
         }
+        SoftKeyboard keyboard;
+        Resources orig = mInputMethodService.getResources();
+        Configuration conf = orig.getConfiguration();
+        Locale saveLocale = conf.locale;
+        conf.locale = id.mLocale;
+        orig.updateConfiguration(conf, null);
+        if (mThemedContext != null) {
+        	keyboard = new SoftKeyboard(mThemedContext, id.mXml, id.mKeyboardMode, mThemeResId);
+        } else {
+        	keyboard = new SoftKeyboard(mInputMethodService, id.mXml, id.mKeyboardMode);
+        }
+        conf.locale = saveLocale;
+        orig.updateConfiguration(conf, null);
         return keyboard;
     }
 
+    /**
+     * Returns a themed context whose resources are configured for the locale, without changing
+     * the configuration of the service, or null if that isn't possible on this platform. Its
+     * resources are only used by keyboards, which may be built on another thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private Context getLocaleContext(Locale locale) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1
+                || mThemedContext == null || locale == null) {
+            return null;
+        }
+        Context context = mLocaleContexts.get(locale);
+        if (context == null) {
+            final Configuration conf =
+                    new Configuration(mInputMethodService.getResources().getConfiguration());
+            conf.locale = locale;
+            context = new ContextThemeWrapper(
+                    mInputMethodService.createConfigurationContext(conf), mThemeResId);
+            mLocaleContexts.put(locale, context);
+        }
+        return context;
+    }
+
     private KeyboardId getKeyboardId(int mode, int imeOptions, boolean isSymbols) {
     	int keyboardSymbolRowsResId = getKeyboardSymbolRowsResId();
         int keyboardRowsResId = getKeyboardRowsResId();
         if (isSymbols) {
             if (mode == MODE_PHONE) {
-                return new KeyboardId(KBD_PHONE_SYMBOLS);
+                return new KeyboardId(KBD_PHONE_SYMBOLS, mInputLocale);
             } else if (mode == MODE_NUMBER) {
-            	return new KeyboardId(KBD_NUMBER_SYMBOLS);
+            	return new KeyboardId(KBD_NUMBER_SYMBOLS, mInputLocale);
             } else {
                 return new KeyboardId(keyboardSymbolRowsResId, mHasSettingsKey || getHasLanguageKey() ?
                         KEYBOARDMODE_SYMBOLS_WITH_SETTINGS_KEY : KEYBOARDMODE_SYMBOLS,
-                        false);
+                        false, mInputLocale);
             }
         }
         switch (mode) {
@@ -337,27 +433,27 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
             case MODE_TEXT:
                 return new KeyboardId(keyboardRowsResId, mHasSettingsKey || getHasLanguageKey() ?
                         KEYBOARDMODE_NORMAL_WITH_SETTINGS_KEY : KEYBOARDMODE_NORMAL,
-                        true);
+                        true, mInputLocale);
             case MODE_SYMBOLS:
                 return new KeyboardId(keyboardSymbolRowsResId, mHasSettingsKey || getHasLanguageKey() ?
                         KEYBOARDMODE_SYMBOLS_WITH_SETTINGS_KEY : KEYBOARDMODE_SYMBOLS,
-                        false);
+                        false, mInputLocale);
             case MODE_PHONE:
-                return new KeyboardId(KBD_PHONE);
+                return new KeyboardId(KBD_PHONE, mInputLocale);
             case MODE_URL:
                 return new KeyboardId(keyboardRowsResId, mHasSettingsKey || getHasLanguageKey() ?
-                        KEYBOARDMODE_URL_WITH_SETTINGS_KEY : KEYBOARDMODE_URL, true);
+                        KEYBOARDMODE_URL_WITH_SETTINGS_KEY : KEYBOARDMODE_URL, true, mInputLocale);
             case MODE_EMAIL:
                 return new KeyboardId(keyboardRowsResId, mHasSettingsKey || getHasLanguageKey() ?
-                        KEYBOARDMODE_EMAIL_WITH_SETTINGS_KEY : KEYBOARDMODE_EMAIL, true);
+                        KEYBOARDMODE_EMAIL_WITH_SETTINGS_KEY : KEYBOARDMODE_EMAIL, true, mInputLocale);
             case MODE_IM:
                 return new KeyboardId(keyboardRowsResId, mHasSettingsKey || getHasLanguageKey() ?
-                        KEYBOARDMODE_IM_WITH_SETTINGS_KEY : KEYBOARDMODE_IM, true);
+                        KEYBOARDMODE_IM_WITH_SETTINGS_KEY : KEYBOARDMODE_IM, true, mInputLocale);
             case MODE_WEB:
                 return new KeyboardId(keyboardRowsResId, mHasSettingsKey || getHasLanguageKey() ?
-                        KEYBOARDMODE_WEB_WITH_SETTINGS_KEY : KEYBOARDMODE_WEB, true);
+                        KEYBOARDMODE_WEB_WITH_SETTINGS_KEY : KEYBOARDMODE_WEB, true, mInputLocale);
             case MODE_NUMBER:
-            	return new KeyboardId(KBD_NUMBER);
+            	return new KeyboardId(KBD_NUMBER, mInputLocale);
         }
         return null;
     }
@@ -491,6 +587,9 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
             
             mThemeResId = KeyboardTheme.getThemeResId(newLayout);
             mThemedContext = new ContextThemeWrapper(mInputMethodService, mThemeResId);
+            // Keyboards in the making would have the old theme
+            mPrebuilder.cancel();
+            mLocaleContexts.clear();
 
             IMEUtil.GCUtils.getInstance().reset();
             boolean tryGC = true;
@@ -528,6 +627,8 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
             recreateInputView();
         } else if (IMESettings.PREF_LANGUAGE_KEY.equals(key)) {
         	updateLanguageKeyState(sharedPreferences);
+        	// The keyboards are bound to the language switch mode when they are made
+        	clearKeyboards();
             recreateInputView();
         } else if (IMESettings.PREF_AUTO_HIDE_MINIKEYBOARD.equals(key)) {
         	updateAutoHideMiniKeyboardState(sharedPreferences);
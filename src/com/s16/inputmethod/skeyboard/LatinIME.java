@@ -17,7 +17,6 @@
 package com.s16.inputmethod.skeyboard;
 
 import java.io.FileDescriptor;
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -26,12 +25,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import org.xmlpull.v1.XmlPullParserException;
-
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -39,7 +37,6 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.content.res.XmlResourceParser;
 import android.inputmethodservice.InputMethodService;
 import android.media.AudioManager;
 import android.os.Debug;
@@ -78,7 +75,8 @@ import com.s16.inputmethod.skeyboard.IMEUtil.RingCharBuffer;
 @SuppressWarnings("deprecation")
 public class LatinIME extends InputMethodService
         implements KeyboardBaseView.OnKeyboardActionListener,
-        SharedPreferences.OnSharedPreferenceChangeListener {
+        SharedPreferences.OnSharedPreferenceChangeListener, SuggestionWorker.Listener,
+        GestureWorker.Listener {
     private static final String TAG = "LatinIME";
     private static final boolean PERF_DEBUG = false;
     static final boolean DEBUG = false;
@@ -88,6 +86,7 @@ public class LatinIME extends InputMethodService
     private static final String PREF_SOUND_ON = "sound_on";
     private static final String PREF_POPUP_ON = "popup_on";
     private static final String PREF_AUTO_CAP = "auto_cap";
+    private static final String PREF_GESTURE_INPUT = "gesture_input";
     private static final String PREF_QUICK_FIXES = "quick_fixes";
     private static final String PREF_SHOW_SUGGESTIONS = "show_suggestions";
     private static final String PREF_AUTO_COMPLETE = "auto_complete";
@@ -124,6 +123,14 @@ public class LatinIME extends InputMethodService
     private LinearLayout mCandidateViewContainer;
     private CandidateView mCandidateView;
     private Suggest mSuggest;
+    private SuggestionWorker mSuggestionWorker;
+    private TouchModel mTouchModel;
+    private GestureWorker mGestureWorker;
+    // The keys of the keyboard that words are traced on
+    private GestureDecoder.Keys mGestureKeys;
+    private Keyboard mGestureKeyboard;
+    private boolean mGestureTracing;
+    private boolean mGestureShifted;
     private CompletionInfo[] mCompletions;
 
     private AlertDialog mOptionsDialog;
@@ -134,6 +141,8 @@ public class LatinIME extends InputMethodService
     private UserBigramDictionary mUserBigramDictionary;
     private ContactsDictionary mContactsDictionary;
     private AutoDictionary mAutoDictionary;
+    private final DictionaryRegistry mDictionaryRegistry = new DictionaryRegistry();
+    private DictionaryRegistry.Entry mDictionaries;
 
     private Resources mResources;
 
@@ -142,6 +151,11 @@ public class LatinIME extends InputMethodService
     private LanguageSwitcher mLanguageSwitcher;
 
     private StringBuilder mComposing = new StringBuilder();
+    // Quick fixes of mComposing, kept up to date as it is typed
+    private final ZawGyiCorrection.Composer mComposingFix = new ZawGyiCorrection.Composer();
+    // The text around the cursor, so that most keystrokes don't have to ask the editor
+    private final EditorTextMirror mEditorText = new EditorTextMirror();
+    private InputConnection mEditorTarget;
     private WordComposer mWord = new WordComposer();
     private int mCommittedLength;
     private boolean mPredicting;
@@ -163,6 +177,7 @@ public class LatinIME extends InputMethodService
     private boolean mPopupOn;
     private boolean mAutoCap;
     private boolean mQuickFixes;
+    private boolean mGestureInput;
     private int mShowSuggestions;
     private boolean mIsShowingHint;
     private boolean mFullscreenOverride;
@@ -211,55 +226,10 @@ public class LatinIME extends InputMethodService
     // For each word, a list of potential replacements, usually from voice.
     private Map<String, List<CharSequence>> mWordToSuggestions = new HashMap<String, List<CharSequence>>();
 
-    private ArrayList<WordAlternatives> mWordHistory = new ArrayList<WordAlternatives>();
-    
-    public abstract static class WordAlternatives {
-        protected CharSequence mChosenWord;
-
-        public WordAlternatives() {
-            // Nothing
-        }
-
-        public WordAlternatives(CharSequence chosenWord) {
-            mChosenWord = chosenWord;
-        }
-
-        @Override
-        public int hashCode() {
-            return mChosenWord.hashCode();
-        }
-
-        public abstract CharSequence getOriginalWord();
-
-        public CharSequence getChosenWord() {
-            return mChosenWord;
-        }
-
-        public abstract List<CharSequence> getAlternatives();
-    }
-
-    public class TypedWordAlternatives extends WordAlternatives {
-        private WordComposer word;
-
-        public TypedWordAlternatives() {
-            // Nothing
-        }
-
-        public TypedWordAlternatives(CharSequence chosenWord, WordComposer wordComposer) {
-            super(chosenWord);
-            word = wordComposer;
-        }
-
-        @Override
-        public CharSequence getOriginalWord() {
-            return word.getTypedWord();
-        }
-
-        @Override
-        public List<CharSequence> getAlternatives() {
-            return getTypedSuggestions(word);
-        }
-    }
+    // The keys typed for the recently committed words, for correcting them later
+    private final CorrectionHistory mCorrectionHistory = new CorrectionHistory();
+    // The suggestions last shown for the word being typed, kept with it when it's committed
+    private SuggestionWorker.Result mShownSuggestions;
 
     /* package */ Handler mHandler = new Handler() {
         @Override
@@ -292,6 +262,9 @@ public class LatinIME extends InputMethodService
         mKeyboardSwitcher.setLanguageSwitcher(mLanguageSwitcher);
         mSystemLocale = conf.locale.toString();
         mLanguageSwitcher.setSystemLocale(conf.locale);
+        mSuggestionWorker = new SuggestionWorker(this);
+        mTouchModel = new TouchModel(this);
+        mGestureWorker = new GestureWorker(this);
         String inputLanguage = mLanguageSwitcher.getInputLanguage();
         if (inputLanguage == null) {
             inputLanguage = conf.locale.toString();
@@ -336,50 +309,7 @@ public class LatinIME extends InputMethodService
      * @return returns array of dictionary resource ids
      */
     /* package */ static int[] getDictionary(Resources res) {
-    	
-    	String packageName = LatinIME.class.getPackage().getName();
-        XmlResourceParser xrp = res.getXml(R.xml.dictionary);
-        ArrayList<Integer> dictionaries = new ArrayList<Integer>();
-        final Locale locale = res.getConfiguration().locale;
-
-        try {
-            int current = xrp.getEventType();
-            while (current != XmlResourceParser.END_DOCUMENT) {
-                if (current == XmlResourceParser.START_TAG) {
-                    String tag = xrp.getName();
-                    if (tag != null) {
-                        if (tag.equals("part")) {
-                            String dictFileName = xrp.getAttributeValue(null, "name");
-                            // SMM {
-                            if (locale != null) {
-                            	String dictLocale = xrp.getAttributeValue(null, "locale");
-                            	if (dictLocale != null && dictLocale.equalsIgnoreCase(locale.toString())) {
-                            		dictionaries.add(res.getIdentifier(dictFileName, "raw", packageName));
-                            	}
-                            } else {
-                            	dictionaries.add(res.getIdentifier(dictFileName, "raw", packageName));	
-                            } 
-                            // } SMM
-                            //dictionaries.add(res.getIdentifier(dictFileName, "raw", packageName));
-                        }
-                    }
-                }
-                xrp.next();
-                current = xrp.getEventType();
-            }
-        } catch (XmlPullParserException e) {
-            Log.e(TAG, "Dictionary XML parsing failure");
-        } catch (IOException e) {
-            Log.e(TAG, "Dictionary XML IOException");
-        }
-        
-        int count = dictionaries.size();
-        int[] dict = new int[count];
-        for (int i = 0; i < count; i++) {
-            dict[i] = dictionaries.get(i);
-        }
-        
-        return dict;
+        return DictionaryIndex.getInstance(res).getResourceIds(res.getConfiguration().locale);
     }
 
     private void initSuggest(String locale) {
@@ -390,29 +320,34 @@ public class LatinIME extends InputMethodService
         Locale saveLocale = conf.locale;
         conf.locale = new Locale(locale);
         orig.updateConfiguration(conf, orig.getDisplayMetrics());
-        if (mSuggest != null) {
-            mSuggest.close();
+        if (mDictionaries != null) {
+            // The dictionaries may be closed once released, wait for the worker to let go
+            mSuggestionWorker.cancel(mSuggest);
+            mGestureWorker.cancel(mSuggest);
+            mDictionaryRegistry.release(mDictionaries);
         }
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         mQuickFixes = sp.getBoolean(PREF_QUICK_FIXES, true);
 
-        int[] dictionaries = getDictionary(orig);
-        mSuggest = new Suggest(this, dictionaries);
+        // Switching back to a recent language reuses its dictionaries
+        mDictionaries = mDictionaryRegistry.acquire(mInputLocale);
+        if (mDictionaries == null) {
+            int[] dictionaries = getDictionary(orig);
+            mDictionaries = new DictionaryRegistry.Entry(mInputLocale,
+                    new Suggest(this, dictionaries),
+                    new UserDictionary(this, mInputLocale),
+                    new AutoDictionary(this, this, mInputLocale, Suggest.DIC_AUTO),
+                    new UserBigramDictionary(this, this, mInputLocale, Suggest.DIC_USER));
+            mDictionaryRegistry.add(mDictionaries);
+        }
+        mSuggest = mDictionaries.mSuggest;
+        mUserDictionary = mDictionaries.mUserDictionary;
+        mAutoDictionary = mDictionaries.mAutoDictionary;
+        mUserBigramDictionary = mDictionaries.mUserBigramDictionary;
         updateAutoTextEnabled(saveLocale);
-        if (mUserDictionary != null) mUserDictionary.close();
-        mUserDictionary = new UserDictionary(this, mInputLocale);
         if (mContactsDictionary == null) {
             mContactsDictionary = new ContactsDictionary(this, Suggest.DIC_CONTACTS);
         }
-        if (mAutoDictionary != null) {
-            mAutoDictionary.close();
-        }
-        mAutoDictionary = new AutoDictionary(this, this, mInputLocale, Suggest.DIC_AUTO);
-        if (mUserBigramDictionary != null) {
-            mUserBigramDictionary.close();
-        }
-        mUserBigramDictionary = new UserBigramDictionary(this, this, mInputLocale,
-                Suggest.DIC_USER);
         mSuggest.setUserBigramDictionary(mUserBigramDictionary);
         mSuggest.setUserDictionary(mUserDictionary);
         mSuggest.setContactsDictionary(mContactsDictionary);
@@ -427,9 +362,11 @@ public class LatinIME extends InputMethodService
 
     @Override
     public void onDestroy() {
-        if (mUserDictionary != null) {
-            mUserDictionary.close();
-        }
+        mSuggestionWorker.cancel(mSuggest);
+        mSuggestionWorker.quit();
+        mGestureWorker.quit();
+        mKeyboardSwitcher.close();
+        mDictionaryRegistry.closeAll();
         if (mContactsDictionary != null) {
             mContactsDictionary.close();
         }
@@ -439,6 +376,18 @@ public class LatinIME extends InputMethodService
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mDictionaryRegistry.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mDictionaryRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
     @Override
     public void onConfigurationChanged(Configuration conf) {
         // If the system locale changes and is different from the saved
@@ -494,6 +443,16 @@ public class LatinIME extends InputMethodService
         return mCandidateViewContainer;
     }
 
+    @Override
+    public void onStartInput(EditorInfo attribute, boolean restarting) {
+        super.onStartInput(attribute, restarting);
+        // Bind the mirror to the new connection first, binding it later would forget the cursor
+        getCurrentInputConnection();
+        // The text may have changed even if the editor is the same
+        mEditorText.reset(attribute.initialSelStart == attribute.initialSelEnd
+                ? attribute.initialSelStart : -1);
+    }
+
     @Override
     public void onStartInputView(EditorInfo attribute, boolean restarting) {
     	if(DEBUG) {
@@ -604,6 +563,7 @@ public class LatinIME extends InputMethodService
         }
         inputView.closing();
         mComposing.setLength(0);
+        mComposingFix.reset();
         mPredicting = false;
         mDeleteCount = 0;
         mJustAddedAutoSpace = false;
@@ -621,10 +581,13 @@ public class LatinIME extends InputMethodService
 
         inputView.setPreviewEnabled(mPopupOn);
         inputView.setProximityCorrectionEnabled(true);
+        inputView.setTouchModel(mTouchModel);
         mPredictionOn = mPredictionOn && (mCorrectionMode > 0 || isShowSuggestions());
+        inputView.setGestureInputEnabled(mGestureInput && mPredictionOn);
         
         // If we just entered a text field, maybe it has some old text that requires correction
         checkReCorrectionOnStart();
+        mKeyboardSwitcher.prebuildKeyboards();
         if (TRACE) Debug.startMethodTracing("/data/trace/latinime");
     }
 
@@ -654,6 +617,7 @@ public class LatinIME extends InputMethodService
     @Override
     public void onFinishInput() {
         super.onFinishInput();
+        mEditorText.reset(-1);
 
         IMELogger.commit();
         onAutoCompletionStateChanged(false);
@@ -663,6 +627,7 @@ public class LatinIME extends InputMethodService
         }
         if (mAutoDictionary != null) mAutoDictionary.flushPendingWrites();
         if (mUserBigramDictionary != null) mUserBigramDictionary.flushPendingWrites();
+        mTouchModel.save();
     }
 
     @Override
@@ -671,6 +636,9 @@ public class LatinIME extends InputMethodService
         // Remove penging messages related to update suggestions
         mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
         mHandler.removeMessages(MSG_UPDATE_OLD_SUGGESTIONS);
+        mSuggestionWorker.cancel(mSuggest);
+        mGestureWorker.cancel(null);
+        mGestureTracing = false;
     }
 
     @Override
@@ -678,12 +646,28 @@ public class LatinIME extends InputMethodService
         super.onUpdateExtractedText(token, text);
     }
 
+    /**
+     * Returns the connection to the editor, wrapped in the mirror of its text. Everything that
+     * edits the text has to go through it, so that the mirror stays in sync.
+     */
+    @Override
+    public InputConnection getCurrentInputConnection() {
+        final InputConnection ic = super.getCurrentInputConnection();
+        if (ic == null) return null;
+        if (ic != mEditorTarget) {
+            mEditorTarget = ic;
+            mEditorText.setTarget(ic);
+        }
+        return mEditorText;
+    }
+
     @Override
     public void onUpdateSelection(int oldSelStart, int oldSelEnd,
             int newSelStart, int newSelEnd,
             int candidatesStart, int candidatesEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
                 candidatesStart, candidatesEnd);
+        mEditorText.onUpdateSelection(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
 
         if (DEBUG) {
             Log.i(TAG, "onUpdateSelection: oss=" + oldSelStart
@@ -701,6 +685,7 @@ public class LatinIME extends InputMethodService
                     || newSelEnd != candidatesEnd)
                 && mLastSelectionStart != newSelStart)) {
             mComposing.setLength(0);
+            mComposingFix.reset();
             mPredicting = false;
             postUpdateSuggestions();
             TextEntryState.reset();
@@ -796,7 +781,8 @@ public class LatinIME extends InputMethodService
             mOptionsDialog = null;
         }
         mWordToSuggestions.clear();
-        mWordHistory.clear();
+        mCorrectionHistory.clear();
+        mShownSuggestions = null;
         super.hideWindow();
         TextEntryState.endSession();
     }
@@ -937,6 +923,27 @@ public class LatinIME extends InputMethodService
     	}
     	return output;
     }
+
+    /**
+     * Same as getWordCorrection(mComposing), but only fixes what changed since the last call.
+     */
+    private CharSequence getComposingCorrection() {
+    	if(!mQuickFixes) {
+    		return getWordCorrection(mComposing);
+    	}
+    	if(mComposingFix.length() != mComposing.length()) {
+    		// Changed without telling mComposingFix
+    		mComposingFix.setText(mComposing);
+    	}
+    	CharSequence output = mComposingFix.toString();
+    	if(mUsedUnicode) {
+    		return MyanmarIMEUtils.zawgyiToUni(output);
+    	}
+    	if(mJellyBeanFix) {
+    		return ZawGyiCorrection.getJellyBeanFix(output);
+    	}
+    	return output;
+    }
     
     public int getOrientation() {
     	return mOrientation;
@@ -952,10 +959,11 @@ public class LatinIME extends InputMethodService
             if (mComposing.length() > 0) {
                 if (inputConnection != null) {
                 	//inputConnection.commitText(mComposing, 1);
-                	inputConnection.commitText(getWordCorrection(mComposing), 1); // SMM
+                	inputConnection.commitText(getComposingCorrection(), 1); // SMM
                 }
                 mCommittedLength = mComposing.length();
                 TextEntryState.acceptedTyped(mComposing);
+                mTouchModel.learn(mWord, mComposing);
                 addToDictionaries(mComposing, AutoDictionary.FREQUENCY_FOR_TYPED);
             }
             updateSuggestions();
@@ -1061,6 +1069,7 @@ public class LatinIME extends InputMethodService
     }
 
     public boolean addWordToDictionary(String word) {
+        // Lookups in progress keep the words they started with
         mUserDictionary.addWord(word, 128);
         // Suggestion strip should be updated after the operation of adding word to the
         // user dictionary
@@ -1121,6 +1130,8 @@ public class LatinIME extends InputMethodService
             mDeleteCount = 0;
         }
         mLastKeyTime = when;
+        // A word still being decoded doesn't replace what is typed after it
+        mGestureWorker.cancel(null);
         final boolean distinctMultiTouch = mKeyboardSwitcher.hasDistinctMultitouch();
         switch (primaryCode) {
             case KeyCodes.KEYCODE_DELETE:
@@ -1221,7 +1232,7 @@ public class LatinIME extends InputMethodService
                 if (isWordSeparator(primaryCode)) {
                     handleSeparator(primaryCode);
                 } else {
-                    handleCharacter(primaryCode, keyCodes);
+                    handleCharacter(primaryCode, keyCodes, x, y);
                 }
                 // Cancel the just reverted state
                 mJustRevertedSeparator = null;
@@ -1239,6 +1250,7 @@ public class LatinIME extends InputMethodService
     	}
         InputConnection ic = getCurrentInputConnection();
         if (ic == null) return;
+        mGestureWorker.cancel(null);
         abortCorrection(false);
         ic.beginBatchEdit();
         if (mPredicting) {
@@ -1269,9 +1281,10 @@ public class LatinIME extends InputMethodService
             final int length = mComposing.length();
             if (length > 0) {
                 mComposing.delete(length - 1, length);
+                mComposingFix.deleteLast();
                 mWord.deleteLast();
                 //ic.setComposingText(mComposing, 1);
-                ic.setComposingText(getWordCorrection(mComposing), 1); // SMM
+                ic.setComposingText(getComposingCorrection(), 1); // SMM
                 if (mComposing.length() == 0) {
                     mPredicting = false;
                 }
@@ -1355,7 +1368,7 @@ public class LatinIME extends InputMethodService
         }
     }
 
-    private void handleCharacter(int primaryCode, int[] keyCodes) {
+    private void handleCharacter(int primaryCode, int[] keyCodes, int x, int y) {
     	if(DEBUG) {
     		Log.i(TAG, "handleCharacter");
     	}
@@ -1375,6 +1388,7 @@ public class LatinIME extends InputMethodService
             	}
                 mPredicting = true;
                 mComposing.setLength(0);
+                mComposingFix.reset();
                 saveWordInHistory(mBestWord);
                 mWord.reset();
             }
@@ -1407,7 +1421,9 @@ public class LatinIME extends InputMethodService
                 mWord.setFirstCharCapitalized(true);
             }
             mComposing.append((char) primaryCode);
-            mWord.add(primaryCode, keyCodes);
+            mComposingFix.append((char) primaryCode);
+            mWord.add(primaryCode, keyCodes,
+                    mTouchModel.getWeights(primaryCode, keyCodes, x, y), x, y);
             InputConnection ic = getCurrentInputConnection();
             if (ic != null) {
                 // If it's the first letter, make note of auto-caps state
@@ -1415,7 +1431,7 @@ public class LatinIME extends InputMethodService
                     mWord.setAutoCapitalized(getCursorCapsMode(ic, getCurrentInputEditorInfo()) != 0);
                 }
                 //ic.setComposingText(mComposing, 1);
-                ic.setComposingText(getWordCorrection(mComposing), 1); // SMM
+                ic.setComposingText(getComposingCorrection(), 1); // SMM
             }
             postUpdateSuggestions();
         } else {
@@ -1532,16 +1548,20 @@ public class LatinIME extends InputMethodService
             return;
         }
 
-        // Make a copy of the CharSequence, since it is/could be a mutable CharSequence
-        final String resultCopy = result.toString();
-        TypedWordAlternatives entry = new TypedWordAlternatives(resultCopy,
-                new WordComposer(mWord));
-        mWordHistory.add(entry);
+        // The suggestions shown for the word are the ones offered when it's touched again
+        final SuggestionWorker.Result shown = mShownSuggestions;
+        mShownSuggestions = null;
+        final List<CharSequence> suggestions = shown != null
+                && TextUtils.equals(shown.mWord.getTypedWord(), mWord.getTypedWord())
+                ? shown.mSuggestions : null;
+        mCorrectionHistory.add(result, mWord, suggestions);
     }
 
     private void postUpdateSuggestions() {
         mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
-        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_UPDATE_SUGGESTIONS), 100);
+        // Wait longer before looking up when lookups have been slow
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_UPDATE_SUGGESTIONS),
+                mSuggestionWorker.getDelay());
     }
 
     private void postUpdateOldSuggestions() {
@@ -1615,6 +1635,13 @@ public class LatinIME extends InputMethodService
     }
 
     private void updateSuggestions() {
+        updateSuggestions(false);
+    }
+
+    /**
+     * @param now whether to look up the suggestions on this thread and show them right away
+     */
+    private void updateSuggestions(boolean now) {
         SoftKeyboardView inputView = mKeyboardSwitcher.getInputView();
         ((SoftKeyboard) inputView.getKeyboard()).setPreferredLetters(null);
 
@@ -1624,47 +1651,49 @@ public class LatinIME extends InputMethodService
         }
 
         if (!mPredicting) {
+            mSuggestionWorker.cancel(null);
             setNextSuggestions();
             return;
         }
-        showSuggestions(mWord);
+        showSuggestions(mWord, now);
     }
 
     private List<CharSequence> getTypedSuggestions(WordComposer word) {
-        List<CharSequence> stringList = mSuggest.getSuggestions(
-                mKeyboardSwitcher.getInputView(), word, false, null);
-        return stringList;
+        return mSuggestionWorker.getSuggestionsNow(mSuggest, mKeyboardSwitcher.getInputView(),
+                word, null).mSuggestions;
     }
 
-    private void showCorrections(WordAlternatives alternatives) {
-        List<CharSequence> stringList = alternatives.getAlternatives();
+    private void showCorrections(List<CharSequence> alternatives, CharSequence originalWord) {
         ((SoftKeyboard) mKeyboardSwitcher.getInputView().getKeyboard()).setPreferredLetters(null);
-        showSuggestions(stringList, alternatives.getOriginalWord(), false, false);
+        showSuggestions(alternatives, originalWord, false, false);
     }
 
-    private void showSuggestions(WordComposer word) {
+    private void showSuggestions(WordComposer word, boolean now) {
     	if(DEBUG) {
     		Log.i(TAG, "showSuggestions");
     	}
-        // long startTime = System.currentTimeMillis(); // TIME MEASUREMENT!
         // TODO Maybe need better way of retrieving previous word
         CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(), mWordSeparators);
-        List<CharSequence> stringList = mSuggest.getSuggestions(mKeyboardSwitcher.getInputView(), word, false, prevWord);
-        // long stopTime = System.currentTimeMillis(); // TIME MEASUREMENT!
-        // Log.d("LatinIME","Suggest Total Time - " + (stopTime - startTime));
+        if (now) {
+            onSuggestionsReady(mSuggestionWorker.getSuggestionsNow(mSuggest,
+                    mKeyboardSwitcher.getInputView(), word, prevWord));
+        } else {
+            mSuggestionWorker.post(mSuggest, mKeyboardSwitcher.getInputView(), word, prevWord);
+        }
+    }
 
-        int[] nextLettersFrequencies = mSuggest.getNextLettersFrequencies();
+    public void onSuggestionsReady(SuggestionWorker.Result result) {
+        final WordComposer word = result.mWord;
+        final CharSequence typedWord = word.getTypedWord();
+        // The word may have been committed or changed in the meantime
+        if (!mPredicting || !TextUtils.equals(typedWord, mWord.getTypedWord())) return;
 
         ((SoftKeyboard) mKeyboardSwitcher.getInputView().getKeyboard()).setPreferredLetters(
-                nextLettersFrequencies);
+                result.mNextLetters);
 
-        boolean correctionAvailable = !mInputTypeNoAutoCorrect && mSuggest.hasMinimalCorrection();
+        boolean correctionAvailable = !mInputTypeNoAutoCorrect && result.mHasMinimalCorrection;
         //|| mCorrectionMode == mSuggest.CORRECTION_FULL;
-        CharSequence typedWord = word.getTypedWord();
-        // If we're in basic correct
-        boolean typedWordValid = mSuggest.isValidWord(typedWord) ||
-                (preferCapitalization()
-                        && mSuggest.isValidWord(typedWord.toString().toLowerCase()));
+        boolean typedWordValid = result.mTypedWordValid;
         if (mCorrectionMode == Suggest.CORRECTION_FULL
                 || mCorrectionMode == Suggest.CORRECTION_FULL_BIGRAM) {
             correctionAvailable |= typedWordValid;
@@ -1673,7 +1702,8 @@ public class LatinIME extends InputMethodService
         correctionAvailable &= !word.isMostlyCaps();
         correctionAvailable &= !TextEntryState.isCorrecting();
 
-        showSuggestions(stringList, typedWord, typedWordValid, correctionAvailable);
+        showSuggestions(result.mSuggestions, typedWord, typedWordValid, correctionAvailable);
+        mShownSuggestions = result;
     }
 
     private void showSuggestions(List<CharSequence> stringList, CharSequence typedWord,
@@ -1696,9 +1726,9 @@ public class LatinIME extends InputMethodService
     		Log.i(TAG, "pickDefaultSuggestion");
     	}
         // Complete any pending candidate query first
-        if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS)) {
+        if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS) || mSuggestionWorker.isPending()) {
             mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
-            updateSuggestions();
+            updateSuggestions(true);
         }
         if (mBestWord != null && mBestWord.length() > 0) {
         	CharSequence bestWord = getWordCorrection(mBestWord); // SMM
@@ -1827,6 +1857,7 @@ public class LatinIME extends InputMethodService
             rememberReplacedWord(suggestion);
             ic.commitText(suggestion, 1);
         }
+        if (!correcting) mTouchModel.learn(mWord, suggestion);
         saveWordInHistory(suggestion);
         mPredicting = false;
         mCommittedLength = suggestion.length();
@@ -1878,14 +1909,15 @@ public class LatinIME extends InputMethodService
     private boolean applyTypedAlternatives(EditingUtil.SelectedWord touching) {
         // If we didn't find a match, search for result in typed word history
         WordComposer foundWord = null;
-        WordAlternatives alternatives = null;
-        for (WordAlternatives entry : mWordHistory) {
-            if (TextUtils.equals(entry.getChosenWord(), touching.word)) {
-                if (entry instanceof TypedWordAlternatives) {
-                    foundWord = ((TypedWordAlternatives) entry).word;
-                }
-                alternatives = entry;
-                break;
+        List<CharSequence> alternatives = null;
+        final int entry = mCorrectionHistory.find(touching.word);
+        if (entry != CorrectionHistory.NOT_FOUND) {
+            foundWord = mCorrectionHistory.getWord(entry);
+            alternatives = mCorrectionHistory.getSuggestions(entry);
+            if (alternatives == null) {
+                // Looked up once, then kept with the word
+                alternatives = getTypedSuggestions(foundWord);
+                mCorrectionHistory.setSuggestions(entry, alternatives);
             }
         }
         // If we didn't find a match, at least suggest completions
@@ -1899,18 +1931,12 @@ public class LatinIME extends InputMethodService
                 });
             }
             foundWord.setFirstCharCapitalized(Character.isUpperCase(touching.word.charAt(0)));
+            alternatives = getTypedSuggestions(foundWord);
         }
         // Found a match, show suggestions
-        if (foundWord != null || alternatives != null) {
-            if (alternatives == null) {
-                alternatives = new TypedWordAlternatives(touching.word, foundWord);
-            }
-            showCorrections(alternatives);
-            if (foundWord != null) {
-                mWord = new WordComposer(foundWord);
-            } else {
-                mWord.reset();
-            }
+        if (foundWord != null) {
+            showCorrections(alternatives, foundWord.getTypedWord());
+            mWord = foundWord;
             return true;
         }
         return false;
@@ -1984,7 +2010,8 @@ public class LatinIME extends InputMethodService
                 CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(),
                         mSentenceSeparators);
                 if (!TextUtils.isEmpty(prevWord)) {
-                    mUserBigramDictionary.addBigrams(prevWord.toString(), suggestion.toString());
+                    mUserBigramDictionary.addBigrams(prevWord.toString(),
+                            suggestion.toString());
                 }
             }
         }
@@ -2031,7 +2058,7 @@ public class LatinIME extends InputMethodService
             }
             ic.deleteSurroundingText(toDelete, 0);
             //ic.setComposingText(mComposing, 1);
-            ic.setComposingText(getWordCorrection(mComposing), 1); // SMM
+            ic.setComposingText(getComposingCorrection(), 1); // SMM
             TextEntryState.backspace();
             postUpdateSuggestions();
         } else {
@@ -2105,12 +2132,20 @@ public class LatinIME extends InputMethodService
         
         final int currentKeyboardMode = mKeyboardSwitcher.getKeyboardMode();
         final int imeOptions = mKeyboardSwitcher.getImeOptions();
-        reloadKeyboards();
-        mKeyboardSwitcher.makeKeyboards(true);
+        if (reset) {
+            // The enabled languages may have changed, which the keyboards show
+            reloadKeyboards();
+            mKeyboardSwitcher.makeKeyboards(true);
+        } else {
+            // Keyboards are kept per language, switching back doesn't make them again
+            mKeyboardSwitcher.setLanguageSwitcher(mLanguageSwitcher);
+            mKeyboardSwitcher.makeKeyboards(false);
+        }
         mKeyboardSwitcher.setKeyboardMode(currentKeyboardMode, imeOptions);
         initSuggest(mLanguageSwitcher.getInputLanguage());
         mLanguageSwitcher.persist();
         updateShiftKeyState(getCurrentInputEditorInfo());
+        mKeyboardSwitcher.prebuildKeyboards();
     }
 
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
@@ -2156,6 +2191,102 @@ public class LatinIME extends InputMethodService
         //launchSettings();
     }
 
+    public void onGesture(GestureStroke stroke, boolean done) {
+        if (mSuggest == null || !isPredictionOn()) return;
+        if (!mGestureTracing) {
+            if (stroke.size() == 0) return;
+            startGesture();
+        }
+        if (done) {
+            mGestureTracing = false;
+            if (stroke.size() == 0) {
+                // Cancelled
+                mGestureWorker.cancel(null);
+                updateSuggestions();
+                return;
+            }
+        }
+        mGestureWorker.post(mSuggest, mGestureKeys, stroke, done);
+    }
+
+    /**
+     * Finishes the word being typed before a new one is traced, and separates the two.
+     */
+    private void startGesture() {
+        mGestureTracing = true;
+        final SoftKeyboardView inputView = mKeyboardSwitcher.getInputView();
+        final Keyboard keyboard = inputView.getKeyboard();
+        if (keyboard != mGestureKeyboard) {
+            mGestureKeys = new GestureDecoder.Keys(keyboard);
+            mGestureKeyboard = keyboard;
+        }
+        mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
+        mSuggestionWorker.cancel(null);
+        final InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            if (mLastSelectionStart == mLastSelectionEnd && TextEntryState.isCorrecting()) {
+                abortCorrection(false);
+            }
+            if (mPredicting) {
+                commitTyped(ic);
+            }
+            final CharSequence before = ic.getTextBeforeCursor(1, 0);
+            if (!TextUtils.isEmpty(before) && !isWordSeparator(before.charAt(0))) {
+                sendSpace();
+            }
+        }
+        // After the space, which may have shifted the keyboard for a new sentence
+        mGestureShifted = inputView.isShifted() && mKeyboardSwitcher.isAlphabetMode();
+    }
+
+    public void onGestureWordsReady(List<CharSequence> words, boolean done) {
+        if (!done) {
+            // The words for the stroke so far, until the finger is lifted
+            if (mGestureTracing && !words.isEmpty()) {
+                setSuggestions(capitalizeGestureWords(words), false, false, false);
+                setCandidatesViewShown(isCandidateStripVisible() || mCompletionOn);
+            }
+            return;
+        }
+        final InputConnection ic = getCurrentInputConnection();
+        if (words.isEmpty() || ic == null) {
+            updateSuggestions();
+            return;
+        }
+        // The best word is composed as if it had been typed, the others are its suggestions
+        final List<CharSequence> suggestions = capitalizeGestureWords(words);
+        final CharSequence word = suggestions.get(0);
+        saveWordInHistory(mBestWord);
+        mPredicting = true;
+        mComposing.setLength(0);
+        mComposing.append(word);
+        mComposingFix.setText(word);
+        mWord.reset();
+        for (int i = 0; i < word.length(); i++) {
+            final int c = word.charAt(i);
+            mWord.add(c, new int[] { c });
+        }
+        mWord.setFirstCharCapitalized(mGestureShifted);
+        ic.setComposingText(getComposingCorrection(), 1);
+        showSuggestions(suggestions, word, true, false);
+        updateShiftKeyState(getCurrentInputEditorInfo());
+    }
+
+    private List<CharSequence> capitalizeGestureWords(List<CharSequence> words) {
+        final ArrayList<CharSequence> capitalized = new ArrayList<CharSequence>(words.size());
+        for (int i = 0; i < words.size(); i++) {
+            final String word = words.get(i).toString();
+            if (mCapsLock && mGestureShifted) {
+                capitalized.add(word.toUpperCase(mLanguageSwitcher.getInputLocale()));
+            } else if (mGestureShifted && word.length() > 0) {
+                capitalized.add(Character.toUpperCase(word.charAt(0)) + word.substring(1));
+            } else {
+                capitalized.add(word);
+            }
+        }
+        return capitalized;
+    }
+
     public void onPress(int primaryCode) {
         vibrate();
         playKeyClick(primaryCode);
@@ -2335,6 +2466,8 @@ public class LatinIME extends InputMethodService
                 mResources.getBoolean(R.bool.default_popup_preview));
         mAutoCap = sp.getBoolean(PREF_AUTO_CAP, true);
         mQuickFixes = sp.getBoolean(PREF_QUICK_FIXES, true);
+        mGestureInput = sp.getBoolean(PREF_GESTURE_INPUT,
+                mResources.getBoolean(R.bool.default_gesture_input));
 
         mShowSuggestions = Integer.valueOf(sp.getString(PREF_SHOW_SUGGESTIONS, getString(R.string.suggestion_visibility_default_value)));
 
@@ -2440,6 +2573,10 @@ public class LatinIME extends InputMethodService
         p.println("  mSoundOn=" + mSoundOn);
         p.println("  mVibrateOn=" + mVibrateOn);
         p.println("  mPopupOn=" + mPopupOn);
+        final SoftKeyboardView inputView = mKeyboardSwitcher.getInputView();
+        if (inputView != null) {
+            inputView.dumpFrameTimes(p);
+        }
     }
 
     // Characters per second measurement
@@ -219,6 +219,29 @@ public class MMFontConvert {
             , "([\u1000-\u1021])([\u107B\u1066])\u102C",  "$1\u102C$2" 
             , "\u102C([\u107B\u1066])\u1037",  "\u102C$1\u1094"
 		};
+		
+		sZawgyiToUniRules = new MMFontTransducer(patternsZawGyiToUni);
+		sUniToZawgyiRules = new MMFontTransducer(patternsUniToZawGyi);
+	};
+	
+	// Rule tables compiled once; each thread converts with its own buffers
+	private static final MMFontTransducer sZawgyiToUniRules;
+	private static final MMFontTransducer sUniToZawgyiRules;
+	
+	private static final ThreadLocal<MMFontTransducer> sZawgyiToUni =
+			new ThreadLocal<MMFontTransducer>() {
+		@Override
+		protected MMFontTransducer initialValue() {
+			return newZawgyiToUni();
+		}
+	};
+	
+	private static final ThreadLocal<MMFontTransducer> sUniToZawgyi =
+			new ThreadLocal<MMFontTransducer>() {
+		@Override
+		protected MMFontTransducer initialValue() {
+			return newUniToZawgyi();
+		}
 	};
 	
 	private static CharSequence RegexReplace(CharSequence data, CharSequence find, CharSequence replacement) {
@@ -287,19 +310,42 @@ public class MMFontConvert {
 	}
 	
 	public static CharSequence uniToZawgyi(CharSequence input) {
-		CharSequence output = input;
-		final String[] strPatterns = patternsUniToZawGyi;
-		final int patCount = strPatterns.length / 2;
-		for (int i = 0; i < patCount; i++) {
-			final int idx = i * 2;
-			output = RegexReplace(output, strPatterns[idx], strPatterns[(idx + 1)]);
-		}
-		return output;
+		return sUniToZawgyi.get().convert(input);
 	}
 	
 	public static CharSequence zawgyiToUni(CharSequence input) {
+		return sZawgyiToUni.get().convert(input);
+	}
+	
+	/**
+	 * Returns a converter with its own buffers for Unicode to Zawgyi conversion, for callers
+	 * that want to reuse the output char array.
+	 */
+	static MMFontTransducer newUniToZawgyi() {
+		return new MMFontTransducer(sUniToZawgyiRules);
+	}
+	
+	/**
+	 * Returns a converter with its own buffers for Zawgyi to Unicode conversion.
+	 */
+	static MMFontTransducer newZawgyiToUni() {
+		return new MMFontTransducer(sZawgyiToUniRules);
+	}
+	
+	/**
+	 * Reference implementation running every rule through java.util.regex. The compiled
+	 * converters must give the same output.
+	 */
+	static CharSequence regexUniToZawgyi(CharSequence input) {
+		return regexReplaceAll(input, patternsUniToZawGyi);
+	}
+	
+	static CharSequence regexZawgyiToUni(CharSequence input) {
+		return regexReplaceAll(input, patternsZawGyiToUni);
+	}
+	
+	private static CharSequence regexReplaceAll(CharSequence input, String[] strPatterns) {
 		CharSequence output = input;
-		final String[] strPatterns = patternsZawGyiToUni;
 		final int patCount = strPatterns.length / 2;
 		for (int i = 0; i < patCount; i++) {
 			final int idx = i * 2;
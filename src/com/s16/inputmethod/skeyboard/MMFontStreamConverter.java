@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+// SMM {
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Converts large texts between Zawgyi and Unicode in bounded chunks, so that a whole document
+ * never has to be held in the rule buffers and the conversion can be cancelled between chunks.
+ *
+ * Chunks are split right after a character that no rule looks at (spaces, punctuation, Latin
+ * text), which gives exactly the same result as {@link MMFontConvert}. Only a run of Myanmar
+ * text longer than the chunk size with no such character is split at the start of a syllable
+ * instead.
+ *
+ * {@link #cancel()} may be called from any thread; the conversion itself must run on one thread.
+ */
+public final class MMFontStreamConverter {
+
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private final MMFontTransducer mTransducer;
+	private final int mChunkSize;
+	private volatile boolean mCancelled;
+
+	public MMFontStreamConverter(boolean toZawgyi) {
+		this(toZawgyi, DEFAULT_CHUNK_SIZE);
+	}
+
+	public MMFontStreamConverter(boolean toZawgyi, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		mTransducer = toZawgyi ? MMFontConvert.newUniToZawgyi() : MMFontConvert.newZawgyiToUni();
+		mChunkSize = chunkSize;
+	}
+
+	/**
+	 * Stops a conversion in progress after the current chunk.
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * Converts the input and appends the result to the output chunk by chunk.
+	 * @return false if the conversion was cancelled before the end of the input
+	 */
+	public boolean convert(CharSequence input, Appendable output) throws IOException {
+		final int length = input.length();
+		int start = 0;
+		while (start < length) {
+			if (mCancelled) return false;
+			final int end = start + mChunkSize >= length ? length
+					: findSplit(input, start, start + mChunkSize);
+			final int converted = mTransducer.convert(input, start, end);
+			write(output, mTransducer.getText(), converted);
+			start = end;
+		}
+		return !mCancelled;
+	}
+
+	/**
+	 * Reads the input until it ends and writes the converted text to the output chunk by
+	 * chunk. Neither stream is closed.
+	 * @return false if the conversion was cancelled before the end of the input
+	 */
+	public boolean convert(Reader input, Writer output) throws IOException {
+		final char[] buffer = new char[mChunkSize * 2];
+		final CharArraySequence pending = new CharArraySequence(buffer);
+		int length = 0;
+		boolean eof = false;
+		while (!eof || length > 0) {
+			if (mCancelled) return false;
+			while (!eof && length < mChunkSize) {
+				final int read = input.read(buffer, length, buffer.length - length);
+				if (read < 0) {
+					eof = true;
+				} else {
+					length += read;
+				}
+			}
+			if (length == 0) break;
+			pending.mLength = length;
+			final int end = eof && length <= mChunkSize ? length
+					: findSplit(pending, 0, Math.min(length, mChunkSize));
+			final int converted = mTransducer.convert(buffer, 0, end);
+			output.write(mTransducer.getText(), 0, converted);
+			System.arraycopy(buffer, end, buffer, 0, length - end);
+			length -= end;
+		}
+		return !mCancelled;
+	}
+
+	private static void write(Appendable output, char[] text, int length) throws IOException {
+		if (output instanceof StringBuilder) {
+			((StringBuilder) output).append(text, 0, length);
+		} else if (output instanceof Writer) {
+			((Writer) output).write(text, 0, length);
+		} else {
+			output.append(new String(text, 0, length));
+		}
+	}
+
+	/**
+	 * Returns where to end the chunk that begins at start, no later than limit.
+	 */
+	private int findSplit(CharSequence text, int start, int limit) {
+		final MMFontTransducer transducer = mTransducer;
+		for (int i = limit - 1; i > start; i--) {
+			if (transducer.isInert(text.charAt(i - 1))) {
+				return i;
+			}
+		}
+		for (int i = limit - 1; i > start; i--) {
+			if (isSyllableStart(text, i)) {
+				// Zawgyi writes the e vowel and medial ra before the consonant
+				while (i > start + 1 && isPrefixMark(text.charAt(i - 1))) {
+					i--;
+				}
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	private static boolean isConsonant(char c) {
+		return c >= 0x1000 && c <= 0x1021;
+	}
+
+	private static boolean isPrefixMark(char c) {
+		return c == 0x1031 || c == 0x103B || (c >= 0x107E && c <= 0x1084);
+	}
+
+	/**
+	 * A consonant that is neither stacked under the previous one nor killed or stacked itself.
+	 */
+	private static boolean isSyllableStart(CharSequence text, int i) {
+		if (!isConsonant(text.charAt(i)) || text.charAt(i - 1) == 0x1039) {
+			return false;
+		}
+		if (i + 1 < text.length()) {
+			final char next = text.charAt(i + 1);
+			if (next == 0x1039 || next == 0x103A) return false;
+		}
+		return true;
+	}
+
+	private static final class CharArraySequence implements CharSequence {
+		final char[] mChars;
+		int mLength;
+
+		CharArraySequence(char[] chars) {
+			mChars = chars;
+		}
+
+		@Override
+		public int length() {
+			return mLength;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return mChars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(mChars, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(mChars, 0, mLength);
+		}
+	}
+}
+// } SMM
@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+// SMM {
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+
+/**
+ * Compiled form of a find/replace rule table of {@link MMFontConvert}.
+ *
+ * The tables only use a small part of the regular expression syntax (literals, character
+ * classes, capture groups, greedy quantifiers and a trailing look-ahead), so each pattern is
+ * compiled once into a list of character class atoms over the Myanmar block. The rules are then
+ * applied in order over two reusable char buffers, which gives the same output as running
+ * every pair through Matcher.appendReplacement without compiling patterns or allocating per
+ * match.
+ *
+ * Two things keep the per-word cost low: a rule is skipped without scanning when one of its
+ * mandatory atoms can't match any character present in the text, and inside a pass a match is
+ * only attempted at characters that can start the rule.
+ *
+ * The compiled rules are immutable and can be shared with {@link #MMFontTransducer(
+ * MMFontTransducer)}, but the buffers are not, so an instance must not be used by two threads
+ * at once.
+ */
+final class MMFontTransducer {
+
+	// Character classes are bit sets over U+1000 - U+10FF, which covers all the Myanmar code
+	// points used by the rules. Anything else is kept in a short list.
+	private static final char BLOCK_START = 0x1000;
+	private static final int BLOCK_SIZE = 0x100;
+	private static final int MASK_WORDS = BLOCK_SIZE / 64;
+
+	private static final int INFINITE = Integer.MAX_VALUE;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final class CharClass {
+		final long[] bits = new long[MASK_WORDS];
+		char[] others = new char[0];
+
+		void add(char c) {
+			if (c >= BLOCK_START && c < BLOCK_START + BLOCK_SIZE) {
+				final int i = c - BLOCK_START;
+				bits[i >> 6] |= 1L << (i & 63);
+			} else if (!contains(c)) {
+				final char[] others = new char[this.others.length + 1];
+				System.arraycopy(this.others, 0, others, 0, this.others.length);
+				others[this.others.length] = c;
+				this.others = others;
+			}
+		}
+
+		void addRange(char from, char to) {
+			for (int c = from; c <= to; c++) {
+				add((char) c);
+			}
+		}
+
+		void addAll(CharClass other) {
+			for (int i = 0; i < MASK_WORDS; i++) {
+				bits[i] |= other.bits[i];
+			}
+			for (int j = 0; j < other.others.length; j++) {
+				add(other.others[j]);
+			}
+		}
+
+		boolean contains(char c) {
+			final int i = c - BLOCK_START;
+			if (i >= 0 && i < BLOCK_SIZE) {
+				return (bits[i >> 6] & (1L << (i & 63))) != 0;
+			}
+			for (int j = 0; j < others.length; j++) {
+				if (others[j] == c) return true;
+			}
+			return false;
+		}
+
+		boolean intersects(CharClass other) {
+			for (int i = 0; i < MASK_WORDS; i++) {
+				if ((bits[i] & other.bits[i]) != 0) return true;
+			}
+			for (int j = 0; j < others.length; j++) {
+				if (other.contains(others[j])) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Whether a character of this class can occur in a text whose block characters are
+		 * given by present. Characters outside of the block aren't tracked.
+		 */
+		boolean mayOccurIn(long[] present) {
+			if (others.length > 0) return true;
+			for (int i = 0; i < MASK_WORDS; i++) {
+				if ((bits[i] & present[i]) != 0) return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Atom {
+		final CharClass chars;
+		int min = 1;
+		int max = 1;
+		boolean lookAhead;
+
+		Atom(CharClass chars) {
+			this.chars = chars;
+		}
+	}
+
+	private static final class Rule {
+		final Atom[] atoms;
+		// First and last atom of each capture group, indexed by group number - 1
+		final int[] groupStart;
+		final int[] groupEnd;
+		// Literal characters, or -group for a group reference
+		final int[] replacement;
+
+		Rule(Atom[] atoms, int[] groupStart, int[] groupEnd, int[] replacement) {
+			this.atoms = atoms;
+			this.groupStart = groupStart;
+			this.groupEnd = groupEnd;
+			this.replacement = replacement;
+		}
+	}
+
+	private final Rule[] mRules;
+	private final int mMaxAtoms;
+	// Every character that some rule can look at
+	private final CharClass mUsedChars;
+
+	private char[] mText = new char[INITIAL_CAPACITY];
+	private char[] mScratch = new char[INITIAL_CAPACITY];
+	private int mLength;
+	private final long[] mPresent = new long[MASK_WORDS];
+	private int[] mAtomStart;
+	private int[] mAtomEnd;
+
+	/**
+	 * Compiles a table of pattern/replacement pairs.
+	 * @throws IllegalArgumentException if a pattern uses syntax that isn't supported
+	 */
+	MMFontTransducer(String[] patterns) {
+		final int count = patterns.length / 2;
+		mRules = new Rule[count];
+		int maxAtoms = 0;
+		mUsedChars = new CharClass();
+		for (int i = 0; i < count; i++) {
+			mRules[i] = compile(patterns[i * 2], patterns[i * 2 + 1]);
+			maxAtoms = Math.max(maxAtoms, mRules[i].atoms.length);
+			for (Atom atom : mRules[i].atoms) {
+				mUsedChars.addAll(atom.chars);
+			}
+		}
+		mMaxAtoms = maxAtoms;
+		mAtomStart = new int[maxAtoms];
+		mAtomEnd = new int[maxAtoms];
+	}
+
+	/**
+	 * Creates a transducer sharing the compiled rules of another one, with its own buffers.
+	 */
+	MMFontTransducer(MMFontTransducer rules) {
+		mRules = rules.mRules;
+		mMaxAtoms = rules.mMaxAtoms;
+		mUsedChars = rules.mUsedChars;
+		mAtomStart = new int[mMaxAtoms];
+		mAtomEnd = new int[mMaxAtoms];
+	}
+
+	/**
+	 * Converts the text and returns it as a String, or null if input is null.
+	 */
+	String convert(CharSequence input) {
+		if (input == null) return null;
+		convert(input, 0, input.length());
+		return new String(mText, 0, mLength);
+	}
+
+	/**
+	 * Converts a range of the input. The result is left in {@link #getText()} and stays valid
+	 * until the next call.
+	 * @return the length of the result
+	 */
+	int convert(CharSequence input, int start, int end) {
+		final int length = end - start;
+		ensureCapacity(length);
+		char[] text = mText;
+		if (input instanceof String) {
+			((String) input).getChars(start, end, text, 0);
+		} else {
+			for (int i = 0; i < length; i++) {
+				text[i] = input.charAt(start + i);
+			}
+		}
+		mLength = length;
+		run();
+		return mLength;
+	}
+
+	/**
+	 * Converts a range of a char array. The result is left in {@link #getText()}.
+	 * @return the length of the result
+	 */
+	int convert(char[] input, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(input, offset, mText, 0, length);
+		mLength = length;
+		run();
+		return mLength;
+	}
+
+	/**
+	 * Whether no rule can match, remove or move the character. Converting the text on both
+	 * sides of such a character separately gives the same result as converting it as a whole.
+	 */
+	boolean isInert(char c) {
+		return !mUsedChars.contains(c);
+	}
+
+	char[] getText() {
+		return mText;
+	}
+
+	int getLength() {
+		return mLength;
+	}
+
+	private void ensureCapacity(int length) {
+		if (mText.length < length) {
+			final int capacity = Math.max(length, mText.length * 2);
+			mText = new char[capacity];
+			mScratch = new char[capacity];
+		}
+	}
+
+	private void updatePresent() {
+		final long[] present = mPresent;
+		for (int i = 0; i < MASK_WORDS; i++) {
+			present[i] = 0;
+		}
+		final char[] text = mText;
+		for (int i = 0; i < mLength; i++) {
+			final int c = text[i] - BLOCK_START;
+			if (c >= 0 && c < BLOCK_SIZE) {
+				present[c >> 6] |= 1L << (c & 63);
+			}
+		}
+	}
+
+	private void run() {
+		updatePresent();
+		final Rule[] rules = mRules;
+		for (int r = 0; r < rules.length; r++) {
+			final Rule rule = rules[r];
+			if (canMatch(rule) && apply(rule)) {
+				updatePresent();
+			}
+		}
+	}
+
+	private boolean canMatch(Rule rule) {
+		final Atom[] atoms = rule.atoms;
+		for (int i = 0; i < atoms.length; i++) {
+			if (atoms[i].min > 0 && !atoms[i].chars.mayOccurIn(mPresent)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces all the matches of the rule, scanning from left to right like Matcher.find().
+	 * @return true if the text was changed
+	 */
+	private boolean apply(Rule rule) {
+		final char[] text = mText;
+		final int length = mLength;
+		final CharClass first = rule.atoms[0].chars;
+		int pos = 0;
+		int matchEnd = -1;
+		while (pos < length) {
+			if (first.contains(text[pos])) {
+				matchEnd = match(rule, text, pos, length);
+				if (matchEnd >= 0) break;
+			}
+			pos++;
+		}
+		if (matchEnd < 0) return false;
+
+		char[] out = mScratch;
+		System.arraycopy(text, 0, out, 0, pos);
+		int outLength = pos;
+		while (true) {
+			// Append the replacement of the match at pos
+			final int[] replacement = rule.replacement;
+			for (int i = 0; i < replacement.length; i++) {
+				final int op = replacement[i];
+				if (op >= 0) {
+					out = ensureScratch(out, outLength + 1);
+					out[outLength++] = (char) op;
+				} else {
+					final int from = mAtomStart[rule.groupStart[-op - 1]];
+					final int to = mAtomEnd[rule.groupEnd[-op - 1]];
+					out = ensureScratch(out, outLength + to - from);
+					System.arraycopy(text, from, out, outLength, to - from);
+					outLength += to - from;
+				}
+			}
+			pos = matchEnd;
+			// Copy up to the next match
+			matchEnd = -1;
+			while (pos < length) {
+				if (first.contains(text[pos])) {
+					matchEnd = match(rule, text, pos, length);
+					if (matchEnd >= 0) break;
+				}
+				out = ensureScratch(out, outLength + 1);
+				out[outLength++] = text[pos++];
+			}
+			if (matchEnd < 0) break;
+		}
+
+		mScratch = text;
+		mText = out;
+		mLength = outLength;
+		if (mScratch.length < mText.length) {
+			mScratch = new char[mText.length];
+		}
+		return true;
+	}
+
+	private char[] ensureScratch(char[] out, int length) {
+		if (out.length >= length) return out;
+		final char[] grown = new char[Math.max(length, out.length * 2)];
+		System.arraycopy(out, 0, grown, 0, out.length);
+		mScratch = grown;
+		return grown;
+	}
+
+	/**
+	 * Matches the rule at pos. Quantifiers are greedy and never need to give characters back,
+	 * because compile() rejects patterns where the following atoms could take them.
+	 * @return the end of the match or -1
+	 */
+	private int match(Rule rule, char[] text, int pos, int length) {
+		final Atom[] atoms = rule.atoms;
+		final int[] atomStart = mAtomStart;
+		final int[] atomEnd = mAtomEnd;
+		for (int i = 0; i < atoms.length; i++) {
+			final Atom atom = atoms[i];
+			atomStart[i] = pos;
+			if (atom.lookAhead) {
+				if (pos >= length || !atom.chars.contains(text[pos])) return -1;
+				atomEnd[i] = pos;
+				continue;
+			}
+			int n = 0;
+			while (n < atom.max && pos < length && atom.chars.contains(text[pos])) {
+				pos++;
+				n++;
+			}
+			if (n < atom.min) return -1;
+			atomEnd[i] = pos;
+		}
+		return pos;
+	}
+
+	private static Rule compile(String pattern, String replacement) {
+		final ArrayList<Atom> atoms = new ArrayList<Atom>();
+		final ArrayList<int[]> groups = new ArrayList<int[]>();
+		final ArrayList<int[]> open = new ArrayList<int[]>();
+		final int length = pattern.length();
+		int i = 0;
+		while (i < length) {
+			final char c = pattern.charAt(i);
+			if (c == '(') {
+				if (pattern.startsWith("(?=", i)) {
+					final int close = pattern.indexOf(')', i);
+					final CharClass chars = new CharClass();
+					final int end = parseAtom(pattern, i + 3, chars);
+					if (close != end || close != length - 1) {
+						throw unsupported(pattern);
+					}
+					final Atom atom = new Atom(chars);
+					atom.lookAhead = true;
+					atoms.add(atom);
+					i = close + 1;
+					continue;
+				}
+				final int[] group = new int[] { atoms.size(), -1 };
+				groups.add(group);
+				open.add(group);
+				i++;
+			} else if (c == ')') {
+				if (open.isEmpty()) throw unsupported(pattern);
+				final int[] group = open.remove(open.size() - 1);
+				group[1] = atoms.size() - 1;
+				i++;
+				if (i < length && isQuantifier(pattern.charAt(i))) {
+					// Only single atom groups are quantified in the tables
+					if (group[0] != group[1]) throw unsupported(pattern);
+					i = parseQuantifier(pattern, i, atoms.get(group[1]));
+				}
+			} else {
+				final CharClass chars = new CharClass();
+				i = parseAtom(pattern, i, chars);
+				final Atom atom = new Atom(chars);
+				if (i < length && isQuantifier(pattern.charAt(i))) {
+					i = parseQuantifier(pattern, i, atom);
+				}
+				atoms.add(atom);
+			}
+		}
+		if (!open.isEmpty() || atoms.isEmpty() || atoms.get(0).min == 0) {
+			throw unsupported(pattern);
+		}
+
+		final Atom[] atomArray = atoms.toArray(new Atom[atoms.size()]);
+		checkGreedy(pattern, atomArray);
+
+		final int groupCount = groups.size();
+		final int[] groupStart = new int[groupCount];
+		final int[] groupEnd = new int[groupCount];
+		for (int g = 0; g < groupCount; g++) {
+			groupStart[g] = groups.get(g)[0];
+			groupEnd[g] = groups.get(g)[1];
+		}
+
+		// Same handling of '$' as MMFontConvert.RegexReplace: "$n" is a group reference, and
+		// a '$' followed by anything else is dropped together with that character.
+		final int[] ops = new int[replacement.length()];
+		int opCount = 0;
+		for (int r = 0; r < replacement.length(); r++) {
+			final char ch = replacement.charAt(r);
+			if (ch == '$') {
+				r++;
+				if (r < replacement.length()) {
+					final int group = replacement.charAt(r) - '0';
+					if (group >= 1 && group <= 9) {
+						if (group > groupCount) throw unsupported(replacement);
+						ops[opCount++] = -group;
+					}
+				}
+			} else {
+				ops[opCount++] = ch;
+			}
+		}
+		final int[] replacementOps = new int[opCount];
+		System.arraycopy(ops, 0, replacementOps, 0, opCount);
+		return new Rule(atomArray, groupStart, groupEnd, replacementOps);
+	}
+
+	/**
+	 * Backtracking into a quantified atom can only change the result if one of the atoms that
+	 * may come right after it accepts the same characters. None of the tables do that, which is
+	 * what allows match() to be a single greedy pass.
+	 */
+	private static void checkGreedy(String pattern, Atom[] atoms) {
+		for (int i = 0; i < atoms.length; i++) {
+			if (atoms[i].min == atoms[i].max) continue;
+			for (int j = i + 1; j < atoms.length; j++) {
+				if (atoms[i].chars.intersects(atoms[j].chars)) throw unsupported(pattern);
+				if (atoms[j].min > 0 || atoms[j].lookAhead) break;
+			}
+		}
+	}
+
+	private static int parseAtom(String pattern, int i, CharClass chars) {
+		final char c = pattern.charAt(i);
+		if (c == '[') {
+			i++;
+			final int length = pattern.length();
+			while (i < length && pattern.charAt(i) != ']') {
+				final char from = pattern.charAt(i);
+				if (from == '^' || from == '\\' || from == '[') throw unsupported(pattern);
+				if (i + 2 < length && pattern.charAt(i + 1) == '-'
+						&& pattern.charAt(i + 2) != ']') {
+					chars.addRange(from, pattern.charAt(i + 2));
+					i += 3;
+				} else {
+					chars.add(from);
+					i++;
+				}
+			}
+			if (i >= length) throw unsupported(pattern);
+			return i + 1;
+		}
+		if ("\\.^$|?*+{}()".indexOf(c) >= 0) throw unsupported(pattern);
+		chars.add(c);
+		return i + 1;
+	}
+
+	private static boolean isQuantifier(char c) {
+		return c == '?' || c == '*' || c == '+' || c == '{';
+	}
+
+	private static int parseQuantifier(String pattern, int i, Atom atom) {
+		final int min;
+		final int max;
+		switch (pattern.charAt(i)) {
+			case '?':
+				min = 0;
+				max = 1;
+				i++;
+				break;
+			case '*':
+				min = 0;
+				max = INFINITE;
+				i++;
+				break;
+			case '+':
+				min = 1;
+				max = INFINITE;
+				i++;
+				break;
+			default:
+				final int close = pattern.indexOf('}', i);
+				final int comma = pattern.indexOf(',', i);
+				if (close < 0 || comma < 0 || comma > close) throw unsupported(pattern);
+				try {
+					min = Integer.parseInt(pattern.substring(i + 1, comma));
+					max = Integer.parseInt(pattern.substring(comma + 1, close));
+				} catch (NumberFormatException e) {
+					throw unsupported(pattern);
+				}
+				i = close + 1;
+				break;
+		}
+		if (i < pattern.length() && isQuantifier(pattern.charAt(i))) {
+			// Lazy, possessive or stacked quantifiers
+			throw unsupported(pattern);
+		}
+		// An optional group around a quantified atom, like ([a]*)?, can match an empty string
+		// either way.
+		atom.min = Math.min(atom.min, min) == 0 ? 0 : min;
+		atom.max = atom.max == 1 ? max : Math.max(atom.max, max);
+		return i;
+	}
+
+	private static IllegalArgumentException unsupported(String pattern) {
+		return new IllegalArgumentException("Unsupported rule: " + pattern);
+	}
+}
+// } SMM
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Arrays;
+
+/**
+ * How often each letter follows the word typed so far, for every script. The dictionaries fill
+ * it while looking up suggestions and the keyboard uses it to prefer likely next keys.
+ *
+ * This is an open-addressing map from character code to count. Slots are only valid if they
+ * carry the current stamp, so {@link #clear()} doesn't touch the arrays, and once the map has
+ * grown to the size a keystroke needs it doesn't allocate anymore.
+ */
+final class NextLetterFrequencies {
+
+    // Power of two. The letters of one script are close together, so the codes themselves
+    // spread well over the slots.
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] mCodes = new int[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private int[] mStamps = new int[INITIAL_CAPACITY];
+    private int mStamp = 1;
+    private int mSize;
+
+    NextLetterFrequencies() {
+    }
+
+    NextLetterFrequencies(NextLetterFrequencies copy) {
+        mCodes = copy.mCodes.clone();
+        mCounts = copy.mCounts.clone();
+        mStamps = copy.mStamps.clone();
+        mStamp = copy.mStamp;
+        mSize = copy.mSize;
+    }
+
+    /**
+     * Forgets all letters.
+     */
+    void clear() {
+        mSize = 0;
+        if (++mStamp == 0) {
+            Arrays.fill(mStamps, 0);
+            mStamp = 1;
+        }
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Returns how often the letter was added since the last {@link #clear()}.
+     */
+    int get(int code) {
+        final int mask = mCodes.length - 1;
+        for (int i = code & mask; mStamps[i] == mStamp; i = (i + 1) & mask) {
+            if (mCodes[i] == code) return mCounts[i];
+        }
+        return 0;
+    }
+
+    void add(int code, int count) {
+        final int mask = mCodes.length - 1;
+        int i = code & mask;
+        for (; mStamps[i] == mStamp; i = (i + 1) & mask) {
+            if (mCodes[i] == code) {
+                mCounts[i] += count;
+                return;
+            }
+        }
+        // Keep at least half of the slots free
+        if ((mSize + 1) * 2 > mCodes.length) {
+            grow();
+            add(code, count);
+            return;
+        }
+        mCodes[i] = code;
+        mCounts[i] = count;
+        mStamps[i] = mStamp;
+        mSize++;
+    }
+
+    /**
+     * Adds the counts of an array indexed by letter and sets them back to zero.
+     */
+    void addAndClear(int[] counts) {
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] != 0) {
+                add(code, counts[code]);
+                counts[code] = 0;
+            }
+        }
+    }
+
+    private void grow() {
+        final int[] codes = mCodes;
+        final int[] counts = mCounts;
+        final int[] stamps = mStamps;
+        final int stamp = mStamp;
+        mCodes = new int[codes.length * 2];
+        mCounts = new int[codes.length * 2];
+        mStamps = new int[codes.length * 2];
+        mStamp = 1;
+        mSize = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (stamps[i] == stamp) add(codes[i], counts[i]);
+        }
+    }
+}
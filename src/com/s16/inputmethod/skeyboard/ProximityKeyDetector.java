@@ -18,13 +18,13 @@ package com.s16.inputmethod.skeyboard;
 
 import com.s16.inputmethod.skeyboard.Keyboard.Key;
 
-import java.util.Arrays;
-
 class ProximityKeyDetector extends KeyDetector {
     private static final int MAX_NEARBY_KEYS = 12;
 
-    // working area
-    private int[] mDistances = new int[MAX_NEARBY_KEYS];
+    // working area, the nearby keys and their distances, or costs in the touch model, in
+    // ascending order. The primary key is moved to the front at the end.
+    private int[] mNearbyKeys = new int[MAX_NEARBY_KEYS];
+    private int[] mNearbyDistances = new int[MAX_NEARBY_KEYS];
 
     @Override
     protected int getMaxNearbyKeys() {
@@ -36,13 +36,25 @@ class ProximityKeyDetector extends KeyDetector {
         final Key[] keys = getKeys();
         final int touchX = getTouchX(x);
         final int touchY = getTouchY(y);
+        if (allKeys == null) {
+            // Most touch events only need the key, which the grid often knows right away
+            final int keyIndex = mKeyboard.getKeyWellInside(touchX, touchY);
+            if (keyIndex >= 0) return keyIndex;
+        }
         int primaryIndex = KeyboardBaseView.NOT_A_KEY;
         int closestKey = KeyboardBaseView.NOT_A_KEY;
         int closestKeyDist = mProximityThresholdSquare + 1;
-        int[] distances = mDistances;
-        Arrays.fill(distances, Integer.MAX_VALUE);
         int [] nearestKeyIndices = mKeyboard.getNearestKeys(touchX, touchY);
+        final TouchModel model = allKeys != null && mTouchModel != null
+                && mTouchModel.isKeyboard(mKeyboard) ? mTouchModel : null;
         final int keyCount = nearestKeyIndices.length;
+        if (mNearbyKeys.length < keyCount) {
+            mNearbyKeys = new int[keyCount];
+            mNearbyDistances = new int[keyCount];
+        }
+        final int[] nearbyKeys = mNearbyKeys;
+        final int[] distances = mNearbyDistances;
+        int nearbyCount = 0;
         for (int i = 0; i < keyCount; i++) {
             final Key key = keys[nearestKeyIndices[i]];
             int dist = 0;
@@ -55,8 +67,6 @@ class ProximityKeyDetector extends KeyDetector {
                     && (dist = key.squaredDistanceFrom(touchX, touchY)) < mProximityThresholdSquare)
                     || isInside)
                     && key.getCode() > 32) { // SMM
-                // Find insertion point
-                final int nCodes = key.codes.length;
                 if (dist < closestKeyDist) {
                     closestKeyDist = dist;
                     closestKey = nearestKeyIndices[i];
@@ -64,24 +74,42 @@ class ProximityKeyDetector extends KeyDetector {
 
                 if (allKeys == null) continue;
 
-                for (int j = 0; j < distances.length; j++) {
-                    if (distances[j] > dist) {
-                        // Make space for nCodes codes
-                        System.arraycopy(distances, j, distances, j + nCodes,
-                                distances.length - j - nCodes);
-                        System.arraycopy(allKeys, j, allKeys, j + nCodes,
-                                allKeys.length - j - nCodes);
-                        //System.arraycopy(key.codes, 0, allKeys, j, nCodes);
-                        System.arraycopy(key.getCodes(), 0, allKeys, j, nCodes); // SMM
-                        Arrays.fill(distances, j, j + nCodes, dist);
-                        break;
-                    }
+                // The keys come nearest to the grid cell first, so this rarely moves any
+                final int rank = model != null
+                        ? model.getCost(nearestKeyIndices[i], touchX, touchY) : dist;
+                int j = nearbyCount++;
+                while (j > 0 && distances[j - 1] > rank) {
+                    nearbyKeys[j] = nearbyKeys[j - 1];
+                    distances[j] = distances[j - 1];
+                    j--;
                 }
+                nearbyKeys[j] = nearestKeyIndices[i];
+                distances[j] = rank;
             }
         }
         if (primaryIndex == KeyboardBaseView.NOT_A_KEY) {
             primaryIndex = closestKey;
         }
+        if (allKeys != null) {
+            // The dictionaries take the first code as the typed one, so the primary key comes
+            // first even if the touch model ranks another key above it
+            for (int i = 1; i < nearbyCount; i++) {
+                if (nearbyKeys[i] == primaryIndex) {
+                    System.arraycopy(nearbyKeys, 0, nearbyKeys, 1, i);
+                    nearbyKeys[0] = primaryIndex;
+                    break;
+                }
+            }
+            // All the codes of each key, as many as fit
+            int count = 0;
+            for (int i = 0; i < nearbyCount && count < allKeys.length; i++) {
+                //final int[] codes = keys[nearbyKeys[i]].codes;
+                final int[] codes = keys[nearbyKeys[i]].getCodes(); // SMM
+                final int nCodes = Math.min(codes.length, allKeys.length - count);
+                System.arraycopy(codes, 0, allKeys, count, nCodes);
+                count += nCodes;
+            }
+        }
         return primaryIndex;
     }
 }
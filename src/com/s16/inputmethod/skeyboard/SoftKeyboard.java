@@ -91,7 +91,7 @@ public class SoftKeyboard extends Keyboard {
     private CharSequence m123Label;
     private boolean mCurrentlyInSpace;
     private SlidingLocaleDrawable mSlidingLocaleIcon;
-    private int[] mPrefLetterFrequencies;
+    private NextLetterFrequencies mPrefLetterFrequencies;
     private int mPrefLetter;
     private int mPrefLetterX;
     private int mPrefLetterY;
@@ -798,7 +798,7 @@ public class SoftKeyboard extends Keyboard {
         return mCurrentlyInSpace;
     }
 
-    void setPreferredLetters(int[] frequencies) {
+    void setPreferredLetters(NextLetterFrequencies frequencies) {
         mPrefLetterFrequencies = frequencies;
         mPrefLetter = 0;
     }
@@ -853,7 +853,7 @@ public class SoftKeyboard extends Keyboard {
                 mPrefDistance = Integer.MAX_VALUE;
             }
             // Handle preferred next letter
-            final int[] pref = mPrefLetterFrequencies;
+            final NextLetterFrequencies pref = mPrefLetterFrequencies;
             if (mPrefLetter > 0) {
                 if (DEBUG_PREFERRED_LETTER) {
                     if (mPrefLetter == code && !key.isInsideSuper(x, y)) {
@@ -877,7 +877,7 @@ public class SoftKeyboard extends Keyboard {
                             if (k != key && inPrefList(k.getCode(), pref)) { // SMM
                                 final int dist = distanceFrom(k, x, y);
                                 if (dist < (int) (k.width * OVERLAP_PERCENTAGE_LOW_PROB) &&
-                                        (pref[k.codes[0]] > pref[mPrefLetter] * 3))  { // SMM
+                                        (pref.get(k.codes[0]) > pref.get(mPrefLetter) * 3))  { // SMM
                                     mPrefLetter = k.codes[0];
                                     mPrefDistance = dist;
                                     if (DEBUG_PREFERRED_LETTER) {
@@ -928,9 +928,8 @@ public class SoftKeyboard extends Keyboard {
         return key.isInsideSuper(x, y);
     }
 
-    private boolean inPrefList(int code, int[] pref) {
-        if (code < pref.length && code >= 0) return pref[code] > 0;
-        return false;
+    private boolean inPrefList(int code, NextLetterFrequencies pref) {
+        return code >= 0 && pref.get(code) > 0;
     }
 
     private int distanceFrom(Key k, int x, int y) {
@@ -941,6 +940,28 @@ public class SoftKeyboard extends Keyboard {
         }
     }
 
+    @Override
+    protected int getHitSlop(Key key) {
+        // See isInside()
+        final int code = key.codes[0];
+        if (code == KeyCodes.KEYCODE_SHIFT || code == KeyCodes.KEYCODE_DELETE) {
+            return Math.max(key.width / 6, key.height / 10);
+        } else if (code == KeyCodes.KEYCODE_SPACE) {
+            // Never skipped, touching it may start dragging to another language
+            return Math.max(1, Math.abs(sSpacebarVerticalCorrection));
+        }
+        return 0;
+    }
+
+    @Override
+    public int getKeyWellInside(int x, int y) {
+        // The preferred letters and dragging the spacebar decide which key is hit
+        if (mCurrentlyInSpace || mPrefLetterFrequencies != null) {
+            return -1;
+        }
+        return super.getKeyWellInside(x, y);
+    }
+
     @Override
     public int[] getNearestKeys(int x, int y) {
         if (mCurrentlyInSpace) {
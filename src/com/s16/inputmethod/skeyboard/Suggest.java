@@ -18,7 +18,6 @@ package com.s16.inputmethod.skeyboard;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import android.content.Context;
@@ -66,6 +65,8 @@ public class Suggest implements Dictionary.WordCallback {
     static final int LARGE_DICTIONARY_THRESHOLD = 200 * 1000;
 
     private BinaryDictionary mMainDict;
+    // In bytes, as listed in the dictionary index
+    private final int mMainDictSize;
 
     private Dictionary mUserDictionary;
 
@@ -81,17 +82,16 @@ public class Suggest implements Dictionary.WordCallback {
 
     private boolean mAutoTextEnabled;
 
-    private int[] mPriorities = new int[mPrefMaxSuggestions];
-    private int[] mBigramPriorities = new int[PREF_MAX_BIGRAMS];
+    private SuggestionCollector mCollector = new SuggestionCollector(mPrefMaxSuggestions);
+    // Kept from the first character of a word for the lookups of the next characters
+    private final SuggestionCollector mBigramCollector =
+            new SuggestionCollector(PREF_MAX_BIGRAMS);
+    private int[] mSortedSlots = new int[Math.max(mPrefMaxSuggestions, PREF_MAX_BIGRAMS)];
+    // The word offered to addWord() as it is shown
+    private char[] mShownWord = new char[APPROX_MAX_WORD_LENGTH];
 
-    // Handle predictive correction for only the first 1280 characters for performance reasons
-    // If we support scripts that need latin characters beyond that, we should probably use some
-    // kind of a sparse array or language specific list with a mapping lookup table.
-    // 1280 is the size of the BASE_CHARS array in ExpandableDictionary, which is a basic set of
-    // latin characters.
-    private int[] mNextLettersFrequencies = new int[1280];
+    private NextLetterFrequencies mNextLettersFrequencies = new NextLetterFrequencies();
     private ArrayList<CharSequence> mSuggestions = new ArrayList<CharSequence>();
-    ArrayList<CharSequence> mBigramSuggestions  = new ArrayList<CharSequence>();
     private ArrayList<CharSequence> mStringPool = new ArrayList<CharSequence>();
     private boolean mHaveCorrection;
     private CharSequence mOriginalWord;
@@ -103,13 +103,21 @@ public class Suggest implements Dictionary.WordCallback {
 
     private int mCorrectionMode = CORRECTION_BASIC;
 
+    // Request of the lookup in progress and the latest request made; the lookup stops as soon
+    // as they differ
+    private int mRequest;
+    private volatile int mLatestRequest;
+
     public Suggest(Context context, int[] dictionaryResId) {
         mMainDict = new BinaryDictionary(context, dictionaryResId, DIC_MAIN);
+        mMainDictSize = DictionaryIndex.getInstance(context.getResources())
+                .getSize(dictionaryResId);
         initPool();
     }
 
     public Suggest(Context context, ByteBuffer byteBuffer) {
         mMainDict = new BinaryDictionary(context, byteBuffer, DIC_MAIN);
+        mMainDictSize = byteBuffer.capacity();
         initPool();
     }
 
@@ -133,8 +141,7 @@ public class Suggest implements Dictionary.WordCallback {
     }
 
     public boolean hasMainDictionary() {
-        //return mMainDict.getSize() > LARGE_DICTIONARY_THRESHOLD;
-    	return true;
+        return mMainDictSize > LARGE_DICTIONARY_THRESHOLD;
     }
 
     public int getApproxMaxWordLength() {
@@ -175,8 +182,8 @@ public class Suggest implements Dictionary.WordCallback {
             throw new IllegalArgumentException("maxSuggestions must be between 1 and 100");
         }
         mPrefMaxSuggestions = maxSuggestions;
-        mPriorities = new int[mPrefMaxSuggestions];
-        mBigramPriorities = new int[PREF_MAX_BIGRAMS];
+        mCollector = new SuggestionCollector(mPrefMaxSuggestions);
+        mSortedSlots = new int[Math.max(mPrefMaxSuggestions, PREF_MAX_BIGRAMS)];
         collectGarbage(mSuggestions, mPrefMaxSuggestions);
         while (mStringPool.size() < mPrefMaxSuggestions) {
             StringBuilder sb = new StringBuilder(getApproxMaxWordLength());
@@ -213,21 +220,25 @@ public class Suggest implements Dictionary.WordCallback {
 
     /**
      * Returns a list of words that match the list of character codes passed in.
-     * This list will be overwritten the next time this function is called.
+     * This list will be overwritten the next time this function is called. If {@link #cancel}
+     * is called with a later request meanwhile, the lookup stops early and the list is
+     * incomplete.
      * @param view a view for retrieving the context for AutoText
      * @param wordComposer contains what is currently being typed
      * @param prevWordForBigram previous word (used only for bigram)
+     * @param request the number of the request, the one last passed to {@link #cancel}
      * @return list of suggestions.
      */
-    public List<CharSequence> getSuggestions(View view, WordComposer wordComposer, 
-            boolean includeTypedWordIfValid, CharSequence prevWordForBigram) {
+    public synchronized List<CharSequence> getSuggestions(View view, WordComposer wordComposer,
+            boolean includeTypedWordIfValid, CharSequence prevWordForBigram, int request) {
     	IMELogger.onStartSuggestion(prevWordForBigram);
+        mRequest = request;
         mHaveCorrection = false;
         mIsFirstCharCapitalized = wordComposer.isFirstCharCapitalized();
         mIsAllUpperCase = wordComposer.isAllUpperCase();
         collectGarbage(mSuggestions, mPrefMaxSuggestions);
-        Arrays.fill(mPriorities, 0);
-        Arrays.fill(mNextLettersFrequencies, 0);
+        mCollector.clear();
+        mNextLettersFrequencies.clear();
 
         // Save a lowercase version of the original word
         mOriginalWord = wordComposer.getTypedWord();
@@ -245,8 +256,7 @@ public class Suggest implements Dictionary.WordCallback {
         if (wordComposer.size() == 1 && (mCorrectionMode == CORRECTION_FULL_BIGRAM
                 || mCorrectionMode == CORRECTION_BASIC)) {
             // At first character typed, search only the bigrams
-            Arrays.fill(mBigramPriorities, 0);
-            collectGarbage(mBigramSuggestions, PREF_MAX_BIGRAMS);
+            mBigramCollector.clear();
 
             if (!TextUtils.isEmpty(prevWordForBigram)) {
                 CharSequence lowerPrevWord = prevWordForBigram.toString().toLowerCase();
@@ -257,29 +267,25 @@ public class Suggest implements Dictionary.WordCallback {
                     mUserBigramDictionary.getBigrams(wordComposer, prevWordForBigram, this,
                             mNextLettersFrequencies);
                 }
-                if (mContactsDictionary != null) {
+                if (mContactsDictionary != null && !isCancelled()) {
                     mContactsDictionary.getBigrams(wordComposer, prevWordForBigram, this,
                             mNextLettersFrequencies);
                 }
-                if (mMainDict != null) {
+                if (mMainDict != null && !isCancelled()) {
                     mMainDict.getBigrams(wordComposer, prevWordForBigram, this,
                             mNextLettersFrequencies);
                 }
                 char currentChar = wordComposer.getTypedWord().charAt(0);
                 char currentCharUpper = Character.toUpperCase(currentChar);
-                int count = 0;
-                int bigramSuggestionSize = mBigramSuggestions.size();
-                for (int i = 0; i < bigramSuggestionSize; i++) {
-                    if (mBigramSuggestions.get(i).charAt(0) == currentChar
-                            || mBigramSuggestions.get(i).charAt(0) == currentCharUpper) {
-                        int poolSize = mStringPool.size();
-                        StringBuilder sb = poolSize > 0 ?
-                                (StringBuilder) mStringPool.remove(poolSize - 1)
-                                : new StringBuilder(getApproxMaxWordLength());
-                        sb.setLength(0);
-                        sb.append(mBigramSuggestions.get(i));
-                        mSuggestions.add(count++, sb);
-                        if (count > mPrefMaxSuggestions) break;
+                final int typedSlot = mBigramCollector.find(mOriginalWord);
+                final int count = mBigramCollector.getSortedSlots(mSortedSlots);
+                for (int i = 0; i < count; i++) {
+                    final int slot = mSortedSlots[i];
+                    final char firstChar = mBigramCollector.getWord(slot)[0];
+                    if (slot != typedSlot
+                            && (firstChar == currentChar || firstChar == currentCharUpper)) {
+                        addSuggestion(mBigramCollector, slot, Dictionary.DataType.BIGRAM);
+                        if (mSuggestions.size() > mPrefMaxSuggestions) break;
                     }
                 }
             }
@@ -290,21 +296,29 @@ public class Suggest implements Dictionary.WordCallback {
                 if (mUserDictionary != null) {
                     mUserDictionary.getWords(wordComposer, this, mNextLettersFrequencies);
                 }
-                if (mContactsDictionary != null) {
+                if (mContactsDictionary != null && !isCancelled()) {
                     mContactsDictionary.getWords(wordComposer, this, mNextLettersFrequencies);
                 }
 
-                if (mSuggestions.size() > 0 && isValidWord(mOriginalWord)
+                if (mCollector.size() > 0 && isValidWord(mOriginalWord)
                         && (mCorrectionMode == CORRECTION_FULL
                         || mCorrectionMode == CORRECTION_FULL_BIGRAM)) {
                     mHaveCorrection = true;
                 }
             }
+            if (isCancelled()) return mSuggestions;
             mMainDict.getWords(wordComposer, this, mNextLettersFrequencies);
             if ((mCorrectionMode == CORRECTION_FULL || mCorrectionMode == CORRECTION_FULL_BIGRAM)
-                    && mSuggestions.size() > 0) {
+                    && mCollector.size() > 0) {
                 mHaveCorrection = true;
             }
+            final int typedSlot = mCollector.find(mOriginalWord);
+            final int count = mCollector.getSortedSlots(mSortedSlots);
+            for (int i = 0; i < count; i++) {
+                if (mSortedSlots[i] != typedSlot) {
+                    addSuggestion(mCollector, mSortedSlots[i], Dictionary.DataType.UNIGRAM);
+                }
+            }
         }
         if (mOriginalWord != null) {
             mSuggestions.add(0, mOriginalWord.toString());
@@ -318,7 +332,7 @@ public class Suggest implements Dictionary.WordCallback {
                 mHaveCorrection = false;
             }
         }
-        if (mAutoTextEnabled) {
+        if (mAutoTextEnabled && !isCancelled()) {
             int i = 0;
             int max = 6;
             // Don't autotext the suggestions from the dictionaries
@@ -335,40 +349,83 @@ public class Suggest implements Dictionary.WordCallback {
                 if (canAdd && i + 1 < mSuggestions.size() && mCorrectionMode != CORRECTION_BASIC) {
                     canAdd &= !TextUtils.equals(autoText, mSuggestions.get(i + 1));
                 }
+                // Or an earlier one?
+                canAdd &= indexOfSuggestion(autoText, 0, i) < 0;
                 if (canAdd) {
                     mHaveCorrection = true;
                     mSuggestions.add(i + 1, autoText);
+                    // The dictionaries can't offer a word twice, but AutoText can offer one
+                    // of theirs
+                    final int dupe = indexOfSuggestion(autoText, i + 2, mSuggestions.size());
+                    if (dupe >= 0) {
+                        removeFromSuggestions(dupe);
+                    }
                     i++;
                 }
                 i++;
             }
         }
-        removeDupes();
         return mSuggestions;
     }
 
-    public int[] getNextLettersFrequencies() {
+    /**
+     * Returns the words that the stroke set on the decoder could have traced, best first,
+     * from the main, user and contacts dictionaries.
+     * @param decoder the decoder the stroke was set on
+     */
+    public synchronized List<CharSequence> getGestureWords(GestureDecoder decoder) {
+        mMainDict.getGestureWords(decoder);
+        if (mUserDictionary != null) {
+            mUserDictionary.getGestureWords(decoder);
+        }
+        if (mContactsDictionary != null) {
+            mContactsDictionary.getGestureWords(decoder);
+        }
+        return decoder.getWords();
+    }
+
+    public NextLetterFrequencies getNextLettersFrequencies() {
         return mNextLettersFrequencies;
     }
 
-    private void removeDupes() {
-        final ArrayList<CharSequence> suggestions = mSuggestions;
-        if (suggestions.size() < 2) return;
-        int i = 1;
-        // Don't cache suggestions.size(), since we may be removing items
-        while (i < suggestions.size()) {
-            final CharSequence cur = suggestions.get(i);
-            // Compare each candidate with each previous candidate
-            for (int j = 0; j < i; j++) {
-                CharSequence previous = suggestions.get(j);
-                if (TextUtils.equals(cur, previous)) {
-                    removeFromSuggestions(i);
-                    i--;
-                    break;
-                }
-            }
-            i++;
+    /**
+     * Makes a new request, which stops a {@link #getSuggestions} call for an earlier request in
+     * progress on another thread. The native dictionary can't be interrupted, so this only takes
+     * effect between dictionaries and while the expandable dictionaries are searched. A lookup
+     * that starts later for an earlier request stops at once.
+     * @param request the number of the new request, different from the previous one
+     */
+    public void cancel(int request) {
+        mLatestRequest = request;
+    }
+
+    /**
+     * Whether the lookup in progress, or the last one, has been stopped by a later request.
+     */
+    public boolean isCancelled() {
+        return mRequest != mLatestRequest;
+    }
+
+    private int indexOfSuggestion(CharSequence word, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (TextUtils.equals(word, mSuggestions.get(i))) return i;
         }
+        return -1;
+    }
+
+    /**
+     * Adds a collected word at the end of the suggestions, in a string builder from the pool.
+     */
+    private void addSuggestion(SuggestionCollector collector, int slot,
+            Dictionary.DataType dataType) {
+        int poolSize = mStringPool.size();
+        StringBuilder sb = poolSize > 0 ? (StringBuilder) mStringPool.remove(poolSize - 1)
+                : new StringBuilder(getApproxMaxWordLength());
+        sb.setLength(0);
+        sb.append(collector.getWord(slot), 0, collector.getLength(slot));
+        mSuggestions.add(sb);
+        IMELogger.onAddSuggestedWord(sb.toString(), collector.getDicTypeId(slot),
+                collector.isBigramBoosted(slot) ? Dictionary.DataType.BIGRAM : dataType);
     }
 
     private void removeFromSuggestions(int index) {
@@ -398,108 +455,73 @@ public class Suggest implements Dictionary.WordCallback {
 
     public boolean addWord(final char[] word, final int offset, final int length, int freq,
             final int dicTypeId, final Dictionary.DataType dataType) {
-        Dictionary.DataType dataTypeForLog = dataType;
-        ArrayList<CharSequence> suggestions;
-        int[] priorities;
-        int prefMaxSuggestions;
-        if(dataType == Dictionary.DataType.BIGRAM) {
-            suggestions = mBigramSuggestions;
-            priorities = mBigramPriorities;
-            prefMaxSuggestions = PREF_MAX_BIGRAMS;
-        } else {
-            suggestions = mSuggestions;
-            priorities = mPriorities;
-            prefMaxSuggestions = mPrefMaxSuggestions;
+        if (isCancelled()) return false;
+        final SuggestionCollector collector = dataType == Dictionary.DataType.BIGRAM
+                ? mBigramCollector : mCollector;
+
+        // Words are collected as they are shown, so that the same word is only kept once
+        char[] shownWord = word;
+        int shownOffset = offset;
+        int shownLength = length;
+        if (mIsAllUpperCase) {
+            final String upperCase = new String(word, offset, length).toUpperCase();
+            shownLength = upperCase.length();
+            shownWord = getShownWord(shownLength);
+            shownOffset = 0;
+            upperCase.getChars(0, shownLength, shownWord, 0);
+        } else if (mIsFirstCharCapitalized && length > 0) {
+            shownWord = getShownWord(length);
+            shownOffset = 0;
+            System.arraycopy(word, offset, shownWord, 0, length);
+            shownWord[0] = Character.toUpperCase(shownWord[0]);
         }
 
-        int pos = 0;
-
         // Check if it's the same word, only caps are different
-        if (compareCaseInsensitive(mLowerOriginalWord, word, offset, length)) {
-            pos = 0;
-        } else {
-            if (dataType == Dictionary.DataType.UNIGRAM) {
-                // Check if the word was already added before (by bigram data)
-                int bigramSuggestion = searchBigramSuggestion(word,offset,length);
-                if(bigramSuggestion >= 0) {
-                    dataTypeForLog = Dictionary.DataType.BIGRAM;
-                    // turn freq from bigram into multiplier specified above
-                    double multiplier = (((double) mBigramPriorities[bigramSuggestion])
-                            / MAXIMUM_BIGRAM_FREQUENCY)
-                            * (BIGRAM_MULTIPLIER_MAX - BIGRAM_MULTIPLIER_MIN)
-                            + BIGRAM_MULTIPLIER_MIN;
-                    /* Log.d(TAG,"bigram num: " + bigramSuggestion
-                            + "  wordB: " + mBigramSuggestions.get(bigramSuggestion).toString()
-                            + "  currentPriority: " + freq + "  bigramPriority: "
-                            + mBigramPriorities[bigramSuggestion]
-                            + "  multiplier: " + multiplier); */
-                    freq = (int)Math.round((freq * multiplier));
-                }
-            }
-
-            // Check the last one's priority and bail
-            if (priorities[prefMaxSuggestions - 1] >= freq) return true;
-            while (pos < prefMaxSuggestions) {
-                if (priorities[pos] < freq
-                        || (priorities[pos] == freq && length < suggestions.get(pos).length())) {
-                    break;
-                }
-                pos++;
+        final boolean sameAsTyped = compareCaseInsensitive(mLowerOriginalWord, word, offset,
+                length);
+        boolean bigramBoosted = false;
+        if (!sameAsTyped && dataType == Dictionary.DataType.UNIGRAM) {
+            // Check if the word was already added before (by bigram data)
+            final int bigramSlot = mBigramCollector.find(shownWord, shownOffset, shownLength);
+            if (bigramSlot != SuggestionCollector.NOT_FOUND) {
+                bigramBoosted = true;
+                // turn freq from bigram into multiplier specified above
+                double multiplier = (((double) mBigramCollector.getFrequency(bigramSlot))
+                        / MAXIMUM_BIGRAM_FREQUENCY)
+                        * (BIGRAM_MULTIPLIER_MAX - BIGRAM_MULTIPLIER_MIN)
+                        + BIGRAM_MULTIPLIER_MIN;
+                freq = (int)Math.round((freq * multiplier));
             }
         }
-        if (pos >= prefMaxSuggestions) {
-            return true;
-        }
 
-        System.arraycopy(priorities, pos, priorities, pos + 1,
-                prefMaxSuggestions - pos - 1);
-        priorities[pos] = freq;
-        int poolSize = mStringPool.size();
-        StringBuilder sb = poolSize > 0 ? (StringBuilder) mStringPool.remove(poolSize - 1) 
-                : new StringBuilder(getApproxMaxWordLength());
-        sb.setLength(0);
-        if (mIsAllUpperCase) {
-            sb.append(new String(word, offset, length).toUpperCase());
-        } else if (mIsFirstCharCapitalized) {
-            sb.append(Character.toUpperCase(word[offset]));
-            if (length > 1) {
-                sb.append(word, offset + 1, length - 1);
-            }
-        } else {
-            sb.append(word, offset, length);
-        }
-        suggestions.add(pos, sb);
-        if (suggestions.size() > prefMaxSuggestions) {
-            CharSequence garbage = suggestions.remove(prefMaxSuggestions);
-            if (garbage instanceof StringBuilder) {
-                mStringPool.add(garbage);
-            }
-        } else {
-        	IMELogger.onAddSuggestedWord(sb.toString(), dicTypeId, dataTypeForLog);
-        }
+        collector.add(shownWord, shownOffset, shownLength, freq, sameAsTyped, dicTypeId,
+                bigramBoosted);
         return true;
     }
 
-    private int searchBigramSuggestion(final char[] word, final int offset, final int length) {
-        // TODO This is almost O(n^2). Might need fix.
-        // search whether the word appeared in bigram data
-        int bigramSuggestSize = mBigramSuggestions.size();
-        for(int i = 0; i < bigramSuggestSize; i++) {
-            if(mBigramSuggestions.get(i).length() == length) {
-                boolean chk = true;
-                for(int j = 0; j < length; j++) {
-                    if(mBigramSuggestions.get(i).charAt(j) != word[offset+j]) {
-                        chk = false;
-                        break;
-                    }
-                }
-                if(chk) return i;
-            }
+    private char[] getShownWord(int length) {
+        if (mShownWord.length < length) {
+            mShownWord = new char[length];
         }
+        return mShownWord;
+    }
 
-        return -1;
+    public int getFrequencyThreshold(final Dictionary.DataType dataType) {
+        // Nothing can be good enough for a cancelled lookup
+        if (isCancelled()) return Integer.MAX_VALUE;
+        if (dataType == Dictionary.DataType.BIGRAM) {
+            return mBigramCollector.getThreshold();
+        }
+        final int threshold = mCollector.getThreshold();
+        // addWord() raises the frequency of a word that is also a bigram suggestion
+        return mBigramCollector.size() == 0 ? threshold
+                : (int) (threshold / BIGRAM_MULTIPLIER_MAX);
     }
 
+    /**
+     * Doesn't wait for a lookup in progress: every dictionary checks a word against the words it
+     * has at the time, without touching the state of a lookup.
+     */
     public boolean isValidWord(final CharSequence word) {
         if (word == null || word.length() == 0) {
             return false;
@@ -527,7 +549,7 @@ public class Suggest implements Dictionary.WordCallback {
         suggestions.clear();
     }
 
-    public void close() {
+    public synchronized void close() {
         if (mMainDict != null) {
             mMainDict.close();
         }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+/**
+ * Keeps the best words offered by the dictionaries during one lookup, up to a fixed number.
+ *
+ * Words are copied into character arrays owned by the collector, one slot per word, which are
+ * reused from one lookup to the next. The slots in use form a heap with the worst word at the
+ * top, so that a better word replaces it in logarithmic time, and a hash table of the words
+ * finds a word that is offered again, by another dictionary or as a bigram, in constant time.
+ *
+ * A word is better than another if it is pinned and the other isn't, then if it has a higher
+ * frequency, then if it is shorter, then if it was offered first. Not thread-safe.
+ */
+final class SuggestionCollector {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_WORD_LENGTH = Suggest.APPROX_MAX_WORD_LENGTH;
+
+    private final int mCapacity;
+
+    // Per slot
+    private final char[][] mWords;
+    private final int[] mLengths;
+    private final int[] mFrequencies;
+    private final boolean[] mPinned;
+    private final int[] mSequences;
+    private final int[] mDicTypeIds;
+    private final boolean[] mBigramBoosted;
+    // The position of each slot in the heap
+    private final int[] mHeapPositions;
+
+    // Slots, worst first
+    private final int[] mHeap;
+    private int mSize;
+    private int mSequence;
+
+    // Open addressing with linear probing, holding slots or NOT_FOUND
+    private final int[] mTable;
+    private final int mTableMask;
+
+    SuggestionCollector(int capacity) {
+        mCapacity = capacity;
+        mWords = new char[capacity][];
+        mLengths = new int[capacity];
+        mFrequencies = new int[capacity];
+        mPinned = new boolean[capacity];
+        mSequences = new int[capacity];
+        mDicTypeIds = new int[capacity];
+        mBigramBoosted = new boolean[capacity];
+        mHeapPositions = new int[capacity];
+        mHeap = new int[capacity];
+        // At most half full
+        int tableSize = 8;
+        while (tableSize < capacity * 2) tableSize <<= 1;
+        mTable = new int[tableSize];
+        mTableMask = tableSize - 1;
+        clear();
+    }
+
+    void clear() {
+        mSize = 0;
+        mSequence = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = NOT_FOUND;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the frequency that a word has to exceed to be kept, or 0 while there is room.
+     */
+    int getThreshold() {
+        if (mSize < mCapacity) return 0;
+        final int worst = mHeap[0];
+        // Nothing replaces a pinned word
+        return mPinned[worst] ? Integer.MAX_VALUE : mFrequencies[worst];
+    }
+
+    /**
+     * Offers a word, which is kept if it is one of the best ones so far. A word that is already
+     * kept takes the better of its two frequencies.
+     * @param pinned whether the word is kept ahead of all words that aren't, regardless of its
+     *        frequency
+     * @param bigramBoosted whether the frequency was raised because the word is also a bigram
+     * @return whether the word is kept
+     */
+    boolean add(char[] word, int offset, int length, int frequency, boolean pinned,
+            int dicTypeId, boolean bigramBoosted) {
+        final int hash = hash(word, offset, length);
+        final int existing = find(word, offset, length, hash);
+        if (existing != NOT_FOUND) {
+            if (pinned && !mPinned[existing] || frequency > mFrequencies[existing]) {
+                mPinned[existing] |= pinned;
+                mFrequencies[existing] = Math.max(frequency, mFrequencies[existing]);
+                mDicTypeIds[existing] = dicTypeId;
+                mBigramBoosted[existing] = bigramBoosted;
+                // Better, so further from the top
+                siftDown(mHeapPositions[existing]);
+            }
+            return true;
+        }
+
+        final int slot;
+        final boolean replacing = mSize == mCapacity;
+        if (!replacing) {
+            if (!pinned && frequency <= 0) return false;
+            slot = mSize++;
+            mHeap[slot] = slot;
+            mHeapPositions[slot] = slot;
+        } else {
+            if (!pinned && frequency <= getThreshold()) return false;
+            slot = mHeap[0];
+            removeFromTable(slot);
+        }
+
+        char[] chars = mWords[slot];
+        if (chars == null || chars.length < length) {
+            chars = mWords[slot] = new char[Math.max(length, INITIAL_WORD_LENGTH)];
+        }
+        System.arraycopy(word, offset, chars, 0, length);
+        mLengths[slot] = length;
+        mFrequencies[slot] = frequency;
+        mPinned[slot] = pinned;
+        mSequences[slot] = mSequence++;
+        mDicTypeIds[slot] = dicTypeId;
+        mBigramBoosted[slot] = bigramBoosted;
+        addToTable(slot, hash);
+
+        if (replacing) {
+            // In place of the worst word, at the top
+            siftDown(0);
+        } else {
+            siftUp(mHeapPositions[slot]);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of the word, or NOT_FOUND.
+     */
+    int find(char[] word, int offset, int length) {
+        return find(word, offset, length, hash(word, offset, length));
+    }
+
+    int find(CharSequence word) {
+        final int length = word.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + word.charAt(i);
+        }
+        for (int i = mix(hash) & mTableMask; mTable[i] != NOT_FOUND; i = (i + 1) & mTableMask) {
+            final int slot = mTable[i];
+            if (mLengths[slot] != length) continue;
+            final char[] chars = mWords[slot];
+            int j = 0;
+            while (j < length && chars[j] == word.charAt(j)) j++;
+            if (j == length) return slot;
+        }
+        return NOT_FOUND;
+    }
+
+    char[] getWord(int slot) {
+        return mWords[slot];
+    }
+
+    int getLength(int slot) {
+        return mLengths[slot];
+    }
+
+    int getFrequency(int slot) {
+        return mFrequencies[slot];
+    }
+
+    int getDicTypeId(int slot) {
+        return mDicTypeIds[slot];
+    }
+
+    boolean isBigramBoosted(int slot) {
+        return mBigramBoosted[slot];
+    }
+
+    /**
+     * Writes the slots in use to the array, best first, leaving the collector as it is.
+     * @return the number of slots written
+     */
+    int getSortedSlots(int[] slots) {
+        final int size = mSize;
+        // Insertion sort, which is fast enough for a few dozen words
+        for (int i = 0; i < size; i++) {
+            final int slot = mHeap[i];
+            int j = i;
+            while (j > 0 && isBetter(slot, slots[j - 1])) {
+                slots[j] = slots[j - 1];
+                j--;
+            }
+            slots[j] = slot;
+        }
+        return size;
+    }
+
+    private boolean isBetter(int a, int b) {
+        if (mPinned[a] != mPinned[b]) return mPinned[a];
+        if (mFrequencies[a] != mFrequencies[b]) return mFrequencies[a] > mFrequencies[b];
+        if (mLengths[a] != mLengths[b]) return mLengths[a] < mLengths[b];
+        return mSequences[a] < mSequences[b];
+    }
+
+    private void siftUp(int position) {
+        final int slot = mHeap[position];
+        while (position > 0) {
+            final int parentPosition = (position - 1) >> 1;
+            final int parent = mHeap[parentPosition];
+            if (!isBetter(parent, slot)) break;
+            mHeap[position] = parent;
+            mHeapPositions[parent] = position;
+            position = parentPosition;
+        }
+        mHeap[position] = slot;
+        mHeapPositions[slot] = position;
+    }
+
+    private void siftDown(int position) {
+        final int slot = mHeap[position];
+        final int size = mSize;
+        while (true) {
+            int childPosition = position * 2 + 1;
+            if (childPosition >= size) break;
+            if (childPosition + 1 < size
+                    && isBetter(mHeap[childPosition], mHeap[childPosition + 1])) {
+                childPosition++;
+            }
+            final int child = mHeap[childPosition];
+            if (!isBetter(slot, child)) break;
+            mHeap[position] = child;
+            mHeapPositions[child] = position;
+            position = childPosition;
+        }
+        mHeap[position] = slot;
+        mHeapPositions[slot] = position;
+    }
+
+    private static int hash(char[] word, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash * 31 + word[i];
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        // Spreads the low bits, which are all the table uses
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+
+    private int find(char[] word, int offset, int length, int hash) {
+        for (int i = mix(hash) & mTableMask; mTable[i] != NOT_FOUND; i = (i + 1) & mTableMask) {
+            final int slot = mTable[i];
+            if (mLengths[slot] != length) continue;
+            final char[] chars = mWords[slot];
+            int j = 0;
+            while (j < length && chars[j] == word[offset + j]) j++;
+            if (j == length) return slot;
+        }
+        return NOT_FOUND;
+    }
+
+    private void addToTable(int slot, int hash) {
+        int i = mix(hash) & mTableMask;
+        while (mTable[i] != NOT_FOUND) i = (i + 1) & mTableMask;
+        mTable[i] = slot;
+    }
+
+    private void removeFromTable(int slot) {
+        int i = mix(hash(mWords[slot], 0, mLengths[slot])) & mTableMask;
+        while (mTable[i] != slot) i = (i + 1) & mTableMask;
+        // Moves back the entries after it that would no longer be found
+        int next = (i + 1) & mTableMask;
+        while (mTable[next] != NOT_FOUND) {
+            final int other = mTable[next];
+            final int home = mix(hash(mWords[other], 0, mLengths[other])) & mTableMask;
+            // Whether the home of the entry is cyclically outside (i, next]
+            if (((next - home) & mTableMask) >= ((next - i) & mTableMask)) {
+                mTable[i] = other;
+                i = next;
+            }
+            next = (next + 1) & mTableMask;
+        }
+        mTable[i] = NOT_FOUND;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Looks up suggestions on a background thread, so that typing doesn't wait for the
+ * dictionaries.
+ *
+ * Every request gets a copy of the composing word and the previous word. A newer request
+ * cancels the one in progress, and results are only delivered, on the thread that created the
+ * worker, if no newer request has been made since. All access to the {@link Suggest} and its
+ * dictionaries has to hold the lock of the Suggest, which its own methods already do.
+ */
+final class SuggestionWorker {
+
+    interface Listener {
+        /**
+         * Called with the suggestions of the latest request.
+         */
+        void onSuggestionsReady(Result result);
+    }
+
+    static final class Result {
+        final WordComposer mWord;
+        final List<CharSequence> mSuggestions;
+        final NextLetterFrequencies mNextLetters;
+        final boolean mHasMinimalCorrection;
+        final boolean mTypedWordValid;
+        final int mSequence;
+
+        Result(WordComposer word, List<CharSequence> suggestions,
+                NextLetterFrequencies nextLetters, boolean hasMinimalCorrection,
+                boolean typedWordValid, int sequence) {
+            mWord = word;
+            mSuggestions = suggestions;
+            mNextLetters = nextLetters;
+            mHasMinimalCorrection = hasMinimalCorrection;
+            mTypedWordValid = typedWordValid;
+            mSequence = sequence;
+        }
+    }
+
+    private static final class Request {
+        final Suggest mSuggest;
+        final View mView;
+        final WordComposer mWord;
+        final String mPrevWord;
+        final int mSequence;
+
+        Request(Suggest suggest, View view, WordComposer word, CharSequence prevWord,
+                int sequence) {
+            mSuggest = suggest;
+            mView = view;
+            mWord = new WordComposer(word);
+            mPrevWord = prevWord == null ? null : prevWord.toString();
+            mSequence = sequence;
+        }
+    }
+
+    private static final int MSG_LOOK_UP = 0;
+    private static final int MSG_DELIVER = 1;
+
+    // Bounds of the delay between a keystroke and its lookup, in milliseconds. Lookups that
+    // are fast enough start almost at once, slow ones wait until typing pauses.
+    private static final int MIN_DELAY = 10;
+    private static final int MAX_DELAY = 100;
+    private static final int INITIAL_LOOK_UP_TIME = 50;
+
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+
+    // Written on the main thread only
+    private volatile int mSequence;
+    private int mDeliveredSequence;
+    // Moving average of the lookup time in milliseconds
+    private volatile int mLookUpTime = INITIAL_LOOK_UP_TIME;
+
+    SuggestionWorker(Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("SuggestionWorker");
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_LOOK_UP) {
+                    final Request request = (Request) msg.obj;
+                    if (request.mSequence != mSequence) return;
+                    final Result result = lookUp(request);
+                    if (result != null) {
+                        mMainHandler.obtainMessage(MSG_DELIVER, result).sendToTarget();
+                    }
+                }
+            }
+        };
+        mMainHandler = new Handler() {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_DELIVER) {
+                    final Result result = (Result) msg.obj;
+                    if (result.mSequence != mSequence) return;
+                    mDeliveredSequence = result.mSequence;
+                    mListener.onSuggestionsReady(result);
+                }
+            }
+        };
+    }
+
+    /**
+     * How long to wait after a keystroke before asking for its suggestions, in milliseconds.
+     */
+    int getDelay() {
+        return Math.max(MIN_DELAY, Math.min(MAX_DELAY, mLookUpTime * 2));
+    }
+
+    /**
+     * Whether a lookup has been requested and its result not delivered yet.
+     */
+    boolean isPending() {
+        return mDeliveredSequence != mSequence;
+    }
+
+    /**
+     * Looks up the suggestions for a copy of the word on the worker thread. The listener gets
+     * them unless another request is made first.
+     */
+    void post(Suggest suggest, View view, WordComposer word, CharSequence prevWord) {
+        final int sequence = invalidate(suggest);
+        mWorkerHandler.obtainMessage(MSG_LOOK_UP,
+                new Request(suggest, view, word, prevWord, sequence)).sendToTarget();
+    }
+
+    /**
+     * Looks up the suggestions on the calling thread, waiting for a lookup in progress to be
+     * cancelled first. Requests made before are dropped.
+     */
+    Result getSuggestionsNow(Suggest suggest, View view, WordComposer word,
+            CharSequence prevWord) {
+        final int sequence = invalidate(suggest);
+        final Result result = lookUp(new Request(suggest, view, word, prevWord, sequence));
+        mDeliveredSequence = sequence;
+        return result;
+    }
+
+    /**
+     * Drops all requests and waits until the suggest isn't used by the worker anymore, so
+     * that it and its dictionaries can be closed.
+     */
+    void cancel(Suggest suggest) {
+        mDeliveredSequence = invalidate(suggest);
+        if (suggest != null) {
+            synchronized (suggest) {
+                // Only waiting for a lookup in progress
+            }
+        }
+    }
+
+    void quit() {
+        mSequence++;
+        mWorkerHandler.removeCallbacksAndMessages(null);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+
+    private int invalidate(Suggest suggest) {
+        final int sequence = ++mSequence;
+        mWorkerHandler.removeMessages(MSG_LOOK_UP);
+        mMainHandler.removeMessages(MSG_DELIVER);
+        if (suggest != null) {
+            suggest.cancel(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns null if the request was cancelled.
+     */
+    private Result lookUp(Request request) {
+        final Suggest suggest = request.mSuggest;
+        final WordComposer word = request.mWord;
+        final long start = SystemClock.uptimeMillis();
+        synchronized (suggest) {
+            // Cancelled while waiting for the lock
+            if (request.mSequence != mSequence) return null;
+            final List<CharSequence> suggestions = suggest.getSuggestions(request.mView, word,
+                    false, request.mPrevWord, request.mSequence);
+            if (suggest.isCancelled()) return null;
+            // The lists of the suggest are reused by the next lookup
+            final ArrayList<CharSequence> copy =
+                    new ArrayList<CharSequence>(suggestions.size());
+            for (int i = 0; i < suggestions.size(); i++) {
+                copy.add(suggestions.get(i).toString());
+            }
+            final CharSequence typedWord = word.getTypedWord();
+            final boolean typedWordValid = suggest.isValidWord(typedWord)
+                    || (word.isFirstCharCapitalized()
+                            && suggest.isValidWord(typedWord.toString().toLowerCase()));
+            final Result result = new Result(word, copy,
+                    new NextLetterFrequencies(suggest.getNextLettersFrequencies()),
+                    suggest.hasMinimalCorrection(), typedWordValid, request.mSequence);
+            final int time = (int) (SystemClock.uptimeMillis() - start);
+            mLookUpTime = (mLookUpTime * 3 + time) / 4;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.s16.inputmethod.skeyboard.Keyboard.Key;
+
+/**
+ * Learns where the user touches each key, to tell how likely a touch was meant for the keys
+ * around it.
+ *
+ * The touches on a key are modelled as a normal distribution around a mean offset from the key
+ * centre, in units of the key size. It starts out centred on the key and follows the words the
+ * user accepts: each letter of an accepted word moves the distribution of its key towards the
+ * touch that typed it. Older touches count less and less, so the model follows the user when
+ * the way they hold the phone changes.
+ *
+ * There is a model for every layout and orientation, and the ones used last are kept in a
+ * small file, which is read in the background when the model is created. Only used on the main
+ * thread.
+ */
+final class TouchModel {
+
+    private static final String TAG = "TouchModel";
+
+    private static final String FILE_NAME = "touch_model.bin";
+    private static final int VERSION = 1;
+    private static final int MAX_LAYOUTS = 8;
+
+    // Per key: the weight of the touches seen, the mean offset and its covariance
+    private static final int WEIGHT = 0;
+    private static final int MEAN_X = 1;
+    private static final int MEAN_Y = 2;
+    private static final int VARIANCE_X = 3;
+    private static final int VARIANCE_Y = 4;
+    private static final int COVARIANCE = 5;
+    private static final int STATS_SIZE = 6;
+
+    // The distribution before any touch is seen, as if PRIOR_WEIGHT touches had spread around
+    // the key centre by a third of the key size
+    private static final float PRIOR_WEIGHT = 4;
+    private static final float PRIOR_VARIANCE = 0.1f;
+    // Touches older than this many count for less than a third
+    private static final float MAX_WEIGHT = 64;
+    private static final float MIN_VARIANCE = 0.01f;
+    // Touches further from the key than this, in key sizes, weren't meant for it
+    private static final float MAX_OFFSET = 1.5f;
+
+    private static final float COST_SCALE = 1024;
+
+    private static final class Layout {
+        // The first code of each modelled key, in ascending order
+        final int[] mCodes;
+        final float[] mStats;
+
+        Layout(int[] codes) {
+            mCodes = codes;
+            mStats = new float[codes.length * STATS_SIZE];
+            for (int i = 0; i < codes.length; i++) {
+                final int offset = i * STATS_SIZE;
+                mStats[offset + WEIGHT] = PRIOR_WEIGHT;
+                mStats[offset + VARIANCE_X] = PRIOR_VARIANCE;
+                mStats[offset + VARIANCE_Y] = PRIOR_VARIANCE;
+            }
+        }
+    }
+
+    private final Context mContext;
+    // Most recently used last
+    private final LinkedHashMap<Integer, Layout> mLayouts =
+            new LinkedHashMap<Integer, Layout>(MAX_LAYOUTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Layout> eldest) {
+            return size() > MAX_LAYOUTS;
+        }
+    };
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    // The keyboard the model is used for
+    private Keyboard mKeyboard;
+    private Key[] mKeys;
+    private int mLayoutId;
+    private Layout mLayout;
+    // Per key, where its stats are in the layout, or -1
+    private int[] mKeySlots;
+    // The key typing each lower case code
+    private final SparseIntArray mCodeKeys = new SparseIntArray();
+    private int mCorrectionX;
+    private int mCorrectionY;
+
+    TouchModel(Context context) {
+        mContext = context;
+        new LoadFileTask().execute();
+    }
+
+    /**
+     * Uses the model of the keyboard's layout in the current orientation from now on.
+     * @param correctionX added to the x coordinates of touches to get keyboard coordinates
+     * @param correctionY added to the y coordinates of touches to get keyboard coordinates
+     */
+    void setKeyboard(Keyboard keyboard, int correctionX, int correctionY) {
+        mCorrectionX = correctionX;
+        mCorrectionY = correctionY;
+        if (keyboard == mKeyboard) return;
+
+        final List<Key> keyList = keyboard.getKeys();
+        final Key[] keys = keyList.toArray(new Key[keyList.size()]);
+        int id = mContext.getResources().getConfiguration().orientation;
+        int count = 0;
+        final int[] codes = new int[keys.length];
+        for (Key key : keys) {
+            final int code = getModelledCode(key);
+            id = id * 31 + code;
+            if (code > 0) codes[count++] = code;
+        }
+        Layout layout = mLayouts.get(id);
+        if (layout == null) {
+            final int[] layoutCodes = new int[count];
+            System.arraycopy(codes, 0, layoutCodes, 0, count);
+            Arrays.sort(layoutCodes);
+            layout = new Layout(layoutCodes);
+            mLayouts.put(id, layout);
+        }
+
+        mKeyboard = keyboard;
+        mKeys = keys;
+        mLayoutId = id;
+        mLayout = layout;
+        mKeySlots = new int[keys.length];
+        mCodeKeys.clear();
+        for (int i = 0; i < keys.length; i++) {
+            final Key key = keys[i];
+            final int code = getModelledCode(key);
+            mKeySlots[i] = code > 0 ? Arrays.binarySearch(layout.mCodes, code) : -1;
+            if (code > 0 && mCodeKeys.indexOfKey(code) < 0) mCodeKeys.put(code, i);
+            if (key.shiftCodes != null && key.shiftCodes.length == 1) {
+                final int shiftCode = Character.toLowerCase(key.shiftCodes[0]);
+                if (mCodeKeys.indexOfKey(shiftCode) < 0) mCodeKeys.put(shiftCode, i);
+            }
+        }
+    }
+
+    boolean isKeyboard(Keyboard keyboard) {
+        return mKeyboard == keyboard;
+    }
+
+    /**
+     * Returns how unlikely it is that a touch was meant for a key, as a cost that only means
+     * something compared with the cost of other keys for the same touch.
+     * @param keyIndex the index of the key in the keyboard the model is used for
+     * @param touchX the x coordinate of the touch on the keyboard
+     * @param touchY the y coordinate of the touch on the keyboard
+     */
+    int getCost(int keyIndex, int touchX, int touchY) {
+        final Key key = mKeys[keyIndex];
+        final float width = Math.max(1, key.width);
+        final float height = Math.max(1, key.height);
+        final float dx = (touchX - key.x - width / 2) / width;
+        final float dy = (touchY - key.y - height / 2) / height;
+        float meanX = 0, meanY = 0;
+        float varianceX = PRIOR_VARIANCE, varianceY = PRIOR_VARIANCE, covariance = 0;
+        final int slot = mKeySlots[keyIndex];
+        if (slot >= 0) {
+            final float[] stats = mLayout.mStats;
+            final int offset = slot * STATS_SIZE;
+            meanX = stats[offset + MEAN_X];
+            meanY = stats[offset + MEAN_Y];
+            varianceX = stats[offset + VARIANCE_X];
+            varianceY = stats[offset + VARIANCE_Y];
+            covariance = stats[offset + COVARIANCE];
+        }
+        final float det = Math.max(varianceX * varianceY - covariance * covariance,
+                MIN_VARIANCE * MIN_VARIANCE);
+        final float ex = dx - meanX;
+        final float ey = dy - meanY;
+        final float distance = (varianceY * ex * ex - 2 * covariance * ex * ey
+                + varianceX * ey * ey) / det;
+        // The negative log of the density at the touch, in pixels
+        final double cost = 0.5 * distance + 0.5 * Math.log(det) + Math.log(width * height);
+        return (int) (cost * COST_SCALE);
+    }
+
+    /**
+     * Returns the weight of each code of a keystroke for {@link WordComposer#add}, from how
+     * likely its key was meant compared with the primary code's. The primary code and the codes
+     * at least half as likely get the {@link WordComposer#MAX_WEIGHT}, and the weight of the
+     * others falls with their likelihood down to {@link WordComposer#WEIGHT_UNIT}.
+     * @param x the x coordinate of the touch, as reported to the action listener
+     * @param y the y coordinate of the touch, as reported to the action listener
+     * @return null if the model doesn't know the primary key
+     */
+    int[] getWeights(int primaryCode, int[] codes, int x, int y) {
+        if (mKeyboard == null || codes == null) return null;
+        final int primaryKey = findKey(primaryCode);
+        if (primaryKey < 0) return null;
+        final int touchX = x + mCorrectionX;
+        final int touchY = y + mCorrectionY;
+        final int primaryCost = getCost(primaryKey, touchX, touchY);
+        final int[] weights = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            final int keyIndex = codes[i] > 0 ? findKey(codes[i]) : -1;
+            if (keyIndex == primaryKey) {
+                weights[i] = WordComposer.MAX_WEIGHT;
+            } else if (keyIndex < 0) {
+                weights[i] = WordComposer.WEIGHT_UNIT;
+            } else {
+                // Twice the likelihood relative to the primary key, up to 1
+                final double odds = 2 * Math.exp(
+                        (primaryCost - getCost(keyIndex, touchX, touchY)) / COST_SCALE);
+                weights[i] = WordComposer.WEIGHT_UNIT
+                        + (int) (WordComposer.WEIGHT_UNIT * Math.min(1, odds));
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Learns from the touches that typed a word which the user accepted as the given one.
+     * Nothing is learned if the word was corrected to something else than a few mistyped
+     * letters.
+     */
+    void learn(WordComposer word, CharSequence accepted) {
+        final int length = word.size();
+        if (mKeyboard == null || length == 0 || accepted == null
+                || accepted.length() != length) {
+            return;
+        }
+        final CharSequence typed = word.getTypedWord();
+        int changed = 0;
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(typed.charAt(i))
+                    != Character.toLowerCase(accepted.charAt(i))) {
+                changed++;
+            }
+        }
+        if (changed > Math.max(1, length / 3)) return;
+
+        for (int i = 0; i < length; i++) {
+            final int x = word.getXAt(i);
+            final int y = word.getYAt(i);
+            if (x == WordComposer.NOT_A_COORDINATE || y == WordComposer.NOT_A_COORDINATE) {
+                continue;
+            }
+            final int keyIndex = findKey(accepted.charAt(i));
+            if (keyIndex < 0 || mKeySlots[keyIndex] < 0) continue;
+            final Key key = mKeys[keyIndex];
+            if (key.width <= 0 || key.height <= 0) continue;
+            final float dx = (x + mCorrectionX - key.x - key.width / 2f) / key.width;
+            final float dy = (y + mCorrectionY - key.y - key.height / 2f) / key.height;
+            // Typed on a mini keyboard, or typed on the way there
+            if (Math.abs(dx) > MAX_OFFSET || Math.abs(dy) > MAX_OFFSET) continue;
+            update(mLayout.mStats, mKeySlots[keyIndex] * STATS_SIZE, dx, dy);
+            mDirty = true;
+        }
+    }
+
+    private static void update(float[] stats, int offset, float dx, float dy) {
+        final float weight = Math.min(stats[offset + WEIGHT] + 1, MAX_WEIGHT);
+        final float rate = 1 / weight;
+        final float ex = dx - stats[offset + MEAN_X];
+        final float ey = dy - stats[offset + MEAN_Y];
+        stats[offset + WEIGHT] = weight;
+        stats[offset + MEAN_X] += rate * ex;
+        stats[offset + MEAN_Y] += rate * ey;
+        stats[offset + VARIANCE_X] = Math.max(MIN_VARIANCE,
+                (1 - rate) * (stats[offset + VARIANCE_X] + rate * ex * ex));
+        stats[offset + VARIANCE_Y] = Math.max(MIN_VARIANCE,
+                (1 - rate) * (stats[offset + VARIANCE_Y] + rate * ey * ey));
+        stats[offset + COVARIANCE] = (1 - rate) * (stats[offset + COVARIANCE] + rate * ex * ey);
+    }
+
+    private int findKey(int code) {
+        return mCodeKeys.get(Character.toLowerCase(code), -1);
+    }
+
+    private static int getModelledCode(Key key) {
+        if (key.codes == null || key.codes.length == 0 || key.codes[0] <= 32) return 0;
+        return Character.toLowerCase(key.codes[0]);
+    }
+
+    /**
+     * Writes the model in the background, if it learned anything since it was last written.
+     * Waits until the file has been read, so as not to replace the layouts in it.
+     */
+    void save() {
+        if (!mDirty || !mLoaded) return;
+        mDirty = false;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(mLayouts.size());
+            for (Map.Entry<Integer, Layout> entry : mLayouts.entrySet()) {
+                final Layout layout = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeInt(layout.mCodes.length);
+                for (int i = 0; i < layout.mCodes.length; i++) {
+                    out.writeInt(layout.mCodes[i]);
+                    for (int j = 0; j < STATS_SIZE; j++) {
+                        out.writeFloat(layout.mStats[i * STATS_SIZE + j]);
+                    }
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            return;
+        }
+        new WriteFileTask(mContext.getFileStreamPath(FILE_NAME), bytes.toByteArray()).execute();
+    }
+
+    /**
+     * Takes the layouts read from the file. A layout used before they were read is replaced by
+     * the one from the file, as it hasn't had time to learn much.
+     */
+    private void onLoaded(Map<Integer, Layout> layouts) {
+        mLoaded = true;
+        for (Map.Entry<Integer, Layout> entry : layouts.entrySet()) {
+            final Layout layout = entry.getValue();
+            final Layout current = mLayouts.get(entry.getKey());
+            // The slots of the keys are only valid for the same codes
+            if (current != null && !Arrays.equals(current.mCodes, layout.mCodes)) continue;
+            mLayouts.put(entry.getKey(), layout);
+            if (current != null && current == mLayout) mLayout = layout;
+        }
+        // Brings back the layout in use if the ones from the file pushed it out
+        if (mLayout != null) mLayouts.put(mLayoutId, mLayout);
+        save();
+    }
+
+    /**
+     * Returns the layouts in the file, least recently used first, or none if it can't be read.
+     */
+    private static Map<Integer, Layout> load(Context context) {
+        final Map<Integer, Layout> layouts = new LinkedHashMap<Integer, Layout>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(context.openFileInput(FILE_NAME)));
+            if (in.readInt() != VERSION) return layouts;
+            final int layoutCount = in.readInt();
+            for (int l = 0; l < layoutCount; l++) {
+                final int id = in.readInt();
+                final int count = in.readInt();
+                if (count < 0 || count > 1024) return layouts;
+                final Layout layout = new Layout(new int[count]);
+                for (int i = 0; i < count; i++) {
+                    layout.mCodes[i] = in.readInt();
+                    for (int j = 0; j < STATS_SIZE; j++) {
+                        layout.mStats[i * STATS_SIZE + j] = in.readFloat();
+                    }
+                }
+                layouts.put(id, layout);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing learned yet
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the touch model", e);
+            layouts.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return layouts;
+    }
+
+    private class LoadFileTask extends AsyncTask<Void, Void, Map<Integer, Layout>> {
+        @Override
+        protected Map<Integer, Layout> doInBackground(Void... v) {
+            return load(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(Map<Integer, Layout> layouts) {
+            onLoaded(layouts);
+        }
+    }
+
+    /**
+     * Replaces the file with a new one, so that a write that fails half way leaves the old
+     * model in place.
+     */
+    private static class WriteFileTask extends AsyncTask<Void, Void, Void> {
+        private static final Object sLock = new Object();
+
+        private final File mFile;
+        private final byte[] mBytes;
+
+        WriteFileTask(File file, byte[] bytes) {
+            mFile = file;
+            mBytes = bytes;
+        }
+
+        @Override
+        protected Void doInBackground(Void... v) {
+            synchronized (sLock) {
+                final File temp = new File(mFile.getPath() + ".tmp");
+                FileOutputStream out = null;
+                try {
+                    out = new FileOutputStream(temp);
+                    out.write(mBytes);
+                    out.close();
+                    out = null;
+                    if (!temp.renameTo(mFile)) Log.w(TAG, "Couldn't replace " + mFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't write the touch model", e);
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+
+/**
+ * Publishes the words of an {@link ExpandableDictionary} to lookups on other threads, so that
+ * they read a trie that never changes while the dictionary keeps changing.
+ *
+ * Changes go to a private trie, which is published when a lookup next asks for the words. The
+ * trie published before it is kept as a spare: once no lookup reads it anymore, it takes the
+ * next changes after the few it missed are made to it again. That way the two tries take
+ * turns, and a change only copies a trie when a lookup still reads the spare.
+ *
+ * While the words are loaded, the changes are recorded too and made again to the loaded trie.
+ * Changes can also be batched, so that lookups see them all at once.
+ */
+final class TriePublisher {
+
+    /**
+     * A change to the words or bigrams, kept to make it again to another trie.
+     */
+    private static final class Change {
+        final String mWord1;
+        // Null for a word
+        final String mWord2;
+        final int mFrequency;
+        final boolean mAddFrequency;
+        final boolean mRemove;
+
+        Change(String word1, String word2, int frequency, boolean addFrequency,
+                boolean remove) {
+            mWord1 = word1;
+            mWord2 = word2;
+            mFrequency = frequency;
+            mAddFrequency = addFrequency;
+            mRemove = remove;
+        }
+
+        /**
+         * @return the frequency of the bigram after adding or setting it, or 0
+         */
+        int apply(CompactTrie trie) {
+            if (mRemove) {
+                final int firstWord = trie.findWord(mWord1);
+                if (firstWord == CompactTrie.NOT_FOUND) return 0;
+                if (mWord2 == null) {
+                    trie.removeWord(firstWord);
+                } else {
+                    final int secondWord = trie.findWord(mWord2);
+                    if (secondWord != CompactTrie.NOT_FOUND) {
+                        trie.removeBigram(firstWord, secondWord);
+                    }
+                }
+            } else if (mWord2 == null) {
+                trie.addWord(mWord1, mFrequency);
+            } else {
+                return trie.addOrSetBigram(trie.searchWord(mWord1), trie.searchWord(mWord2),
+                        mFrequency, mAddFrequency);
+            }
+            return 0;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // Never changed once published
+    private volatile CompactTrie mPublished = new CompactTrie();
+    // Whether mEditing has changes that can be published
+    private volatile boolean mChanged;
+
+    // Guarded by mLock. The published trie with the changes made since, or null if there are
+    // none, and the changes, which the published trie doesn't have
+    private CompactTrie mEditing;
+    private ArrayList<Change> mEditingChanges = new ArrayList<Change>();
+    // The trie published before, or null, and the changes it misses
+    private CompactTrie mSpare;
+    private ArrayList<Change> mSpareChanges = new ArrayList<Change>();
+    private boolean mBatching;
+    // Changes made since the words started loading, null if they aren't loading
+    private ArrayList<Change> mChangesWhileLoading;
+
+    /**
+     * Returns the current trie, publishing the changes made so far unless they are batched.
+     * The trie doesn't change until it is {@link #release released}.
+     */
+    CompactTrie acquire() {
+        // Only locks when there is something to publish
+        if (mChanged) {
+            synchronized (mLock) {
+                if (!mBatching && mEditing != null) publishLocked();
+            }
+        }
+        while (true) {
+            final CompactTrie trie = mPublished;
+            trie.mReaders.incrementAndGet();
+            // Counted before checking, so that a trie that is no longer published is only
+            // changed once its count has dropped to zero
+            if (trie == mPublished) return trie;
+            trie.mReaders.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gives up a trie returned by {@link #acquire}, which must not be read anymore.
+     */
+    void release(CompactTrie trie) {
+        trie.mReaders.decrementAndGet();
+    }
+
+    void addWord(String word, int frequency) {
+        change(new Change(word, null, frequency, false, false));
+    }
+
+    /**
+     * Removes the word, along with its bigrams.
+     */
+    void removeWord(String word) {
+        change(new Change(word, null, 0, false, true));
+    }
+
+    /**
+     * @return the frequency of the bigram after the change
+     */
+    int addOrSetBigram(String word1, String word2, int frequency, boolean addFrequency) {
+        return change(new Change(word1, word2, frequency, addFrequency, false));
+    }
+
+    void removeBigram(String word1, String word2) {
+        change(new Change(word1, word2, 0, false, true));
+    }
+
+    /**
+     * Starts recording the changes, to make them again to the trie passed to
+     * {@link #finishLoading}.
+     */
+    void startLoading() {
+        synchronized (mLock) {
+            mChangesWhileLoading = new ArrayList<Change>();
+        }
+    }
+
+    /**
+     * Publishes the loaded words, with the changes made since {@link #startLoading} made
+     * again, and stops recording them.
+     * @param trie the loaded trie, not published before, or null to keep the current words
+     */
+    void finishLoading(CompactTrie trie) {
+        synchronized (mLock) {
+            if (trie != null) {
+                if (mChangesWhileLoading != null) {
+                    for (int i = 0; i < mChangesWhileLoading.size(); i++) {
+                        mChangesWhileLoading.get(i).apply(trie);
+                    }
+                }
+                // The changes in the private trie were just made again
+                mEditing = null;
+                mEditingChanges.clear();
+                mSpare = null;
+                mSpareChanges.clear();
+                mPublished = trie;
+                mChanged = false;
+            }
+            mChangesWhileLoading = null;
+        }
+    }
+
+    /**
+     * Keeps the changes from lookups until {@link #finishBatch}.
+     */
+    void startBatch() {
+        synchronized (mLock) {
+            mBatching = true;
+        }
+    }
+
+    /**
+     * Publishes the changes made since {@link #startBatch} together.
+     */
+    void finishBatch() {
+        synchronized (mLock) {
+            mBatching = false;
+            if (mEditing != null) publishLocked();
+        }
+    }
+
+    private int change(Change change) {
+        synchronized (mLock) {
+            final int result = change.apply(editTrieLocked());
+            mEditingChanges.add(change);
+            if (mChangesWhileLoading != null) mChangesWhileLoading.add(change);
+            if (!mBatching) mChanged = true;
+            return result;
+        }
+    }
+
+    /**
+     * Returns the private trie, made from the spare if no lookup reads it anymore.
+     */
+    private CompactTrie editTrieLocked() {
+        if (mEditing != null) return mEditing;
+        if (mSpare != null && mSpare.mReaders.get() == 0) {
+            // Lookups that start now read the published trie, so the spare is free
+            for (int i = 0; i < mSpareChanges.size(); i++) {
+                mSpareChanges.get(i).apply(mSpare);
+            }
+            mEditing = mSpare;
+        } else {
+            mEditing = mPublished.copy();
+        }
+        mSpare = null;
+        mSpareChanges.clear();
+        return mEditing;
+    }
+
+    private void publishLocked() {
+        mSpare = mPublished;
+        // The spare misses the changes that are published now
+        final ArrayList<Change> changes = mSpareChanges;
+        mSpareChanges = mEditingChanges;
+        mEditingChanges = changes;
+        mEditingChanges.clear();
+        mPublished = mEditing;
+        mEditing = null;
+        mChanged = false;
+    }
+}
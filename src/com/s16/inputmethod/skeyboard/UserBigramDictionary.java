@@ -20,13 +20,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.util.Log;
 
@@ -60,10 +62,16 @@ public class UserBigramDictionary extends ExpandableDictionary {
      */
     private static int sDeleteUserBigrams = 1000;
 
+    /** Pending pairs are written once there are this many of them... */
+    private static final int MAX_PENDING_WRITES = 100;
+
+    /** ...or once the oldest of them has waited this long, in milliseconds. */
+    private static final long MAX_PENDING_TIME = 60 * 1000;
+
     /**
      * Database version should increase if the database structure changes
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String DATABASE_NAME = "userbigram_dict.db";
 
@@ -82,15 +90,23 @@ public class UserBigramDictionary extends ExpandableDictionary {
     private static final String FREQ_COLUMN_PAIR_ID = "pair_id";
     private static final String FREQ_COLUMN_FREQUENCY = "freq";
 
+    /** Unique indexes, so that pairs can be written without looking them up first */
+    private static final String MAIN_INDEX_NAME = "main_pair";
+    private static final String FREQ_INDEX_NAME = "frequency_pair_id";
+
     private final LatinIME mIme;
 
     /** Locale for which this auto dictionary is storing words */
     private String mLocale;
 
     private HashSet<Bigram> mPendingWrites = new HashSet<Bigram>();
+    private long mFirstPendingWriteTime;
     private final Object mPendingWritesLock = new Object();
     private static volatile boolean sUpdatingDB = false;
 
+    /** Number of pairs in the database of all locales, or -1 until it was counted. */
+    private static int sPairCount = -1;
+
     private final static HashMap<String, String> sDictProjectionMap;
 
     static {
@@ -171,14 +187,21 @@ public class UserBigramDictionary extends ExpandableDictionary {
 
         int freq = super.addBigram(word1, word2, FREQUENCY_FOR_TYPED);
         if (freq > FREQUENCY_MAX) freq = FREQUENCY_MAX;
+        boolean flush;
         synchronized (mPendingWritesLock) {
-            if (freq == FREQUENCY_FOR_TYPED || mPendingWrites.isEmpty()) {
-                mPendingWrites.add(new Bigram(word1, word2, freq));
-            } else {
-                Bigram bi = new Bigram(word1, word2, freq);
-                mPendingWrites.remove(bi);
-                mPendingWrites.add(bi);
+            final long now = SystemClock.uptimeMillis();
+            if (mPendingWrites.isEmpty()) {
+                mFirstPendingWriteTime = now;
             }
+            // Only the latest frequency of a pair is written
+            Bigram bi = new Bigram(word1, word2, freq);
+            mPendingWrites.remove(bi);
+            mPendingWrites.add(bi);
+            flush = mPendingWrites.size() >= MAX_PENDING_WRITES
+                    || now - mFirstPendingWriteTime >= MAX_PENDING_TIME;
+        }
+        if (flush) {
+            flushPendingWrites();
         }
 
         return freq;
@@ -191,6 +214,11 @@ public class UserBigramDictionary extends ExpandableDictionary {
         synchronized (mPendingWritesLock) {
             // Nothing pending? Return
             if (mPendingWrites.isEmpty()) return;
+            // Pairs are stored by locale, keep them in memory only without one
+            if (mLocale == null) {
+                mPendingWrites.clear();
+                return;
+            }
             // Create a background thread to write the pending entries
             new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale).execute();
             // Create a new map for writing new entries into while the old one is written to db
@@ -212,7 +240,7 @@ public class UserBigramDictionary extends ExpandableDictionary {
     }
 
     @Override
-    public void loadDictionaryAsync() {
+    protected void loadWords(CompactTrie.Builder builder) {
         // Load the words that correspond to the current input locale
         Cursor cursor = query(MAIN_COLUMN_LOCALE + "=?", new String[] { mLocale });
         try {
@@ -224,10 +252,9 @@ public class UserBigramDictionary extends ExpandableDictionary {
                     String word1 = cursor.getString(word1Index);
                     String word2 = cursor.getString(word2Index);
                     int frequency = cursor.getInt(frequencyIndex);
-                    // Safeguard against adding really long words. Stack may overflow due
-                    // to recursive lookup
+                    // Safeguard against adding really long words
                     if (word1.length() < MAX_WORD_LENGTH && word2.length() < MAX_WORD_LENGTH) {
-                        super.setBigram(word1, word2, frequency);
+                        builder.setBigram(word1, word2, frequency);
                     }
                     cursor.moveToNext();
                 }
@@ -270,6 +297,11 @@ public class UserBigramDictionary extends ExpandableDictionary {
         @Override
         public void onCreate(SQLiteDatabase db) {
             db.execSQL("PRAGMA foreign_keys = ON;");
+            createTables(db);
+            createIndexes(db);
+        }
+
+        private static void createTables(SQLiteDatabase db) {
             db.execSQL("CREATE TABLE " + MAIN_TABLE_NAME + " ("
                     + MAIN_COLUMN_ID + " INTEGER PRIMARY KEY,"
                     + MAIN_COLUMN_WORD1 + " TEXT,"
@@ -285,10 +317,29 @@ public class UserBigramDictionary extends ExpandableDictionary {
                     + ");");
         }
 
+        private static void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE UNIQUE INDEX " + MAIN_INDEX_NAME + " ON " + MAIN_TABLE_NAME
+                    + " (" + MAIN_COLUMN_WORD1 + "," + MAIN_COLUMN_WORD2 + ","
+                    + MAIN_COLUMN_LOCALE + ");");
+            db.execSQL("CREATE UNIQUE INDEX " + FREQ_INDEX_NAME + " ON " + FREQ_TABLE_NAME
+                    + " (" + FREQ_COLUMN_PAIR_ID + ");");
+        }
+
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion == 1) {
+                // Version 1 only lacks the indexes, and never wrote a pair twice
+                try {
+                    createIndexes(db);
+                    return;
+                } catch (SQLException e) {
+                    Log.w(TAG, "Could not index pairs", e);
+                }
+            }
             Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                     + newVersion + ", which will destroy all old data");
+            db.execSQL("DROP INDEX IF EXISTS " + MAIN_INDEX_NAME);
+            db.execSQL("DROP INDEX IF EXISTS " + FREQ_INDEX_NAME);
             db.execSQL("DROP TABLE IF EXISTS " + MAIN_TABLE_NAME);
             db.execSQL("DROP TABLE IF EXISTS " + FREQ_TABLE_NAME);
             onCreate(db);
@@ -311,31 +362,28 @@ public class UserBigramDictionary extends ExpandableDictionary {
             mDbHelper = openHelper;
         }
 
-        /** Prune any old data if the database is getting too big. */
+        /**
+         * Prune any old data if the database is getting too big. Pairs whose frequency was
+         * written longest ago go first.
+         */
         private void checkPruneData(SQLiteDatabase db) {
-            db.execSQL("PRAGMA foreign_keys = ON;");
-            Cursor c = db.query(FREQ_TABLE_NAME, new String[] { FREQ_COLUMN_PAIR_ID },
-                    null, null, null, null, null);
+            if (sPairCount <= sMaxUserBigrams) return;
+            final int numDeleteRows = (sPairCount - sMaxUserBigrams) + sDeleteUserBigrams;
+            // Deleting from MAIN table will delete the frequencies
+            // due to FOREIGN KEY .. ON DELETE CASCADE
+            final int deleted = db.delete(MAIN_TABLE_NAME, MAIN_COLUMN_ID + " IN (SELECT "
+                    + FREQ_COLUMN_PAIR_ID + " FROM " + FREQ_TABLE_NAME + " ORDER BY "
+                    + FREQ_COLUMN_ID + " LIMIT " + numDeleteRows + ")", null);
+            sPairCount -= deleted;
+        }
+
+        private static int countPairs(SQLiteDatabase db) {
+            final SQLiteStatement count = db.compileStatement(
+                    "SELECT COUNT(*) FROM " + MAIN_TABLE_NAME);
             try {
-                int totalRowCount = c.getCount();
-                // prune out old data if we have too much data
-                if (totalRowCount > sMaxUserBigrams) {
-                    int numDeleteRows = (totalRowCount - sMaxUserBigrams) + sDeleteUserBigrams;
-                    int pairIdColumnId = c.getColumnIndex(FREQ_COLUMN_PAIR_ID);
-                    c.moveToFirst();
-                    int count = 0;
-                    while (count < numDeleteRows && !c.isAfterLast()) {
-                        String pairId = c.getString(pairIdColumnId);
-                        // Deleting from MAIN table will delete the frequencies
-                        // due to FOREIGN KEY .. ON DELETE CASCADE
-                        db.delete(MAIN_TABLE_NAME, MAIN_COLUMN_ID + "=?",
-                            new String[] { pairId });
-                        c.moveToNext();
-                        count++;
-                    }
-                }
+                return (int) count.simpleQueryForLong();
             } finally {
-                c.close();
+                count.close();
             }
         }
 
@@ -346,56 +394,59 @@ public class UserBigramDictionary extends ExpandableDictionary {
 
         @Override
         protected Void doInBackground(Void... v) {
-            SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            db.execSQL("PRAGMA foreign_keys = ON;");
-            // Write all the entries to the db
-            Iterator<Bigram> iterator = mMap.iterator();
-            while (iterator.hasNext()) {
-                Bigram bi = iterator.next();
-
-                // find pair id
-                Cursor c = db.query(MAIN_TABLE_NAME, new String[] { MAIN_COLUMN_ID },
-                        MAIN_COLUMN_WORD1 + "=? AND " + MAIN_COLUMN_WORD2 + "=? AND "
-                        + MAIN_COLUMN_LOCALE + "=?",
-                        new String[] { bi.word1, bi.word2, mLocale }, null, null, null);
-
-                int pairId;
-                if (c.moveToFirst()) {
-                    // existing pair
-                    pairId = c.getInt(c.getColumnIndex(MAIN_COLUMN_ID));
-                    db.delete(FREQ_TABLE_NAME, FREQ_COLUMN_PAIR_ID + "=?",
-                            new String[] { Integer.toString(pairId) });
-                } else {
-                    // new pair
-                    Long pairIdLong = db.insert(MAIN_TABLE_NAME, null,
-                            getContentValues(bi.word1, bi.word2, mLocale));
-                    pairId = pairIdLong.intValue();
+            // The dictionaries of all locales share the database and the pair count
+            synchronized (mDbHelper) {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                // Has no effect inside a transaction
+                db.execSQL("PRAGMA foreign_keys = ON;");
+                if (sPairCount < 0) {
+                    sPairCount = countPairs(db);
+                }
+                final SQLiteStatement insertPair = db.compileStatement("INSERT OR IGNORE INTO "
+                        + MAIN_TABLE_NAME + " (" + MAIN_COLUMN_WORD1 + "," + MAIN_COLUMN_WORD2
+                        + "," + MAIN_COLUMN_LOCALE + ") VALUES (?,?,?)");
+                // Replaces the frequency of the pair, if it has one
+                final SQLiteStatement setFrequency = db.compileStatement("INSERT OR REPLACE INTO "
+                        + FREQ_TABLE_NAME + " (" + FREQ_COLUMN_PAIR_ID + ","
+                        + FREQ_COLUMN_FREQUENCY + ") SELECT " + MAIN_COLUMN_ID + ",? FROM "
+                        + MAIN_TABLE_NAME + " WHERE " + MAIN_COLUMN_WORD1 + "=? AND "
+                        + MAIN_COLUMN_WORD2 + "=? AND " + MAIN_COLUMN_LOCALE + "=?");
+                final int pairCount = sPairCount;
+                // One transaction, so that the flush is synced to disk once
+                db.beginTransaction();
+                try {
+                    // Write all the entries to the db
+                    Iterator<Bigram> iterator = mMap.iterator();
+                    while (iterator.hasNext()) {
+                        Bigram bi = iterator.next();
+                        insertPair.bindString(1, bi.word1);
+                        insertPair.bindString(2, bi.word2);
+                        insertPair.bindString(3, mLocale);
+                        if (insertPair.executeInsert() != -1) {
+                            // new pair
+                            sPairCount++;
+                        }
+                        setFrequency.bindLong(1, bi.frequency);
+                        setFrequency.bindString(2, bi.word1);
+                        setFrequency.bindString(3, bi.word2);
+                        setFrequency.bindString(4, mLocale);
+                        setFrequency.executeInsert();
+                    }
+                    checkPruneData(db);
+                    db.setTransactionSuccessful();
+                } catch (SQLException e) {
+                    Log.e(TAG, "Could not write pairs", e);
+                    sPairCount = pairCount;
+                } finally {
+                    db.endTransaction();
+                    insertPair.close();
+                    setFrequency.close();
                 }
-                c.close();
-
-                // insert new frequency
-                db.insert(FREQ_TABLE_NAME, null, getFrequencyContentValues(pairId, bi.frequency));
             }
-            checkPruneData(db);
             sUpdatingDB = false;
 
             return null;
         }
-
-        private ContentValues getContentValues(String word1, String word2, String locale) {
-            ContentValues values = new ContentValues(3);
-            values.put(MAIN_COLUMN_WORD1, word1);
-            values.put(MAIN_COLUMN_WORD2, word2);
-            values.put(MAIN_COLUMN_LOCALE, locale);
-            return values;
-        }
-
-        private ContentValues getFrequencyContentValues(int pairId, int frequency) {
-           ContentValues values = new ContentValues(2);
-           values.put(FREQ_COLUMN_PAIR_ID, pairId);
-           values.put(FREQ_COLUMN_FREQUENCY, frequency);
-           return values;
-        }
     }
 
 }
@@ -16,13 +16,37 @@
 
 package com.s16.inputmethod.skeyboard;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.provider.UserDictionary.Words;
+import android.util.Log;
 
+/**
+ * The words of the platform user dictionary for the locale.
+ *
+ * Added words go to the trie at once and are written to the provider behind, in batches, on a
+ * single thread shared by all instances. Words added within {@link #WRITE_DELAY} of each other
+ * are written with one bulk insert. Until a word is written, loads add it as well. A write that
+ * fails is tried again a few times.
+ *
+ * One observer, shared by all instances, tells them when the words change. It ignores the change
+ * notifications caused by the writes of any instance, so that the words aren't loaded again
+ * because of them. The provider notifies each inserted row, so a write expects one notification
+ * per word. A notification of the whole table instead is taken as the only one of a write.
+ */
 public class UserDictionary extends ExpandableDictionary {
     
     private static final String[] PROJECTION = {
@@ -33,42 +57,115 @@ public class UserDictionary extends ExpandableDictionary {
     
     private static final int INDEX_WORD = 1;
     private static final int INDEX_FREQUENCY = 2;
-    
-    private ContentObserver mObserver;
+
+    private static final String TAG = "UserDictionary";
+
+    // In milliseconds
+    private static final int WRITE_DELAY = 1000;
+    private static final int RETRY_DELAY = 30 * 1000;
+    // Failed writes in a row after which the pending words are dropped
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    // How long after a write its change notifications are expected, in milliseconds
+    private static final int SELF_CHANGE_TIMEOUT = 2000;
+
+    private static Handler sWriter;
+
+    /**
+     * The change notifications still expected from one write.
+     */
+    private static final class SelfChange {
+        int mRemaining;
+        // Until the write is done, notifications are expected for as long as it takes
+        long mDeadline = Long.MAX_VALUE;
+
+        SelfChange(int remaining) {
+            mRemaining = remaining;
+        }
+    }
+
+    // Guards the observer, the open instances and the expected notifications
+    private static final Object sObserverLock = new Object();
+    private static ContentResolver sObserverResolver;
+    private static ContentObserver sObserver;
+    private static final ArrayList<UserDictionary> sOpenDictionaries =
+            new ArrayList<UserDictionary>();
+    // Of the writes of all instances, oldest first
+    private static final ArrayList<SelfChange> sSelfChanges = new ArrayList<SelfChange>();
+
     private String mLocale;
 
+    // Words not written yet, by word, including those being written
+    private final LinkedHashMap<String, ContentValues> mPendingWrites =
+            new LinkedHashMap<String, ContentValues>();
+    private boolean mWriteScheduled;
+    private int mFailedWrites;
+    // Guards the fields above
+    private final Object mPendingWritesLock = new Object();
+
+    private final Runnable mWritePendingWords = new Runnable() {
+        public void run() {
+            writePendingWords();
+        }
+    };
+
     public UserDictionary(Context context, String locale) {
         super(context, Suggest.DIC_USER);
         mLocale = locale;
-        // Perform a managed query. The Activity will handle closing and requerying the cursor
-        // when needed.
-        ContentResolver cres = context.getContentResolver();
-        
-        cres.registerContentObserver(Words.CONTENT_URI, true, mObserver = new ContentObserver(null) {
-            @Override
-            public void onChange(boolean self) {
-                setRequiresReload(true);
+        synchronized (sObserverLock) {
+            if (sObserver == null) {
+                sObserverResolver = context.getApplicationContext().getContentResolver();
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean self) {
+                        onWordsChanged(null);
+                    }
+
+                    @Override
+                    public void onChange(boolean self, Uri uri) {
+                        onWordsChanged(uri);
+                    }
+                };
+                sObserverResolver.registerContentObserver(Words.CONTENT_URI, true, sObserver);
             }
-        });
+            sOpenDictionaries.add(this);
+        }
 
         loadDictionary();
     }
 
     @Override
     public synchronized void close() {
-        if (mObserver != null) {
-            getContext().getContentResolver().unregisterContentObserver(mObserver);
-            mObserver = null;
+        synchronized (sObserverLock) {
+            if (sOpenDictionaries.remove(this) && sOpenDictionaries.isEmpty()) {
+                sObserverResolver.unregisterContentObserver(sObserver);
+                sObserver = null;
+                sObserverResolver = null;
+                sSelfChanges.clear();
+            }
+        }
+        // Don't wait for more words
+        synchronized (mPendingWritesLock) {
+            if (mWriteScheduled) {
+                getWriter().removeCallbacks(mWritePendingWords);
+                getWriter().post(mWritePendingWords);
+            }
         }
         super.close();
     }
 
     @Override
-    public void loadDictionaryAsync() {
+    protected void loadWords(CompactTrie.Builder builder) {
         Cursor cursor = getContext().getContentResolver()
                 .query(Words.CONTENT_URI, PROJECTION, "(locale IS NULL) or (locale=?)", 
                         new String[] { mLocale }, null);
-        addWords(cursor);
+        addWords(builder, cursor);
+        // Those written while querying may be missing
+        synchronized (mPendingWritesLock) {
+            for (ContentValues values : mPendingWrites.values()) {
+                builder.addWord(values.getAsString(Words.WORD),
+                        values.getAsInteger(Words.FREQUENCY));
+            }
+        }
     }
 
     /**
@@ -80,10 +177,8 @@ public class UserDictionary extends ExpandableDictionary {
      * @TODO use a higher or float range for frequency
      */
     @Override
-    public synchronized void addWord(String word, int frequency) {
-        // Force load the dictionary here synchronously
-        if (getRequiresReload()) loadDictionaryAsync();
-        // Safeguard against adding long words. Can cause stack overflow.
+    public void addWord(String word, int frequency) {
+        // Safeguard against adding long words
         if (word.length() >= getMaxWordLength()) return;
 
         super.addWord(word, frequency);
@@ -95,41 +190,124 @@ public class UserDictionary extends ExpandableDictionary {
         values.put(Words.LOCALE, mLocale);
         values.put(Words.APP_ID, 0);
 
-        final ContentResolver contentResolver = getContext().getContentResolver();
-        new Thread("addWord") {
-            public void run() {
-                contentResolver.insert(Words.CONTENT_URI, values);
+        synchronized (mPendingWritesLock) {
+            // A word added again before it is written is written once
+            mPendingWrites.remove(word);
+            mPendingWrites.put(word, values);
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                getWriter().postDelayed(mWritePendingWords, WRITE_DELAY);
             }
-        }.start();
+        }
+    }
 
-        // In case the above does a synchronous callback of the change observer
-        setRequiresReload(false);
+    /**
+     * Writes the pending words to the provider at once. Runs on the writer thread.
+     */
+    private void writePendingWords() {
+        final ArrayList<ContentValues> written;
+        synchronized (mPendingWritesLock) {
+            mWriteScheduled = false;
+            if (mPendingWrites.isEmpty()) return;
+            written = new ArrayList<ContentValues>(mPendingWrites.values());
+        }
+        final SelfChange selfChange = new SelfChange(written.size());
+        synchronized (sObserverLock) {
+            sSelfChanges.add(selfChange);
+        }
+        boolean success = false;
+        try {
+            getContext().getContentResolver().bulkInsert(Words.CONTENT_URI,
+                    written.toArray(new ContentValues[written.size()]));
+            success = true;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not write " + written.size() + " words", e);
+        } catch (IllegalArgumentException e) {
+            // Thrown when there is no user dictionary provider
+            Log.w(TAG, "Could not write " + written.size() + " words", e);
+        } finally {
+            synchronized (sObserverLock) {
+                // The rows written before a failure may still notify
+                selfChange.mDeadline = SystemClock.uptimeMillis() + SELF_CHANGE_TIMEOUT;
+            }
+            synchronized (mPendingWritesLock) {
+                if (success) {
+                    mFailedWrites = 0;
+                    // Unless added again meanwhile
+                    for (Iterator<Map.Entry<String, ContentValues>> it =
+                            mPendingWrites.entrySet().iterator(); it.hasNext();) {
+                        if (written.contains(it.next().getValue())) it.remove();
+                    }
+                } else if (++mFailedWrites >= MAX_WRITE_ATTEMPTS) {
+                    // They stay in the trie until the words are loaded again
+                    Log.w(TAG, "Giving up writing " + mPendingWrites.size() + " words");
+                    mFailedWrites = 0;
+                    mPendingWrites.clear();
+                } else if (!mWriteScheduled) {
+                    // The words are still pending, try again later
+                    mWriteScheduled = true;
+                    getWriter().postDelayed(mWritePendingWords, RETRY_DELAY);
+                }
+            }
+        }
     }
 
-    @Override
-    public synchronized void getWords(final WordComposer codes, final WordCallback callback,
-            int[] nextLettersFrequencies) {
-        super.getWords(codes, callback, nextLettersFrequencies);
+    /**
+     * Tells the open instances to load their words again, unless the change notification is
+     * expected from one of their writes.
+     * @param uri the changed row or table, or null if the platform doesn't tell
+     */
+    private static void onWordsChanged(Uri uri) {
+        final ArrayList<UserDictionary> dictionaries;
+        synchronized (sObserverLock) {
+            if (consumeSelfChangeLocked(uri)) return;
+            dictionaries = new ArrayList<UserDictionary>(sOpenDictionaries);
+        }
+        for (int i = 0; i < dictionaries.size(); i++) {
+            dictionaries.get(i).setRequiresReload(true);
+        }
     }
 
-    @Override
-    public synchronized boolean isValidWord(CharSequence word) {
-        return super.isValidWord(word);
+    /**
+     * Returns whether a change notification is expected from a write, and no longer expects
+     * it if so.
+     */
+    private static boolean consumeSelfChangeLocked(Uri uri) {
+        final long now = SystemClock.uptimeMillis();
+        while (!sSelfChanges.isEmpty() && sSelfChanges.get(0).mDeadline <= now) {
+            sSelfChanges.remove(0);
+        }
+        if (sSelfChanges.isEmpty()) return false;
+        final SelfChange selfChange = sSelfChanges.get(0);
+        if (Words.CONTENT_URI.equals(uri)) {
+            // The provider notified the whole write at once
+            selfChange.mRemaining = 0;
+        } else {
+            selfChange.mRemaining--;
+        }
+        if (selfChange.mRemaining <= 0) sSelfChanges.remove(0);
+        return true;
     }
 
-    private void addWords(Cursor cursor) {
-        clearDictionary();
+    private static synchronized Handler getWriter() {
+        if (sWriter == null) {
+            final HandlerThread thread = new HandlerThread("UserDictionaryWriter");
+            thread.start();
+            sWriter = new Handler(thread.getLooper());
+        }
+        return sWriter;
+    }
 
+    private void addWords(CompactTrie.Builder builder, Cursor cursor) {
         if (cursor != null) {
         	final int maxWordLength = getMaxWordLength();
 	        if (cursor.moveToFirst()) {
 	            while (!cursor.isAfterLast()) {
 	                String word = cursor.getString(INDEX_WORD);
 	                int frequency = cursor.getInt(INDEX_FREQUENCY);
-	                // Safeguard against adding really long words. Stack may overflow due
-	                // to recursion
+	                // Safeguard against adding really long words
 	                if (word.length() < maxWordLength) {
-	                    super.addWord(word, frequency);
+	                    builder.addWord(word, frequency);
 	                }
 	                cursor.moveToNext();
 	            }
@@ -17,15 +17,36 @@
 package com.s16.inputmethod.skeyboard;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A place to store the currently composing word with information such as adjacent key codes as well
  */
 public class WordComposer {
+    public static final int NOT_A_COORDINATE = -1;
+
+    /**
+     * The weight of a code that leaves the frequency of the words it matches as it is. Weights
+     * are multipliers in units of this.
+     */
+    public static final int WEIGHT_UNIT = 16;
+    /**
+     * The weight of the pressed key, which doubles the frequency, and of the codes that are
+     * about as likely to be meant. No code weighs more.
+     */
+    public static final int MAX_WEIGHT = 2 * WEIGHT_UNIT;
+
     /**
      * The list of unicode values for each keystroke (including surrounding keys)
      */
     private final ArrayList<int[]> mCodes;
+
+    /**
+     * For each keystroke, the weight of each of its codes, and where it was touched
+     */
+    private final ArrayList<int[]> mWeights;
+    private int[] mXCoordinates;
+    private int[] mYCoordinates;
     
     /**
      * The word chosen from the candidate list, until it is committed.
@@ -45,11 +66,17 @@ public class WordComposer {
 
     public WordComposer() {
         mCodes = new ArrayList<int[]>(12);
+        mWeights = new ArrayList<int[]>(12);
+        mXCoordinates = new int[12];
+        mYCoordinates = new int[12];
         mTypedWord = new StringBuilder(20);
     }
 
     WordComposer(WordComposer copy) {
         mCodes = new ArrayList<int[]>(copy.mCodes);
+        mWeights = new ArrayList<int[]>(copy.mWeights);
+        mXCoordinates = copy.mXCoordinates.clone();
+        mYCoordinates = copy.mYCoordinates.clone();
         mPreferredWord = copy.mPreferredWord;
         mTypedWord = new StringBuilder(copy.mTypedWord);
         mCapsCount = copy.mCapsCount;
@@ -62,6 +89,7 @@ public class WordComposer {
      */
     public void reset() {
         mCodes.clear();
+        mWeights.clear();
         mIsFirstCharCapitalized = false;
         mPreferredWord = null;
         mTypedWord.setLength(0);
@@ -85,30 +113,83 @@ public class WordComposer {
         return mCodes.get(index);
     }
 
+    /**
+     * Returns the weights of the codes at a position, from {@link #WEIGHT_UNIT} for a code that
+     * is unlikely to be meant to {@link #MAX_WEIGHT} for the pressed key.
+     * @param index the position in the word
+     * @return the weight of each code returned by {@link #getCodesAt}, not to be changed
+     */
+    public int[] getWeightsAt(int index) {
+        return mWeights.get(index);
+    }
+
+    /**
+     * Returns where the key at a position was touched, or {@link #NOT_A_COORDINATE}.
+     */
+    public int getXAt(int index) {
+        return mXCoordinates[index];
+    }
+
+    public int getYAt(int index) {
+        return mYCoordinates[index];
+    }
+
     /**
      * Add a new keystroke, with codes[0] containing the pressed key's unicode and the rest of
      * the array containing unicode for adjacent keys, sorted by reducing probability/proximity.
      * @param codes the array of unicode values
      */
     public void add(int primaryCode, int[] codes) {
+        add(primaryCode, codes, null, NOT_A_COORDINATE, NOT_A_COORDINATE);
+    }
+
+    /**
+     * Add a new keystroke touched at the given point.
+     * @param weights the weight of each code, or null to give the pressed key the
+     *            {@link #MAX_WEIGHT} and the others none. Kept by the composer.
+     */
+    public void add(int primaryCode, int[] codes, int[] weights, int x, int y) {
+        final int index = mCodes.size();
+        if (index == mXCoordinates.length) {
+            mXCoordinates = grow(mXCoordinates);
+            mYCoordinates = grow(mYCoordinates);
+        }
+        if (weights == null) {
+            weights = new int[codes.length];
+            Arrays.fill(weights, WEIGHT_UNIT);
+            if (weights.length > 0) weights[0] = MAX_WEIGHT;
+        }
+        mXCoordinates[index] = x;
+        mYCoordinates[index] = y;
         mTypedWord.append((char) primaryCode);
-        correctPrimaryJuxtapos(primaryCode, codes);
+        correctPrimaryJuxtapos(primaryCode, codes, weights);
         mCodes.add(codes);
+        mWeights.add(weights);
         if (Character.isUpperCase((char) primaryCode)) mCapsCount++;
     }
 
+    private static int[] grow(int[] array) {
+        final int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
     /**
      * Swaps the first and second values in the codes array if the primary code is not the first
      * value in the array but the second. This happens when the preferred key is not the key that
      * the user released the finger on.
      * @param primaryCode the preferred character
      * @param codes array of codes based on distance from touch point
+     * @param weights the weights of the codes, swapped along with them
      */
-    private void correctPrimaryJuxtapos(int primaryCode, int[] codes) {
+    private void correctPrimaryJuxtapos(int primaryCode, int[] codes, int[] weights) {
         if (codes.length < 2) return;
         if (codes[0] > 0 && codes[1] > 0 && codes[0] != primaryCode && codes[1] == primaryCode) {
             codes[1] = codes[0];
             codes[0] = primaryCode;
+            final int weight = weights[0];
+            weights[0] = weights[1];
+            weights[1] = weight;
         }
     }
 
@@ -119,6 +200,7 @@ public class WordComposer {
         final int codesSize = mCodes.size();
         if (codesSize > 0) {
             mCodes.remove(codesSize - 1);
+            mWeights.remove(codesSize - 1);
             final int lastPos = mTypedWord.length() - 1;
             char last = mTypedWord.charAt(lastPos);
             mTypedWord.deleteCharAt(lastPos);
@@ -18,6 +18,7 @@
 package com.s16.inputmethod.skeyboard;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class ZawGyiCorrection {
 	private static final int NULL_CHAR = 0x00;
@@ -381,6 +382,14 @@ public class ZawGyiCorrection {
 		return code1 == code2;
 	}
 	
+    private static boolean isSyllableStart(int charIndex) {
+        return ((charIndex == CharIndex.ThaWaiHtoe) 
+                || (charIndex == CharIndex.RaRitt) 
+                || (charIndex == CharIndex.Consonant) 
+                || (charIndex == CharIndex.DoubleConsonant)
+                || (charIndex == CharIndex.Other));
+    }
+    
     private static void appendResult(Word word, ArrayList<Integer> resultList) {
     	int[] result = word.getResult();
     	for (int i : result) {
@@ -419,11 +428,7 @@ public class ZawGyiCorrection {
             //System.Diagnostics.Debug.WriteLine(code.ToString() + " =   " + ((char)code).ToString());
 
 			int charIndex = getCharIndex(code);
-            boolean firstChar = ((charIndex == CharIndex.ThaWaiHtoe) 
-                || (charIndex == CharIndex.RaRitt) 
-                || (charIndex == CharIndex.Consonant) 
-                || (charIndex == CharIndex.DoubleConsonant)
-                || (charIndex == CharIndex.Other));
+            boolean firstChar = isSyllableStart(charIndex);
 
             if (word.hasConsonant() && firstChar)
             {
@@ -453,28 +458,22 @@ public class ZawGyiCorrection {
     }
 	
 	public static CharSequence getJellyBeanFix(CharSequence input) {
-		ArrayList<Integer> resultList = new ArrayList<Integer>();
+		StringBuilder result = new StringBuilder(input.length() + 4);
 		
 		for(int i = 0; i < input.length(); i++) {
-    		int iValue = (int)input.charAt(i);
-    		if(iValue == 0x1031) {
-    			resultList.add(JBFIX_CHAR);
-    			resultList.add(iValue);
-    		} else if(iValue == 0x1039) {
-    			resultList.add(iValue);
-    			resultList.add(JBFIX_CHAR);
+    		char ch = input.charAt(i);
+    		if(ch == 0x1031) {
+    			result.append((char)JBFIX_CHAR);
+    			result.append(ch);
+    		} else if(ch == 0x1039) {
+    			result.append(ch);
+    			result.append((char)JBFIX_CHAR);
     		} else {
-    			resultList.add(iValue);
+    			result.append(ch);
     		}
     	}
 		
-		char[] chArray = new char[resultList.size()];
-		int count = 0;
-		for(Integer ch : resultList) {
-			chArray[count++] = (char)ch.intValue();
-		}
-		
-		return String.valueOf(chArray);
+		return result.toString();
 		//String output = input.toString();
 		//output = output.replaceAll("\u1031", String.valueOf((char)JBFIX_CHAR) + "\u1031");
 		//output = output.replaceAll("\u1039", "\u1039" + String.valueOf((char)JBFIX_CHAR));
@@ -497,6 +496,148 @@ public class ZawGyiCorrection {
 		return String.valueOf(chArray);
 	}
 	
+	/**
+	 * Corrects the word being composed as it is typed. Gives the same text as
+	 * {@link ZawGyiCorrection#getWord(CharSequence)}, but each character only fixes the syllable it
+	 * is typed into, instead of the whole word.
+	 */
+	public static final class Composer {
+		private final Word mWord;
+		private final Word mFixed;
+		private final int[] mResult = new int[Word.WORD_LENGTH];
+
+		private int[] mInput = new int[16];
+		// Before each input character: the length of the closed output and the start of the
+		// open syllable, to roll back to when it's deleted
+		private int[] mClosedLengths = new int[16];
+		private int[] mWordStarts = new int[16];
+		private int mLength;
+
+		// Fixed syllables and other characters, followed by the open syllable when it's fixed
+		private char[] mOutput = new char[32];
+		private int mClosedLength;
+		private int mWordStart;
+
+		public Composer() {
+			final ZawGyiCorrection zawGyi = new ZawGyiCorrection();
+			mWord = zawGyi.new Word();
+			mFixed = zawGyi.new Word();
+		}
+
+		public int length() {
+			return mLength;
+		}
+
+		public void reset() {
+			mLength = 0;
+			mClosedLength = 0;
+			mWordStart = 0;
+			mWord.reset();
+		}
+
+		/**
+		 * Starts over with the given word.
+		 */
+		public void setText(CharSequence text) {
+			reset();
+			for (int i = 0; i < text.length(); i++) {
+				append(text.charAt(i));
+			}
+		}
+
+		public void append(int code) {
+			if (mLength == mInput.length) {
+				mInput = grow(mInput);
+				mClosedLengths = grow(mClosedLengths);
+				mWordStarts = grow(mWordStarts);
+			}
+			final int index = mLength++;
+			mInput[index] = code;
+			mClosedLengths[index] = mClosedLength;
+			mWordStarts[index] = mWordStart;
+
+			final int charIndex = getCharIndex(code);
+			if (mWord.hasConsonant() && isSyllableStart(charIndex)) {
+				mWord.fix();
+				appendResult(mWord);
+				mWord.reset();
+				mWordStart = index;
+			}
+			if (charIndex == CharIndex.Other) {
+				appendOutput(code);
+				// Nothing was set into the syllable yet, it can start after this character
+				if (mWordStart == index) mWordStart = index + 1;
+			} else {
+				mWord.setValue(charIndex, code);
+			}
+		}
+
+		public void deleteLast() {
+			if (mLength == 0) return;
+			final int index = --mLength;
+			mClosedLength = mClosedLengths[index];
+			mWordStart = mWordStarts[index];
+			// Characters only ever overwrite the syllable, so it's set up again from its start
+			mWord.reset();
+			for (int i = mWordStart; i < index; i++) {
+				final int charIndex = getCharIndex(mInput[i]);
+				if (charIndex != CharIndex.Other) {
+					mWord.setValue(charIndex, mInput[i]);
+				}
+			}
+		}
+
+		/**
+		 * Returns the corrected word.
+		 */
+		@Override
+		public String toString() {
+			if (mLength < 2) {
+				// Too short to be corrected
+				final char[] chars = new char[mLength];
+				for (int i = 0; i < mLength; i++) {
+					chars[i] = (char)mInput[i];
+				}
+				return String.valueOf(chars);
+			}
+			mFixed.set(mWord);
+			mFixed.fix();
+			final int count = mFixed.getResult(mResult, 0);
+			ensureOutputCapacity(mClosedLength + count);
+			for (int i = 0; i < count; i++) {
+				mOutput[mClosedLength + i] = (char)mResult[i];
+			}
+			return new String(mOutput, 0, mClosedLength + count);
+		}
+
+		private void appendResult(Word word) {
+			final int count = word.getResult(mResult, 0);
+			ensureOutputCapacity(mClosedLength + count);
+			for (int i = 0; i < count; i++) {
+				mOutput[mClosedLength++] = (char)mResult[i];
+			}
+		}
+
+		private void appendOutput(int code) {
+			ensureOutputCapacity(mClosedLength + 1);
+			mOutput[mClosedLength++] = (char)code;
+		}
+
+		private void ensureOutputCapacity(int capacity) {
+			if (capacity > mOutput.length) {
+				final char[] output = new char[Math.max(capacity, mOutput.length * 2)];
+				System.arraycopy(mOutput, 0, output, 0, mClosedLength);
+				mOutput = output;
+			}
+		}
+
+		private static int[] grow(int[] array) {
+			final int[] grown = new int[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+
 	class Word {
 		private static final int WORD_LENGTH = 17;
         private int[] mWord = null;
@@ -1027,10 +1168,11 @@ public class ZawGyiCorrection {
 			}
 		}
         
-        private void addToList(int code, ArrayList<Integer> list) {
+        private int addTo(int code, int[] result, int count) {
         	if(code != NULL_CHAR) {
-        		list.add(code);
+        		result[count++] = code;
         	}
+        	return count;
         }
         
         public void fix() {
@@ -1056,7 +1198,11 @@ public class ZawGyiCorrection {
         }
 
         public void reset() {
-            this.mWord = new int[WORD_LENGTH];
+            Arrays.fill(this.mWord, NULL_CHAR);
+        }
+
+        public void set(Word word) {
+            System.arraycopy(word.mWord, 0, this.mWord, 0, WORD_LENGTH);
         }
 
         public boolean hasConsonant() {
@@ -1157,6 +1303,17 @@ public class ZawGyiCorrection {
         }
 	
         public int[] getResult() {
+        	int[] buffer = new int[WORD_LENGTH];
+        	int[] result = new int[getResult(buffer, 0)];
+        	System.arraycopy(buffer, 0, result, 0, result.length);
+        	return result;
+        }
+
+        /**
+         * Writes the characters of the syllable in their display order.
+         * @return the number of characters written, at most WORD_LENGTH
+         */
+        public int getResult(int[] result, int offset) {
         	
         	boolean fixAThart = ((this.mWord[(int)CharIndex.ThaWaiHtoe] == NULL_CHAR)
                     && (this.mWord[(int)CharIndex.YaPint] != NULL_CHAR)
@@ -1170,35 +1327,29 @@ public class ZawGyiCorrection {
 			
         	final boolean fixLoneGyiTin = (this.mWord[(int)CharIndex.YaPint] != NULL_CHAR);
         	
-        	ArrayList<Integer> list = new ArrayList<Integer>();
+        	int count = offset;
         	
-        	this.addToList(this.mWord[(int)CharIndex.ThaWaiHtoe], list);
-            this.addToList(this.mWord[(int)CharIndex.RaRitt], list);
-            this.addToList(this.mWord[(int)CharIndex.Consonant], list);
-            this.addToList(this.mWord[(int)CharIndex.DoubleConsonant], list);
-            this.addToList(this.mWord[(int)CharIndex.LowerConsonant], list);
-            if(!fixLoneGyiTin) this.addToList(this.mWord[(int)CharIndex.LoneGyiTin], list);
-            this.addToList(this.mWord[(int)CharIndex.HaHtoe], list);
-            this.addToList(this.mWord[(int)CharIndex.WaSwal], list);
-            this.addToList(this.mWord[(int)CharIndex.YaPint], list);
-            if (fixAThart) this.addToList(this.mWord[(int)CharIndex.AThart], list);
-            this.addToList(this.mWord[(int)CharIndex.TeeTeeTin], list);
-            this.addToList(this.mWord[(int)CharIndex.ChangNyin], list);
-            if(fixLoneGyiTin) this.addToList(this.mWord[(int)CharIndex.LoneGyiTin], list);
-            this.addToList(this.mWord[(int)CharIndex.NoutPyit], list);
-            this.addToList(this.mWord[(int)CharIndex.YeeKhya], list);
-            if (!fixAThart) this.addToList(this.mWord[(int)CharIndex.AThart], list);
-            this.addToList(this.mWord[(int)CharIndex.OutNyint], list);
-            this.addToList(this.mWord[(int)CharIndex.WittSaPout], list);
-            this.addToList(this.mWord[(int)CharIndex.Other], list);
+        	count = this.addTo(this.mWord[(int)CharIndex.ThaWaiHtoe], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.RaRitt], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.Consonant], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.DoubleConsonant], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.LowerConsonant], result, count);
+            if(!fixLoneGyiTin) count = this.addTo(this.mWord[(int)CharIndex.LoneGyiTin], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.HaHtoe], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.WaSwal], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.YaPint], result, count);
+            if (fixAThart) count = this.addTo(this.mWord[(int)CharIndex.AThart], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.TeeTeeTin], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.ChangNyin], result, count);
+            if(fixLoneGyiTin) count = this.addTo(this.mWord[(int)CharIndex.LoneGyiTin], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.NoutPyit], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.YeeKhya], result, count);
+            if (!fixAThart) count = this.addTo(this.mWord[(int)CharIndex.AThart], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.OutNyint], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.WittSaPout], result, count);
+            count = this.addTo(this.mWord[(int)CharIndex.Other], result, count);
         	
-            int[] result = new int[list.size()];
-            int count = 0;
-            for (Integer n : list) {
-            	result[count++] = n.intValue();
-            }
-            
-            return result;
+            return count - offset;
         }
 	}
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the Java dictionary engine on a small dictionary written in the same format as the
+ * dictionaries in res/raw, with characters above 0xFE escaped as 0xFF and two bytes.
+ */
+public class BinaryDictionaryEngineTest extends TestCase {
+
+    private static final int MAX_WORD_LENGTH = 48;
+    private static final int MAX_ALTERNATIVES = 16;
+    private static final int MAX_WORDS = 18;
+    private static final int MAX_BIGRAMS = 60;
+
+    // Myanmar words, all of whose characters are escaped
+    private static final String KA = "\u1000\u102C";
+    private static final String KAUNG = "\u1000\u1031\u102C\u1004\u103A\u1038";
+
+    private BinaryDictionaryEngine mEngine;
+
+    @Override
+    protected void setUp() {
+        final DictionaryWriter writer = new DictionaryWriter();
+        // Escaped characters come first, so that the nodes after them are only found if the
+        // escapes are stepped over correctly
+        writer.addWord(KAUNG, 120);
+        writer.addWord(KA, 90);
+        writer.addWord("hello", 200);
+        writer.addWord("help", 150);
+        writer.addWord("hell", 100);
+        writer.addWord("world", 180);
+        writer.addBigram("hello", "world", 15);
+        writer.addBigram("hello", KAUNG, 10);
+        writer.addBigram(KA, "help", 5);
+        mEngine = new BinaryDictionaryEngine(ByteBuffer.wrap(writer.write()), 2, 2);
+    }
+
+    public void testIsValidWord() {
+        assertTrue(isValidWord("hello"));
+        assertTrue(isValidWord("hell"));
+        assertTrue(isValidWord("world"));
+        assertTrue(isValidWord(KA));
+        assertTrue(isValidWord(KAUNG));
+        assertFalse(isValidWord("hel"));
+        assertFalse(isValidWord("helps"));
+        assertFalse(isValidWord("\u1000"));
+    }
+
+    public void testCompletions() {
+        final List<String> words = getSuggestions("hel");
+        assertEquals(3, words.size());
+        assertEquals("hello", words.get(0));
+        assertEquals("help", words.get(1));
+        assertEquals("hell", words.get(2));
+
+        // Words more than three times as long as what was typed are left out
+        final List<String> myanmar = getSuggestions("\u1000");
+        assertEquals(1, myanmar.size());
+        assertEquals(KA, myanmar.get(0));
+        final List<String> longer = getSuggestions("\u1000\u1031");
+        assertEquals(1, longer.size());
+        assertEquals(KAUNG, longer.get(0));
+    }
+
+    public void testWeights() {
+        // A key with no word of its own, next to two that have
+        final int[] codes = new int[MAX_ALTERNATIVES];
+        codes[0] = 'g';
+        codes[1] = 'h';
+        codes[2] = '\u1000';
+        assertEquals("help", getSuggestions(codes, null, 1).get(0));
+
+        // The less frequent word wins if its key is more likely
+        final int[] weights = new int[MAX_ALTERNATIVES];
+        weights[0] = WordComposer.MAX_WEIGHT;
+        weights[1] = WordComposer.WEIGHT_UNIT;
+        weights[2] = WordComposer.MAX_WEIGHT;
+        assertEquals(KA, getSuggestions(codes, weights, 1).get(0));
+    }
+
+    public void testChildren() {
+        final char[] codes = new char[MAX_ALTERNATIVES];
+        final int[] frequencies = new int[MAX_ALTERNATIVES];
+        final int[] children = new int[MAX_ALTERNATIVES];
+        final int count = mEngine.getChildren(mEngine.getRoot(), codes, frequencies, children);
+        assertEquals(3, count);
+        assertEquals('\u1000', codes[0]);
+        assertEquals('h', codes[1]);
+        assertEquals('w', codes[2]);
+        assertEquals(-1, frequencies[1]);
+    }
+
+    public void testBigrams() {
+        assertEquals(1, getBigrams("hello", "w").size());
+        assertEquals("world", getBigrams("hello", "w").get(0));
+        // A bigram is only returned if it starts with the typed letter
+        assertEquals(0, getBigrams("hello", "x").size());
+        assertEquals(0, getBigrams("world", "h").size());
+    }
+
+    /**
+     * The native dictionary steps over every character as one byte and keeps only its low
+     * byte, so it misses these bigrams or returns broken words. The Java engine reads escaped
+     * characters the way the rest of the trie walk does.
+     */
+    public void testBigramsWithEscapedCharacters() {
+        final List<String> toMyanmar = getBigrams("hello", "\u1000");
+        assertEquals(1, toMyanmar.size());
+        assertEquals(KAUNG, toMyanmar.get(0));
+
+        final List<String> fromMyanmar = getBigrams(KA, "h");
+        assertEquals(1, fromMyanmar.size());
+        assertEquals("help", fromMyanmar.get(0));
+    }
+
+    private boolean isValidWord(String word) {
+        return mEngine.isValidWord(word.toCharArray(), word.length());
+    }
+
+    private List<String> getSuggestions(String typed) {
+        return getSuggestions(toCodes(typed), null, typed.length());
+    }
+
+    private List<String> getSuggestions(int[] codes, int[] weights, int codesSize) {
+        final char[] outputChars = new char[MAX_WORD_LENGTH * MAX_WORDS];
+        final int[] frequencies = new int[MAX_WORDS];
+        final int count = mEngine.getSuggestions(codes, weights, codesSize, outputChars,
+                frequencies, MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1,
+                new NextLetterFrequencies());
+        return toWords(outputChars, count);
+    }
+
+    private List<String> getBigrams(String previousWord, String typed) {
+        final char[] outputChars = new char[MAX_WORD_LENGTH * MAX_BIGRAMS];
+        final int[] frequencies = new int[MAX_BIGRAMS];
+        final int count = mEngine.getBigrams(previousWord.toCharArray(), previousWord.length(),
+                toCodes(typed), typed.length(), outputChars, frequencies, MAX_WORD_LENGTH,
+                MAX_BIGRAMS, MAX_ALTERNATIVES);
+        final List<String> words = new ArrayList<String>();
+        // The count includes the bigrams that didn't start with the typed letter
+        for (String word : toWords(outputChars, count)) {
+            if (word.length() > 0) words.add(word);
+        }
+        return words;
+    }
+
+    // Only the typed letter, without nearby keys
+    private static int[] toCodes(String typed) {
+        final int[] codes = new int[typed.length() * MAX_ALTERNATIVES];
+        for (int i = 0; i < typed.length(); i++) {
+            codes[i * MAX_ALTERNATIVES] = typed.charAt(i);
+        }
+        return codes;
+    }
+
+    private static List<String> toWords(char[] outputChars, int count) {
+        final List<String> words = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final int start = i * MAX_WORD_LENGTH;
+            int length = 0;
+            while (outputChars[start + length] != 0) length++;
+            words.add(new String(outputChars, start, length));
+        }
+        return words;
+    }
+
+    /**
+     * Writes the latest dictionary format: each group of children is a count followed by the
+     * nodes, and the groups are laid out depth first, so that the nodes below a child come
+     * before the nodes below its next sibling.
+     */
+    private static final class DictionaryWriter {
+
+        private static final class Node {
+            final char mCode;
+            int mFrequency = -1;
+            final Map<Character, Node> mChildren = new LinkedHashMap<Character, Node>();
+            final Map<Node, Integer> mBigrams = new LinkedHashMap<Node, Integer>();
+            // Positions of the node's character and of its group of children
+            int mPosition;
+            int mChildrenPosition;
+
+            Node(char code) {
+                mCode = code;
+            }
+
+            int size() {
+                int size = mCode >= 0xFF ? 3 : 1;
+                size += mChildren.isEmpty() ? 1 : 3;
+                if (mFrequency >= 0) {
+                    size += 1 + (mBigrams.isEmpty() ? 1 : mBigrams.size() * 4);
+                }
+                return size;
+            }
+        }
+
+        private final Node mRoot = new Node((char) 0);
+        private final Map<String, Node> mWords = new HashMap<String, Node>();
+
+        void addWord(String word, int frequency) {
+            Node node = mRoot;
+            for (int i = 0; i < word.length(); i++) {
+                Node child = node.mChildren.get(word.charAt(i));
+                if (child == null) {
+                    child = new Node(word.charAt(i));
+                    node.mChildren.put(child.mCode, child);
+                }
+                node = child;
+            }
+            node.mFrequency = frequency;
+            mWords.put(word, node);
+        }
+
+        void addBigram(String word1, String word2, int frequency) {
+            mWords.get(word1).mBigrams.put(mWords.get(word2), frequency);
+        }
+
+        byte[] write() {
+            // The header: version and whether there are bigrams
+            layOut(mRoot, 2);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(200);
+            out.write(1);
+            write(mRoot, out);
+            return out.toByteArray();
+        }
+
+        // Returns the position after the group of children and everything below it
+        private int layOut(Node parent, int position) {
+            parent.mChildrenPosition = position;
+            position++;
+            for (Node child : parent.mChildren.values()) {
+                child.mPosition = position;
+                position += child.size();
+            }
+            for (Node child : parent.mChildren.values()) {
+                if (!child.mChildren.isEmpty()) position = layOut(child, position);
+            }
+            return position;
+        }
+
+        private void write(Node parent, ByteArrayOutputStream out) {
+            out.write(parent.mChildren.size());
+            for (Node child : parent.mChildren.values()) {
+                if (child.mCode >= 0xFF) {
+                    out.write(0xFF);
+                    out.write(child.mCode >> 8);
+                    out.write(child.mCode & 0xFF);
+                } else {
+                    out.write(child.mCode);
+                }
+                int flags = child.mFrequency >= 0 ? 0x80 : 0;
+                if (child.mChildren.isEmpty()) {
+                    out.write(flags);
+                } else {
+                    writeAddress(flags | 0x40, child.mChildrenPosition, out);
+                }
+                if (child.mFrequency >= 0) {
+                    out.write(child.mFrequency);
+                    if (child.mBigrams.isEmpty()) {
+                        out.write(0);
+                    } else {
+                        int left = child.mBigrams.size();
+                        for (Map.Entry<Node, Integer> bigram : child.mBigrams.entrySet()) {
+                            writeAddress(0x80, bigram.getKey().mPosition, out);
+                            out.write((--left > 0 ? 0x80 : 0) | bigram.getValue());
+                        }
+                    }
+                }
+            }
+            for (Node child : parent.mChildren.values()) {
+                if (!child.mChildren.isEmpty()) write(child, out);
+            }
+        }
+
+        private static void writeAddress(int flags, int address, ByteArrayOutputStream out) {
+            out.write(flags | (address >> 16));
+            out.write((address >> 8) & 0xFF);
+            out.write(address & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the words and bigrams of a trie, and that a trie stays unchanged while the changes are
+ * made to a {@link CompactTrie#copy()}. {@link TriePublisherTest} checks how the copies are
+ * published to concurrent lookups.
+ */
+public class CompactTrieTest extends TestCase {
+
+    private static final int WRITES = 5000;
+
+    private CompactTrie mTrie;
+
+    @Override
+    protected void setUp() {
+        mTrie = new CompactTrie();
+    }
+
+    public void testWordsAndBigrams() {
+        final CompactTrie trie = new CompactTrie();
+        trie.addWord("hello", 100);
+        trie.addWord("help", 50);
+        trie.addWord("hello", 20);
+        final int hello = trie.findWord("hello");
+        final int help = trie.findWord("help");
+        assertTrue(hello != CompactTrie.NOT_FOUND);
+        assertEquals(100, trie.mFrequencies[hello]);
+        assertEquals(CompactTrie.NOT_FOUND, trie.findWord("hel"));
+
+        trie.addOrSetBigram(hello, help, 10, false);
+        assertEquals(help, trie.mBigramWord[trie.getBigrams(hello)]);
+        trie.removeBigram(hello, help);
+        assertEquals(-1, trie.getBigrams(hello));
+
+        trie.removeWord(help);
+        assertEquals(CompactTrie.NOT_FOUND, trie.findWord("help"));
+        assertEquals(1, trie.mWordCounts[CompactTrie.ROOT]);
+        assertEquals(100, trie.mMaxFrequencies[CompactTrie.ROOT]);
+        dump(trie);
+    }
+
+    public void testCopyLeavesOriginalUnchanged() {
+        final Random random = new Random(1);
+        for (int i = 0; i < WRITES; i++) {
+            final CompactTrie before = mTrie;
+            final String expected = dump(before);
+            mTrie = before.copy();
+            write(mTrie, random);
+            assertEquals("Write " + i + " changed the trie it was copied from",
+                    expected, dump(before));
+        }
+        dump(mTrie);
+    }
+
+    /** Makes a few random changes to the trie. */
+    private static void write(CompactTrie trie, Random random) {
+        final int changes = 1 + random.nextInt(3);
+        for (int i = 0; i < changes; i++) {
+            final String word = randomWord(random);
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    trie.addWord(word, random.nextInt(256));
+                    break;
+                case 2:
+                    trie.addOrSetBigram(trie.searchWord(word),
+                            trie.searchWord(randomWord(random)), random.nextInt(100),
+                            random.nextBoolean());
+                    break;
+                case 3: {
+                    final int first = trie.findWord(word);
+                    final int second = trie.findWord(randomWord(random));
+                    if (first != CompactTrie.NOT_FOUND && second != CompactTrie.NOT_FOUND) {
+                        trie.removeBigram(first, second);
+                    }
+                    break;
+                }
+                case 4: {
+                    final int node = trie.findWord(word);
+                    if (node != CompactTrie.NOT_FOUND) {
+                        // The dictionary removes the bigrams to a word along with it
+                        for (int other = 0; other < trie.mNodeCount; other++) {
+                            if (trie.isTerminal(other)) trie.removeBigram(other, node);
+                        }
+                        trie.removeWord(node);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String randomWord(Random random) {
+        final int length = 1 + random.nextInt(6);
+        final StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Returns every node, word and bigram of the trie as a string, checking on the way that the
+     * child ranges and the counts kept for every subtree are consistent.
+     */
+    static String dump(CompactTrie trie) {
+        final StringBuilder out = new StringBuilder();
+        dump(trie, CompactTrie.ROOT, out);
+        return out.toString();
+    }
+
+    // Returns the number of words, the highest frequency and the height below the node
+    private static int[] dump(CompactTrie trie, int node, StringBuilder out) {
+        int words = trie.isTerminal(node) ? 1 : 0;
+        int maxFrequency = trie.mFrequencies[node];
+        int height = 0;
+        out.append(node).append(',').append(trie.mFrequencies[node]).append(',')
+                .append(trie.mMaxFrequencies[node]).append(',').append(trie.mWordCounts[node]);
+        for (int b = trie.getBigrams(node); b != -1; b = trie.mBigramNext[b]) {
+            out.append(' ').append(trie.mBigramWord[b]).append('=')
+                    .append(trie.mBigramFrequency[b]);
+        }
+        out.append(';');
+        char previous = 0;
+        final int end = trie.mChildStart[node] + trie.mChildCount[node];
+        for (int i = trie.mChildStart[node]; i < end; i++) {
+            final int child = trie.mChildren[i];
+            if (trie.mParents[child] != node || trie.mCodes[child] != trie.mChildCodes[i]
+                    || trie.mChildCodes[i] <= previous) {
+                fail("Child range of node " + node + " is inconsistent");
+            }
+            previous = trie.mChildCodes[i];
+            final int[] below = dump(trie, child, out);
+            words += below[0];
+            if (below[0] > 0) {
+                maxFrequency = Math.max(maxFrequency, below[1]);
+                height = Math.max(height, below[2] + 1);
+            }
+        }
+        if (words != trie.mWordCounts[node]) {
+            fail("Word count of node " + node + " is wrong");
+        }
+        if (maxFrequency != trie.mMaxFrequencies[node]) {
+            fail("Highest frequency of node " + node + " is wrong");
+        }
+        if (words > 0 && height != trie.mHeights[node]) {
+            fail("Height of node " + node + " is wrong");
+        }
+        return new int[] { words, maxFrequency, height };
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that res/xml/dictionary.xml describes the dictionaries in res/raw as they are, since
+ * {@link DictionaryIndex} trusts it: a wrong size turns auto-correction off for the locale.
+ *
+ * The project directory is taken from the project.dir system property, else the current one.
+ */
+public class DictionaryManifestTest extends TestCase {
+
+    private static final int MAX_CHILDREN = 256;
+
+    private File mProjectDir;
+
+    @Override
+    protected void setUp() {
+        mProjectDir = new File(System.getProperty("project.dir", "."));
+    }
+
+    public void testPartsMatchTheFiles() throws Exception {
+        final File rawDir = new File(mProjectDir, "res/raw");
+        final NodeList parts = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new File(mProjectDir, "res/xml/dictionary.xml"))
+                .getElementsByTagName("part");
+        final HashSet<String> listed = new HashSet<String>();
+        for (int i = 0; i < parts.getLength(); i++) {
+            final Element part = (Element) parts.item(i);
+            final String name = part.getAttribute("name");
+            listed.add(name + ".dict");
+            final byte[] dict = readFile(new File(rawDir, name + ".dict"));
+
+            assertEquals(name + " size", dict.length, Integer.parseInt(part.getAttribute("size")));
+            assertEquals(name + " words", countWords(dict),
+                    Integer.parseInt(part.getAttribute("words")));
+            assertEquals(name + " format", getFormat(dict),
+                    Integer.parseInt(part.getAttribute("format")));
+            final CRC32 crc = new CRC32();
+            crc.update(dict);
+            assertEquals(name + " checksum", String.format("%08x", crc.getValue()),
+                    part.getAttribute("checksum"));
+        }
+
+        final File[] files = rawDir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            final String fileName = files[i].getName();
+            if (fileName.endsWith(".dict")) {
+                assertTrue(fileName + " isn't listed", listed.contains(fileName));
+            }
+        }
+    }
+
+    /**
+     * Returns 0 for the format without a header, else the version in the header, as the
+     * engine tells them apart.
+     */
+    private static int getFormat(byte[] dict) {
+        final BinaryDictionaryEngine engine = new BinaryDictionaryEngine(ByteBuffer.wrap(dict),
+                1, 1);
+        return engine.getRoot() == 0 ? 0 : dict[0] & 0xFF;
+    }
+
+    private static int countWords(byte[] dict) {
+        if (dict.length == 0) return 0;
+        final BinaryDictionaryEngine engine = new BinaryDictionaryEngine(ByteBuffer.wrap(dict),
+                1, 1);
+        return countWords(engine, engine.getRoot());
+    }
+
+    private static int countWords(BinaryDictionaryEngine engine, int pos) {
+        final char[] codes = new char[MAX_CHILDREN];
+        final int[] frequencies = new int[MAX_CHILDREN];
+        final int[] children = new int[MAX_CHILDREN];
+        final int count = engine.getChildren(pos, codes, frequencies, children);
+        int words = 0;
+        for (int i = 0; i < count; i++) {
+            if (frequencies[i] >= 0) words++;
+            if (children[i] != GestureDecoder.NO_NODE) words += countWords(engine, children[i]);
+        }
+        return words;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        assertTrue(file + " is missing", file.isFile());
+        final byte[] bytes = new byte[(int) file.length()];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                final int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
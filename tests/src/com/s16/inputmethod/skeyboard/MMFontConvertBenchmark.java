@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+/**
+ * Times the Zawgyi and Unicode conversions on a 1 MB Myanmar corpus, in chars per second, with
+ * {@link MMFontStreamConverter} and with the regex chain it replaced. Run it with
+ * ant jvm-benchmark.
+ *
+ * The corpus is made of random syllables, with and without spaces between words, since
+ * Myanmar text often has none and the converter then splits chunks at syllables. Before
+ * timing, the output of every method is checked against the regex chain.
+ */
+public class MMFontConvertBenchmark {
+
+    private static final int CORPUS_LENGTH = 1024 * 1024;
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 5;
+
+    private static final char[] CONSONANTS = {
+        '\u1000', '\u1001', '\u1002', '\u1004', '\u1005', '\u1006', '\u100A', '\u1010',
+        '\u1011', '\u1012', '\u1014', '\u1015', '\u1016', '\u1017', '\u1018', '\u1019',
+        '\u101A', '\u101B', '\u101C', '\u101D', '\u101E', '\u101F', '\u1021'
+    };
+    private static final String[] MEDIALS = { "", "", "", "\u103B", "\u103C", "\u103D",
+        "\u103E", "\u103B\u103D", "\u103C\u103D", "\u103D\u103E" };
+    private static final String[] VOWELS = { "", "\u102C", "\u102B", "\u102D", "\u102E",
+        "\u102F", "\u1030", "\u1031", "\u1032", "\u1031\u102C", "\u102D\u102F" };
+    private static final String[] FINALS = { "", "", "\u1037", "\u1038", "\u1004\u103A",
+        "\u1014\u103A", "\u1019\u103A", "\u1010\u103A", "\u1004\u103A\u1038" };
+    private static final String[] STACKED = { "\u1039\u1000", "\u1039\u1010", "\u1039\u1015",
+        "\u1039\u1019" };
+    private static final String[] PUNCTUATION = { "\u104A", "\u104B", "\u1041\u1049", "abc" };
+
+    private interface Converter {
+        String convert(String input) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Random random = new Random(0);
+        final String spaced = makeCorpus(random, true);
+        final String unspaced = makeCorpus(random, false);
+        System.out.println("Corpus: " + CORPUS_LENGTH + " chars, rates in Mchars/s");
+        run("Unicode to Zawgyi, spaced", spaced, true);
+        run("Unicode to Zawgyi, no spaces", unspaced, true);
+        final String zawgyiSpaced = MMFontConvert.regexUniToZawgyi(spaced).toString();
+        final String zawgyiUnspaced = MMFontConvert.regexUniToZawgyi(unspaced).toString();
+        run("Zawgyi to Unicode, spaced", zawgyiSpaced, false);
+        run("Zawgyi to Unicode, no spaces", zawgyiUnspaced, false);
+    }
+
+    private static void run(String name, String input, final boolean toZawgyi)
+            throws IOException {
+        final Converter regex = new Converter() {
+            @Override
+            public String convert(String input) {
+                return (toZawgyi ? MMFontConvert.regexUniToZawgyi(input)
+                        : MMFontConvert.regexZawgyiToUni(input)).toString();
+            }
+        };
+        final Converter chunks = new Converter() {
+            @Override
+            public String convert(String input) throws IOException {
+                final StringBuilder output = new StringBuilder(input.length());
+                new MMFontStreamConverter(toZawgyi).convert(input, output);
+                return output.toString();
+            }
+        };
+        final Converter stream = new Converter() {
+            @Override
+            public String convert(String input) throws IOException {
+                final StringWriter output = new StringWriter(input.length());
+                new MMFontStreamConverter(toZawgyi).convert(new StringReader(input), output);
+                return output.toString();
+            }
+        };
+
+        final String expected = regex.convert(input);
+        check(name + ", CharSequence", expected, chunks.convert(input));
+        check(name + ", Reader", expected, stream.convert(input));
+
+        final double regexRate = measure(regex, input);
+        final double chunksRate = measure(chunks, input);
+        final double streamRate = measure(stream, input);
+        System.out.println(String.format("%-30s regex %6.2f  CharSequence %6.2f (x%.1f)"
+                + "  Reader %6.2f (x%.1f)", name, regexRate, chunksRate, chunksRate / regexRate,
+                streamRate, streamRate / regexRate));
+    }
+
+    /**
+     * Returns the best rate of the timed runs, in millions of chars per second.
+     */
+    private static double measure(Converter converter, String input) throws IOException {
+        int checksum = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            checksum += converter.convert(input).length();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            final long start = System.nanoTime();
+            checksum += converter.convert(input).length();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        // Keeps the JIT from dropping the conversions
+        if (checksum == 0) throw new AssertionError("No output");
+        return input.length() * 1000.0 / best;
+    }
+
+    private static void check(String name, String expected, String actual) {
+        if (expected.equals(actual)) return;
+        int i = 0;
+        while (i < expected.length() && i < actual.length()
+                && expected.charAt(i) == actual.charAt(i)) {
+            i++;
+        }
+        throw new AssertionError(name + ": output differs from the regex chain at " + i);
+    }
+
+    private static String makeCorpus(Random random, boolean spaces) {
+        final StringBuilder text = new StringBuilder(CORPUS_LENGTH + 16);
+        while (text.length() < CORPUS_LENGTH) {
+            final int syllables = 1 + random.nextInt(4);
+            for (int i = 0; i < syllables; i++) {
+                text.append(CONSONANTS[random.nextInt(CONSONANTS.length)]);
+                if (random.nextInt(10) == 0) {
+                    text.append(STACKED[random.nextInt(STACKED.length)]);
+                }
+                text.append(MEDIALS[random.nextInt(MEDIALS.length)]);
+                text.append(VOWELS[random.nextInt(VOWELS.length)]);
+                text.append(FINALS[random.nextInt(FINALS.length)]);
+            }
+            if (random.nextInt(8) == 0) {
+                text.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+            }
+            if (spaces) text.append(' ');
+        }
+        text.setLength(CORPUS_LENGTH);
+        return text.toString();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s16.inputmethod.skeyboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the publication of {@link ExpandableDictionary}'s words with concurrent lookups,
+ * writers and reloads, and checks that lookups never see a trie change and that no change is
+ * lost.
+ *
+ * Like the dictionaries, the writers store each change before they make it, and a reload reads
+ * the stored words after it starts recording the changes.
+ */
+public class TriePublisherTest extends TestCase {
+
+    private static final int WRITERS = 2;
+    private static final int READERS = 3;
+    private static final int WRITES = 20000;
+
+    // The words of the loader's batches, which are always changed together
+    private static final String[] BATCH_WORDS = { "zza", "zzb", "zzc" };
+    // Per writer, words that have bigrams between them and are never removed
+    private static final String[] BIGRAM_WORDS = { "xx", "yy", "zz" };
+
+    private TriePublisher mPublisher;
+    // The stored words and bigrams, by word and by "word1 word2"
+    private final Map<String, Integer> mStoredWords = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> mStoredBigrams =
+            new ConcurrentHashMap<String, Integer>();
+    private final AtomicReference<String> mFailure = new AtomicReference<String>();
+    private volatile boolean mStopped;
+
+    @Override
+    protected void setUp() {
+        mPublisher = new TriePublisher();
+        mStoredWords.clear();
+        mStoredBigrams.clear();
+        mFailure.set(null);
+        mStopped = false;
+    }
+
+    public void testReadsSeeEarlierWrites() {
+        mPublisher.addWord("hello", 100);
+        assertEquals(100, getFrequency("hello"));
+        mPublisher.addWord("hello", 150);
+        assertEquals(150, getFrequency("hello"));
+        assertEquals(10, mPublisher.addOrSetBigram("hello", "world", 10, false));
+        assertEquals(15, mPublisher.addOrSetBigram("hello", "world", 5, true));
+        mPublisher.removeWord("hello");
+        assertEquals(-1, getFrequency("hello"));
+    }
+
+    public void testWritesReuseTheSpareTrie() {
+        for (int i = 0; i < 50; i++) {
+            mPublisher.addWord("word" + i, 1);
+        }
+        release(mPublisher.acquire());
+        mPublisher.addWord("word0", 2);
+        release(mPublisher.acquire());
+
+        // Once both tries have their own arrays, changes move no array
+        final Map<Object, Boolean> tries = new IdentityHashMap<Object, Boolean>();
+        final Map<Object, Boolean> arrays = new IdentityHashMap<Object, Boolean>();
+        for (int i = 0; i < 100; i++) {
+            mPublisher.addWord("word" + (i % 50), 3 + i);
+            final CompactTrie trie = mPublisher.acquire();
+            tries.put(trie, true);
+            arrays.put(trie.mFrequencies, true);
+            arrays.put(trie.mCodes, true);
+            release(trie);
+        }
+        assertEquals(2, tries.size());
+        assertEquals(4, arrays.size());
+
+        // A trie that is still read is copied instead
+        final CompactTrie held = mPublisher.acquire();
+        final String expected = CompactTrieTest.dump(held);
+        mPublisher.addWord("word1", 200);
+        release(mPublisher.acquire());
+        mPublisher.addWord("word2", 200);
+        final CompactTrie trie = mPublisher.acquire();
+        assertFalse(tries.containsKey(trie));
+        assertEquals(200, trie.mFrequencies[trie.findWord("word1")]);
+        assertEquals(200, trie.mFrequencies[trie.findWord("word2")]);
+        release(trie);
+        assertEquals(expected, CompactTrieTest.dump(held));
+        release(held);
+    }
+
+    public void testBatchIsPublishedAtOnce() {
+        mPublisher.startBatch();
+        mPublisher.addWord("hello", 100);
+        assertEquals(-1, getFrequency("hello"));
+        mPublisher.finishBatch();
+        assertEquals(100, getFrequency("hello"));
+    }
+
+    public void testChangesWhileLoadingAreMadeAgain() {
+        mPublisher.addWord("old", 10);
+        mPublisher.startLoading();
+        mPublisher.addWord("hello", 100);
+        mPublisher.addOrSetBigram("hello", "world", 10, false);
+        mPublisher.removeWord("gone");
+        final CompactTrie.Builder builder = new CompactTrie.Builder();
+        builder.addWord("gone", 50);
+        builder.addWord("world", 60);
+        mPublisher.finishLoading(builder.build());
+        assertEquals(-1, getFrequency("old"));
+        assertEquals(-1, getFrequency("gone"));
+        assertEquals(100, getFrequency("hello"));
+        assertEquals(60, getFrequency("world"));
+        assertEquals(10, mPublisher.addOrSetBigram("hello", "world", 0, true));
+    }
+
+    public void testConcurrentLookupsWritesAndReloads() throws InterruptedException {
+        for (int i = 0; i < WRITERS; i++) {
+            for (String word : BIGRAM_WORDS) {
+                store((char) ('p' + i) + word, 1);
+            }
+        }
+        for (String word : BATCH_WORDS) {
+            store(word, 0);
+        }
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++) {
+            final char prefix = (char) ('p' + i);
+            final Random random = new Random(i);
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < WRITES && mFailure.get() == null; k++) {
+                            write(prefix, random);
+                        }
+                    } catch (Throwable e) {
+                        recordFailure("Writing failed: " + e);
+                    }
+                }
+            };
+            writers.add(writer);
+            threads.add(writer);
+        }
+        final Thread loader = new Thread() {
+            @Override
+            public void run() {
+                final Random random = new Random(WRITERS);
+                try {
+                    // Until the writers are done, so that the last changes race with a reload
+                    for (int k = 1; !mStopped && mFailure.get() == null; k++) {
+                        reload(Math.min(k, 255), random);
+                    }
+                } catch (Throwable e) {
+                    recordFailure("Reloading failed: " + e);
+                }
+            }
+        };
+        threads.add(loader);
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(WRITERS + 1 + i);
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    while (!mStopped) {
+                        final CompactTrie trie = mPublisher.acquire();
+                        try {
+                            read(trie, random);
+                        } catch (Throwable e) {
+                            // A change in place can leave indices past the end of an array
+                            recordFailure("Reading a published trie failed: " + e);
+                        } finally {
+                            mPublisher.release(trie);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        mStopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(mFailure.get(), mFailure.get());
+
+        final CompactTrie trie = mPublisher.acquire();
+        CompactTrieTest.dump(trie);
+        assertEquals(sort(mStoredWords), sort(getWords(trie)));
+        assertEquals(sort(mStoredBigrams), sort(getBigrams(trie)));
+        release(trie);
+    }
+
+    /** Makes a change to the words that start with the writer's prefix. */
+    private void write(char prefix, Random random) {
+        final String word = prefix + randomWord(random);
+        final String word1 = prefix + BIGRAM_WORDS[random.nextInt(BIGRAM_WORDS.length)];
+        final String word2 = prefix + BIGRAM_WORDS[random.nextInt(BIGRAM_WORDS.length)];
+        switch (random.nextInt(6)) {
+            case 0:
+            case 1:
+            case 2: {
+                final int frequency = 1 + random.nextInt(255);
+                store(word, frequency);
+                mPublisher.addWord(word, frequency);
+                break;
+            }
+            case 3:
+                mStoredWords.remove(word);
+                mPublisher.removeWord(word);
+                break;
+            case 4: {
+                final int frequency = 1 + random.nextInt(100);
+                mStoredBigrams.put(word1 + " " + word2, frequency);
+                if (mPublisher.addOrSetBigram(word1, word2, frequency, false) != frequency) {
+                    recordFailure("Setting a bigram returned another frequency");
+                }
+                break;
+            }
+            case 5:
+                mStoredBigrams.remove(word1 + " " + word2);
+                mPublisher.removeBigram(word1, word2);
+                break;
+        }
+    }
+
+    /**
+     * Brings the words up to date like the loading task: either changes the batch words
+     * together, or loads all the stored words again.
+     */
+    private void reload(int frequency, Random random) throws InterruptedException {
+        mPublisher.startLoading();
+        // Reading the changes or the words takes a while, and the writers go on meanwhile
+        Thread.sleep(1);
+        if (random.nextBoolean()) {
+            mPublisher.startBatch();
+            for (String word : BATCH_WORDS) {
+                store(word, frequency);
+                mPublisher.addWord(word, frequency);
+                Thread.sleep(1);
+            }
+            mPublisher.finishBatch();
+            mPublisher.finishLoading(null);
+        } else {
+            final CompactTrie.Builder builder = new CompactTrie.Builder();
+            for (Map.Entry<String, Integer> word : mStoredWords.entrySet()) {
+                builder.addWord(word.getKey(), word.getValue());
+            }
+            for (Map.Entry<String, Integer> bigram : mStoredBigrams.entrySet()) {
+                final String[] words = bigram.getKey().split(" ");
+                builder.setBigram(words[0], words[1], bigram.getValue());
+            }
+            final CompactTrie trie = builder.build();
+            Thread.sleep(1);
+            mPublisher.finishLoading(trie);
+        }
+    }
+
+    /** Looks up words and checks that the trie is consistent and doesn't change meanwhile. */
+    private void read(CompactTrie trie, Random random) {
+        final String expected = CompactTrieTest.dump(trie);
+        int batchFrequency = -2;
+        for (String word : BATCH_WORDS) {
+            final int node = trie.findWord(word);
+            final int frequency = node == CompactTrie.NOT_FOUND ? -1 : trie.mFrequencies[node];
+            if (batchFrequency != -2 && frequency != batchFrequency) {
+                recordFailure("A batch was published in part");
+            }
+            batchFrequency = frequency;
+        }
+        for (int k = 0; k < 20; k++) {
+            trie.findWord((char) ('p' + random.nextInt(WRITERS)) + randomWord(random));
+        }
+        if (!expected.equals(CompactTrieTest.dump(trie))) {
+            recordFailure("A published trie changed while it was read");
+        }
+    }
+
+    // Words are only added with a higher frequency than they have
+    private void store(String word, int frequency) {
+        final Integer stored = mStoredWords.get(word);
+        mStoredWords.put(word, stored == null ? frequency : Math.max(stored, frequency));
+    }
+
+    private int getFrequency(String word) {
+        final CompactTrie trie = mPublisher.acquire();
+        try {
+            final int node = trie.findWord(word);
+            return node == CompactTrie.NOT_FOUND ? -1 : trie.mFrequencies[node];
+        } finally {
+            mPublisher.release(trie);
+        }
+    }
+
+    private void release(CompactTrie trie) {
+        mPublisher.release(trie);
+    }
+
+    private static String randomWord(Random random) {
+        final int length = 1 + random.nextInt(4);
+        final StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(3)));
+        }
+        return word.toString();
+    }
+
+    private static Map<String, Integer> getWords(CompactTrie trie) {
+        final Map<String, Integer> words = new ConcurrentHashMap<String, Integer>();
+        for (int node = 0; node < trie.mNodeCount; node++) {
+            if (trie.isTerminal(node)) words.put(getWord(trie, node), trie.mFrequencies[node]);
+        }
+        return words;
+    }
+
+    private static Map<String, Integer> getBigrams(CompactTrie trie) {
+        final Map<String, Integer> bigrams = new ConcurrentHashMap<String, Integer>();
+        for (int node = 0; node < trie.mNodeCount; node++) {
+            if (!trie.isTerminal(node)) continue;
+            for (int b = trie.getBigrams(node); b != -1; b = trie.mBigramNext[b]) {
+                bigrams.put(getWord(trie, node) + " " + getWord(trie, trie.mBigramWord[b]),
+                        trie.mBigramFrequency[b]);
+            }
+        }
+        return bigrams;
+    }
+
+    private static String getWord(CompactTrie trie, int node) {
+        final int length = trie.getWordLength(node);
+        final char[] word = new char[length];
+        trie.getWord(node, word, length);
+        return new String(word);
+    }
+
+    private static List<String> sort(Map<String, Integer> entries) {
+        final List<String> sorted = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            sorted.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    // Assertions don't fail a test from another thread, so the first failure is kept instead
+    private void recordFailure(String message) {
+        mFailure.compareAndSet(null, message);
+    }
+}